@@ -0,0 +1,147 @@
+package uk.ac.gla.atanaspam.pcapj.benchmarks;
+
+import uk.ac.gla.atanaspam.pcapj.PcapWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * This class generates the synthetic captures the benchmarks run on.
+ * The same seed always produces the same frames, so results can be compared between runs and
+ * machines. The mix is tcpPercent TCP and the rest UDP, vlanPercent of the frames carry an 802.1Q
+ * tag, and the payload sizes range from empty ACKs to full size segments.
+ * It is public so that benchmarks in the package of the library can use it too.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public final class Corpus {
+
+    static final long defaultSeed = 0x5EEDL;
+    static final int tcpPercent = 60;
+    static final int vlanPercent = 25;
+    private static final int[] payloadSizes = {0, 0, 0, 6, 32, 64, 120, 200, 512, 1024, 1400, 1460};
+    private static final int[] serverPorts = {53, 80, 123, 443, 8080};
+    private static final long startTimestamp = 1500000000000L;
+
+    private Corpus(){
+    }
+
+    /**
+     * Generates Ethernet frames with IPv4 TCP or UDP packets.
+     * @param count the number of frames
+     * @param seed the seed of the random generator
+     * @return the frames.
+     */
+    static byte[][] frames(int count, long seed){
+        Random random = new Random(seed);
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++)
+            frames[i] = frame(random, random.nextInt(100) < tcpPercent, random.nextInt(100) < vlanPercent);
+        return frames;
+    }
+
+    /**
+     * Generates only TCP or only UDP frames, e.g. to measure one constructor at a time.
+     */
+    static byte[][] frames(int count, long seed, boolean tcp){
+        Random random = new Random(seed);
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++)
+            frames[i] = frame(random, tcp, random.nextInt(100) < vlanPercent);
+        return frames;
+    }
+
+    private static byte[] frame(Random random, boolean tcp, boolean vlan){
+        int payload = payloadSizes[random.nextInt(payloadSizes.length)];
+        int transportLength = tcp ? 20 : 8;
+        ByteBuffer frame = ByteBuffer.allocate((vlan ? 18 : 14) + 20 + transportLength + payload);
+        byte[] macs = new byte[12];
+        random.nextBytes(macs);
+        macs[0] &= 0xFE; // unicast
+        macs[6] &= 0xFE;
+        frame.put(macs);
+        if (vlan) {
+            frame.putShort((short) 0x8100);
+            frame.putShort((short) (1 + random.nextInt(4094)));
+        }
+        frame.putShort((short) 0x0800);
+
+        int network = frame.position();
+        frame.put((byte) 0x45).put((byte) 0);
+        frame.putShort((short) (20 + transportLength + payload));
+        frame.putShort((short) random.nextInt(65536));
+        frame.putShort((short) 0x4000); // don't fragment
+        frame.put((byte) 64).put((byte) (tcp ? 6 : 17));
+        frame.putShort((short) 0);
+        frame.putInt(0x0A000000 | random.nextInt(1 << 16));
+        frame.putInt(0xC0A80000 | random.nextInt(1 << 16));
+        frame.putShort(network + 10, (short) ~checksum(frame.array(), network, 20));
+
+        int clientPort = 1024 + random.nextInt(64000);
+        int serverPort = serverPorts[random.nextInt(serverPorts.length)];
+        boolean fromClient = random.nextBoolean();
+        frame.putShort((short) (fromClient ? clientPort : serverPort));
+        frame.putShort((short) (fromClient ? serverPort : clientPort));
+        if (tcp) {
+            frame.putInt(random.nextInt());
+            frame.putInt(random.nextInt());
+            frame.put((byte) 0x50);
+            frame.put((byte) (payload > 0 ? 0x18 : 0x10)); // PSH ACK or ACK
+            frame.putShort((short) 65535);
+            frame.putInt(0); // checksum and urgent pointer
+        } else {
+            frame.putShort((short) (8 + payload));
+            frame.putShort((short) 0);
+        }
+        byte[] data = new byte[payload];
+        random.nextBytes(data);
+        frame.put(data);
+        return frame.array();
+    }
+
+    private static int checksum(byte[] data, int offset, int length){
+        int sum = 0;
+        for (int i = offset; i < offset + length; i += 2)
+            sum += (data[i] & 0xFF) << 8 | (data[i + 1] & 0xFF);
+        while ((sum >> 16) != 0)
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        return sum;
+    }
+
+    /**
+     * Writes frames to a PCAP file, one to two milliseconds apart.
+     * @param file the file to create
+     * @param frames the frames to write
+     * @param seed the seed used for the gaps between the timestamps
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File file, byte[][] frames, long seed) throws IOException {
+        Random random = new Random(seed);
+        PcapWriter writer = new PcapWriter();
+        if (writer.openFile(file.getPath()) < 0)
+            throw new IOException("Could not create " + file);
+        long timestamp = startTimestamp;
+        for (byte[] frame : frames) {
+            timestamp += 1 + random.nextInt(2);
+            if (writer.writePacket(frame, 0, frame.length, timestamp) < 0)
+                throw new IOException("Could not write to " + file);
+        }
+        writer.closeFile();
+    }
+
+    /**
+     * Writes a corpus of mixed frames to a temporary file that is deleted when the JVM exits.
+     * @param count the number of frames
+     * @return the file.
+     * @throws IOException if the file cannot be written
+     */
+    public static File temporaryCapture(int count) throws IOException {
+        File file = File.createTempFile("pcapj-corpus", ".pcap");
+        file.deleteOnExit();
+        write(file, frames(count, defaultSeed), defaultSeed);
+        return file;
+    }
+}
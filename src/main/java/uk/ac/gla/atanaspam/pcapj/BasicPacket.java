@@ -9,6 +9,7 @@ package uk.ac.gla.atanaspam.pcapj;
 public class BasicPacket{
 
     private String type;
+    protected long timestamp;
 
     /**
      * Default constructor
@@ -22,8 +23,25 @@ public class BasicPacket{
     BasicPacket(String s){
         this.type = s;
     }
+
+    /**
+     * Constructor that also records when the packet was captured.
+     * @param s A hex string that caries the Ethertype detected.
+     * @param timestamp The time when the packet was captured
+     */
+    BasicPacket(String s, long timestamp){
+        this.type = s;
+        this.timestamp = timestamp;
+    }
     public static final BasicPacket EOF = new BasicPacket();
 
+    /**
+     * @return the time when the packet was captured, 0 if it is not known.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     public String toString(){
         return "No Info";
     }
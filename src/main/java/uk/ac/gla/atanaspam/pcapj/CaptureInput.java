@@ -0,0 +1,54 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.IOException;
+
+/**
+ * This class abstracts the source that PcapParser reads the capture bytes from.
+ * Implementations keep track of their own position so that the parser does not need to.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+abstract class CaptureInput {
+
+    /**
+     * Reads up to len bytes into the provided byte[] starting at the current position.
+     * @param data a byte[] as a destination
+     * @param offset the offset into data[]
+     * @param length the number of bytes required
+     * @return the number of bytes read, which is less than length only if the end of the input was reached
+     * @throws IOException if the underlying source cannot be read
+     */
+    abstract int read(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * @return the offset of the next byte that will be read.
+     */
+    abstract long position();
+
+    /**
+     * Moves the input to a new offset.
+     * @param newPosition the offset of the next byte to be read
+     * @throws IOException if the underlying source cannot be repositioned
+     */
+    abstract void position(long newPosition) throws IOException;
+
+    /**
+     * @return the total number of bytes available in the input.
+     * @throws IOException if the size cannot be determined
+     */
+    abstract long size() throws IOException;
+
+    /**
+     * @return true if the input can be positioned anywhere, false if it can only move forward.
+     */
+    boolean isSeekable() {
+        return true;
+    }
+
+    /**
+     * Releases any resources held by the input.
+     * @throws IOException if the underlying source fails to close
+     */
+    abstract void close() throws IOException;
+}
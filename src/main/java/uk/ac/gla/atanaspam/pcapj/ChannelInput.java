@@ -0,0 +1,92 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A CaptureInput that reads the file sequentially through a FileChannel.
+ * The data is read in large chunks into a reusable direct buffer and served from there,
+ * so a system call is only made when the buffer runs out rather than for every read.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class ChannelInput extends CaptureInput {
+
+    static final int defaultBufferSize = 1 << 20;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long bufferStart;
+
+    ChannelInput(File file) throws FileNotFoundException {
+        this(file, defaultBufferSize);
+    }
+
+    ChannelInput(File file, int bufferSize) throws FileNotFoundException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        buffer.limit(0);
+        this.bufferStart = 0;
+    }
+
+    /**
+     * Refills the buffer starting at the current position.
+     * @return false if there is nothing left to read
+     * @throws IOException if the channel cannot be read
+     */
+    private boolean fill() throws IOException {
+        bufferStart = position();
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, bufferStart + buffer.position()) <= 0)
+                break;
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    @Override
+    int read(byte[] data, int offset, int length) throws IOException {
+        int total = 0;
+        while (total != length) {
+            if (!buffer.hasRemaining() && !fill())
+                break;
+            int count = Math.min(length - total, buffer.remaining());
+            buffer.get(data, offset + total, count);
+            total = total + count;
+        }
+        return total;
+    }
+
+    @Override
+    long position() {
+        return bufferStart + buffer.position();
+    }
+
+    @Override
+    void position(long newPosition) {
+        if (newPosition >= bufferStart && newPosition <= bufferStart + buffer.limit()) {
+            buffer.position((int) (newPosition - bufferStart));
+        } else {
+            bufferStart = newPosition;
+            buffer.limit(0);
+        }
+    }
+
+    @Override
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,16 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * A callback that receives the flows evicted from a FlowTable.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public interface FlowExporter {
+
+    /**
+     * Called once for every flow that has timed out or has been flushed.
+     * @param flow the counters of the flow
+     */
+    void export(FlowRecord flow);
+}
@@ -0,0 +1,110 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * This class stores the counters of a single flow exported by a FlowTable.
+ * A flow is identified by its 5-tuple (source and destination address, source and destination
+ * port and IP protocol) and is unidirectional, the two directions of a connection are two flows.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public final class FlowRecord {
+
+    public static final int endIdleTimeout = 1;
+    public static final int endActiveTimeout = 2;
+    public static final int endFlush = 3;
+
+    private final int srcIpv4;
+    private final int dstIpv4;
+    private final int srcPort;
+    private final int dstPort;
+    private final int protocol;
+    private final long packets;
+    private final long bytes;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final byte tcpFlags;
+    private final int endReason;
+
+    FlowRecord(int srcIpv4, int dstIpv4, int srcPort, int dstPort, int protocol, long packets, long bytes,
+               long firstTimestamp, long lastTimestamp, byte tcpFlags, int endReason){
+        this.srcIpv4 = srcIpv4;
+        this.dstIpv4 = dstIpv4;
+        this.srcPort = srcPort;
+        this.dstPort = dstPort;
+        this.protocol = protocol;
+        this.packets = packets;
+        this.bytes = bytes;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.tcpFlags = tcpFlags;
+        this.endReason = endReason;
+    }
+
+    /**
+     * @return the source IPv4 address as an int in network order.
+     */
+    public int getSrcIpv4() {
+        return srcIpv4;
+    }
+
+    /**
+     * @return the destination IPv4 address as an int in network order.
+     */
+    public int getDstIpv4() {
+        return dstIpv4;
+    }
+
+    public int getSrcPort() {
+        return srcPort;
+    }
+
+    public int getDstPort() {
+        return dstPort;
+    }
+
+    public int getProtocol() {
+        return protocol;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * @return the number of bytes captured for the packets of the flow.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return the union of the TCP flags seen in the flow, 0 for UDP flows.
+     */
+    public TCPFlags getTcpFlags() {
+        return TCPFlags.valueOf(tcpFlags);
+    }
+
+    /**
+     * @return why the flow was exported, one of endIdleTimeout, endActiveTimeout or endFlush.
+     */
+    public int getEndReason() {
+        return endReason;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%d -> %s:%d proto %d packets %d bytes %d first %d last %d",
+                Utils.toInetAddress(srcIpv4).getHostAddress(), srcPort,
+                Utils.toInetAddress(dstIpv4).getHostAddress(), dstPort,
+                protocol, packets, bytes, firstTimestamp, lastTimestamp);
+    }
+}
@@ -0,0 +1,351 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * This class aggregates packets into flows keyed on their 5-tuple.
+ * The table is an open-addressing hash table with linear probing stored in parallel primitive
+ * arrays, so tracking a flow takes about 60 bytes and no objects, and updating it never allocates.
+ * Flows are exported to a FlowExporter when they have been idle for idleTimeout, when they have
+ * been active for activeTimeout, or when flush() is invoked. Timeouts are measured in packet
+ * time, i.e. against the timestamps of the packets added, so offline captures are aggregated
+ * exactly as they would have been live.
+ * Only IPv4 TCP and UDP packets are tracked. The table is not thread-safe.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class FlowTable {
+
+    static final int defaultCapacity = 1 << 16;
+    static final float maxLoad = 0.7f;
+    static final int maxCapacity = 1 << 30;
+    private static final long occupied = 1L << 40;
+
+    private long[] addresses;  // source address << 32 | destination address
+    private long[] ports;      // occupied | source port << 24 | destination port << 8 | protocol, 0 if empty
+    private long[] packets;
+    private long[] bytes;
+    private long[] firstTimestamps;
+    private long[] lastTimestamps;
+    private byte[] tcpFlags;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    private long idleTimeout = 0;
+    private long activeTimeout = 0;
+    private long nextSweep = Long.MIN_VALUE;
+    private FlowExporter exporter;
+
+    public FlowTable(){
+        this(defaultCapacity);
+    }
+
+    /**
+     * @param expectedFlows the number of flows expected at the same time, used to size the table
+     */
+    public FlowTable(int expectedFlows){
+        if (expectedFlows < 1)
+            throw new IllegalArgumentException("Expected flows must be positive");
+        int capacity = Integer.highestOneBit((int) Math.min(maxCapacity >> 1, (long) (expectedFlows / maxLoad) + 1));
+        allocate(Math.max(16, capacity << 1));
+    }
+
+    private void allocate(int capacity){
+        addresses = new long[capacity];
+        ports = new long[capacity];
+        packets = new long[capacity];
+        bytes = new long[capacity];
+        firstTimestamps = new long[capacity];
+        lastTimestamps = new long[capacity];
+        tcpFlags = new byte[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * maxLoad);
+        size = 0;
+    }
+
+    /**
+     * Export flows that have not seen a packet for the given time.
+     * @param milliseconds the idle timeout, or 0 to keep idle flows
+     */
+    public void setIdleTimeout(long milliseconds){
+        if (milliseconds < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        this.idleTimeout = milliseconds;
+        this.nextSweep = Long.MIN_VALUE;
+    }
+
+    public long getIdleTimeout(){
+        return idleTimeout;
+    }
+
+    /**
+     * Export flows that started more than the given time ago, even if they are still active.
+     * The next packet of such a flow starts a new flow.
+     * @param milliseconds the active timeout, or 0 to keep long flows
+     */
+    public void setActiveTimeout(long milliseconds){
+        if (milliseconds < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        this.activeTimeout = milliseconds;
+        this.nextSweep = Long.MIN_VALUE;
+    }
+
+    public long getActiveTimeout(){
+        return activeTimeout;
+    }
+
+    /**
+     * Set the callback that receives the flows evicted from the table.
+     * @param exporter the callback, or null to drop evicted flows
+     */
+    public void setExporter(FlowExporter exporter){
+        this.exporter = exporter;
+    }
+
+    public FlowExporter getExporter(){
+        return exporter;
+    }
+
+    /**
+     * @return the number of flows in the table.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Adds a packet object to its flow.
+     * @param packet the packet, ignored unless it is an IPv4 TCPPacket or UDPPacket
+     */
+    public void add(BasicPacket packet){
+        if (packet instanceof IPPacket && ((IPPacket) packet).isIPv6())
+            return;
+        if (packet instanceof TCPPacket) {
+            TCPPacket tcp = (TCPPacket) packet;
+            add(tcp.getSrcIpv4(), tcp.getDstIpv4(), tcp.getSrc_port(), tcp.getDst_port(), Utils.ipProtoTCP,
+                    tcp.getLength(), tcp.getTimestamp(), tcp.getFlagBits());
+        } else if (packet instanceof UDPPacket) {
+            UDPPacket udp = (UDPPacket) packet;
+            add(udp.getSrcIpv4(), udp.getDstIpv4(), udp.getSrc_port(), udp.getDst_port(), Utils.ipProtoUDP,
+                    udp.getLength(), udp.getTimestamp(), 0);
+        }
+    }
+
+    /**
+     * Adds the packet a view is positioned over to its flow.
+     * @param view a view filled by PcapParser.nextPacket(), ignored unless it holds an IPv4 TCP or UDP packet
+     */
+    public void add(PacketView view){
+        if (view.isIPv6Packet())
+            return;
+        if (view.isTCPPacket())
+            add(view.srcIpv4(), view.dstIpv4(), view.srcPort(), view.dstPort(), Utils.ipProtoTCP,
+                    view.caplen(), view.timestamp(), view.tcpFlags());
+        else if (view.isUDPPacket())
+            add(view.srcIpv4(), view.dstIpv4(), view.srcPort(), view.dstPort(), Utils.ipProtoUDP,
+                    view.caplen(), view.timestamp(), 0);
+    }
+
+    /**
+     * Adds every IPv4 TCP and UDP packet of a batch to its flow.
+     * @param batch a batch filled by PcapParser.readBatch()
+     */
+    public void add(PacketBatch batch){
+        int[] srcIpv4 = batch.srcIpv4();
+        int[] dstIpv4 = batch.dstIpv4();
+        int[] srcPorts = batch.srcPorts();
+        int[] dstPorts = batch.dstPorts();
+        byte[] protocols = batch.protocols();
+        byte[] flags = batch.tcpFlags();
+        int[] caplens = batch.caplens();
+        long[] timestamps = batch.timestamps();
+        byte[] versions = batch.ipVersions();
+        for (int i = 0; i < batch.size(); i++) {
+            int protocol = protocols[i] & 0xFF;
+            if (versions[i] == 4 && (protocol == Utils.ipProtoTCP || protocol == Utils.ipProtoUDP))
+                add(srcIpv4[i], dstIpv4[i], srcPorts[i], dstPorts[i], protocol, caplens[i], timestamps[i], flags[i]);
+        }
+    }
+
+    /**
+     * Adds a packet to its flow, creating the flow if it is not in the table yet.
+     * @param srcIpv4 the source address as an int in network order
+     * @param dstIpv4 the destination address as an int in network order
+     * @param srcPort the source port
+     * @param dstPort the destination port
+     * @param protocol the IP protocol number
+     * @param length the number of bytes captured for the packet
+     * @param timestamp the time the packet was captured
+     * @param flags the TCP flags of the packet, 0 for other protocols
+     */
+    public void add(int srcIpv4, int dstIpv4, int srcPort, int dstPort, int protocol, int length, long timestamp, int flags){
+        if (timestamp >= nextSweep)
+            sweep(timestamp);
+        long address = ((long) srcIpv4 << 32) | (dstIpv4 & 0xFFFFFFFFL);
+        long port = occupied | ((long) (srcPort & 0xFFFF) << 24) | ((dstPort & 0xFFFF) << 8) | (protocol & 0xFF);
+        int slot = hash(address, port) & mask;
+        while (ports[slot] != 0) {
+            if (ports[slot] == port && addresses[slot] == address) {
+                if (activeTimeout > 0 && timestamp - firstTimestamps[slot] >= activeTimeout) {
+                    export(slot, FlowRecord.endActiveTimeout);
+                    start(slot, length, timestamp, flags);
+                    return;
+                }
+                packets[slot]++;
+                bytes[slot] += length;
+                if (timestamp > lastTimestamps[slot])
+                    lastTimestamps[slot] = timestamp;
+                tcpFlags[slot] |= (byte) flags;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        addresses[slot] = address;
+        ports[slot] = port;
+        start(slot, length, timestamp, flags);
+        if (++size > threshold)
+            resize();
+    }
+
+    private void start(int slot, int length, long timestamp, int flags){
+        packets[slot] = 1;
+        bytes[slot] = length;
+        firstTimestamps[slot] = timestamp;
+        lastTimestamps[slot] = timestamp;
+        tcpFlags[slot] = (byte) flags;
+    }
+
+    private static int hash(long address, long port){
+        long h = address * 0x9E3779B97F4A7C15L + port;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private void resize(){
+        if (ports.length == maxCapacity)
+            throw new IllegalStateException("The flow table can not grow any further");
+        long[] oldAddresses = addresses;
+        long[] oldPorts = ports;
+        long[] oldPackets = packets;
+        long[] oldBytes = bytes;
+        long[] oldFirst = firstTimestamps;
+        long[] oldLast = lastTimestamps;
+        byte[] oldFlags = tcpFlags;
+        int count = size;
+        allocate(oldPorts.length << 1);
+        for (int i = 0; i < oldPorts.length; i++) {
+            if (oldPorts[i] == 0)
+                continue;
+            int slot = hash(oldAddresses[i], oldPorts[i]) & mask;
+            while (ports[slot] != 0)
+                slot = (slot + 1) & mask;
+            addresses[slot] = oldAddresses[i];
+            ports[slot] = oldPorts[i];
+            packets[slot] = oldPackets[i];
+            bytes[slot] = oldBytes[i];
+            firstTimestamps[slot] = oldFirst[i];
+            lastTimestamps[slot] = oldLast[i];
+            tcpFlags[slot] = oldFlags[i];
+        }
+        size = count;
+    }
+
+    /**
+     * Exports the flows that have timed out at a point in time. This happens automatically as packets
+     * are added, but can be invoked when no packets arrive for a while, e.g. in follow mode.
+     * @param now the current time in the same unit as the packet timestamps
+     * @return the number of flows exported
+     */
+    public int expire(long now){
+        if (idleTimeout == 0 && activeTimeout == 0)
+            return 0;
+        int count = 0;
+        int i = 0;
+        while (i < ports.length) {
+            if (ports[i] != 0) {
+                int reason = 0;
+                if (idleTimeout > 0 && now - lastTimestamps[i] >= idleTimeout)
+                    reason = FlowRecord.endIdleTimeout;
+                else if (activeTimeout > 0 && now - firstTimestamps[i] >= activeTimeout)
+                    reason = FlowRecord.endActiveTimeout;
+                if (reason != 0) {
+                    export(i, reason);
+                    remove(i);
+                    count++;
+                    continue; // another flow may have been moved into this slot
+                }
+            }
+            i++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks for timed out flows at most four times per timeout, so that the whole table is only
+     * scanned every so often, and flows are exported at most a quarter of the timeout late.
+     */
+    private void sweep(long now){
+        long timeout;
+        if (idleTimeout > 0 && activeTimeout > 0)
+            timeout = Math.min(idleTimeout, activeTimeout);
+        else
+            timeout = Math.max(idleTimeout, activeTimeout);
+        if (timeout == 0) {
+            nextSweep = Long.MAX_VALUE;
+            return;
+        }
+        if (nextSweep != Long.MIN_VALUE)
+            expire(now);
+        nextSweep = now + Math.max(1, timeout / 4);
+    }
+
+    /**
+     * Exports every flow in the table and empties it.
+     */
+    public void flush(){
+        for (int i = 0; i < ports.length; i++) {
+            if (ports[i] != 0) {
+                export(i, FlowRecord.endFlush);
+                ports[i] = 0;
+            }
+        }
+        size = 0;
+    }
+
+    private void export(int slot, int reason){
+        if (exporter == null)
+            return;
+        long port = ports[slot];
+        exporter.export(new FlowRecord((int) (addresses[slot] >>> 32), (int) addresses[slot],
+                (int) (port >>> 24) & 0xFFFF, (int) (port >>> 8) & 0xFFFF, (int) port & 0xFF,
+                packets[slot], bytes[slot], firstTimestamps[slot], lastTimestamps[slot], tcpFlags[slot], reason));
+    }
+
+    /**
+     * Removes a flow and moves back the flows after it that would no longer be reachable,
+     * so that no tombstones are needed.
+     */
+    private void remove(int slot){
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (ports[next] != 0) {
+            int home = hash(addresses[next], ports[next]) & mask;
+            // the flow at next can fill the hole unless its home slot lies cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                addresses[hole] = addresses[next];
+                ports[hole] = ports[next];
+                packets[hole] = packets[next];
+                bytes[hole] = bytes[next];
+                firstTimestamps[hole] = firstTimestamps[next];
+                lastTimestamps[hole] = lastTimestamps[next];
+                tcpFlags[hole] = tcpFlags[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        ports[hole] = 0;
+        size--;
+    }
+}
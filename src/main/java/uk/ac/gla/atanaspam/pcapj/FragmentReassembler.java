@@ -0,0 +1,275 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * This class rebuilds IPv4 datagrams from their fragments.
+ * Fragments are grouped by source, destination, identification and protocol, and a datagram is
+ * returned as a single Ethernet frame once its first and last fragment and everything in between
+ * have arrived. The frame carries the link and IP header of the first fragment, with the total
+ * length, fragment offset and checksum of the IP header rewritten.
+ * Memory is bounded by a timeout measured in packet time and by the number of bytes buffered for
+ * incomplete datagrams. Datagrams that time out or are evicted to stay within the limit are dropped.
+ * The reassembler is not thread-safe.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class FragmentReassembler {
+
+    static final long defaultTimeout = 30000;
+    static final long defaultMaxMemory = 4L << 20;
+    static final int maxDatagramLength = 65535;
+
+    private static final int datagramOverhead = 128 + maxDatagramLength / 64; // header and bitmap
+    private static final int ipSrcOffset = 12;
+    private static final int ipIdOffset = 4;
+    private static final int ipChecksumOffset = 10;
+    private static final int ipDontFragment = 0x4000;
+
+    private final LinkedHashMap<Key, Datagram> datagrams = new LinkedHashMap<Key, Datagram>(); // oldest first
+    private final Key probe = new Key();
+    private long timeout = defaultTimeout;
+    private long maxMemory = defaultMaxMemory;
+    private long memory = 0;
+    private long dropped = 0;
+
+    public void setTimeout(long milliseconds){
+        if (milliseconds < 1)
+            throw new IllegalArgumentException("Timeout must be positive");
+        this.timeout = milliseconds;
+    }
+
+    public long getTimeout(){
+        return timeout;
+    }
+
+    public void setMaxMemory(long bytes){
+        if (bytes < 0)
+            throw new IllegalArgumentException("Maximum memory must not be negative");
+        this.maxMemory = bytes;
+    }
+
+    public long getMaxMemory(){
+        return maxMemory;
+    }
+
+    /**
+     * @return the number of fragments dropped because their datagram was never completed.
+     */
+    public long getDropped(){
+        return dropped;
+    }
+
+    /**
+     * @return the number of incomplete datagrams held.
+     */
+    public int size(){
+        return datagrams.size();
+    }
+
+    /**
+     * Adds a fragment.
+     * Fragments that cannot be reassembled, because they were truncated by the snapshot length,
+     * are returned unchanged so that the caller can still use them.
+     * @param frame an array holding an Ethernet frame with an IPv4 fragment, see Utils.isFragment()
+     * @param offset the offset of the frame in the array
+     * @param length the number of bytes captured
+     * @param network the offset of the IPv4 header in the array
+     * @param timestamp the time the fragment was captured
+     * @return a new frame holding the whole datagram, the array passed in if the frame should be
+     * used as it is, or null if the fragment was buffered or dropped.
+     */
+    public byte[] add(byte[] frame, int offset, int length, int network, long timestamp){
+        expire(timestamp);
+        int headerLength = (frame[network] & 0xF) * 4;
+        int totalLength = Utils.convertShort(frame, network + 2);
+        if (headerLength < Utils.ipMinHeaderLength || totalLength < headerLength || network + totalLength > offset + length)
+            return frame;
+        int fragment = Utils.convertShort(frame, network + Utils.ipFragmentOffset);
+        int position = (fragment & Utils.ipFragmentOffsetMask) * 8;
+        int size = totalLength - headerLength;
+        boolean last = (fragment & Utils.ipMoreFragments) == 0;
+        if (headerLength + position + size > maxDatagramLength || (!last && (size & 7) != 0)) {
+            dropped++; // malformed
+            return null;
+        }
+
+        probe.set(frame, network);
+        Datagram datagram = datagrams.get(probe);
+        if (datagram == null) {
+            datagram = new Datagram(timestamp);
+            datagrams.put(new Key(frame, network), datagram);
+            memory += datagramOverhead;
+        }
+        datagram.fragments++;
+        if (position == 0 && datagram.header == null) {
+            datagram.header = java.util.Arrays.copyOfRange(frame, offset, network + headerLength);
+            datagram.network = network - offset;
+            memory += datagram.header.length;
+        }
+        if (last)
+            datagram.length = position + size;
+        memory += datagram.copy(frame, network + headerLength, position, size);
+
+        if (datagram.isComplete()) {
+            probe.set(frame, network);
+            datagrams.remove(probe);
+            memory -= datagram.memory();
+            return datagram.build();
+        }
+        Iterator<Datagram> iterator = datagrams.values().iterator();
+        while (memory > maxMemory && iterator.hasNext()) {
+            drop(iterator.next());
+            iterator.remove();
+        }
+        return null;
+    }
+
+    /**
+     * Drops every incomplete datagram.
+     */
+    public void clear(){
+        for (Datagram datagram : datagrams.values())
+            drop(datagram);
+        datagrams.clear();
+    }
+
+    /**
+     * Drops the datagrams whose first fragment arrived timeout milliseconds ago or earlier.
+     */
+    private void expire(long now){
+        Iterator<Datagram> iterator = datagrams.values().iterator();
+        while (iterator.hasNext()) {
+            Datagram datagram = iterator.next();
+            if (now - datagram.start < timeout)
+                break;
+            drop(datagram);
+            iterator.remove();
+        }
+    }
+
+    private void drop(Datagram datagram){
+        memory -= datagram.memory();
+        dropped += datagram.fragments;
+    }
+
+    /**
+     * The fragments received so far for one datagram.
+     */
+    private static final class Datagram {
+        private final long start;
+        private final long[] received = new long[(maxDatagramLength / 8 + 64) / 64]; // one bit per 8 bytes
+        private byte[] header;
+        private int network;
+        private byte[] data = new byte[0];
+        private int length = -1; // known once the last fragment arrives
+        private int units = 0; // including any beyond the end of the datagram
+        private int fragments = 0;
+
+        Datagram(long start){
+            this.start = start;
+        }
+
+        /**
+         * Copies the data of a fragment into place.
+         * @return the number of bytes the buffer grew by.
+         */
+        int copy(byte[] frame, int from, int offset, int size){
+            int grown = 0;
+            if (data.length < offset + size) {
+                int capacity = Math.min(maxDatagramLength, Math.max(offset + size, data.length * 2));
+                grown = capacity - data.length;
+                data = java.util.Arrays.copyOf(data, capacity);
+            }
+            System.arraycopy(frame, from, data, offset, size);
+            for (int unit = offset / 8, end = (offset + size + 7) / 8; unit < end; unit++) {
+                long bit = 1L << (unit & 63);
+                if ((received[unit >> 6] & bit) == 0) {
+                    received[unit >> 6] |= bit;
+                    units++;
+                }
+            }
+            return grown;
+        }
+
+        /**
+         * Checks that every 8 byte unit up to the end of the datagram has been received. Units that
+         * overlapping or overlong fragments placed beyond the end do not count.
+         */
+        boolean isComplete(){
+            if (header == null || length < 0)
+                return false;
+            int end = (length + 7) / 8;
+            if (units < end)
+                return false;
+            int covered = 0;
+            for (int word = 0; word < end >> 6; word++)
+                covered += Long.bitCount(received[word]);
+            if ((end & 63) != 0)
+                covered += Long.bitCount(received[end >> 6] & ((1L << (end & 63)) - 1));
+            return covered == end;
+        }
+
+        long memory(){
+            return datagramOverhead + data.length + (header == null ? 0 : header.length);
+        }
+
+        /**
+         * @return the first fragment's headers followed by the whole payload.
+         */
+        byte[] build(){
+            byte[] frame = java.util.Arrays.copyOf(header, header.length + length);
+            System.arraycopy(data, 0, frame, header.length, length);
+            int headerLength = header.length - network;
+            int totalLength = headerLength + length;
+            frame[network + 2] = (byte) (totalLength >> 8);
+            frame[network + 3] = (byte) totalLength;
+            frame[network + Utils.ipFragmentOffset] &= ipDontFragment >> 8;
+            frame[network + Utils.ipFragmentOffset + 1] = 0;
+            frame[network + ipChecksumOffset] = 0;
+            frame[network + ipChecksumOffset + 1] = 0;
+            int checksum = ~PcapWriter.checksum(frame, network, headerLength, 0);
+            frame[network + ipChecksumOffset] = (byte) (checksum >> 8);
+            frame[network + ipChecksumOffset + 1] = (byte) checksum;
+            return frame;
+        }
+    }
+
+    /**
+     * Source, destination, identification and protocol of a datagram.
+     */
+    private static final class Key {
+        private long addresses;
+        private int id;
+
+        Key(){
+        }
+
+        Key(byte[] frame, int network){
+            set(frame, network);
+        }
+
+        void set(byte[] frame, int network){
+            this.addresses = Utils.convertLong(frame, network + ipSrcOffset) << 32 |
+                    Utils.convertLong(frame, network + ipSrcOffset + 4);
+            this.id = Utils.convertShort(frame, network + ipIdOffset) << 8 | (frame[network + Utils.ipProtoOffset] & 0xFF);
+        }
+
+        @Override
+        public boolean equals(Object other){
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return addresses == key.addresses && id == key.id;
+        }
+
+        @Override
+        public int hashCode(){
+            long h = addresses * 0x9E3779B97F4A7C15L + id;
+            h ^= h >>> 32;
+            return (int) h;
+        }
+    }
+}
@@ -1,62 +1,161 @@
 package uk.ac.gla.atanaspam.pcapj;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.net.*;
 
 /**
  * This class stores data extracted from an Ethernet frame.
+ * Addresses are stored as primitives, IPv6 addresses as two longs each, and the InetAddress and
+ * String representations are only created (and then cached) when they are requested.
  * @author atanaspam
- * @version 0.4
+ * @version 0.7
  */
 public class IPPacket extends BasicPacket{
 
-    private static final Logger LOG = LoggerFactory.getLogger(IPPacket.class);
-
     final int ipSrcOffset = 12; //Offset from etherHeader end
     final int ipDstOffset = 16; //Offset from etherHeader end
 
-    protected long timestamp;
+    protected int srcIpv4;
+    protected int dstIpv4;
+    protected boolean ipv6;
+    protected long srcIpv6High;
+    protected long srcIpv6Low;
+    protected long dstIpv6High;
+    protected long dstIpv6Low;
+    protected long srcMac;
+    protected long dstMac;
+    protected int vlanId = -1;
+    protected int length;
+
     protected InetAddress src_ip;
     protected InetAddress dst_ip;
     protected String sourceMacAddress;
     protected String destMacAddress;
 
-    public long getTimestamp() {
-        return timestamp;
+    /**
+     * @return the number of bytes captured for the frame, 0 if the packet was not read from a capture.
+     */
+    public int getLength() {
+        return length;
     }
 
     public InetAddress getSrc_ip() {
+        if (src_ip == null)
+            src_ip = ipv6 ? Utils.toInetAddress(srcIpv6High, srcIpv6Low) : Utils.toInetAddress(srcIpv4);
         return src_ip;
     }
 
     public String getSourceMacAddress() {
+        if (sourceMacAddress == null)
+            sourceMacAddress = Utils.formatMacAddress(srcMac);
         return sourceMacAddress;
     }
 
     public InetAddress getDst_ip() {
+        if (dst_ip == null)
+            dst_ip = ipv6 ? Utils.toInetAddress(dstIpv6High, dstIpv6Low) : Utils.toInetAddress(dstIpv4);
         return dst_ip;
     }
 
     public String getDestMacAddress() {
+        if (destMacAddress == null)
+            destMacAddress = Utils.formatMacAddress(dstMac);
         return destMacAddress;
     }
 
+    /**
+     * @return the source IPv4 address as an int in network order, 0 for IPv6 packets.
+     */
+    public int getSrcIpv4() {
+        return srcIpv4;
+    }
+
+    /**
+     * @return the destination IPv4 address as an int in network order, 0 for IPv6 packets.
+     */
+    public int getDstIpv4() {
+        return dstIpv4;
+    }
+
+    /**
+     * @return true if the addresses are IPv6 addresses.
+     */
+    public boolean isIPv6() {
+        return ipv6;
+    }
+
+    /**
+     * @return the first 8 bytes of the source IPv6 address in network order, 0 for IPv4 packets.
+     */
+    public long getSrcIpv6High() {
+        return srcIpv6High;
+    }
+
+    /**
+     * @return the last 8 bytes of the source IPv6 address in network order, 0 for IPv4 packets.
+     */
+    public long getSrcIpv6Low() {
+        return srcIpv6Low;
+    }
+
+    /**
+     * @return the first 8 bytes of the destination IPv6 address in network order, 0 for IPv4 packets.
+     */
+    public long getDstIpv6High() {
+        return dstIpv6High;
+    }
+
+    /**
+     * @return the last 8 bytes of the destination IPv6 address in network order, 0 for IPv4 packets.
+     */
+    public long getDstIpv6Low() {
+        return dstIpv6Low;
+    }
+
+    /**
+     * @return the source MAC address stored in the lower 48 bits of a long.
+     */
+    public long getSrcMac() {
+        return srcMac;
+    }
+
+    /**
+     * @return the destination MAC address stored in the lower 48 bits of a long.
+     */
+    public long getDstMac() {
+        return dstMac;
+    }
+
+    /**
+     * @return the VLAN ID of the outermost 802.1Q tag, or -1 if the frame was not tagged.
+     */
+    public int getVlanId() {
+        return vlanId;
+    }
+
     public void setSrc_ip(InetAddress src_ip) {
         this.src_ip = src_ip;
+        this.srcIpv4 = Utils.toIpv4(src_ip);
+        this.ipv6 = src_ip instanceof Inet6Address;
+        this.srcIpv6High = ipv6 ? Utils.readLong(src_ip.getAddress(), 0) : 0;
+        this.srcIpv6Low = ipv6 ? Utils.readLong(src_ip.getAddress(), 8) : 0;
     }
 
     public void setDst_ip(InetAddress dst_ip) {
         this.dst_ip = dst_ip;
+        this.dstIpv4 = Utils.toIpv4(dst_ip);
+        this.ipv6 = dst_ip instanceof Inet6Address;
+        this.dstIpv6High = ipv6 ? Utils.readLong(dst_ip.getAddress(), 0) : 0;
+        this.dstIpv6Low = ipv6 ? Utils.readLong(dst_ip.getAddress(), 8) : 0;
     }
 
     public void setSourceMacAddress(String sourceMacAddress) {
         this.sourceMacAddress = sourceMacAddress;
+        this.srcMac = Utils.parseMacAddress(sourceMacAddress);
     }
 
     public void setDestMacAddress(String destMacAddress) {
         this.destMacAddress = destMacAddress;
+        this.dstMac = Utils.parseMacAddress(destMacAddress);
     }
 
     /**
@@ -77,42 +176,21 @@ public class IPPacket extends BasicPacket{
     public IPPacket(byte[] packet, long timestamp){
 
         this.timestamp = timestamp;
-
-        byte[] macAddress = new byte[6];
-        /**
-         * First copy the destination MAC address from the raw data and parse it to a string.
-         */
-        System.arraycopy(packet, 0, macAddress, 0, macAddress.length);
-        this.destMacAddress = Utils.getMacAddress(macAddress);
-
-        /**
-         * Copy the source MAC address from the raw data and parse it to a string.
-         */
-        System.arraycopy(packet, 6, macAddress, 0, macAddress.length);
-        this.sourceMacAddress = Utils.getMacAddress(macAddress);
-
-        /**
-         * Copy the source IP address from the raw data and parse it.
-         */
-        byte[] srcIP = new byte[4];
-        System.arraycopy(packet, ipSrcOffset + Utils.etherHeaderLength,
-                srcIP, 0, srcIP.length);
-        try{
-            this.src_ip = InetAddress.getByAddress(srcIP);
-        }catch(Exception e) {
-            LOG.error("An error occured while parsing the src_ip address.");
-        }
-
-        /**
-         * Copy the dest IP address from the raw data and parse it.
-         */
-        byte[] dstIP = new byte[4];
-        System.arraycopy(packet, ipDstOffset + Utils.etherHeaderLength,
-                dstIP, 0, dstIP.length);
-        try{
-            this.dst_ip = InetAddress.getByAddress(dstIP);
-        }catch(Exception e){
-            LOG.error("An error occurred while parsing the src_ip address.");
+        this.length = packet.length;
+        this.vlanId = Utils.getVlanId(packet, packet.length);
+        int networkOffset = Utils.getNetworkOffset(packet);
+
+        this.dstMac = Utils.readMacAddress(packet, 0);
+        this.srcMac = Utils.readMacAddress(packet, 6);
+        if (Utils.convertShort(packet, networkOffset - 2) == Utils.etherTypeIPv6) {
+            this.ipv6 = true;
+            this.srcIpv6High = Utils.readLong(packet, Utils.ipv6SrcOffset + networkOffset);
+            this.srcIpv6Low = Utils.readLong(packet, Utils.ipv6SrcOffset + 8 + networkOffset);
+            this.dstIpv6High = Utils.readLong(packet, Utils.ipv6DstOffset + networkOffset);
+            this.dstIpv6Low = Utils.readLong(packet, Utils.ipv6DstOffset + 8 + networkOffset);
+        } else {
+            this.srcIpv4 = (int) Utils.convertLong(packet, ipSrcOffset + networkOffset);
+            this.dstIpv4 = (int) Utils.convertLong(packet, ipDstOffset + networkOffset);
         }
     }
 
@@ -122,18 +200,39 @@ public class IPPacket extends BasicPacket{
     public IPPacket(long timestamp, String srcMAC, String destMAC, InetAddress srcIP, InetAddress dstIP){
         super();
         this.timestamp = timestamp;
-        this.sourceMacAddress = srcMAC;
-        this.destMacAddress = destMAC;
-        this.src_ip = srcIP;
-        this.dst_ip = dstIP;
+        setSourceMacAddress(srcMAC);
+        setDestMacAddress(destMAC);
+        setSrc_ip(srcIP);
+        setDst_ip(dstIP);
+
+    }
 
+    /**
+     * Copies the address fields of another packet.
+     * @param packet the packet to copy from
+     */
+    protected void copyAddresses(IPPacket packet){
+        this.srcIpv4 = packet.srcIpv4;
+        this.dstIpv4 = packet.dstIpv4;
+        this.ipv6 = packet.ipv6;
+        this.srcIpv6High = packet.srcIpv6High;
+        this.srcIpv6Low = packet.srcIpv6Low;
+        this.dstIpv6High = packet.dstIpv6High;
+        this.dstIpv6Low = packet.dstIpv6Low;
+        this.srcMac = packet.srcMac;
+        this.dstMac = packet.dstMac;
+        this.vlanId = packet.vlanId;
+        this.src_ip = packet.src_ip;
+        this.dst_ip = packet.dst_ip;
+        this.sourceMacAddress = packet.sourceMacAddress;
+        this.destMacAddress = packet.destMacAddress;
     }
 
     @Override
     public String toString(){
         return String.format(
                 "-----PACKET-----%nTimeStamp: %d%nSRC MAC: %s%nDST MAC: %s%nSRC IP: %s%nDEST IP: %s%n",
-                this.timestamp/1000, this.sourceMacAddress, this.destMacAddress, this.src_ip.getHostAddress(),
-                this.dst_ip.getHostAddress());
+                this.timestamp/1000, getSourceMacAddress(), getDestMacAddress(), getSrc_ip().getHostAddress(),
+                getDst_ip().getHostAddress());
     }
 }
@@ -9,13 +9,20 @@ import java.io.File;
  */
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench"))
+            System.exit(ParseProfiler.main(args, 1)); // --bench [--warmup n] [--runs n] file [filter]
         PcapParser pcapParser = new PcapParser();
-        String path = args[0];             //Your path can go here
+        String path = args[0];             //Your path can go here, or - to read from stdin
+        String filter = args.length > 1 ? args[1] : "ip or ip6";
         File f = new File(path);
         System.out.println(f.getAbsoluteFile());
-        pcapParser.setVlanEnabled(true);
         pcapParser.setVerbose(false);
-        if(pcapParser.openFile(path) < 0) {
+        if(pcapParser.setFilter(filter) < 0) {
+            System.out.println("Invalid filter" + ", exiting.");
+            System.exit(-1);
+        }
+        int opened = path.equals("-") ? pcapParser.openStream(System.in) : pcapParser.openFile(path);
+        if(opened < 0) {
             System.out.println("Failed to open  file" + ", exiting.");
             System.exit(-1);
         }
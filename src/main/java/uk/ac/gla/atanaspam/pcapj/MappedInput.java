@@ -0,0 +1,80 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A CaptureInput that maps the whole file into memory.
+ * A single MappedByteBuffer is limited to 2GB, so the file is mapped as a series of
+ * fixed size segments and reads that cross a segment boundary are split between them.
+ * Once the file is mapped no system calls are made while reading packets.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class MappedInput extends CaptureInput {
+
+    static final int segmentShift = 30;
+    static final long segmentSize = 1L << segmentShift;
+
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private long fileOffset;
+
+    MappedInput(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            this.size = channel.size();
+            int count = (int) ((size + segmentSize - 1) >>> segmentShift);
+            this.segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        this.fileOffset = 0;
+    }
+
+    @Override
+    int read(byte[] data, int offset, int length) {
+        int total = 0;
+        while (total != length && fileOffset < size) {
+            MappedByteBuffer segment = segments[(int) (fileOffset >>> segmentShift)];
+            int inSegmentOffset = (int) (fileOffset & (segmentSize - 1));
+            int count = Math.min(length - total, segment.limit() - inSegmentOffset);
+            segment.position(inSegmentOffset);
+            segment.get(data, offset + total, count);
+            fileOffset = fileOffset + count;
+            total = total + count;
+        }
+        return total;
+    }
+
+    @Override
+    long position() {
+        return fileOffset;
+    }
+
+    @Override
+    void position(long newPosition) {
+        this.fileOffset = newPosition;
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    @Override
+    void close() throws IOException {
+        raf.close();
+    }
+}
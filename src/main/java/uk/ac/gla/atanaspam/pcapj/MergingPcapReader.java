@@ -0,0 +1,268 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class merges the packets of many captures into a single stream ordered by timestamp,
+ * e.g. to combine the files a sensor writes for every interface and minute.
+ * Every source is read ahead on a thread of its own into a queue of at most bufferSize packets,
+ * and getPacket() returns the oldest packet at the head of the queues using a binary heap.
+ * Packets with the same timestamp are returned in the order their sources were added.
+ * Virtual threads are used for reading if the JVM supports them (Java 21 or later), otherwise
+ * daemon threads. The packets of a queue are taken in bulk, so memory is bounded by the number of
+ * sources times twice bufferSize packets, plus a small read buffer per file.
+ * Sources can only be added before the first call to getPacket(). The reader is not thread-safe.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class MergingPcapReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MergingPcapReader.class);
+
+    static final int defaultBufferSize = 256;
+    static final int inputBufferSize = 64 << 10;
+
+    private final ArrayList<Source> sources = new ArrayList<Source>();
+    private final ThreadFactory threadFactory;
+    private Source[] heap;
+    private int heapSize;
+    private int bufferSize = defaultBufferSize;
+    private boolean started = false;
+    private boolean closed = false;
+
+    public MergingPcapReader(){
+        this.threadFactory = newThreadFactory();
+    }
+
+    /**
+     * Set the number of packets read ahead for every source.
+     * @param packets the new setting.
+     */
+    public void setBufferSize(int packets){
+        if (packets < 1)
+            throw new IllegalArgumentException("Buffer size must be positive");
+        this.bufferSize = packets;
+    }
+
+    public int getBufferSize(){
+        return bufferSize;
+    }
+
+    /**
+     * @return the number of sources added.
+     */
+    public int getSourceCount(){
+        return sources.size();
+    }
+
+    /**
+     * Opens a capture file and adds it as a source. Uncompressed files are read through a smaller
+     * buffer than PcapParser.openFile() uses, so that many files can be open at once.
+     * @param path the path to the file
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public int addFile(String path){
+        File file = new File(path);
+        PcapParser parser = new PcapParser();
+        try {
+            if (PipelinedInput.detectCompression(file) != null) {
+                if (parser.openFile(path) < 0)
+                    return -1;
+            } else if (parser.openInput(new ChannelInput(file, inputBufferSize)) < 0) {
+                parser.closeFile();
+                return -1;
+            }
+        } catch (IOException e) {
+            LOG.error("Could not open the file : " + e.getMessage());
+            return -1;
+        }
+        return addParser(parser);
+    }
+
+    /**
+     * Adds an open parser as a source. The parser is read by the merging reader from now on
+     * and is closed by close().
+     * @param parser the parser to add
+     * @return 0 if everything is ok, -1 if packets have already been read.
+     */
+    public int addParser(PcapParser parser){
+        if (started) {
+            LOG.error("Sources can not be added after reading has started.");
+            return -1;
+        }
+        sources.add(new Source(parser, sources.size()));
+        return 0;
+    }
+
+    /**
+     * Starts reading every source and waits for the first packet of each of them.
+     */
+    private void start(){
+        started = true;
+        heap = new Source[sources.size()];
+        for (Source source : sources)
+            source.start(bufferSize, threadFactory);
+        for (Source source : sources) {
+            if (source.advance())
+                heap[heapSize++] = source;
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    /**
+     * @return the next packet of all the sources in timestamp order, or BasicPacket.EOF once
+     * every source has been read or the reader has been closed.
+     */
+    public BasicPacket getPacket(){
+        if (closed)
+            return BasicPacket.EOF;
+        if (!started)
+            start();
+        if (heapSize == 0)
+            return BasicPacket.EOF;
+        Source top = heap[0];
+        BasicPacket packet = top.head;
+        if (!top.advance())
+            heap[0] = heap[--heapSize];
+        siftDown(0);
+        return packet;
+    }
+
+    private void siftDown(int i){
+        Source source = heap[i];
+        int half = heapSize / 2;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1].before(heap[child]))
+                child++;
+            if (!heap[child].before(source))
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (i < heapSize)
+            heap[i] = source;
+    }
+
+    /**
+     * Stops the reading threads and closes every source.
+     */
+    public void close(){
+        closed = true;
+        for (Source source : sources)
+            source.close();
+    }
+
+    /**
+     * Creates virtual threads through reflection, so that the library still runs on older JVMs.
+     * @return a factory of virtual threads, or of daemon threads if they are not supported.
+     */
+    static ThreadFactory newThreadFactory(){
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "pcapj-merge-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            // virtual threads are not available before Java 21
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "pcapj-merge-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A parser together with the packets read ahead from it.
+     */
+    private static final class Source implements Runnable {
+        private final PcapParser parser;
+        private final int order;
+        private final ArrayDeque<BasicPacket> taken = new ArrayDeque<BasicPacket>();
+        private ArrayBlockingQueue<BasicPacket> queue;
+        private Thread thread;
+        private BasicPacket head;
+
+        Source(PcapParser parser, int order){
+            this.parser = parser;
+            this.order = order;
+        }
+
+        void start(int bufferSize, ThreadFactory threadFactory){
+            queue = new ArrayBlockingQueue<BasicPacket>(bufferSize);
+            thread = threadFactory.newThread(this);
+            thread.start();
+        }
+
+        public void run(){
+            BasicPacket packet;
+            try {
+                do {
+                    try {
+                        packet = parser.getPacket();
+                    } catch (RuntimeException e) {
+                        LOG.error("Could not read a source, it is ended early", e);
+                        packet = BasicPacket.EOF;
+                    }
+                    queue.put(packet);
+                } while (packet != BasicPacket.EOF);
+            } catch (InterruptedException e) {
+                // closed
+            }
+        }
+
+        /**
+         * Moves to the next packet of the source, waiting for it to be read.
+         * @return false at the end of the source.
+         */
+        boolean advance(){
+            if (taken.isEmpty()) {
+                try {
+                    taken.add(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    taken.add(BasicPacket.EOF);
+                }
+                queue.drainTo(taken); // take everything read so far with a single lock
+            }
+            head = taken.poll();
+            return head != BasicPacket.EOF;
+        }
+
+        boolean before(Source other){
+            long timestamp = head.getTimestamp();
+            long otherTimestamp = other.head.getTimestamp();
+            return timestamp < otherTimestamp || (timestamp == otherTimestamp && order < other.order);
+        }
+
+        /**
+         * Stops the reading thread and waits for it to leave the parser before closing it.
+         */
+        void close(){
+            if (thread != null) {
+                thread.interrupt();
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            parser.closeFile();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * This class stores the headers of many packets as parallel primitive arrays (struct of arrays).
+ * It is filled by PcapParser.readBatch() and reused between calls, so that analytics can loop over
+ * millions of packets without touching a single packet object.
+ * Entry i of every array describes the i-th packet of the batch, for i below size().
+ * The captured frames are stored back to back in data(), starting at frameOffsets()[i].
+ * Fields that do not apply to a packet (e.g. ports of an ICMP packet, or the IPv4 addresses of an
+ * IPv6 packet) are set to 0. IPv6 addresses are stored as two longs each.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public final class PacketBatch {
+
+    static final int defaultCapacity = 4096;
+    static final int defaultDataCapacity = 4 << 20;
+
+    private final long[] timestamps;
+    private final int[] srcIpv4;
+    private final int[] dstIpv4;
+    private final byte[] ipVersions;
+    private final long[] srcIpv6High;
+    private final long[] srcIpv6Low;
+    private final long[] dstIpv6High;
+    private final long[] dstIpv6Low;
+    private final int[] srcPorts;
+    private final int[] dstPorts;
+    private final byte[] protocols;
+    private final byte[] tcpFlags;
+    private final int[] caplens;
+    private final int[] frameOffsets;
+    private final int[] payloadOffsets;
+    private byte[] data;
+    private int size;
+    private int dataSize;
+
+    public PacketBatch(){
+        this(defaultCapacity, defaultDataCapacity);
+    }
+
+    /**
+     * @param capacity the maximum number of packets in a batch
+     * @param dataCapacity the number of bytes reserved for the captured frames
+     */
+    public PacketBatch(int capacity, int dataCapacity){
+        if (capacity < 1 || dataCapacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.timestamps = new long[capacity];
+        this.srcIpv4 = new int[capacity];
+        this.dstIpv4 = new int[capacity];
+        this.ipVersions = new byte[capacity];
+        this.srcIpv6High = new long[capacity];
+        this.srcIpv6Low = new long[capacity];
+        this.dstIpv6High = new long[capacity];
+        this.dstIpv6Low = new long[capacity];
+        this.srcPorts = new int[capacity];
+        this.dstPorts = new int[capacity];
+        this.protocols = new byte[capacity];
+        this.tcpFlags = new byte[capacity];
+        this.caplens = new int[capacity];
+        this.frameOffsets = new int[capacity];
+        this.payloadOffsets = new int[capacity];
+        this.data = new byte[dataCapacity];
+    }
+
+    /**
+     * Empties the batch without releasing its arrays.
+     */
+    void clear(){
+        size = 0;
+        dataSize = 0;
+    }
+
+    /**
+     * @return true if no more packets can be added.
+     */
+    boolean isFull(){
+        return size == timestamps.length;
+    }
+
+    /**
+     * Reserves space for the next frame, growing the data buffer only if the batch is empty.
+     * @param length the number of bytes captured
+     * @return the offset into data() where the frame should be read, or -1 if it does not fit.
+     */
+    int reserve(int length){
+        if (dataSize + length <= data.length)
+            return dataSize;
+        if (size > 0)
+            return -1;
+        data = new byte[length];
+        return 0;
+    }
+
+    /**
+     * Decodes the frame that has been read at the reserved offset and adds it to the batch.
+     * @param length the number of bytes captured
+     * @param timestamp the time the packet was captured
+     * @param linkType the link type of the frame, only Ethernet frames are decoded
+     */
+    void append(int length, long timestamp, int linkType){
+        int i = size;
+        int start = dataSize;
+        int end = start + length;
+        timestamps[i] = timestamp;
+        caplens[i] = length;
+        frameOffsets[i] = start;
+        srcIpv4[i] = 0;
+        dstIpv4[i] = 0;
+        ipVersions[i] = 0;
+        srcIpv6High[i] = 0;
+        srcIpv6Low[i] = 0;
+        dstIpv6High[i] = 0;
+        dstIpv6Low[i] = 0;
+        srcPorts[i] = 0;
+        dstPorts[i] = 0;
+        protocols[i] = 0;
+        tcpFlags[i] = 0;
+        payloadOffsets[i] = end;
+        if (linkType == Utils.linkTypeEthernet)
+            decode(i, start, end);
+        dataSize = end;
+        size++;
+    }
+
+    /**
+     * Decodes the IP and transport headers of entry i, whose other fields have been reset.
+     */
+    private void decode(int i, int start, int end){
+        final int ipSrcOffset = 12;
+        final int ipDstOffset = 16;
+        final int inTCPHeaderFlagsOffset = 13;
+        final int inTCPHeaderDataOffset = 12;
+
+        int network = Utils.getNetworkOffset(data, start, end);
+        int etherType = network <= end ? Utils.convertShort(data, network - 2) : -1;
+        int protocol;
+        int transport;
+        if (etherType == Utils.etherTypeIPv4 && network + Utils.ipMinHeaderLength <= end) {
+            protocol = data[network + Utils.ipProtoOffset] & 0xFF;
+            transport = network + (data[network] & 0xF) * 4;
+            if (Utils.getFragmentOffset(data, network) != 0)
+                transport = end; // only the first fragment carries the ports
+            ipVersions[i] = 4;
+            srcIpv4[i] = (int) Utils.convertLong(data, network + ipSrcOffset);
+            dstIpv4[i] = (int) Utils.convertLong(data, network + ipDstOffset);
+        } else if (etherType == Utils.etherTypeIPv6 && network + Utils.ipv6HeaderLength <= end) {
+            protocol = Math.max(0, Utils.getIPv6Protocol(data, network, end));
+            transport = Utils.getIPv6TransportOffset(data, network, end);
+            if (transport < 0 || protocol == Utils.ipv6Fragment)
+                transport = end;
+            ipVersions[i] = 6;
+            srcIpv6High[i] = Utils.readLong(data, network + Utils.ipv6SrcOffset);
+            srcIpv6Low[i] = Utils.readLong(data, network + Utils.ipv6SrcOffset + 8);
+            dstIpv6High[i] = Utils.readLong(data, network + Utils.ipv6DstOffset);
+            dstIpv6Low[i] = Utils.readLong(data, network + Utils.ipv6DstOffset + 8);
+        } else {
+            return;
+        }
+        protocols[i] = (byte) protocol;
+        if (protocol == Utils.ipProtoTCP && transport + 20 <= end) {
+            srcPorts[i] = Utils.convertShort(data, transport);
+            dstPorts[i] = Utils.convertShort(data, transport + 2);
+            tcpFlags[i] = data[transport + inTCPHeaderFlagsOffset];
+            payloadOffsets[i] = Math.min(end, transport + ((data[transport + inTCPHeaderDataOffset] >> 4) & 0xF) * 4);
+        } else if (protocol == Utils.ipProtoUDP && transport + Utils.udpHeaderLength <= end) {
+            srcPorts[i] = Utils.convertShort(data, transport);
+            dstPorts[i] = Utils.convertShort(data, transport + 2);
+            payloadOffsets[i] = transport + Utils.udpHeaderLength;
+        }
+    }
+
+    /**
+     * @return the number of packets in the batch.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return the maximum number of packets in a batch.
+     */
+    public int capacity(){
+        return timestamps.length;
+    }
+
+    public long[] timestamps(){
+        return timestamps;
+    }
+
+    /**
+     * @return the source IPv4 addresses as ints in network order, 0 for non IPv4 packets.
+     */
+    public int[] srcIpv4(){
+        return srcIpv4;
+    }
+
+    /**
+     * @return the destination IPv4 addresses as ints in network order, 0 for non IPv4 packets.
+     */
+    public int[] dstIpv4(){
+        return dstIpv4;
+    }
+
+    /**
+     * @return the IP versions, 4 or 6, or 0 for packets that are not IP.
+     */
+    public byte[] ipVersions(){
+        return ipVersions;
+    }
+
+    /**
+     * @return the first 8 bytes of the source IPv6 addresses in network order, 0 for non IPv6 packets.
+     */
+    public long[] srcIpv6High(){
+        return srcIpv6High;
+    }
+
+    /**
+     * @return the last 8 bytes of the source IPv6 addresses in network order, 0 for non IPv6 packets.
+     */
+    public long[] srcIpv6Low(){
+        return srcIpv6Low;
+    }
+
+    /**
+     * @return the first 8 bytes of the destination IPv6 addresses in network order, 0 for non IPv6 packets.
+     */
+    public long[] dstIpv6High(){
+        return dstIpv6High;
+    }
+
+    /**
+     * @return the last 8 bytes of the destination IPv6 addresses in network order, 0 for non IPv6 packets.
+     */
+    public long[] dstIpv6Low(){
+        return dstIpv6Low;
+    }
+
+    public int[] srcPorts(){
+        return srcPorts;
+    }
+
+    public int[] dstPorts(){
+        return dstPorts;
+    }
+
+    /**
+     * @return the IP protocol numbers, for IPv6 the one after the extension headers, 0 for non IP packets.
+     */
+    public byte[] protocols(){
+        return protocols;
+    }
+
+    /**
+     * @return the raw TCP flags bytes, FIN being the lowest bit and CWR the highest.
+     */
+    public byte[] tcpFlags(){
+        return tcpFlags;
+    }
+
+    public int[] caplens(){
+        return caplens;
+    }
+
+    /**
+     * @return the offsets into data() where each frame starts.
+     */
+    public int[] frameOffsets(){
+        return frameOffsets;
+    }
+
+    /**
+     * @return the offsets into data() where the TCP/UDP payload of each packet starts,
+     * equal to the end of the frame if there is none.
+     */
+    public int[] payloadOffsets(){
+        return payloadOffsets;
+    }
+
+    /**
+     * @return the buffer that holds the captured frames.
+     */
+    public byte[] data(){
+        return data;
+    }
+}
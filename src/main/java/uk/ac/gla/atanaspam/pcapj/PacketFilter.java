@@ -0,0 +1,464 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * This class is a compiled packet filter that is evaluated directly on the raw bytes of a frame,
+ * so that PcapParser can discard packets before building any object for them.
+ * Filters are compiled from a BPF-like expression made of the following primitives:
+ * <pre>
+ *     [src|dst] host 10.0.0.1        [src|dst] net 10.0.0.0/8
+ *     [src|dst] port 80              [src|dst] portrange 1024-2048
+ *     ip | ip6 | tcp | udp           icmp | icmp6 | proto 47
+ *     vlan | vlan 100                tcpflags syn|ack (any of fin, syn, rst, psh, ack, urg, ece, cwr)
+ * </pre>
+ * Host and net only match IPv4 addresses. The transport primitives match both IPv4 and IPv6, for
+ * IPv6 the protocol is the one that follows the extension headers.
+ * Primitives are combined with and (&amp;&amp;), or (||), not (!) and parentheses.
+ * As in BPF, two primitives next to each other are joined with and, e.g. "tcp port 80".
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public abstract class PacketFilter {
+
+    static final int ipProtoICMP = 1;
+    static final int ipProtoICMPv6 = 58;
+
+    private static final int srcOrDst = 0;
+    private static final int src = 1;
+    private static final int dst = 2;
+
+    private static final int ipSrcOffset = 12;
+    private static final int ipDstOffset = 16;
+    private static final int inTCPHeaderFlagsOffset = 13;
+
+    /**
+     * Checks if a frame matches the filter.
+     * @param frame a byte[] that stores the raw frame
+     * @param offset the offset into frame[] where the frame starts
+     * @param length the number of bytes captured
+     * @return true if the packet should be kept.
+     */
+    public abstract boolean matches(byte[] frame, int offset, int length);
+
+    /**
+     * Checks if a frame matches the filter.
+     * @param frame a byte[] that stores the raw frame
+     * @return true if the packet should be kept.
+     */
+    public boolean matches(byte[] frame){
+        return matches(frame, 0, frame.length);
+    }
+
+    /**
+     * Compiles a filter expression.
+     * @param expression the expression, see the class description for the syntax
+     * @return the compiled filter
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public static PacketFilter compile(String expression){
+        Compiler compiler = new Compiler(expression);
+        PacketFilter filter = compiler.parseOr();
+        if (compiler.peek() != null)
+            throw new IllegalArgumentException("Unexpected '" + compiler.peek() + "' in filter: " + expression);
+        return filter;
+    }
+
+    /**
+     * @return the offset of the IPv4 header, or -1 if the frame does not carry a complete IPv4 header.
+     */
+    static int ipv4Offset(byte[] frame, int offset, int end){
+        int network = Utils.getNetworkOffset(frame, offset, end);
+        if (network + Utils.ipMinHeaderLength > end || Utils.convertShort(frame, network - 2) != Utils.etherTypeIPv4)
+            return -1;
+        return network;
+    }
+
+    /**
+     * @return the offset of the IPv6 header, or -1 if the frame does not carry a complete IPv6 header.
+     */
+    static int ipv6Offset(byte[] frame, int offset, int end){
+        int network = Utils.getNetworkOffset(frame, offset, end);
+        if (network + Utils.ipv6HeaderLength > end || Utils.convertShort(frame, network - 2) != Utils.etherTypeIPv6)
+            return -1;
+        return network;
+    }
+
+    /**
+     * @param protocol the protocol of the transport header, or -1 for either TCP or UDP
+     * @return the offset of a transport header with at least required bytes, or -1 if there is none.
+     */
+    static int transportOffset(byte[] frame, int offset, int end, int protocol, int required){
+        int network = ipv4Offset(frame, offset, end);
+        int found;
+        int transport;
+        if (network >= 0) {
+            if (Utils.getFragmentOffset(frame, network) != 0)
+                return -1;
+            found = frame[network + Utils.ipProtoOffset] & 0xFF;
+            transport = network + (frame[network] & 0xF) * 4;
+        } else {
+            network = ipv6Offset(frame, offset, end);
+            if (network < 0)
+                return -1;
+            found = Utils.getIPv6Protocol(frame, network, end);
+            transport = Utils.getIPv6TransportOffset(frame, network, end);
+        }
+        if (protocol < 0 ? found != Utils.ipProtoTCP && found != Utils.ipProtoUDP : found != protocol)
+            return -1;
+        return transport + required <= end ? transport : -1;
+    }
+
+    private static final class And extends PacketFilter {
+        private final PacketFilter left;
+        private final PacketFilter right;
+
+        And(PacketFilter left, PacketFilter right){
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            return left.matches(frame, offset, length) && right.matches(frame, offset, length);
+        }
+    }
+
+    private static final class Or extends PacketFilter {
+        private final PacketFilter left;
+        private final PacketFilter right;
+
+        Or(PacketFilter left, PacketFilter right){
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            return left.matches(frame, offset, length) || right.matches(frame, offset, length);
+        }
+    }
+
+    private static final class Not extends PacketFilter {
+        private final PacketFilter filter;
+
+        Not(PacketFilter filter){
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            return !filter.matches(frame, offset, length);
+        }
+    }
+
+    /**
+     * Matches an IP protocol number, or any packet of the IP version if protocol is -1.
+     */
+    private static final class Protocol extends PacketFilter {
+        private final int version;
+        private final int protocol;
+
+        /**
+         * @param version 4 or 6, or 0 for either
+         * @param protocol the protocol number, or -1 for any
+         */
+        Protocol(int version, int protocol){
+            this.version = version;
+            this.protocol = protocol;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            int end = offset + length;
+            if (version != 6) {
+                int network = ipv4Offset(frame, offset, end);
+                if (network >= 0)
+                    return protocol < 0 || (frame[network + Utils.ipProtoOffset] & 0xFF) == protocol;
+            }
+            if (version != 4) {
+                int network = ipv6Offset(frame, offset, end);
+                if (network >= 0)
+                    return protocol < 0 || Utils.getIPv6Protocol(frame, network, end) == protocol;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Matches an IPv4 address (or network when mask is not all ones).
+     */
+    private static final class Host extends PacketFilter {
+        private final int address;
+        private final int mask;
+        private final int direction;
+
+        Host(int address, int mask, int direction){
+            this.address = address & mask;
+            this.mask = mask;
+            this.direction = direction;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            int network = ipv4Offset(frame, offset, offset + length);
+            if (network < 0)
+                return false;
+            if (direction != dst && ((int) Utils.convertLong(frame, network + ipSrcOffset) & mask) == address)
+                return true;
+            return direction != src && ((int) Utils.convertLong(frame, network + ipDstOffset) & mask) == address;
+        }
+    }
+
+    /**
+     * Matches a TCP or UDP port range.
+     */
+    private static final class Port extends PacketFilter {
+        private final int low;
+        private final int high;
+        private final int direction;
+
+        Port(int low, int high, int direction){
+            this.low = low;
+            this.high = high;
+            this.direction = direction;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            int transport = transportOffset(frame, offset, offset + length, -1, 4);
+            if (transport < 0)
+                return false;
+            int srcPort = Utils.convertShort(frame, transport);
+            int dstPort = Utils.convertShort(frame, transport + 2);
+            if (direction != dst && srcPort >= low && srcPort <= high)
+                return true;
+            return direction != src && dstPort >= low && dstPort <= high;
+        }
+    }
+
+    /**
+     * Matches tagged frames, or frames whose outer VLAN ID is vlanId.
+     */
+    private static final class Vlan extends PacketFilter {
+        private final int vlanId;
+
+        Vlan(int vlanId){
+            this.vlanId = vlanId;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            if (length < Utils.etherTypeOffset + Utils.vlanHeaderLength + 2)
+                return false;
+            int start = offset + Utils.etherTypeOffset;
+            if (!Utils.isVlanTag(Utils.convertShort(frame, start)))
+                return false;
+            return vlanId < 0 || (Utils.convertShort(frame, start + 2) & 0xFFF) == vlanId;
+        }
+    }
+
+    /**
+     * Matches TCP packets that have any of the flags in mask set.
+     */
+    private static final class Flags extends PacketFilter {
+        private final int mask;
+
+        Flags(int mask){
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean matches(byte[] frame, int offset, int length){
+            int transport = transportOffset(frame, offset, offset + length, Utils.ipProtoTCP, 20);
+            return transport >= 0 && (frame[transport + inTCPHeaderFlagsOffset] & mask) != 0;
+        }
+    }
+
+    /**
+     * A recursive descent parser for filter expressions.
+     */
+    private static final class Compiler {
+
+        private static final String[] flagNames = {"fin", "syn", "rst", "psh", "ack", "urg", "ece", "cwr"};
+
+        private final String expression;
+        private final ArrayList<String> tokens = new ArrayList<String>();
+        private int next = 0;
+
+        Compiler(String expression){
+            if (expression == null)
+                throw new IllegalArgumentException("Filter expression is null");
+            this.expression = expression;
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if ((c == '&' || c == '|') && i + 1 < expression.length() && expression.charAt(i + 1) == c) {
+                    tokens.add(c == '&' ? "and" : "or");
+                    i += 2;
+                } else if (c == '!') {
+                    tokens.add("not");
+                    i++;
+                } else {
+                    int start = i;
+                    while (i < expression.length() && !Character.isWhitespace(expression.charAt(i)) &&
+                            "()!".indexOf(expression.charAt(i)) < 0 && !expression.startsWith("&&", i) &&
+                            !expression.startsWith("||", i))
+                        i++;
+                    tokens.add(expression.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+
+        String peek(){
+            return next < tokens.size() ? tokens.get(next) : null;
+        }
+
+        private String take(){
+            String token = peek();
+            if (token == null)
+                throw error("Unexpected end of filter");
+            next++;
+            return token;
+        }
+
+        private IllegalArgumentException error(String message){
+            return new IllegalArgumentException(message + ": " + expression);
+        }
+
+        PacketFilter parseOr(){
+            PacketFilter filter = parseAnd();
+            while ("or".equals(peek())) {
+                next++;
+                filter = new Or(filter, parseAnd());
+            }
+            return filter;
+        }
+
+        private PacketFilter parseAnd(){
+            PacketFilter filter = parseUnary();
+            while (peek() != null && !"or".equals(peek()) && !")".equals(peek())) {
+                if ("and".equals(peek()))
+                    next++;
+                filter = new And(filter, parseUnary());
+            }
+            return filter;
+        }
+
+        private PacketFilter parseUnary(){
+            String token = take();
+            if (token.equals("not"))
+                return new Not(parseUnary());
+            if (token.equals("(")) {
+                PacketFilter filter = parseOr();
+                if (!")".equals(take()))
+                    throw error("Missing ')'");
+                return filter;
+            }
+            return parsePrimitive(token);
+        }
+
+        private PacketFilter parsePrimitive(String token){
+            int direction = srcOrDst;
+            if (token.equals("src") || token.equals("dst")) {
+                direction = token.equals("src") ? src : dst;
+                token = take();
+            }
+            if (token.equals("host")) {
+                return new Host(parseAddress(take()), -1, direction);
+            } else if (token.equals("net")) {
+                String net = take();
+                int slash = net.indexOf('/');
+                if (slash < 0)
+                    return new Host(parseAddress(net), -1, direction);
+                int bits = parseNumber(net.substring(slash + 1), 32);
+                int mask = bits == 0 ? 0 : -1 << (32 - bits);
+                return new Host(parseAddress(net.substring(0, slash)), mask, direction);
+            } else if (token.equals("port")) {
+                int port = parseNumber(take(), 0xFFFF);
+                return new Port(port, port, direction);
+            } else if (token.equals("portrange")) {
+                String range = take();
+                int dash = range.indexOf('-');
+                if (dash < 0)
+                    throw error("Invalid port range '" + range + "'");
+                return new Port(parseNumber(range.substring(0, dash), 0xFFFF),
+                        parseNumber(range.substring(dash + 1), 0xFFFF), direction);
+            } else if (direction != srcOrDst) {
+                throw error("Expected host, net, port or portrange after src/dst");
+            } else if (token.equals("ip")) {
+                return new Protocol(4, -1);
+            } else if (token.equals("ip6")) {
+                return new Protocol(6, -1);
+            } else if (token.equals("tcp")) {
+                return new Protocol(0, Utils.ipProtoTCP);
+            } else if (token.equals("udp")) {
+                return new Protocol(0, Utils.ipProtoUDP);
+            } else if (token.equals("icmp")) {
+                return new Protocol(4, ipProtoICMP);
+            } else if (token.equals("icmp6")) {
+                return new Protocol(6, ipProtoICMPv6);
+            } else if (token.equals("proto")) {
+                String protocol = take();
+                if (protocol.equals("tcp"))
+                    return new Protocol(0, Utils.ipProtoTCP);
+                if (protocol.equals("udp"))
+                    return new Protocol(0, Utils.ipProtoUDP);
+                if (protocol.equals("icmp"))
+                    return new Protocol(4, ipProtoICMP);
+                if (protocol.equals("icmp6"))
+                    return new Protocol(6, ipProtoICMPv6);
+                return new Protocol(0, parseNumber(protocol, 0xFF));
+            } else if (token.equals("vlan")) {
+                String id = peek();
+                if (id != null && Character.isDigit(id.charAt(0))) {
+                    next++;
+                    return new Vlan(parseNumber(id, 0xFFF));
+                }
+                return new Vlan(-1);
+            } else if (token.equals("tcpflags")) {
+                int mask = 0;
+                for (String flag : take().split("\\|"))
+                    mask |= parseFlag(flag);
+                return new Flags(mask);
+            }
+            throw error("Unknown filter primitive '" + token + "'");
+        }
+
+        private int parseFlag(String flag){
+            for (int i = 0; i < flagNames.length; i++) {
+                if (flagNames[i].equals(flag))
+                    return 1 << i;
+            }
+            throw error("Unknown TCP flag '" + flag + "'");
+        }
+
+        private int parseNumber(String number, int max){
+            try {
+                int value = Integer.parseInt(number);
+                if (value >= 0 && value <= max)
+                    return value;
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw error("Invalid number '" + number + "'");
+        }
+
+        private int parseAddress(String address){
+            String[] octets = address.split("\\.");
+            if (octets.length != 4)
+                throw error("Invalid IPv4 address '" + address + "'");
+            int value = 0;
+            for (String octet : octets)
+                value = (value << 8) | parseNumber(octet, 0xFF);
+            return value;
+        }
+    }
+}
@@ -8,81 +8,50 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class implements the capability to introduce patterns into the already exported
  * data set. This is done by injecting a packet that has pre-defined values for fields
  * at a varying frequency, thus creating the pattern.
+ * The generator can be used by many threads at once. The exported packets are read-only and shared,
+ * every thread keeps its own cursors over them and over the configured field values, and every
+ * anomalous packet is a new object. Changing the settings replaces them as a whole, so a thread
+ * never sees half of a change. The packets returned must not be modified.
  * @author atanaspam
  * @created 15/11/2015
- * @version 0.6
+ * @version 0.7
  */
 
 public class PacketGenerator {
 
     private static final Logger LOG = LoggerFactory.getLogger(PacketGenerator.class);
-    long anomalousPacketsEmitted;
-    int signature;
-    int anomalousTrafficPercentage;
-    ArrayList<TCPFlags> flags;
-    ArrayList<InetAddress> srcAddresses;
-    ArrayList<InetAddress> dstAddresses;
-    ArrayList<Integer> srcPorts;
-    ArrayList<Integer> dstPorts;
-    ArrayList<BasicPacket> packets;
-    ArrayList<PacketContents> packetContents;
-    int packetsTillAnomaly;
-    int nextFlag;
-    int nextSrcAddress;
-    int nextDstAddress;
-    int nextSrcPort;
-    int nextDstPort;
-    int nextPacket;
-    int nextPacketContents;
-    TCPPacket p ;
+    private static final long anomalousTimestamp = 1445457108;
+    private static final String anomalousMac = "FF:FF:FF:FF:FF";
+    private static final PacketContents defaultContents = new PacketContents(new byte[1]); // used after clear()
+
+    private final ArrayList<BasicPacket> packets;
+    private final LongAdder anomalousPacketsEmitted = new LongAdder();
+    private volatile Settings settings;
+    private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>() {
+        @Override
+        protected Cursor initialValue() {
+            return new Cursor();
+        }
+    };
 
     /**
      * A constructor that sets default values for all settings.
+     * @param path the capture the packets are loaded from
+     * @param vlanEnabled ignored, VLAN tags are detected from the EtherType of every frame
+     * @param verbose the verbosity of the parser that loads the capture
      */
     public PacketGenerator(String path, boolean vlanEnabled, boolean verbose){
-        anomalousPacketsEmitted = 0;
         packets = new ArrayList<BasicPacket>();
-        this.signature = 0;
-        this.anomalousTrafficPercentage = 10;
-        packetsTillAnomaly = 100 / anomalousTrafficPercentage;
-        this.flags = new ArrayList<TCPFlags>();
-        TCPFlags flag = new TCPFlags(false,false,false,true,false,false,true,false);
-        flags.add(flag);
-        this.srcAddresses = new ArrayList<InetAddress>();
-        this.dstAddresses = new ArrayList<InetAddress>();
-        this.packetContents = new ArrayList<PacketContents>();
-        try {
-            srcAddresses.add(InetAddress.getByName("192.168.1.1"));
-            dstAddresses.add(InetAddress.getByName("192.168.0.1"));
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
-        }
-        this.srcPorts = new ArrayList<Integer>();
-        this.dstPorts = new ArrayList<Integer>();
-        srcPorts.add(80);
-        dstPorts.add(80);
-        try {
-            packetContents.add(new PacketContents("1".getBytes("UTF-8")));
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        nextDstAddress = 0;
-        nextSrcAddress = 0;
-        nextFlag = 0;
-        nextDstPort = 0;
-        nextSrcPort = 0;
-        nextPacket = 0;
-        nextPacketContents = 0;
-        p =  new TCPPacket(1445457108, "FF:FF:FF:FF:FF", "FF:FF:FF:FF:FF", null, null,
-                0, 0, null, new PacketContents(new byte[1]));
+        settings = Settings.defaults(10, 0);
         PcapParser pcapParser = new PcapParser();
-        pcapParser.setVlanEnabled(vlanEnabled);
         pcapParser.setVerbose(verbose);
+        pcapParser.setFilter("ip or ip6");
         if(pcapParser.openFile(path) < 0) {
             LOG.error("Failed to open  file" + ", exiting.");
             System.exit(-1);
@@ -111,99 +80,82 @@ public class PacketGenerator {
      * @param flags an ArrayList of possible TCP flags
      * @param sig The integer representation of the current attack (pattern) simulated
      */
-    public void configure(ArrayList<InetAddress> srcIP, ArrayList<InetAddress> dstIP, ArrayList<Integer> srcPort,
+    public synchronized void configure(ArrayList<InetAddress> srcIP, ArrayList<InetAddress> dstIP, ArrayList<Integer> srcPort,
                           ArrayList<Integer> dstPort, ArrayList<boolean[]> flags, int sig, ArrayList<PacketContents> packetContents){
-        for (boolean[] a : flags){ this.flags.add(new TCPFlags(a));}
-        for (InetAddress a : srcIP){ srcAddresses.add(a);}
-        for (InetAddress a : dstIP){ dstAddresses.add(a);}
-        for(Integer n : srcPort){ srcPorts.add(n);}
-        for(Integer n : dstPort){ dstPorts.add(n);}
-        for(PacketContents p : packetContents){ this.packetContents.add(p);}
+        Settings s = new Settings(settings, settings.epoch);
+        for (boolean[] a : flags){ s.flags.add(new TCPFlags(a));}
+        s.srcAddresses.addAll(srcIP);
+        s.dstAddresses.addAll(dstIP);
+        s.srcPorts.addAll(srcPort);
+        s.dstPorts.addAll(dstPort);
+        s.packetContents.addAll(packetContents);
         switch (sig) {
             case 0: {
                 // Disable
-                anomalousTrafficPercentage = 1;
-                return;
+                s.anomalousTrafficPercentage = 1;
+                break;
             }
             case 1: {
                 // Simulate a DOS attack
-                signature = 1;
-                return;
+                s.signature = 1;
+                break;
             }
             case 2: {
                 // Simulate a DDOS attack
-                signature = 2;
+                s.signature = 2;
                 try {
                     for (byte i = 0; i < 127; i++) {
                         byte[] ipAddr = new byte[]{0, 0, 0, i};
                         InetAddress addr = InetAddress.getByAddress(ipAddr);
-                        srcAddresses.add(addr);
+                        s.srcAddresses.add(addr);
                     }
                 } catch (UnknownHostException e) {
                     e.printStackTrace();
                 }
-                return;
+                break;
             }
 
             case 3: {
                 // Simulate a SYN flood attack
-                signature = 3;
-                this.flags.clear();
-                this.flags.add(new TCPFlags(new boolean[]{false,false,false,false,false,false,true,false}));
-                return;
+                s.signature = 3;
+                s.flags.clear();
+                s.flags.add(new TCPFlags(new boolean[]{false,false,false,false,false,false,true,false}));
+                break;
             }
             case 4: {
                 // Simulate Invalid flags
-                this.flags.clear();
+                s.flags.clear();
                 // Since no flag is set, this is an invalid combination.
-                this.flags.add(new TCPFlags(new boolean[]{false,false,false,false,false,false,false,false}));
-                return;
+                s.flags.add(new TCPFlags(new boolean[]{false,false,false,false,false,false,false,false}));
+                break;
             }
             case 5: {
                 // Simulate an Application layer attack ()
-                signature = 5;
+                s.signature = 5;
                 try {
-                    //this.packetContents.add(new PacketContents("".getBytes("UTF-8")));
-                    this.packetContents.add(new PacketContents("aaa".getBytes("UTF-8")));
+                    //s.packetContents.add(new PacketContents("".getBytes("UTF-8")));
+                    s.packetContents.add(new PacketContents("aaa".getBytes("UTF-8")));
                 } catch (UnsupportedEncodingException e) {
                 }
-                return;
+                break;
             }
             default: {
                 // Disable
-                anomalousTrafficPercentage = 1;
-                return;
+                s.anomalousTrafficPercentage = 1;
+                break;
             }
         }
+        settings = s;
     }
 
     /**
      * Resets the settings to the default state.
      */
-    public void clear() {packetsTillAnomaly = 100 / anomalousTrafficPercentage;
-        this.flags = new ArrayList<TCPFlags>();
-        TCPFlags flag = new TCPFlags(false,false,false,true,false,false,true,false);
-        flags.add(flag);
-        this.srcAddresses = new ArrayList<InetAddress>();
-        this.dstAddresses = new ArrayList<InetAddress>();
-        this.packetContents = new ArrayList<PacketContents>();
-        try {
-            srcAddresses.add(InetAddress.getByName("192.168.1.1"));
-            dstAddresses.add(InetAddress.getByName("192.168.0.1"));
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
-        }
-        this.srcPorts = new ArrayList<Integer>();
-        this.dstPorts = new ArrayList<Integer>();
-        srcPorts.add(80);
-        dstPorts.add(80);
-        nextDstAddress = 0;
-        nextSrcAddress = 0;
-        nextFlag = 0;
-        nextDstPort = 0;
-        nextSrcPort = 0;
-        nextPacket = 0;
-        nextPacketContents = 0;
+    public synchronized void clear() {
+        Settings s = Settings.defaults(settings.anomalousTrafficPercentage, settings.epoch + 1);
+        s.signature = settings.signature;
+        s.packetContents.clear();
+        settings = s;
     }
 
     /**
@@ -216,42 +168,57 @@ public class PacketGenerator {
      * @param sig The integer representation of the current attack (pattern) simulated
      * @param anomalyPercent the percentage of anomalous data in the data generated
      */
-    public void set(ArrayList<InetAddress> srcIP, ArrayList<InetAddress> dstIP, ArrayList<Integer> srcPort,
+    public synchronized void set(ArrayList<InetAddress> srcIP, ArrayList<InetAddress> dstIP, ArrayList<Integer> srcPort,
                           ArrayList<Integer> dstPort, ArrayList<TCPFlags> flags, ArrayList<PacketContents> packetContents,
                             int sig, int anomalyPercent) {
-
-        this.anomalousTrafficPercentage = anomalyPercent;
-        packetsTillAnomaly = 100 / anomalousTrafficPercentage;
-        this.srcAddresses = srcIP;
-        this.dstAddresses = dstIP;
-        this.srcPorts = srcPort;
-        this.dstPorts = dstPort;
-        this.flags = flags;
-        this.signature = sig;
-        this.packetContents = packetContents;
+        if (anomalyPercent < 1 || anomalyPercent > 100)
+            throw new IllegalArgumentException("Anomaly percentage must be between 1 and 100");
+        if (srcIP.isEmpty() || dstIP.isEmpty() || srcPort.isEmpty() || dstPort.isEmpty() || flags.isEmpty() ||
+                packetContents.isEmpty())
+            throw new IllegalArgumentException("Every field needs at least one value");
+        Settings s = new Settings(settings, settings.epoch);
+        s.anomalousTrafficPercentage = anomalyPercent;
+        s.srcAddresses.clear();
+        s.srcAddresses.addAll(srcIP);
+        s.dstAddresses.clear();
+        s.dstAddresses.addAll(dstIP);
+        s.srcPorts.clear();
+        s.srcPorts.addAll(srcPort);
+        s.dstPorts.clear();
+        s.dstPorts.addAll(dstPort);
+        s.flags.clear();
+        s.flags.addAll(flags);
+        s.signature = sig;
+        s.packetContents.clear();
+        s.packetContents.addAll(packetContents);
+        settings = s;
     }
 
     /**
      * This method returns a single packet that is part of a specific pattern
      * If anomalousTrafficPercentage is set to 1 this method iterates over the statically imported
      * data and does not introduce any patterns.
+     * Every thread gets its own sequence of packets.
      * @return A packet object
      */
     public BasicPacket getPacket(){
-        if (packetsTillAnomaly == 1 && anomalousTrafficPercentage != 1){
-            return getAnomalousPacket();
+        Settings s = settings;
+        Cursor cursor = cursors.get();
+        cursor.update(s);
+        if (cursor.packetsTillAnomaly == 1 && s.anomalousTrafficPercentage != 1){
+            return getAnomalousPacket(s, cursor);
         }
         else{
-            return getOrdinaryPacket();
+            return getOrdinaryPacket(cursor);
         }
     }
 
     /**
-     * Get the number of anomalous packets emitted until now
+     * Get the number of anomalous packets emitted until now by all threads
      * @return the number of packets
      */
     public long getAnomalousPacketsEmitted() {
-        return anomalousPacketsEmitted;
+        return anomalousPacketsEmitted.sum();
     }
 
     /**
@@ -259,34 +226,30 @@ public class PacketGenerator {
      * packetsTillAnomaly accordingly.
      * @param anomalousTrafficPercentage
      */
-    public void setAnomalousTrafficPercentage(int anomalousTrafficPercentage) {
-        this.anomalousTrafficPercentage = anomalousTrafficPercentage;
-        if(anomalousTrafficPercentage != 1){
-            packetsTillAnomaly = 100 / anomalousTrafficPercentage;
-        }
-
+    public synchronized void setAnomalousTrafficPercentage(int anomalousTrafficPercentage) {
+        if (anomalousTrafficPercentage < 1 || anomalousTrafficPercentage > 100)
+            throw new IllegalArgumentException("Anomalous traffic percentage must be between 1 and 100");
+        Settings s = new Settings(settings, settings.epoch);
+        s.anomalousTrafficPercentage = anomalousTrafficPercentage;
+        settings = s;
     }
 
     /**
      * Obtain a packet with fields set to anomalous values (Anomalous packet)
      * @return the anomalous packet
      */
-    private BasicPacket getAnomalousPacket(){
-        //IPPacket sample = (IPPacket) packets.get(nextPacket);
-        p.setSrc_ip(srcAddresses.get(nextSrcAddress));
-        p.setDst_ip(dstAddresses.get(nextDstAddress));
-        p.setSrc_port(srcPorts.get(nextSrcPort));
-        p.setDst_port(dstPorts.get(nextDstPort));
-        p.setFlags(flags.get(nextFlag));
-        p.setData(packetContents.get(nextPacketContents));
-        nextSrcAddress = ++nextSrcAddress % srcAddresses.size();
-        nextDstAddress = ++nextDstAddress % dstAddresses.size();
-        nextSrcPort = ++nextSrcPort % srcPorts.size();
-        nextDstPort = ++nextDstPort % dstPorts.size();
-        nextFlag = ++nextFlag % flags.size();
-        nextPacketContents = ++nextPacketContents % packetContents.size();
-        packetsTillAnomaly = 100 /anomalousTrafficPercentage;
-        anomalousPacketsEmitted++;
+    private BasicPacket getAnomalousPacket(Settings s, Cursor cursor){
+        TCPPacket p = new TCPPacket(anomalousTimestamp, anomalousMac, anomalousMac,
+                s.srcAddresses.get(cursor.nextSrcAddress++ % s.srcAddresses.size()),
+                s.dstAddresses.get(cursor.nextDstAddress++ % s.dstAddresses.size()),
+                s.srcPorts.get(cursor.nextSrcPort++ % s.srcPorts.size()),
+                s.dstPorts.get(cursor.nextDstPort++ % s.dstPorts.size()),
+                s.flags.get(cursor.nextFlag++ % s.flags.size()),
+                s.packetContents.isEmpty() ? defaultContents :
+                        s.packetContents.get(cursor.nextPacketContents++ % s.packetContents.size()));
+        cursor.wrap();
+        cursor.packetsTillAnomaly = 100 / s.anomalousTrafficPercentage;
+        anomalousPacketsEmitted.increment();
         return p;
     }
 
@@ -294,10 +257,121 @@ public class PacketGenerator {
      * Obtain a packet from the static export
      * @return the ordinary packet
      */
-    private BasicPacket getOrdinaryPacket(){
-        packetsTillAnomaly--;
-        nextPacket = ++nextPacket % packets.size();
-        return packets.get(nextPacket);
+    private BasicPacket getOrdinaryPacket(Cursor cursor){
+        cursor.packetsTillAnomaly--;
+        cursor.nextPacket = ++cursor.nextPacket % packets.size();
+        return packets.get(cursor.nextPacket);
+    }
+
+    /**
+     * The field values anomalous packets are built from. A Settings object is never changed
+     * once it has been published, changes are made to a copy that then replaces it.
+     */
+    private static final class Settings {
+        final int epoch; // changed by clear(), which resets the cursors of every thread
+        int signature;
+        int anomalousTrafficPercentage;
+        final ArrayList<TCPFlags> flags;
+        final ArrayList<InetAddress> srcAddresses;
+        final ArrayList<InetAddress> dstAddresses;
+        final ArrayList<Integer> srcPorts;
+        final ArrayList<Integer> dstPorts;
+        final ArrayList<PacketContents> packetContents;
+
+        Settings(Settings other, int epoch){
+            this.epoch = epoch;
+            this.signature = other.signature;
+            this.anomalousTrafficPercentage = other.anomalousTrafficPercentage;
+            this.flags = new ArrayList<TCPFlags>(other.flags);
+            this.srcAddresses = new ArrayList<InetAddress>(other.srcAddresses);
+            this.dstAddresses = new ArrayList<InetAddress>(other.dstAddresses);
+            this.srcPorts = new ArrayList<Integer>(other.srcPorts);
+            this.dstPorts = new ArrayList<Integer>(other.dstPorts);
+            this.packetContents = new ArrayList<PacketContents>(other.packetContents);
+        }
+
+        private Settings(int anomalousTrafficPercentage, int epoch){
+            this.epoch = epoch;
+            this.signature = 0;
+            this.anomalousTrafficPercentage = anomalousTrafficPercentage;
+            this.flags = new ArrayList<TCPFlags>();
+            this.srcAddresses = new ArrayList<InetAddress>();
+            this.dstAddresses = new ArrayList<InetAddress>();
+            this.srcPorts = new ArrayList<Integer>();
+            this.dstPorts = new ArrayList<Integer>();
+            this.packetContents = new ArrayList<PacketContents>();
+        }
+
+        static Settings defaults(int anomalousTrafficPercentage, int epoch){
+            Settings s = new Settings(anomalousTrafficPercentage, epoch);
+            s.flags.add(new TCPFlags(false,false,false,true,false,false,true,false));
+            try {
+                s.srcAddresses.add(InetAddress.getByName("192.168.1.1"));
+                s.dstAddresses.add(InetAddress.getByName("192.168.0.1"));
+            } catch (UnknownHostException e) {
+                e.printStackTrace();
+            }
+            s.srcPorts.add(80);
+            s.dstPorts.add(80);
+            try {
+                s.packetContents.add(new PacketContents("1".getBytes("UTF-8")));
+            } catch (UnsupportedEncodingException e) {
+                e.printStackTrace();
+            }
+            return s;
+        }
+    }
+
+    /**
+     * The position of one thread in the exported packets and in the lists of field values.
+     */
+    private static final class Cursor {
+        Settings settings;
+        int epoch = -1;
+        int packetsTillAnomaly;
+        int nextFlag;
+        int nextSrcAddress;
+        int nextDstAddress;
+        int nextSrcPort;
+        int nextDstPort;
+        int nextPacket;
+        int nextPacketContents;
+
+        /**
+         * Starts counting towards the next anomaly again when the settings have been changed,
+         * and starts from the first values again after clear().
+         */
+        void update(Settings s){
+            if (settings == s)
+                return;
+            if (epoch != s.epoch) {
+                nextFlag = 0;
+                nextSrcAddress = 0;
+                nextDstAddress = 0;
+                nextSrcPort = 0;
+                nextDstPort = 0;
+                nextPacket = 0;
+                nextPacketContents = 0;
+                epoch = s.epoch;
+            }
+            if (s.anomalousTrafficPercentage != 1)
+                packetsTillAnomaly = 100 / s.anomalousTrafficPercentage;
+            settings = s;
+        }
+
+        /**
+         * Keeps the indexes from overflowing.
+         */
+        void wrap(){
+            if ((nextFlag | nextSrcAddress | nextDstAddress | nextSrcPort | nextDstPort | nextPacketContents) < 0) {
+                nextFlag = 0;
+                nextSrcAddress = 0;
+                nextDstAddress = 0;
+                nextSrcPort = 0;
+                nextDstPort = 0;
+                nextPacketContents = 0;
+            }
+        }
     }
 
     /**
@@ -0,0 +1,17 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * A callback that receives the packets decoded by ParallelPcapParser.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public interface PacketHandler {
+
+    /**
+     * Called once for every packet in the file.
+     * Unless the parser is ordered this is called concurrently from several threads.
+     * @param packet the packet decoded
+     */
+    void handle(BasicPacket packet);
+}
@@ -0,0 +1,128 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator over the packets of a PcapParser, see PcapParser.stream().
+ * The first call to trySplit() finds record boundaries in the rest of the file, and every split
+ * hands the first half of the boundaries to a new spliterator. Each part is then decoded by a
+ * parser of its own, so the parser the stream was created from is only read if it is never split.
+ * Splitting on record boundaries is only possible before the first packet has been read. Captures
+ * that can not be split that way (e.g. compressed files or streams) are split by reading the next
+ * packets into an array instead, like Spliterators.AbstractSpliterator does, so that at least the
+ * work done on the packets can be run in parallel.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class PacketSpliterator implements Spliterator<BasicPacket> {
+
+    static final long defaultSplitSize = 1L << 20;
+    static final int batchIncrement = 1024;
+    static final int maxBatchSize = 1 << 20;
+
+    private final PcapParser source;
+    private PcapParser parser; // the parser being read, null until the first packet is read
+    private long[] splits; // shared by all the parts, null until the first split
+    private int from;
+    private int to;
+    private boolean splittable = true;
+    private boolean done = false;
+    private int batchSize = 0;
+
+    PacketSpliterator(PcapParser source){
+        this.source = source;
+    }
+
+    private PacketSpliterator(PcapParser source, long[] splits, int from, int to){
+        this.source = source;
+        this.splits = splits;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BasicPacket> action){
+        if (done)
+            return false;
+        if (parser == null) {
+            parser = splits == null ? source : source.openPart(splits[from], splits[to]);
+            if (parser == null) {
+                done = true;
+                return false;
+            }
+        }
+        BasicPacket packet = parser.getPacket();
+        if (packet == BasicPacket.EOF) {
+            done = true;
+            if (parser != source)
+                parser.closeFile();
+            return false;
+        }
+        action.accept(packet);
+        return true;
+    }
+
+    @Override
+    public Spliterator<BasicPacket> trySplit(){
+        if (done)
+            return null;
+        if (parser != null || !splittable)
+            return splitBatch();
+        if (splits == null) {
+            splits = source.findSplits(defaultSplitSize);
+            if (splits == null) {
+                splittable = false;
+                return splitBatch();
+            }
+            from = 0;
+            to = splits.length - 1;
+        }
+        if (to - from < 2)
+            return null;
+        int middle = (from + to) >>> 1;
+        PacketSpliterator prefix = new PacketSpliterator(source, splits, from, middle);
+        from = middle;
+        return prefix;
+    }
+
+    /**
+     * Reads the next packets into an array, a few more each time.
+     * @return a spliterator over the packets read, or null if there are none left.
+     */
+    private Spliterator<BasicPacket> splitBatch(){
+        batchSize = Math.min(batchSize + batchIncrement, maxBatchSize);
+        final BasicPacket[] batch = new BasicPacket[batchSize];
+        int count = 0;
+        Consumer<BasicPacket> collector = new Consumer<BasicPacket>() {
+            private int i = 0;
+            public void accept(BasicPacket packet) {
+                batch[i++] = packet;
+            }
+        };
+        while (count < batch.length && tryAdvance(collector))
+            count++;
+        if (count == 0)
+            return null;
+        return Spliterators.spliterator(batch, 0, count, characteristics());
+    }
+
+    /**
+     * @return the number of bytes left, which is proportional to the number of packets.
+     */
+    @Override
+    public long estimateSize(){
+        if (done)
+            return 0;
+        if (splits == null)
+            return source.remaining();
+        return splits[to] - splits[from];
+    }
+
+    @Override
+    public int characteristics(){
+        return ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,316 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * This class is a reusable view over the raw bytes of a single packet.
+ * It is filled by PcapParser.nextPacket() and decodes fields only when they are requested,
+ * so that a file can be parsed without allocating any objects per packet.
+ * The contents of a view are only valid until it is passed to nextPacket() again.
+ * The header accessors expect the caller to have checked the packet type first
+ * (e.g. call isTCPPacket() before tcpFlags()).
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public final class PacketView {
+
+    private static final int defaultCapacity = 2048;
+
+    final int ipSrcOffset = 12; //Offset from etherHeader end
+    final int ipDstOffset = 16; //Offset from etherHeader end
+
+    private byte[] frame;
+    private int length;
+    private long timestamp;
+    private int networkOffset;
+    private int linkType;
+
+    public PacketView(){
+        this.frame = new byte[defaultCapacity];
+    }
+
+    /**
+     * Makes sure that the view can hold a frame of the given size.
+     * The existing buffer is reused unless it is too small.
+     * @param capacity the size of the next frame
+     * @return the buffer that the next frame should be read into
+     */
+    byte[] ensureCapacity(int capacity){
+        if (frame.length < capacity)
+            frame = new byte[Math.max(capacity, frame.length * 2)];
+        return frame;
+    }
+
+    /**
+     * Positions the view over a new frame that has been read into the buffer.
+     * @param length the number of bytes captured
+     * @param timestamp the time the packet was captured
+     * @param linkType the link type of the frame, only Ethernet frames are decoded
+     */
+    void set(int length, long timestamp, int linkType){
+        this.length = length;
+        this.timestamp = timestamp;
+        this.linkType = linkType;
+        this.networkOffset = linkType == Utils.linkTypeEthernet ? Utils.getNetworkOffset(frame, length) : 0;
+    }
+
+    /**
+     * @return the time the packet was captured.
+     */
+    public long timestamp(){
+        return timestamp;
+    }
+
+    /**
+     * @return the number of bytes captured for this packet.
+     */
+    public int caplen(){
+        return length;
+    }
+
+    /**
+     * @return the link type of the interface the packet was captured on, 1 for Ethernet.
+     */
+    public int linkType(){
+        return linkType;
+    }
+
+    /**
+     * Gives direct access to the underlying buffer. Only the first caplen() bytes belong to this packet.
+     * @return the buffer holding the raw frame
+     */
+    public byte[] array(){
+        return frame;
+    }
+
+    /**
+     * @return the EtherType of the frame after any VLAN tags, or -1 if the frame is too short
+     * or is not an Ethernet frame.
+     */
+    public int etherType(){
+        if (linkType != Utils.linkTypeEthernet || length < networkOffset)
+            return -1;
+        return Utils.convertShort(frame, networkOffset - 2);
+    }
+
+    /**
+     * @return the VLAN ID of the outermost tag, or -1 if the frame is not tagged.
+     */
+    public int vlanId(){
+        if (linkType != Utils.linkTypeEthernet)
+            return -1;
+        return Utils.getVlanId(frame, length);
+    }
+
+    /**
+     * @return the offset into array() where the network header starts, after any VLAN tags.
+     */
+    public int networkOffset(){
+        return networkOffset;
+    }
+
+    /**
+     * @return the destination MAC address stored in the lower 48 bits of a long.
+     */
+    public long dstMac(){
+        return Utils.readMacAddress(frame, 0);
+    }
+
+    /**
+     * @return the source MAC address stored in the lower 48 bits of a long.
+     */
+    public long srcMac(){
+        return Utils.readMacAddress(frame, 6);
+    }
+
+    /**
+     * Checks if the frame holds a complete IPv4 or IPv6 header.
+     * @return true if the packet is IP, false otherwise.
+     */
+    public boolean isIPPacket(){
+        int etherType = etherType();
+        if (etherType == Utils.etherTypeIPv6)
+            return length >= networkOffset + Utils.ipv6HeaderLength;
+        return etherType == Utils.etherTypeIPv4 && length >= networkOffset + Utils.ipMinHeaderLength &&
+                length >= networkOffset + (frame[networkOffset] & 0xF) * 4;
+    }
+
+    /**
+     * Checks if the frame holds a complete IPv6 header. The IPv4 address accessors must not be used
+     * for IPv6 packets.
+     * @return true if the packet is IPv6, false otherwise.
+     */
+    public boolean isIPv6Packet(){
+        return etherType() == Utils.etherTypeIPv6 && length >= networkOffset + Utils.ipv6HeaderLength;
+    }
+
+    /**
+     * Checks if the frame holds a complete TCP header.
+     * @return true if the packet is TCP, false otherwise.
+     */
+    public boolean isTCPPacket(){
+        return isIPPacket() && protocol() == Utils.ipProtoTCP && fragmentOffset() == 0 && length >= transportOffset() + 20;
+    }
+
+    /**
+     * Checks if the frame holds a complete UDP header.
+     * @return true if the packet is UDP, false otherwise.
+     */
+    public boolean isUDPPacket(){
+        return isIPPacket() && protocol() == Utils.ipProtoUDP && fragmentOffset() == 0 &&
+                length >= transportOffset() + Utils.udpHeaderLength;
+    }
+
+    /**
+     * @return true if the packet is a fragment of a larger IPv4 datagram.
+     */
+    public boolean isFragment(){
+        return etherType() == Utils.etherTypeIPv4 && Utils.isFragment(frame, networkOffset);
+    }
+
+    /**
+     * @return the offset in bytes of the fragment data within its IPv4 datagram, 0 if the packet is
+     * not fragmented. IPv6 fragments other than the first report ipv6Fragment as their protocol().
+     */
+    public int fragmentOffset(){
+        if (etherType() != Utils.etherTypeIPv4)
+            return 0;
+        return Utils.getFragmentOffset(frame, networkOffset);
+    }
+
+    /**
+     * @return the length of the IP header in bytes, for IPv6 including the extension headers.
+     */
+    public int ipHeaderLength(){
+        return transportOffset() - networkOffset;
+    }
+
+    /**
+     * @return the IP protocol number of the transport header, for IPv6 the one that follows the
+     * extension headers, or -1 if they are truncated.
+     */
+    public int protocol(){
+        if (etherType() == Utils.etherTypeIPv6)
+            return Utils.getIPv6Protocol(frame, networkOffset, length);
+        return frame[networkOffset + Utils.ipProtoOffset] & 0xFF;
+    }
+
+    /**
+     * @return the first 8 bytes of the source IPv6 address in network order.
+     */
+    public long srcIpv6High(){
+        return Utils.readLong(frame, networkOffset + Utils.ipv6SrcOffset);
+    }
+
+    /**
+     * @return the last 8 bytes of the source IPv6 address in network order.
+     */
+    public long srcIpv6Low(){
+        return Utils.readLong(frame, networkOffset + Utils.ipv6SrcOffset + 8);
+    }
+
+    /**
+     * @return the first 8 bytes of the destination IPv6 address in network order.
+     */
+    public long dstIpv6High(){
+        return Utils.readLong(frame, networkOffset + Utils.ipv6DstOffset);
+    }
+
+    /**
+     * @return the last 8 bytes of the destination IPv6 address in network order.
+     */
+    public long dstIpv6Low(){
+        return Utils.readLong(frame, networkOffset + Utils.ipv6DstOffset + 8);
+    }
+
+    /**
+     * @return the source IPv4 address as an int in network order.
+     */
+    public int srcIpv4(){
+        return (int) Utils.convertLong(frame, networkOffset + ipSrcOffset);
+    }
+
+    /**
+     * @return the destination IPv4 address as an int in network order.
+     */
+    public int dstIpv4(){
+        return (int) Utils.convertLong(frame, networkOffset + ipDstOffset);
+    }
+
+    /**
+     * @return the offset into array() where the transport header starts.
+     */
+    public int transportOffset(){
+        if (etherType() == Utils.etherTypeIPv6) {
+            int transport = Utils.getIPv6TransportOffset(frame, networkOffset, length);
+            return transport < 0 ? length : transport;
+        }
+        return networkOffset + (frame[networkOffset] & 0xF) * 4;
+    }
+
+    /**
+     * @return the TCP or UDP source port.
+     */
+    public int srcPort(){
+        return Utils.convertShort(frame, transportOffset());
+    }
+
+    /**
+     * @return the TCP or UDP destination port.
+     */
+    public int dstPort(){
+        return Utils.convertShort(frame, transportOffset() + 2);
+    }
+
+    /**
+     * @return the TCP sequence number.
+     */
+    public long seqNum(){
+        return Utils.convertLong(frame, transportOffset() + 4);
+    }
+
+    /**
+     * @return the TCP acknowledgement number.
+     */
+    public long ackNum(){
+        return Utils.convertLong(frame, transportOffset() + 8);
+    }
+
+    /**
+     * @return the raw TCP flags byte, FIN being the lowest bit and CWR the highest.
+     */
+    public int tcpFlags(){
+        return frame[transportOffset() + 13] & 0xFF;
+    }
+
+    /**
+     * @return the offset into array() where the TCP or UDP payload starts.
+     */
+    public int payloadOffset(){
+        int start = transportOffset();
+        if (isTCPPacket())
+            return Math.min(length, start + ((frame[start + 12] >> 4) & 0xF) * 4);
+        return Math.min(length, start + Utils.udpHeaderLength);
+    }
+
+    /**
+     * @return the number of payload bytes captured, not counting the padding of short frames or
+     * other bytes after the IP datagram (or for UDP after the length given in its header).
+     */
+    public int payloadLength(){
+        int end = length;
+        if (isIPPacket()) {
+            end = Utils.getIPEnd(frame, networkOffset, length);
+            if (isUDPPacket())
+                end = Utils.getUDPEnd(frame, transportOffset(), end);
+        }
+        return Math.max(0, end - payloadOffset());
+    }
+
+    @Override
+    public String toString(){
+        return "PacketView{" +
+                "timestamp=" + timestamp +
+                ", caplen=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,299 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class decodes a single PCAP file on several cores.
+ * The record headers are first scanned to find record boundaries, then the file is split into
+ * chunks of roughly chunkSize bytes which are decoded at the same time by a ForkJoinPool.
+ * Packets are either handed to the PacketHandler as soon as they are decoded (from several threads)
+ * or, if ordered is set, on the calling thread in the same order as they appear in the file.
+ * IPv4 fragments are returned as they were captured, since the fragments of a datagram may be
+ * decoded by different workers.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class ParallelPcapParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelPcapParser.class);
+
+    static final long defaultChunkSize = 32L << 20;
+
+    private final File file;
+    private int parallelism;
+    private long chunkSize;
+    private boolean ordered;
+    private boolean verbose;
+    private PacketFilter filter;
+    private ParserMetrics metrics;
+    private volatile boolean failed;
+    private volatile int linkType = Utils.linkTypeEthernet;
+
+    public ParallelPcapParser(String path){
+        this.file = new File(path);
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.chunkSize = defaultChunkSize;
+        this.ordered = false;
+        this.verbose = false;
+    }
+
+    /**
+     * Set the number of threads used for decoding.
+     * @param parallelism the new setting.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the approximate number of bytes each worker decodes at a time.
+     * @param chunkSize the new setting.
+     */
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Specify if packets must be delivered in the order they appear in the file.
+     * Ordered delivery happens on the calling thread and keeps at most two rounds of chunks in memory.
+     * Unordered delivery calls the handler concurrently from the worker threads and keeps nothing in memory.
+     * @param ordered the new setting.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public boolean getOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Set the verbosity level of the underlying parsers.
+     * @param verbose the new setting.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public boolean getVerbose() {
+        return verbose;
+    }
+
+    /**
+     * Set a filter that every packet has to match, see PcapParser.setFilter().
+     * @param filter the new filter, or null to keep every packet
+     */
+    public void setFilter(PacketFilter filter) {
+        this.filter = filter;
+    }
+
+    public PacketFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Set the metrics that every worker counts what it reads in, see PcapParser.setMetrics().
+     * @param metrics the new metrics, or null to count nothing
+     */
+    public void setMetrics(ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ParserMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Scans the record headers and records a boundary every chunkSize bytes.
+     * The link type of the file is kept for the workers, as they do not read the global header.
+     * @return the offsets where each chunk starts, followed by the size of the file,
+     * or null if the file is not a recognised PCAP file. pcapng files are not split as their
+     * blocks cannot be decoded without the interface descriptions that precede them.
+     * @throws IOException if the file cannot be read
+     */
+    long[] findSplits() throws IOException {
+        if (PipelinedInput.detectCompression(file) != null) {
+            LOG.error("Parallel parsing is only supported for uncompressed PCAP files.");
+            return null;
+        }
+        CaptureInput input = new ChannelInput(file);
+        try {
+            PcapParser pcapParser = new PcapParser();
+            if (pcapParser.openInput(input) < 0)
+                return null;
+            if (pcapParser.isPcapNg()) {
+                LOG.error("Parallel parsing is only supported for classic PCAP files.");
+                return null;
+            }
+            linkType = pcapParser.linkType();
+            return new RecordScanner(input).split(chunkSize);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Decodes the whole file and passes every packet to the handler.
+     * @param handler the callback that receives the packets
+     * @return the number of packets decoded, or -1 if an error has occurred.
+     */
+    public long parse(PacketHandler handler){
+        long[] splits;
+        try {
+            splits = findSplits();
+        } catch (IOException e) {
+            LOG.error("Could not read from file, please check the path.");
+            return -1;
+        }
+        if (splits == null)
+            return -1;
+        failed = false;
+        int chunks = splits.length - 1;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            long count;
+            if (ordered)
+                count = parseOrdered(pool, splits, chunks, handler);
+            else
+                count = pool.invoke(new ChunkTask(splits, 0, chunks, handler, null));
+            return failed ? -1 : count;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Decodes the chunks in rounds of 2 * parallelism, delivering one round while the next is decoded.
+     */
+    private long parseOrdered(ForkJoinPool pool, long[] splits, int chunks, PacketHandler handler){
+        int round = parallelism * 2;
+        long count = 0;
+        int from = 0;
+        ArrayList<ArrayList<BasicPacket>> results = newResults(round);
+        ForkJoinTask<Long> pending = pool.submit(new ChunkTask(splits, 0, Math.min(round, chunks), null, results));
+        while (from < chunks) {
+            int to = Math.min(from + round, chunks);
+            pending.join();
+            ArrayList<ArrayList<BasicPacket>> current = results;
+            if (to < chunks) {
+                results = newResults(round);
+                pending = pool.submit(new ChunkTask(splits, to, Math.min(to + round, chunks), null, results));
+            }
+            for (int i = 0; i < to - from; i++) {
+                for (BasicPacket packet : current.get(i)) {
+                    handler.handle(packet);
+                    count++;
+                }
+            }
+            from = to;
+        }
+        return count;
+    }
+
+    private static ArrayList<ArrayList<BasicPacket>> newResults(int size){
+        ArrayList<ArrayList<BasicPacket>> results = new ArrayList<ArrayList<BasicPacket>>(size);
+        for (int i = 0; i < size; i++)
+            results.add(null);
+        return results;
+    }
+
+    /**
+     * Decodes a single chunk with its own PcapParser.
+     * @param start the offset of the first record in the chunk
+     * @param end the offset where the chunk ends
+     * @param handler the callback for the packets, or null if they should be collected instead
+     * @param collected the list the packets are collected to when handler is null
+     * @return the number of packets decoded
+     */
+    private long decode(long start, long end, PacketHandler handler, ArrayList<BasicPacket> collected){
+        PcapParser pcapParser = new PcapParser();
+        pcapParser.setVerbose(verbose);
+        pcapParser.setFilter(filter);
+        pcapParser.setMetrics(metrics);
+        pcapParser.setReassembleFragments(false);
+        try {
+            if (pcapParser.openRange(new ChannelInput(file), start, end, linkType) < 0) {
+                failed = true;
+                return 0;
+            }
+        } catch (IOException e) {
+            LOG.error("Could not read from file, please check the path.");
+            failed = true;
+            return 0;
+        }
+        long count = 0;
+        BasicPacket packet = pcapParser.getPacket();
+        while (packet != BasicPacket.EOF) {
+            if (handler != null)
+                handler.handle(packet);
+            else
+                collected.add(packet);
+            count++;
+            packet = pcapParser.getPacket();
+        }
+        pcapParser.closeFile();
+        return count;
+    }
+
+    /**
+     * Decodes the chunks [from, to) by splitting them in half until a single chunk is left.
+     */
+    private class ChunkTask extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 0;
+
+        private final long[] splits;
+        private final int from;
+        private final int to;
+        private final PacketHandler handler;
+        private final ArrayList<ArrayList<BasicPacket>> results;
+
+        ChunkTask(long[] splits, int from, int to, PacketHandler handler, ArrayList<ArrayList<BasicPacket>> results){
+            this.splits = splits;
+            this.from = from;
+            this.to = to;
+            this.handler = handler;
+            this.results = results;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= 1) {
+                if (to == from)
+                    return 0L;
+                ArrayList<BasicPacket> collected = null;
+                if (handler == null) {
+                    collected = new ArrayList<BasicPacket>();
+                    results.set(from % results.size(), collected);
+                }
+                return decode(splits[from], splits[to], handler, collected);
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(splits, from, middle, handler, results);
+            left.fork();
+            long right = new ChunkTask(splits, middle, to, handler, results).compute();
+            return right + left.join();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts what one or more parsers have read, see PcapParser.setMetrics().
+ * Packets are counted by protocol together with their bytes and a histogram of their caplen, after
+ * fragment reassembly and filtering. Records with an invalid length or whose contents could not be
+ * read, bytes skipped after a failed read, TCP and UDP packets too short for their header (which
+ * getPacket() returns as BasicPackets), and the times the parser waited for data in follow mode are
+ * counted as well.
+ * The counters are LongAdders, so one instance can be shared by parsers on many threads without
+ * contention. The values can be read through snapshot() or JMX once register() has been called.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class ParserMetrics implements ParserMetricsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParserMetrics.class);
+
+    static final String objectNamePrefix = "uk.ac.gla.atanaspam.pcapj:type=ParserMetrics,name=";
+    static final int histogramBuckets = 12;
+    private static final int smallestBucketBits = 6; // the first bucket holds up to 64 bytes
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder tcpPackets = new LongAdder();
+    private final LongAdder udpPackets = new LongAdder();
+    private final LongAdder icmpPackets = new LongAdder();
+    private final LongAdder otherIpPackets = new LongAdder();
+    private final LongAdder nonIpPackets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder malformedRecords = new LongAdder();
+    private final LongAdder truncatedPackets = new LongAdder();
+    private final LongAdder skippedBytes = new LongAdder();
+    private final LongAdder readStalls = new LongAdder();
+    private final LongAdder[] caplenHistogram = new LongAdder[histogramBuckets];
+    private ObjectName objectName;
+
+    public ParserMetrics(){
+        for (int i = 0; i < histogramBuckets; i++)
+            caplenHistogram[i] = new LongAdder();
+    }
+
+    /**
+     * Every bucket holds the packets larger than the bound of the bucket before it, up to its own
+     * bound. The bounds double from 64 bytes, and the last bucket holds everything larger.
+     * @param bucket the index of the bucket
+     * @return the largest caplen counted in the bucket, Integer.MAX_VALUE for the last one.
+     */
+    public static int histogramBound(int bucket){
+        if (bucket < 0 || bucket >= histogramBuckets)
+            throw new IllegalArgumentException("No such bucket: " + bucket);
+        return bucket == histogramBuckets - 1 ? Integer.MAX_VALUE : 1 << (smallestBucketBits + bucket);
+    }
+
+    static int histogramBucket(int caplen){
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(caplen, 1) - 1);
+        return Math.min(Math.max(bits - smallestBucketBits, 0), histogramBuckets - 1);
+    }
+
+    /**
+     * Counts a packet that is returned to the caller.
+     * @param frame the array holding the packet
+     * @param offset the offset of the packet in the array
+     * @param length the number of bytes captured
+     * @param ethernet true if the packet is an Ethernet frame
+     */
+    void countPacket(byte[] frame, int offset, int length, boolean ethernet){
+        packets.increment();
+        bytes.add(length);
+        caplenHistogram[histogramBucket(length)].increment();
+        int network = -1;
+        int protocol = -1;
+        if (ethernet) {
+            int end = offset + length;
+            network = PacketFilter.ipv4Offset(frame, offset, end);
+            if (network >= 0) {
+                if (Utils.getFragmentOffset(frame, network) == 0)
+                    protocol = frame[network + Utils.ipProtoOffset] & 0xFF;
+            } else {
+                network = PacketFilter.ipv6Offset(frame, offset, end);
+                if (network >= 0)
+                    protocol = Utils.getIPv6Protocol(frame, network, end);
+            }
+        }
+        if (protocol == Utils.ipProtoTCP)
+            tcpPackets.increment();
+        else if (protocol == Utils.ipProtoUDP)
+            udpPackets.increment();
+        else if (protocol == PacketFilter.ipProtoICMP || protocol == PacketFilter.ipProtoICMPv6)
+            icmpPackets.increment();
+        else if (network >= 0)
+            otherIpPackets.increment();
+        else
+            nonIpPackets.increment();
+    }
+
+    void countMalformedRecord(){
+        malformedRecords.increment();
+    }
+
+    void countTruncatedPacket(){
+        truncatedPackets.increment();
+    }
+
+    void countSkippedBytes(long count){
+        skippedBytes.add(count);
+    }
+
+    void countReadStall(){
+        readStalls.increment();
+    }
+
+    public long getPackets(){
+        return packets.sum();
+    }
+
+    public long getTcpPackets(){
+        return tcpPackets.sum();
+    }
+
+    public long getUdpPackets(){
+        return udpPackets.sum();
+    }
+
+    /**
+     * @return the number of ICMP and ICMPv6 packets.
+     */
+    public long getIcmpPackets(){
+        return icmpPackets.sum();
+    }
+
+    /**
+     * @return the number of IPv4 and IPv6 packets that are not TCP, UDP or ICMP, including fragments
+     * other than the first.
+     */
+    public long getOtherIpPackets(){
+        return otherIpPackets.sum();
+    }
+
+    public long getNonIpPackets(){
+        return nonIpPackets.sum();
+    }
+
+    /**
+     * @return the number of bytes captured for the packets counted.
+     */
+    public long getBytes(){
+        return bytes.sum();
+    }
+
+    public long getMalformedRecords(){
+        return malformedRecords.sum();
+    }
+
+    public long getTruncatedPackets(){
+        return truncatedPackets.sum();
+    }
+
+    public long getSkippedBytes(){
+        return skippedBytes.sum();
+    }
+
+    public long getReadStalls(){
+        return readStalls.sum();
+    }
+
+    public long[] getCaplenHistogram(){
+        long[] histogram = new long[histogramBuckets];
+        for (int i = 0; i < histogramBuckets; i++)
+            histogram[i] = caplenHistogram[i].sum();
+        return histogram;
+    }
+
+    public void reset(){
+        packets.reset();
+        tcpPackets.reset();
+        udpPackets.reset();
+        icmpPackets.reset();
+        otherIpPackets.reset();
+        nonIpPackets.reset();
+        bytes.reset();
+        malformedRecords.reset();
+        truncatedPackets.reset();
+        skippedBytes.reset();
+        readStalls.reset();
+        for (LongAdder bucket : caplenHistogram)
+            bucket.reset();
+    }
+
+    /**
+     * Reads every counter. Counters updated while the snapshot is taken may or may not be included,
+     * so the values are only consistent with each other once the parsers have stopped.
+     * @return the current values.
+     */
+    public Snapshot snapshot(){
+        return new Snapshot(this);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, so that they can be watched with
+     * JConsole or any JMX agent. A previous registration of the same metrics is removed first.
+     * @param name the name that tells the metrics of different parsers apart
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public synchronized int register(String name){
+        unregister();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName newName = new ObjectName(objectNamePrefix + ObjectName.quote(name));
+            server.registerMBean(this, newName);
+            objectName = newName;
+            return 0;
+        } catch (JMException e) {
+            LOG.error("Could not register the metrics : " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server if they have been registered.
+     */
+    public synchronized void unregister(){
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOG.warn("Could not unregister the metrics : " + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    /**
+     * The values of the counters at one point in time.
+     */
+    public static final class Snapshot {
+        private final long packets;
+        private final long tcpPackets;
+        private final long udpPackets;
+        private final long icmpPackets;
+        private final long otherIpPackets;
+        private final long nonIpPackets;
+        private final long bytes;
+        private final long malformedRecords;
+        private final long truncatedPackets;
+        private final long skippedBytes;
+        private final long readStalls;
+        private final long[] caplenHistogram;
+
+        Snapshot(ParserMetrics metrics){
+            this.packets = metrics.getPackets();
+            this.tcpPackets = metrics.getTcpPackets();
+            this.udpPackets = metrics.getUdpPackets();
+            this.icmpPackets = metrics.getIcmpPackets();
+            this.otherIpPackets = metrics.getOtherIpPackets();
+            this.nonIpPackets = metrics.getNonIpPackets();
+            this.bytes = metrics.getBytes();
+            this.malformedRecords = metrics.getMalformedRecords();
+            this.truncatedPackets = metrics.getTruncatedPackets();
+            this.skippedBytes = metrics.getSkippedBytes();
+            this.readStalls = metrics.getReadStalls();
+            this.caplenHistogram = metrics.getCaplenHistogram();
+        }
+
+        public long getPackets(){
+            return packets;
+        }
+
+        public long getTcpPackets(){
+            return tcpPackets;
+        }
+
+        public long getUdpPackets(){
+            return udpPackets;
+        }
+
+        public long getIcmpPackets(){
+            return icmpPackets;
+        }
+
+        public long getOtherIpPackets(){
+            return otherIpPackets;
+        }
+
+        public long getNonIpPackets(){
+            return nonIpPackets;
+        }
+
+        public long getBytes(){
+            return bytes;
+        }
+
+        public long getMalformedRecords(){
+            return malformedRecords;
+        }
+
+        public long getTruncatedPackets(){
+            return truncatedPackets;
+        }
+
+        public long getSkippedBytes(){
+            return skippedBytes;
+        }
+
+        public long getReadStalls(){
+            return readStalls;
+        }
+
+        /**
+         * @return the number of packets per caplen bucket, see histogramBound().
+         */
+        public long[] getCaplenHistogram(){
+            return caplenHistogram.clone();
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder histogram = new StringBuilder();
+            for (int i = 0; i < caplenHistogram.length; i++) {
+                if (caplenHistogram[i] == 0)
+                    continue;
+                if (histogram.length() > 0)
+                    histogram.append(' ');
+                histogram.append(i == caplenHistogram.length - 1 ? ">" + histogramBound(i - 1) : "<=" + histogramBound(i))
+                        .append(':').append(caplenHistogram[i]);
+            }
+            return String.format("packets=%d (tcp=%d udp=%d icmp=%d other ip=%d non-ip=%d) bytes=%d malformed=%d " +
+                    "truncated=%d skipped bytes=%d stalls=%d caplen [%s]", packets, tcpPackets, udpPackets,
+                    icmpPackets, otherIpPackets, nonIpPackets, bytes, malformedRecords, truncatedPackets,
+                    skippedBytes, readStalls, histogram);
+        }
+    }
+}
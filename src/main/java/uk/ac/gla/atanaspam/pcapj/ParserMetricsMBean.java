@@ -0,0 +1,42 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * The JMX view of a ParserMetrics, see ParserMetrics.register().
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public interface ParserMetricsMBean {
+
+    long getPackets();
+
+    long getTcpPackets();
+
+    long getUdpPackets();
+
+    long getIcmpPackets();
+
+    long getOtherIpPackets();
+
+    long getNonIpPackets();
+
+    long getBytes();
+
+    long getMalformedRecords();
+
+    long getTruncatedPackets();
+
+    long getSkippedBytes();
+
+    long getReadStalls();
+
+    /**
+     * @return the number of packets per caplen bucket, see ParserMetrics.histogramBound().
+     */
+    long[] getCaplenHistogram();
+
+    /**
+     * Sets every counter back to 0.
+     */
+    void reset();
+}
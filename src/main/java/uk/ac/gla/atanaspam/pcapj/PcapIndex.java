@@ -0,0 +1,203 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class is a sparse index over the records of a PCAP file.
+ * Every interval-th record is sampled together with its offset, its ordinal and the latest timestamp
+ * seen before it, so that both packet numbers and timestamps can be located with a binary search
+ * followed by a short header-only scan. The index is persisted next to the capture as a sidecar
+ * file and is rebuilt when the capture changes.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class PcapIndex {
+
+    static final int defaultInterval = 4096;
+    static final String sidecarExtension = ".pidx";
+    private static final int indexMagicNumber = 0x50494458; // "PIDX"
+    private static final int indexVersion = 1;
+    private static final int sidecarHeaderLength = 32;
+    private static final int sampleLength = 24;
+
+    private final int interval;
+    private final long fileSize;
+    private final long lastModified;
+    private long[] offsets;
+    private long[] ordinals;
+    private long[] timestamps;
+    private int count;
+
+    private PcapIndex(int interval, long fileSize, long lastModified, int capacity) {
+        this.interval = interval;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.offsets = new long[capacity];
+        this.ordinals = new long[capacity];
+        this.timestamps = new long[capacity];
+        this.count = 0;
+    }
+
+    private void add(long offset, long ordinal, long timestamp) {
+        if (count == offsets.length) {
+            int capacity = Math.max(16, count * 2);
+            offsets = java.util.Arrays.copyOf(offsets, capacity);
+            ordinals = java.util.Arrays.copyOf(ordinals, capacity);
+            timestamps = java.util.Arrays.copyOf(timestamps, capacity);
+        }
+        offsets[count] = offset;
+        ordinals[count] = ordinal;
+        timestamps[count] = timestamp;
+        count++;
+    }
+
+    /**
+     * @param capture the capture file
+     * @return the sidecar file that stores the index of the capture.
+     */
+    static File sidecar(File capture) {
+        return new File(capture.getPath() + sidecarExtension);
+    }
+
+    /**
+     * Scans the record headers of a capture and samples every interval-th record.
+     * @param capture a capture whose global header has already been checked
+     * @param interval the number of records between two samples
+     * @return the index
+     * @throws IOException if the capture cannot be read
+     */
+    static PcapIndex build(File capture, int interval) throws IOException {
+        CaptureInput input = new ChannelInput(capture);
+        try {
+            PcapIndex index = new PcapIndex(interval, input.size(), capture.lastModified(), 16);
+            input.position(Utils.globalHeaderLength);
+            RecordScanner scanner = new RecordScanner(input);
+            long ordinal = 0;
+            long latest = Long.MIN_VALUE;
+            while (scanner.next()) {
+                if (ordinal % interval == 0)
+                    index.add(scanner.offset(), ordinal, latest);
+                latest = Math.max(latest, scanner.timestamp());
+                ordinal++;
+            }
+            if (index.count == 0)
+                index.add(Utils.globalHeaderLength, 0, latest);
+            return index;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Loads the sidecar index of a capture.
+     * @param capture the capture file
+     * @return the index, or null if there is no sidecar, it does not match the capture any more or
+     * it is corrupt, e.g. because it was truncated.
+     * @throws IOException if the sidecar cannot be read
+     */
+    static PcapIndex load(File capture) throws IOException {
+        File file = sidecar(capture);
+        if (!file.isFile())
+            return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != indexMagicNumber || in.readInt() != indexVersion)
+                return null;
+            long fileSize = in.readLong();
+            long lastModified = in.readLong();
+            if (fileSize != capture.length() || lastModified != capture.lastModified())
+                return null;
+            int interval = in.readInt();
+            int count = in.readInt();
+            if (interval < 1 || count < 1 || (file.length() - sidecarHeaderLength) != (long) count * sampleLength)
+                return null;
+            PcapIndex index = new PcapIndex(interval, fileSize, lastModified, count);
+            long previous = Utils.globalHeaderLength - 1;
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                long ordinal = in.readLong();
+                if (offset <= previous || offset > fileSize || ordinal != (long) i * interval)
+                    return null;
+                index.add(offset, ordinal, in.readLong());
+                previous = offset;
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the index to the sidecar file of the capture.
+     * @param capture the capture file
+     * @throws IOException if the sidecar cannot be written
+     */
+    void save(File capture) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar(capture))));
+        try {
+            out.writeInt(indexMagicNumber);
+            out.writeInt(indexVersion);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeInt(interval);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(offsets[i]);
+                out.writeLong(ordinals[i]);
+                out.writeLong(timestamps[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finds the last sample at or before a packet.
+     * @param ordinal the number of the packet (starting at 0)
+     * @return the index of the sample
+     */
+    int findPacket(long ordinal) {
+        return (int) Math.min(ordinal / interval, count - 1);
+    }
+
+    /**
+     * Finds the last sample such that every record before it is older than the timestamp.
+     * @param timestamp the timestamp of interest
+     * @return the index of the sample
+     */
+    int findTimestamp(long timestamp) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (timestamps[middle] < timestamp)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of samples.
+     */
+    int size() {
+        return count;
+    }
+
+    long offset(int sample) {
+        return offsets[sample];
+    }
+
+    long ordinal(int sample) {
+        return ordinals[sample];
+    }
+}
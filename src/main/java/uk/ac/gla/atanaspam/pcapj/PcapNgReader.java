@@ -0,0 +1,271 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This class reads the blocks of a pcapng file one at a time.
+ * Section headers and interface descriptions are tracked so that every packet is reported with the
+ * link type and timestamp resolution of the interface it was captured on. After nextPacket() the
+ * input is positioned at the packet data, which is read by PcapParser like a classic PCAP record.
+ * Only the block headers are buffered, so the file is streamed regardless of its size.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class PcapNgReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PcapNgReader.class);
+
+    static final int sectionHeaderBlock = 0x0A0D0D0A;
+    static final int interfaceDescriptionBlock = 1;
+    static final int packetBlock = 2; // obsolete
+    static final int simplePacketBlock = 3;
+    static final int enhancedPacketBlock = 6;
+    private static final int byteOrderMagic = 0x1A2B3C4D;
+    private static final int optionEnd = 0;
+    private static final int optionTsResol = 9;
+    private static final int optionTsOffset = 14;
+    private static final int blockHeaderLength = 8;
+    private static final int blockTrailerLength = 4;
+    private static final int maxDecimalResolution = 18; // 10^18 units per second still fit in a long
+    private static final int maxBinaryResolution = 62;
+
+    private final CaptureInput input;
+    private final ArrayList<Interface> interfaces = new ArrayList<Interface>();
+    private byte[] block = new byte[64];
+    private boolean bigEndian;
+    private long nextBlock;
+    private boolean malformed = false;
+
+    private long timestamp;
+    private long capLen;
+    private int linkType;
+
+    /**
+     * @param input an input positioned right after the first bytes of the file
+     * @param header the first bytes of the file, which hold the start of a section header block
+     */
+    PcapNgReader(CaptureInput input, byte[] header) {
+        this.input = input;
+        this.bigEndian = Utils.convertLong(header, blockHeaderLength) == byteOrderMagic;
+        long length = readInt(header, 4) & 0xFFFFFFFFL;
+        if (length < header.length) {
+            malformed("Invalid pcapng section header length " + length);
+        } else {
+            this.nextBlock = input.position() - header.length + length;
+        }
+    }
+
+    /**
+     * Checks if a file starts with a pcapng section header block.
+     * @param header the first bytes of the file
+     * @return true if the file is pcapng
+     */
+    static boolean isPcapNg(byte[] header) {
+        return (int) Utils.convertLong(header, 0) == sectionHeaderBlock;
+    }
+
+    /**
+     * Skips blocks until the next packet block and positions the input at its data.
+     * A block is only consumed once it has been read completely, so the method can be called again
+     * after it returned false if more data has been appended to the file since.
+     * @return true if a packet was found, false at the end of the file or if the file is invalid.
+     * @throws IOException if the input cannot be read
+     */
+    boolean nextPacket() throws IOException {
+        while (true) {
+            if (nextBlock < 0)
+                return false;
+            input.position(nextBlock);
+            long blockStart = nextBlock;
+            if (input.read(block, 0, blockHeaderLength) != blockHeaderLength)
+                return false;
+            int type = readInt(block, 0);
+            if (type == sectionHeaderBlock) {
+                if (input.read(block, blockHeaderLength, 4) != 4)
+                    return false;
+                bigEndian = Utils.convertLong(block, blockHeaderLength) == byteOrderMagic;
+                interfaces.clear();
+            }
+            long length = readInt(block, 4) & 0xFFFFFFFFL;
+            if (length < blockHeaderLength + blockTrailerLength || length % 4 != 0)
+                return malformed("Invalid pcapng block length " + length + " at offset " + blockStart);
+            int body = (int) length - blockHeaderLength - blockTrailerLength;
+            if (type == interfaceDescriptionBlock) {
+                if (!readBody(body))
+                    return false;
+                Interface description = new Interface(block, body);
+                if (!description.hasValidResolution())
+                    return malformed("Unsupported pcapng timestamp resolution " + description.resolution +
+                            (description.binaryResolution ? " (binary)" : "") + " at offset " + blockStart);
+                interfaces.add(description);
+            } else if (type == enhancedPacketBlock || type == packetBlock) {
+                final int fieldsLength = 20;
+                if (body < fieldsLength || input.read(block, 0, fieldsLength) != fieldsLength)
+                    return false;
+                int interfaceId = type == packetBlock ? readShort(block, 0) : readInt(block, 0);
+                Interface source = getInterface(interfaceId);
+                if (source == null)
+                    return false;
+                long time = ((readInt(block, 4) & 0xFFFFFFFFL) << 32) | (readInt(block, 8) & 0xFFFFFFFFL);
+                timestamp = source.toMillis(time);
+                capLen = Math.min(readInt(block, 12) & 0xFFFFFFFFL, body - fieldsLength);
+                linkType = source.linkType;
+                nextBlock = blockStart + length;
+                return true;
+            } else if (type == simplePacketBlock) {
+                final int fieldsLength = 4;
+                if (body < fieldsLength || input.read(block, 0, fieldsLength) != fieldsLength)
+                    return false;
+                Interface source = getInterface(0);
+                if (source == null)
+                    return false;
+                capLen = Math.min(readInt(block, 0) & 0xFFFFFFFFL, body - fieldsLength);
+                if (source.snapLen > 0)
+                    capLen = Math.min(capLen, source.snapLen);
+                timestamp = 0; // simple packet blocks do not carry a timestamp
+                linkType = source.linkType;
+                nextBlock = blockStart + length;
+                return true;
+            }
+            nextBlock = blockStart + length;
+        }
+    }
+
+    private Interface getInterface(int id) {
+        if (id < 0 || id >= interfaces.size()) {
+            malformed("Packet refers to unknown interface " + id);
+            return null;
+        }
+        return interfaces.get(id);
+    }
+
+    /**
+     * Stops reading a file that is found to be invalid.
+     * @return false, so that callers can return its result
+     */
+    private boolean malformed(String message) {
+        LOG.error(message);
+        malformed = true;
+        nextBlock = -1;
+        return false;
+    }
+
+    /**
+     * @return true if the file has been found to be invalid, in which case no more packets are read.
+     */
+    boolean isMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Reads the body of the current block into the reusable block buffer.
+     */
+    private boolean readBody(int length) throws IOException {
+        if (block.length < length)
+            block = new byte[Math.max(length, block.length * 2)];
+        return input.read(block, 0, length) == length;
+    }
+
+    private int readInt(byte[] data, int offset) {
+        if (bigEndian)
+            return (int) Utils.convertLong(data, offset);
+        return (int) Utils.convertInt(data, offset);
+    }
+
+    private int readShort(byte[] data, int offset) {
+        if (bigEndian)
+            return Utils.convertShort(data, offset);
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    /**
+     * @return the timestamp of the current packet in milliseconds.
+     */
+    long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the number of bytes captured for the current packet.
+     */
+    long capLen() {
+        return capLen;
+    }
+
+    /**
+     * @return the link type of the interface that captured the current packet.
+     */
+    int linkType() {
+        return linkType;
+    }
+
+    /**
+     * The properties of an interface described by an interface description block.
+     */
+    private final class Interface {
+
+        final int linkType;
+        final long snapLen;
+        boolean binaryResolution = false;
+        int resolution = 6; // microseconds unless if_tsresol says otherwise
+        private long offsetSeconds = 0;
+
+        Interface(byte[] body, int length) {
+            this.linkType = readShort(body, 0);
+            this.snapLen = readInt(body, 4) & 0xFFFFFFFFL;
+            int offset = 8;
+            while (offset + 4 <= length) {
+                int code = readShort(body, offset);
+                int optionLength = readShort(body, offset + 2);
+                offset += 4;
+                if (code == optionEnd || offset + optionLength > length)
+                    break;
+                if (code == optionTsResol && optionLength >= 1) {
+                    binaryResolution = (body[offset] & 0x80) != 0;
+                    resolution = body[offset] & 0x7F;
+                } else if (code == optionTsOffset && optionLength >= 8) {
+                    long first = readInt(body, offset) & 0xFFFFFFFFL;
+                    long second = readInt(body, offset + 4) & 0xFFFFFFFFL;
+                    offsetSeconds = bigEndian ? (first << 32) | second : (second << 32) | first;
+                }
+                offset += (optionLength + 3) & ~3;
+            }
+        }
+
+        /**
+         * @return true if timestamps of this resolution can be converted without overflowing.
+         */
+        boolean hasValidResolution() {
+            return resolution <= (binaryResolution ? maxBinaryResolution : maxDecimalResolution);
+        }
+
+        /**
+         * Converts a timestamp in the units of this interface to milliseconds.
+         */
+        long toMillis(long time) {
+            long millis;
+            if (binaryResolution) {
+                int shift = resolution;
+                long seconds = time >>> shift;
+                long fraction = time & ((1L << shift) - 1);
+                millis = seconds * 1000 + (long) (fraction * 1000.0 / (1L << shift));
+            } else if (resolution >= 3) {
+                long divisor = 1;
+                for (int i = 3; i < resolution; i++)
+                    divisor *= 10;
+                millis = time / divisor;
+            } else {
+                long multiplier = 1;
+                for (int i = resolution; i < 3; i++)
+                    multiplier *= 10;
+                millis = time * multiplier;
+            }
+            return millis + offsetSeconds * 1000;
+        }
+    }
+}
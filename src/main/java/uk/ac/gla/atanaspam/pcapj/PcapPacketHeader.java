@@ -10,15 +10,38 @@ public class PcapPacketHeader{
 
     public static final int pcapPacketHeaderSize = 16;
     public static final int capLenOffset = 8;
+    static final int secOffset = 0;
+    static final int uSecOffset = 4;
 
     public long timestamp;
     public long packetSize;
+    public int linkType = Utils.linkTypeEthernet;
+
+    /**
+     * Extracts the timestamp in milliseconds from a raw record header.
+     * @param header a byte[] that stores the raw record header
+     * @return the timestamp
+     */
+    static long parseTimestamp(byte[] header){
+        return (Utils.convertInt(header, secOffset) * 1000) +
+                (Utils.convertInt(header, uSecOffset) / 1000);
+    }
+
+    /**
+     * Extracts the number of bytes captured from a raw record header.
+     * @param header a byte[] that stores the raw record header
+     * @return the packet size
+     */
+    static long parseCapLen(byte[] header){
+        return Utils.convertInt(header, capLenOffset);
+    }
 
     @Override
     public String toString() {
         return "PcapPacketHeader{" +
                 "timestamp=" + timestamp +
                 ", packetSize=" + packetSize +
+                ", linkType=" + linkType +
                 '}';
     }
 }
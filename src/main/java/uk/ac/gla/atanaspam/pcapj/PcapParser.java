@@ -2,6 +2,10 @@ package uk.ac.gla.atanaspam.pcapj;
 
 import java.io.*;
 import java.lang.Exception;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,36 +19,57 @@ public class PcapParser{
 
 	private static final Logger LOG = LoggerFactory.getLogger(PcapParser.class);
 
-    private RandomAccessFile raf;
+    private CaptureInput input;
+    private File file;
+    private PcapIndex index;
     private boolean verbose = false;
-    private long fileOffset;
+    private boolean vlanEnabled = false;
+    private boolean memoryMapped = false;
+    private final byte[] recordHeader = new byte[PcapPacketHeader.pcapPacketHeaderSize];
+    private long recordTimestamp;
+    private long recordLength;
+    private int recordLinkType = Utils.linkTypeEthernet;
+    private int linkType = Utils.linkTypeEthernet;
+    private PcapNgReader pcapng;
+    private long limit = Long.MAX_VALUE;
+    private boolean headerPending = false;
+    private PacketFilter filter;
+    private ParserMetrics metrics;
+    private byte[] scratch = new byte[0];
+    private volatile boolean follow = false;
+    private volatile boolean closed = false;
+    private long followInterval = defaultFollowInterval;
+    private final FragmentReassembler fragments = new FragmentReassembler();
+    private boolean reassembleFragments = true;
+    private byte[] pendingDatagram;
+    private long pendingTimestamp;
+
+    static final long defaultFollowInterval = 100;
 
     public PcapParser(){
-        fileOffset = 0;
     }
 
     /**
-     * Specify if the packets processed contain a 802.1Q Header
-     * This reflects on the constants specified in the Utils class
+     * @deprecated
+     * VLAN tags are now detected from the EtherType of every frame, so tagged and untagged
+     * frames are handled without any configuration. The setting is kept for compatibility and
+     * no longer has any effect, in particular it no longer changes the offsets stored in Utils.
      * @param value the new setting
      */
+	@Deprecated
 	public void setVlanEnabled(boolean value) {
-		if (!Utils.vlanEnabled){
-            if (value) {
-                Utils.etherHeaderLength = Utils.etherHeaderLength + Utils.vlanHeaderLength;
-                Utils.etherTypeOffset = Utils.etherTypeOffset + Utils.vlanHeaderLength;
-                Utils.verIHLOffset = Utils.verIHLOffset + Utils.vlanHeaderLength;
-            }
-		} else{
-            if (!value){
-                Utils.etherHeaderLength = Utils.etherHeaderLength - Utils.vlanHeaderLength;
-                Utils.etherTypeOffset = Utils.etherTypeOffset - Utils.vlanHeaderLength;
-                Utils.verIHLOffset = Utils.verIHLOffset - Utils.vlanHeaderLength;
-            }
-		}
-        Utils.vlanEnabled = value;
+        this.vlanEnabled = value;
 	}
 
+    /**
+     * @deprecated
+     * @return the value passed to setVlanEnabled().
+     */
+    @Deprecated
+    public boolean getVlanEnabled() {
+        return this.vlanEnabled;
+    }
+
 	/**
      * Set the verbosity level.
      * @param newVerbose the new setting.
@@ -65,40 +90,225 @@ public class PcapParser{
         return this.verbose;
     }
 
+    /**
+     * Set a filter that every packet has to match. The filter is evaluated on the raw frame,
+     * so packets that do not match are skipped before any object is built for them.
+     * @param filter the new filter, or null to keep every packet
+     */
+    public synchronized void setFilter(PacketFilter filter){
+        this.filter = filter;
+    }
+
+    /**
+     * Set the metrics the parser counts what it reads in. The same metrics can be shared by several
+     * parsers, e.g. all the parsers of a ParallelPcapParser.
+     * @param metrics the new metrics, or null to count nothing
+     */
+    public synchronized void setMetrics(ParserMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    public ParserMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Compiles a filter expression and sets it as the filter, see PacketFilter for the syntax.
+     * @param expression the expression, or null to keep every packet
+     * @return 0 if everything is ok, -1 if the expression is not valid.
+     */
+    public int setFilter(String expression){
+        if (expression == null) {
+            setFilter((PacketFilter) null);
+            return 0;
+        }
+        try {
+            setFilter(PacketFilter.compile(expression));
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid filter : " + e.getMessage());
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the current filter, or null if there is none.
+     */
+    public PacketFilter getFilter(){
+        return filter;
+    }
+
+    /**
+     * Specify if IPv4 fragments should be reassembled. When enabled, the fragments of a datagram are
+     * held back and the whole datagram is returned as a single packet, with the timestamp of the
+     * fragment that completed it, once all of them have been read. Packets that are not fragmented
+     * are returned as they are. The filter is applied to the reassembled datagram.
+     * When disabled, fragments are returned as they were captured, and only the first fragment of a
+     * datagram is decoded as a TCP or UDP packet.
+     * @param value the new setting
+     */
+    public synchronized void setReassembleFragments(boolean value){
+        this.reassembleFragments = value;
+        resetFragments();
+    }
+
+    public boolean getReassembleFragments(){
+        return reassembleFragments;
+    }
+
+    /**
+     * Set how long the fragments of an incomplete datagram are kept, measured in packet time.
+     * @param milliseconds the new setting
+     */
+    public synchronized void setFragmentTimeout(long milliseconds){
+        fragments.setTimeout(milliseconds);
+    }
+
+    public synchronized long getFragmentTimeout(){
+        return fragments.getTimeout();
+    }
+
+    /**
+     * Set the maximum number of bytes held for incomplete datagrams. The oldest datagrams are
+     * dropped when the limit is reached.
+     * @param bytes the new setting
+     */
+    public synchronized void setFragmentMemory(long bytes){
+        fragments.setMaxMemory(bytes);
+    }
+
+    public synchronized long getFragmentMemory(){
+        return fragments.getMaxMemory();
+    }
+
+    /**
+     * @return the number of fragments dropped because their datagram timed out or did not fit in memory.
+     */
+    public synchronized long getDroppedFragments(){
+        return fragments.getDropped();
+    }
+
+    /**
+     * Specify if the file should be memory-mapped instead of read sequentially through a buffered FileChannel.
+     * Memory mapping avoids a system call for every read, and repeated scans of the same file are
+     * served from the OS page cache. The setting is applied when openFile() is invoked.
+     * @param value the new setting
+     */
+    public void setMemoryMapped(boolean value){
+        this.memoryMapped = value;
+    }
+
+    /**
+     * Check if the file is read through memory mapping.
+     * @return the current setting.
+     */
+    public boolean getMemoryMapped(){
+        return this.memoryMapped;
+    }
+
+    /**
+     * Specify if the parser should wait for new packets at the end of the file instead of returning
+     * BasicPacket.EOF, e.g. to process a capture that tcpdump is still writing. The file is checked
+     * for new data every followInterval milliseconds until setFollow(false) or closeFile() is invoked
+     * from another thread. Only applies to files, reading from a stream always waits for new data
+     * until the stream is closed. Files are read through a FileChannel in follow mode, even if
+     * memory mapping has been requested.
+     * @param value the new setting
+     */
+    public void setFollow(boolean value){
+        this.follow = value;
+    }
+
+    /**
+     * Check if the parser waits for new packets at the end of the file.
+     * @return the current setting.
+     */
+    public boolean getFollow(){
+        return this.follow;
+    }
+
+    /**
+     * Set how often the file is checked for new data in follow mode.
+     * @param milliseconds the time to wait between two checks
+     */
+    public void setFollowInterval(long milliseconds){
+        if (milliseconds < 1)
+            throw new IllegalArgumentException("Follow interval must be positive");
+        this.followInterval = milliseconds;
+    }
+
+    public long getFollowInterval(){
+        return this.followInterval;
+    }
+
+    /**
+     * Waits before the input is checked for new data again.
+     * @return true if the caller should try to read again, false if it should give up
+     */
+    private boolean waitForData(){
+        if (!follow || closed || !input.isSeekable())
+            return false;
+        if (metrics != null)
+            metrics.countReadStall();
+        try {
+            Thread.sleep(followInterval);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
     /**
      * This method reads as much data as it can fit into the provided byte[].
      * @param data a byte[] as a destination
      * @return 0 if successful, -1 if not
      */
-	private synchronized int readBytes(byte[] data){
-		int offset = 0;
-		int read = -1;
-		while(offset != data.length){
-			try{
-                raf.seek(fileOffset);
-				read = this.raf.read(data, offset, data.length - offset);
-			}catch(Exception e){
-                LOG.error("An error occurred while reading from the file : " + e.getMessage());
-				break;
-			}
-			if(read == -1)
-				break;
+	private int readBytes(byte[] data){
+        return readBytes(data, 0, data.length);
+    }
 
-			offset = offset + read;
+    /**
+     * This method reads the requested number of bytes into the provided byte[].
+     * In follow mode it waits for the rest of the bytes if they have not been written yet.
+     * @param data a byte[] as a destination
+     * @param offset the offset into data[]
+     * @param length the number of bytes to read
+     * @return 0 if successful, -1 if not
+     */
+	private int readBytes(byte[] data, int offset, int length){
+        long start = input.position();
+		int read = 0;
+        try{
+            read = input.read(data, offset, length);
+            while (read != length && waitForData())
+                read += input.read(data, offset + read, length - read);
+        }catch(Exception e){
+            LOG.error("An error occurred while reading from the file : " + e.getMessage());
+            read = -1;
         }
-		if(read != data.length) {
-            fileOffset = fileOffset + data.length; // if we failed we just skip this and try to recover
+		if(read != length) {
+            if (read == 0) // nothing at all is the end of the file, which is not skipped
+                return -1;
+            if (metrics != null)
+                metrics.countSkippedBytes(length);
+            try {
+                input.position(start + length); // if we failed we just skip this and try to recover
+            }catch (Exception e){
+                LOG.error("An error occurred while reading from the file : " + e.getMessage());
+            }
             //LOG.error("Could not read from file. File may be corrupted.");
             return -1;
         }
 		else {
-            fileOffset = fileOffset + read;
             return 0;
         }
 	}
 
     /**
      * This method reads the PCAP file header and checks if it conforms to the required format.
+     * Files in the pcapng format are recognised by their section header block and are read
+     * through a PcapNgReader from then on.
      * If verbose is true the raw header will be printed to stdout.
      * @return 0 if everything is ok, -1 if an error occurs while reading and -2 if the format
      * is not recognised.
@@ -112,64 +322,437 @@ public class PcapParser{
         if (verbose) {
             //LOG.info("Trafic type: " + Utils.convertInt(globalHeader, UtglobalHeaderSize-4));
             String header = String.format("Global Header : %s",
-                    javax.xml.bind.DatatypeConverter.printHexBinary(globalHeader));
+                    Utils.printHexBinary(globalHeader));
            LOG.info(header);
+        }
+        if (PcapNgReader.isPcapNg(globalHeader)) {
+            pcapng = new PcapNgReader(input, globalHeader);
+            return 0;
         }
 		if(Utils.convertInt(globalHeader) != Utils.pcapMagicNumber) {
             LOG.error("PCAP file has wrong endianness");
             return -2;
         }
+        linkType = (int) Utils.convertInt(globalHeader, Utils.linkTypeOffset);
+        recordLinkType = linkType;
 		return 0;
 	}
 
     /**
      * This method opens a PCAP file and invokes readGlobalHeader to check if the file is recognised.
+     * Files compressed with gzip (e.g. capture.pcap.gz) are decompressed on a separate thread
+     * while they are parsed, so they do not have to be decompressed to disk first.
      * @param path The path to the file
      * @return 0 if everything is ok, -1 if an error has occurred.
      */
 	public int openFile(String path){
+        CaptureInput input;
+        File file = new File(path);
 		try{
-            this.raf = new RandomAccessFile(new File(path), "r");
+            String compression = PipelinedInput.detectCompression(file);
+            if (compression != null && !compression.equals(PipelinedInput.gzip)) {
+                LOG.error("Captures compressed with " + compression + " are not supported, please decompress the file first.");
+                return -1;
+            }
+            if (compression != null)
+                input = PipelinedInput.open(file);
+            else if (memoryMapped && !follow)
+                input = new MappedInput(file);
+            else
+                input = new ChannelInput(file);
 		}catch(FileNotFoundException e){
 			LOG.error("Could not read from file, please check the path.");
 			return -1;
-		}
-		if(this.readGlobalHeader() < 0)
-			return -1;
-		else
-			return 0;
+		}catch(IOException e){
+            LOG.error("Could not open the file : " + e.getMessage());
+            return -1;
+        }
+        synchronized (this) {
+            this.file = file;
+            this.index = null;
+        }
+        if (openInput(input) < 0) {
+            synchronized (this) {
+                this.file = null;
+            }
+            return -1;
+        }
+        return 0;
 	}
 
     /**
-     * This method reads a PCAP packet header and extracts the relevant data from it.
-     * If verbose is true it also prints the raw header to stdout.
-     * @return A packetHeader object with the timestamp and packetsize parameters extracted.
+     * Starts reading from an already opened input and checks its global header.
+     * The input is closed if the header is not recognised.
+     * @param input the source of the capture
+     * @return 0 if everything is ok, -1 if an error has occurred.
      */
-	private synchronized PcapPacketHeader buildPcapPacketHeader(){
-		final int inPcapPacketHeaderSecOffset = 0;
-		final int inPcapPacketHeaderUSecOffset = 4;
+    synchronized int openInput(CaptureInput input){
+        this.input = input;
+        this.headerPending = false;
+        this.closed = false;
+        this.pcapng = null;
+        resetFragments();
+        if(this.readGlobalHeader() < 0) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close file.");
+            }
+            this.input = null;
+            return -1;
+        }
+        else
+            return 0;
+    }
 
-		byte[] header = new byte[PcapPacketHeader.pcapPacketHeaderSize];
-		if(this.readBytes(header) < 0)
-			return null;
+    /**
+     * Starts reading a capture from a stream such as System.in, a named pipe or a socket.
+     * The stream is read on a separate thread, and getPacket() blocks until the next packet
+     * has arrived or the stream has been closed. Streams can not be indexed.
+     * @param in the stream that delivers the capture, starting with its global header
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public int openStream(InputStream in){
+        synchronized (this) {
+            this.file = null;
+            this.index = null;
+        }
+        return openInput(new PipelinedInput(in));
+    }
 
-		PcapPacketHeader pcapPacketHeader = new PcapPacketHeader();
-		pcapPacketHeader.timestamp =
-				(Utils.convertInt(header, inPcapPacketHeaderSecOffset) * 1000) +
-						(Utils.convertInt(header, inPcapPacketHeaderUSecOffset) / 1000);
+    /**
+     * Starts reading a capture from a channel, see openStream().
+     * @param channel the channel that delivers the capture, starting with its global header
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public int openChannel(ReadableByteChannel channel){
+        return openStream(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Loads the sidecar index of the file opened with openFile(), or builds it and saves it next
+     * to the file (as file.pcap.pidx) if it is missing or the file has changed since it was built.
+     * The index samples the offset of every few thousand records so that seekToPacket() and
+     * seekToTimestamp() only have to read the part of the file they need.
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public synchronized int openIndex(){
+        if (file == null) {
+            LOG.error("An index can only be used with a file opened through openFile().");
+            return -1;
+        }
+        if (pcapng != null || !input.isSeekable()) {
+            LOG.error("An index can only be used with uncompressed classic PCAP files.");
+            return -1;
+        }
+        try {
+            index = PcapIndex.load(file);
+        } catch (IOException e) {
+            LOG.warn("Could not read the index, it will be rebuilt : " + e.getMessage());
+        }
+        if (index != null)
+            return 0;
+        try {
+            index = PcapIndex.build(file, PcapIndex.defaultInterval);
+        } catch (IOException e) {
+            LOG.error("Could not build the index : " + e.getMessage());
+            return -1;
+        }
+        try {
+            index.save(file);
+        } catch (IOException e) {
+            LOG.warn("Could not save the index, it will only be kept in memory : " + e.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * Moves to a packet so that the next call to getPacket() returns it.
+     * The index is opened first if that has not been done yet.
+     * If the packet cannot be found the parser stays where it was.
+     * @param packetNumber the number of the packet, starting at 0
+     * @return 0 if everything is ok, -1 if the packet does not exist or an error has occurred.
+     */
+    public synchronized int seekToPacket(long packetNumber){
+        if (packetNumber < 0 || (index == null && openIndex() < 0))
+            return -1;
+        long previous = input.position();
+        int sample = index.findPacket(packetNumber);
+        try {
+            input.position(index.offset(sample));
+            RecordScanner scanner = new RecordScanner(input);
+            for (long i = index.ordinal(sample); i <= packetNumber; i++) {
+                if (!scanner.next())
+                    return restorePosition(previous);
+            }
+            input.position(scanner.offset());
+        } catch (IOException e) {
+            LOG.error("An error occurred while seeking : " + e.getMessage());
+            return restorePosition(previous);
+        }
+        headerPending = false;
+        resetFragments();
+        return 0;
+    }
+
+    /**
+     * Moves to the first packet captured at or after a point in time, so that the next call
+     * to getPacket() returns it. The index is opened first if that has not been done yet.
+     * If there is no such packet the parser stays where it was.
+     * @param timestamp a timestamp in the same unit as BasicPacket.getTimestamp()
+     * @return 0 if everything is ok, -1 if there is no such packet or an error has occurred.
+     */
+    public synchronized int seekToTimestamp(long timestamp){
+        if (index == null && openIndex() < 0)
+            return -1;
+        long previous = input.position();
+        int sample = index.findTimestamp(timestamp);
+        try {
+            input.position(index.offset(sample));
+            RecordScanner scanner = new RecordScanner(input);
+            while (scanner.next()) {
+                if (scanner.timestamp() >= timestamp) {
+                    input.position(scanner.offset());
+                    headerPending = false;
+                    resetFragments();
+                    return 0;
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("An error occurred while seeking : " + e.getMessage());
+        }
+        return restorePosition(previous);
+    }
+
+    /**
+     * Moves the input back to where it was before a seek that failed.
+     * @param previous the position before the seek
+     * @return -1 so that the seek can return it directly
+     */
+    private int restorePosition(long previous){
+        try {
+            input.position(previous);
+        } catch (IOException e) {
+            LOG.error("Could not return to the previous position : " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * @return the link type from the global header of the opened classic PCAP file.
+     */
+    synchronized int linkType(){
+        return linkType;
+    }
+
+    /**
+     * @return true if the opened file is in the pcapng format.
+     */
+    synchronized boolean isPcapNg(){
+        return pcapng != null;
+    }
+
+    /**
+     * Starts reading records from an already opened input without checking the global header.
+     * Used to decode a part of a file whose header has already been checked.
+     * @param input the source of the capture
+     * @param start the offset of the first record to read
+     * @param end the offset where reading stops, which must be a record boundary
+     * @param linkType the link type from the global header of the file
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    synchronized int openRange(CaptureInput input, long start, long end, int linkType){
+        this.input = input;
+        this.limit = end;
+        this.linkType = linkType;
+        this.recordLinkType = linkType;
+        this.headerPending = false;
+        resetFragments();
+        try {
+            input.position(start);
+        } catch (IOException e) {
+            LOG.error("Could not seek to offset " + start + " : " + e.getMessage());
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Finds record boundaries between the current position and the end of the file, so that the
+     * rest of the file can be decoded in parts. The samples of the index are used if it has been
+     * opened, otherwise the record headers are scanned.
+     * @param chunkSize the approximate number of bytes between two boundaries when scanning
+     * @return the offsets where each part starts, beginning with the current position, followed by
+     * the size of the file, or null if the input can not be split.
+     */
+    synchronized long[] findSplits(long chunkSize){
+        if (file == null || pcapng != null || !input.isSeekable() || follow || closed || headerPending ||
+                pendingDatagram != null || fragments.size() > 0)
+            return null;
+        long start = input.position();
+        try {
+            if (index == null) {
+                CaptureInput scan = new ChannelInput(file);
+                try {
+                    scan.position(start);
+                    return new RecordScanner(scan).split(chunkSize);
+                } finally {
+                    scan.close();
+                }
+            }
+            int first = 0;
+            while (first < index.size() && index.offset(first) <= start)
+                first++;
+            long[] splits = new long[index.size() - first + 2];
+            splits[0] = start;
+            for (int i = first; i < index.size(); i++)
+                splits[i - first + 1] = index.offset(i);
+            splits[splits.length - 1] = Math.max(input.size(), splits[splits.length - 2]);
+            return splits;
+        } catch (IOException e) {
+            LOG.error("Could not scan the file : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Creates a parser for a part of the file opened by this parser.
+     * The new parser has the same settings except that fragments are not reassembled, since the
+     * fragments of a datagram may end up in different parts.
+     * @param start the offset of the first record of the part
+     * @param end the offset where the part ends, which must be a record boundary
+     * @return the new parser, or null if an error has occurred.
+     */
+    synchronized PcapParser openPart(long start, long end){
+        PcapParser part = new PcapParser();
+        part.verbose = verbose;
+        part.vlanEnabled = vlanEnabled;
+        part.filter = filter;
+        part.metrics = metrics;
+        part.reassembleFragments = false;
+        try {
+            if (part.openRange(new ChannelInput(file), start, end, linkType) < 0)
+                return null;
+        } catch (IOException e) {
+            LOG.error("Could not read from file, please check the path.");
+            return null;
+        }
+        return part;
+    }
+
+    /**
+     * @return the offset of the next byte to read from the capture, after decompression,
+     * or -1 if no capture is open.
+     */
+    synchronized long position(){
+        return input == null ? -1 : input.position();
+    }
+
+    /**
+     * @return the number of bytes left to read, or Long.MAX_VALUE if it is not known.
+     */
+    synchronized long remaining(){
+        if (file == null || !input.isSeekable() || follow)
+            return Long.MAX_VALUE;
+        try {
+            return Math.max(0, input.size() - input.position());
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Returns the packets that have not been read yet as a Stream, in the same order as getPacket().
+     * A sequential stream simply reads from this parser. A parallel stream over an uncompressed
+     * classic PCAP file opened with openFile() splits the rest of the file on record boundaries and
+     * decodes every part with a parser of its own, in which case fragments are returned as they were
+     * captured and this parser is not moved. Other captures are read sequentially either way.
+     * The parser must not be used by anyone else until the stream has been consumed.
+     * @return a stream of the remaining packets.
+     */
+    public Stream<BasicPacket> stream(){
+        return StreamSupport.stream(new PacketSpliterator(this), false);
+    }
+
+    /**
+     * This method reads a PCAP packet header and stores the timestamp and packet size in
+     * recordTimestamp and recordLength, so that no object has to be allocated for it.
+     * For pcapng files the blocks up to the next packet are read instead, which also sets recordLinkType.
+     * If verbose is true it also prints the raw header to stdout.
+     * @return true if successful, false if the header could not be read
+     */
+	private boolean readRecordHeader(){
+        if (headerPending) {
+            headerPending = false;
+            return true;
+        }
+        if (pcapng != null)
+            return readPcapNgHeader();
+		byte[] header = this.recordHeader;
+		if(input == null || input.position() >= limit || this.readBytes(header) < 0)
+			return false;
 
-		pcapPacketHeader.packetSize =
-				Utils.convertInt(header, PcapPacketHeader.capLenOffset);
+		recordTimestamp = PcapPacketHeader.parseTimestamp(header);
+		recordLength = PcapPacketHeader.parseCapLen(header);
         if (verbose) {
             String packetHeader = String.format("PCAP Packet Header : %s",
-                    javax.xml.bind.DatatypeConverter.printHexBinary(header));
+                    Utils.printHexBinary(header));
             LOG.info(packetHeader);
         }
 
-		return pcapPacketHeader;
+		return true;
 	}
 
+    /**
+     * Moves to the data of the next packet in a pcapng file.
+     * @return true if successful, false if there are no more packets
+     */
+    private boolean readPcapNgHeader(){
+        if (pcapng.isMalformed())
+            return false;
+        try {
+            while (!pcapng.nextPacket()) {
+                if (pcapng.isMalformed()) {
+                    countMalformedRecord();
+                    return false;
+                }
+                if (!waitForData())
+                    return false;
+            }
+        } catch (IOException e) {
+            LOG.error("An error occurred while reading from the file : " + e.getMessage());
+            return false;
+        }
+        recordTimestamp = pcapng.timestamp();
+        recordLength = pcapng.capLen();
+        recordLinkType = pcapng.linkType();
+        return true;
+    }
 
+    /**
+     * This method creates a header object from the last record header read.
+     * @return A packetHeader object with the timestamp and packetsize parameters extracted.
+     */
+	private PcapPacketHeader buildPcapPacketHeader(){
+		PcapPacketHeader pcapPacketHeader = new PcapPacketHeader();
+		pcapPacketHeader.timestamp = recordTimestamp;
+		pcapPacketHeader.packetSize = recordLength;
+		pcapPacketHeader.linkType = recordLinkType;
+		return pcapPacketHeader;
+	}
+
+    /**
+     * Checks that the size of the last record header read is usable.
+     * @return true if the size is valid
+     */
+    private boolean isValidRecordLength(){
+        if(recordLength < 0 || recordLength > Integer.MAX_VALUE) {
+            LOG.error("Invalid packet size : " + recordLength);
+            countMalformedRecord();
+            return false;
+        }
+        return true;
+    }
 
     /**
      * This is a dispatcher method that calls the appropriate constructor according to the packet type.
@@ -197,7 +780,7 @@ public class PcapParser{
             return p;
         }
 		else {
-            BasicPacket p = new BasicPacket(Utils.getProtocolType(packet));
+            BasicPacket p = new BasicPacket(Utils.getProtocolType(packet), timestamp);
             if (verbose)
                 LOG.info(p.toString());
             return p;
@@ -212,48 +795,263 @@ public class PcapParser{
      * @return a packet Object according to the raw packet's properties
      */
 	public BasicPacket getPacket(){
-		final int udpMinPacketSize = 42;
-		final int tcpMinPacketSize = 54;
+        return decode(readPacket());
+    }
+
+    /**
+     * Builds the packet object for a record returned by readPacket().
+     * @param raw the record, or null at the end of the file
+     * @return a packet Object according to the raw packet's properties
+     */
+    BasicPacket decode(RawPacket raw){
+		final int udpMinHeaderSize = 8;
+		final int tcpMinHeaderSize = 20;
 
-        RawPacket raw = readPacket();
         if (raw == null){
             return BasicPacket.EOF;
         }
         else {
-            if ((Utils.isUDPPacket(raw.getPacket()) && (raw.getPacket().length < udpMinPacketSize)) ||
-                    (Utils.isTCPPacket(raw.getPacket()) && (raw.getPacket().length < tcpMinPacketSize)))
-                return new BasicPacket(Utils.getProtocolType(raw.getPacket()));
+            byte[] packet = raw.getPacket();
+            long timestamp = raw.getHeader().timestamp;
+            if (raw.getHeader().linkType != Utils.linkTypeEthernet)
+                return new BasicPacket("LINKTYPE " + raw.getHeader().linkType, timestamp);
+            if ((Utils.isUDPPacket(packet) && (packet.length < transportOffset(packet) + udpMinHeaderSize)) ||
+                    (Utils.isTCPPacket(packet) && (packet.length < transportOffset(packet) + tcpMinHeaderSize))) {
+                if (metrics != null)
+                    metrics.countTruncatedPacket();
+                return new BasicPacket(Utils.getProtocolType(packet), timestamp);
+            }
 
-            return buildPacket(raw.getPacket(), raw.getHeader().timestamp);
+            return buildPacket(packet, timestamp);
         }
 	}
 
-    private synchronized RawPacket readPacket(){
+    /**
+     * @param packet a byte[] that contains a raw IP packet
+     * @return the offset where the transport header starts
+     */
+    private static int transportOffset(byte[] packet){
+        return Utils.getNetworkOffset(packet) + Utils.getIPHeaderLength(packet);
+    }
 
-        PcapPacketHeader pcapPacketHeader = buildPcapPacketHeader();
-        if(pcapPacketHeader == null) {
-            return null;
+    /**
+     * Checks the last record read against the filter. Filters describe Ethernet frames,
+     * so records of any other link type never match one.
+     */
+    private boolean matchesFilter(byte[] data, int offset, int length){
+        if (filter == null)
+            return true;
+        return recordLinkType == Utils.linkTypeEthernet && filter.matches(data, offset, length);
+    }
+
+    /**
+     * Checks the last record read against the filter and counts it in the metrics if it matches.
+     */
+    private boolean accept(byte[] data, int offset, int length){
+        if (!matchesFilter(data, offset, length))
+            return false;
+        if (metrics != null)
+            metrics.countPacket(data, offset, length, recordLinkType == Utils.linkTypeEthernet);
+        return true;
+    }
+
+    private void countMalformedRecord(){
+        if (metrics != null)
+            metrics.countMalformedRecord();
+    }
+
+    /**
+     * Drops the fragments of incomplete datagrams, e.g. when moving to another part of the capture.
+     */
+    private void resetFragments(){
+        fragments.clear();
+        pendingDatagram = null;
+    }
+
+    /**
+     * Passes the last record read through fragment reassembly. Packets that are not IPv4 fragments
+     * only cost a look at the EtherType and the fragment field of the IP header.
+     * @param data the array holding the record
+     * @param offset the offset of the record in the array
+     * @param length the number of bytes captured
+     * @return data if the record should be used as it is, a new array holding a reassembled datagram,
+     * or null if the record was a fragment that has been held back.
+     */
+    private byte[] reassemble(byte[] data, int offset, int length){
+        if (!reassembleFragments || recordLinkType != Utils.linkTypeEthernet)
+            return data;
+        int network = PacketFilter.ipv4Offset(data, offset, offset + length);
+        if (network < 0 || !Utils.isFragment(data, network))
+            return data;
+        return fragments.add(data, offset, length, network, recordTimestamp);
+    }
+
+    /**
+     * Reads the next record that passes fragment reassembly and the filter.
+     * @return the record, or null at the end of the file or if an error has occurred.
+     */
+    synchronized RawPacket readPacket(){
+        if (pendingDatagram != null) {
+            byte[] packet = pendingDatagram;
+            pendingDatagram = null;
+            PcapPacketHeader header = new PcapPacketHeader();
+            header.timestamp = pendingTimestamp;
+            header.packetSize = packet.length;
+            header.linkType = Utils.linkTypeEthernet;
+            return new RawPacket(packet, header);
         }
-        byte[] packet = new byte[(int)pcapPacketHeader.packetSize];
-        if(this.readBytes(packet) < 0) {
-            LOG.error("Could not read packet contents");
-            return null;
+        while(readRecordHeader()) {
+            if(!isValidRecordLength())
+                return null;
+            int length = (int) recordLength;
+            byte[] packet;
+            if (filter == null) {
+                packet = new byte[length];
+                if(this.readBytes(packet) < 0) {
+                    LOG.error("Could not read packet contents");
+                    countMalformedRecord();
+                    return null;
+                }
+            } else {
+                if (scratch.length < length)
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                if(this.readBytes(scratch, 0, length) < 0) {
+                    LOG.error("Could not read packet contents");
+                    countMalformedRecord();
+                    return null;
+                }
+                packet = scratch;
+            }
+            byte[] datagram = reassemble(packet, 0, length);
+            if (datagram == null)
+                continue;
+            if (datagram != packet) {
+                packet = datagram;
+                length = datagram.length;
+                recordLength = length;
+            }
+            if (!accept(packet, 0, length))
+                continue;
+            if (packet == scratch)
+                packet = java.util.Arrays.copyOf(scratch, length);
+            if (verbose) {
+                String packetStr = String.format("Packet : %s",
+                        Utils.printHexBinary(packet));
+                LOG.info(packetStr);
+            }
+
+            return new RawPacket(packet, buildPcapPacketHeader());
+        }
+        return null;
+    }
+
+    /**
+     * This method is the allocation free alternative to getPacket().
+     * It reads the next packet into the buffer of the provided view, which decodes fields only
+     * when they are requested. The view is only valid until it is passed to this method again.
+     * If verbose is true the raw contents of the packet is printed to stdout.
+     * @param view a reusable view that will be positioned over the next packet
+     * @return true if a packet was read, false if the end of the file has been reached
+     */
+    public synchronized boolean nextPacket(PacketView view){
+        if (pendingDatagram != null) {
+            int length = pendingDatagram.length;
+            System.arraycopy(pendingDatagram, 0, view.ensureCapacity(length), 0, length);
+            view.set(length, pendingTimestamp, Utils.linkTypeEthernet);
+            pendingDatagram = null;
+            return true;
         }
+        int length;
+        do {
+            if(!readRecordHeader() || !isValidRecordLength())
+                return false;
+            length = (int) recordLength;
+            byte[] frame = view.ensureCapacity(length);
+            if(this.readBytes(frame, 0, length) < 0) {
+                LOG.error("Could not read packet contents");
+                countMalformedRecord();
+                return false;
+            }
+            byte[] datagram = reassemble(frame, 0, length);
+            if (datagram == null) {
+                length = -1;
+            } else if (datagram != frame) {
+                length = datagram.length;
+                System.arraycopy(datagram, 0, view.ensureCapacity(length), 0, length);
+            }
+        } while (length < 0 || !accept(view.array(), 0, length));
+        view.set(length, recordTimestamp, recordLinkType);
         if (verbose) {
             String packetStr = String.format("Packet : %s",
-                    javax.xml.bind.DatatypeConverter.printHexBinary(packet));
+                    Utils.printHexBinary(java.util.Arrays.copyOf(view.array(), length)));
             LOG.info(packetStr);
         }
+        return true;
+    }
 
-        return new RawPacket(packet, pcapPacketHeader);
+    /**
+     * This method fills a PacketBatch with the headers of as many packets as it can hold.
+     * The batch is cleared first and its arrays are reused, so no objects are allocated per packet.
+     * A packet that does not fit in the remaining data space is left for the next batch.
+     * Packets that do not match the filter are skipped and do not take any space.
+     * A reassembled datagram that does not fit is returned first by the next call to readBatch(),
+     * getPacket() or nextPacket().
+     * @param batch the batch to fill
+     * @return the number of packets read, 0 if the end of the file has been reached
+     */
+    public synchronized int readBatch(PacketBatch batch){
+        batch.clear();
+        if (pendingDatagram != null) {
+            int length = pendingDatagram.length;
+            int offset = batch.reserve(length);
+            System.arraycopy(pendingDatagram, 0, batch.data(), offset, length);
+            batch.append(length, pendingTimestamp, Utils.linkTypeEthernet);
+            pendingDatagram = null;
+        }
+        while (!batch.isFull()) {
+            if(!readRecordHeader() || !isValidRecordLength())
+                break;
+            int length = (int) recordLength;
+            int offset = batch.reserve(length);
+            if (offset < 0) {
+                headerPending = true;
+                break;
+            }
+            if(this.readBytes(batch.data(), offset, length) < 0) {
+                LOG.error("Could not read packet contents");
+                countMalformedRecord();
+                break;
+            }
+            byte[] datagram = reassemble(batch.data(), offset, length);
+            if (datagram == null)
+                continue;
+            if (datagram != batch.data()) {
+                length = datagram.length;
+                if (!accept(datagram, 0, length))
+                    continue;
+                offset = batch.reserve(length);
+                if (offset < 0) {
+                    pendingDatagram = datagram; // returned first by the next call
+                    pendingTimestamp = recordTimestamp;
+                    break;
+                }
+                System.arraycopy(datagram, 0, batch.data(), offset, length);
+                batch.append(length, recordTimestamp, recordLinkType);
+            } else if (accept(batch.data(), offset, length))
+                batch.append(length, recordTimestamp, recordLinkType);
+        }
+        return batch.size();
     }
 
     /**
      * Closes the File Handle.
      */
 	public void closeFile(){
+        closed = true;
+        if (input == null)
+            return;
 		try{
-			raf.close();
+			input.close();
 		}catch(Exception e){
 			LOG.warn("Unable to close file.");
 		}
@@ -0,0 +1,264 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class publishes the packets of a PcapParser to Flow subscribers.
+ * Packets are read only when every subscriber has requested more, so the parser never reads ahead
+ * of the slowest subscriber and nothing is queued: one packet read is one packet delivered to all
+ * subscribers. Subscribers that join later only receive the packets read after they subscribed.
+ * When all subscribers cancel, reading stops and the parser is left open where it was.
+ * All signals are delivered by tasks run on the executor, one task at a time, so a subscriber is
+ * never called from two threads at once. Reading blocks, e.g. while a followed file waits for data,
+ * so the executor defaults to one with a single thread of its own rather than a shared pool.
+ * The parser must not be read by anyone else while it is published.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public abstract class PcapPublisher<T> implements Flow.Publisher<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PcapPublisher.class);
+
+    static final long defaultIdleTimeout = 10; // seconds
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Subscription> pending = new ConcurrentLinkedQueue<Subscription>();
+    private final ArrayList<Subscription> active = new ArrayList<Subscription>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+    private boolean done;
+    private Throwable error;
+
+    protected PcapPublisher(Executor executor){
+        if (executor == null)
+            throw new IllegalArgumentException("Executor must not be null");
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a publisher of the packets returned by PcapParser.getPacket().
+     * @param parser an open parser
+     * @return a publisher that completes at the end of the file.
+     */
+    public static PcapPublisher<BasicPacket> packets(PcapParser parser){
+        return packets(parser, newDefaultExecutor());
+    }
+
+    public static PcapPublisher<BasicPacket> packets(final PcapParser parser, Executor executor){
+        return new PcapPublisher<BasicPacket>(executor) {
+            @Override
+            protected BasicPacket read() {
+                BasicPacket packet = parser.getPacket();
+                return packet == BasicPacket.EOF ? null : packet;
+            }
+        };
+    }
+
+    /**
+     * Creates a publisher of batches filled by PcapParser.readBatch().
+     * Every batch is a new object, since a subscriber may hold on to it after asking for the next,
+     * and is shared by all subscribers, which must not modify it.
+     * @param parser an open parser
+     * @param capacity the number of packets per batch
+     * @param dataCapacity the number of bytes of captured data per batch
+     * @return a publisher that completes at the end of the file.
+     */
+    public static PcapPublisher<PacketBatch> batches(PcapParser parser, int capacity, int dataCapacity){
+        return batches(parser, capacity, dataCapacity, newDefaultExecutor());
+    }
+
+    public static PcapPublisher<PacketBatch> batches(final PcapParser parser, final int capacity,
+                                                     final int dataCapacity, Executor executor){
+        if (capacity < 1 || dataCapacity < 1)
+            throw new IllegalArgumentException("Batch capacity must be positive");
+        return new PcapPublisher<PacketBatch>(executor) {
+            @Override
+            protected PacketBatch read() {
+                PacketBatch batch = new PacketBatch(capacity, dataCapacity);
+                return parser.readBatch(batch) == 0 ? null : batch;
+            }
+        };
+    }
+
+    /**
+     * Creates the executor used when none is given: a single daemon thread that ends once it has been
+     * idle for defaultIdleTimeout seconds, so a publisher that is no longer used does not keep a thread.
+     * @return the executor.
+     */
+    static Executor newDefaultExecutor(){
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, defaultIdleTimeout, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "pcapj-publisher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Reads the next item. Only called by one thread at a time.
+     * @return the next item, or null at the end of the input.
+     */
+    protected abstract T read();
+
+    public void subscribe(Flow.Subscriber<? super T> subscriber){
+        if (subscriber == null)
+            throw new NullPointerException("Subscriber must not be null");
+        pending.offer(new Subscription(subscriber));
+        schedule();
+    }
+
+    private void schedule(){
+        if (wip.getAndIncrement() == 0)
+            executor.execute(drainTask);
+    }
+
+    /**
+     * Delivers as many items as every subscriber has asked for.
+     * The wip counter makes sure only one drain runs at a time and that a request made while
+     * draining is not missed.
+     */
+    private void drain(){
+        int missed = 1;
+        do {
+            Subscription subscription;
+            while ((subscription = pending.poll()) != null) {
+                active.add(subscription);
+                try {
+                    subscription.subscriber.onSubscribe(subscription);
+                } catch (Throwable t) {
+                    subscription.fail(t);
+                }
+            }
+            removeCancelled();
+            while (!done && !active.isEmpty() && hasDemand()) {
+                T item;
+                try {
+                    item = read();
+                } catch (Throwable t) {
+                    LOG.error("Could not read from the parser", t);
+                    error = t;
+                    done = true;
+                    break;
+                }
+                if (item == null) {
+                    done = true;
+                    break;
+                }
+                for (Subscription s : active) {
+                    s.demand.decrementAndGet();
+                    try {
+                        s.subscriber.onNext(item);
+                    } catch (Throwable t) {
+                        s.fail(t);
+                    }
+                }
+                removeCancelled();
+            }
+            if (done) {
+                for (Subscription s : active) {
+                    if (s.cancelled)
+                        continue;
+                    s.cancelled = true;
+                    try {
+                        if (error == null)
+                            s.subscriber.onComplete();
+                        else
+                            s.subscriber.onError(error);
+                    } catch (Throwable t) {
+                        LOG.warn("Subscriber threw from onComplete() or onError()", t);
+                    }
+                }
+                active.clear();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private boolean hasDemand(){
+        for (Subscription s : active) {
+            if (s.demand.get() <= 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void removeCancelled(){
+        Iterator<Subscription> iterator = active.iterator();
+        while (iterator.hasNext()) {
+            Subscription s = iterator.next();
+            if (s.rejected != null)
+                s.fail(s.rejected);
+            if (s.cancelled)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * The demand of a single subscriber.
+     */
+    private final class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile Throwable rejected;
+
+        Subscription(Flow.Subscriber<? super T> subscriber){
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n){
+            if (n <= 0) {
+                rejected = new IllegalArgumentException("Non-positive request: " + n);
+                schedule();
+                return;
+            }
+            long current;
+            do {
+                current = demand.get();
+            } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            schedule();
+        }
+
+        public void cancel(){
+            cancelled = true;
+            schedule();
+        }
+
+        /**
+         * Cancels the subscription after the subscriber threw or requested a non-positive number of items.
+         * Only called while draining.
+         */
+        void fail(Throwable t){
+            if (cancelled)
+                return;
+            cancelled = true;
+            try {
+                subscriber.onError(t);
+            } catch (Throwable e) {
+                LOG.warn("Subscriber threw from onError()", e);
+            }
+        }
+    }
+}
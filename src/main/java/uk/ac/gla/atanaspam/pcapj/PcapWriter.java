@@ -0,0 +1,572 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class writes packets to a PCAP file.
+ * Records are copied into a set of large direct buffers which are written with a single gathering
+ * FileChannel write once they are all full, so a system call is only made every few megabytes.
+ * The output can be rotated to a new file once it reaches a size or when the packet timestamps
+ * enter a new time window. Rotated files are numbered, e.g. out.pcap, out.1.pcap, out.2.pcap.
+ * A client will typically invoke openFile(), writePacket() for every packet and then closeFile().
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PcapWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PcapWriter.class);
+
+    static final int defaultBufferSize = 1 << 20;
+    static final int defaultBufferCount = 4;
+    static final int defaultSnapLen = 65535;
+    static final int ipProtoReserved = 255;
+    private static final int headerScratchSize = 128;
+
+    private final ByteBuffer[] buffers;
+    private int current;
+    private final byte[] scratch = new byte[headerScratchSize];
+    private final byte[] recordHeader = new byte[PcapPacketHeader.pcapPacketHeaderSize];
+
+    private String path;
+    private FileOutputStream out;
+    private FileChannel channel;
+    private int fileNumber;
+    private long fileSize;
+    private long windowStart;
+    private long rotateSize = 0;
+    private long rotateInterval = 0;
+    private int linkType = Utils.linkTypeEthernet;
+
+    public PcapWriter(){
+        this(defaultBufferSize, defaultBufferCount);
+    }
+
+    /**
+     * @param bufferSize the size of every buffer
+     * @param bufferCount the number of buffers written together
+     */
+    public PcapWriter(int bufferSize, int bufferCount){
+        if (bufferSize < PcapPacketHeader.pcapPacketHeaderSize || bufferCount < 1)
+            throw new IllegalArgumentException("Buffers are too small");
+        this.buffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++)
+            buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+        this.current = 0;
+    }
+
+    /**
+     * Rotate the output to a new file before a record would make it larger than the given size.
+     * A file always holds at least one record, even if that record alone is larger.
+     * @param bytes the maximum size of a file, or 0 to disable rotation by size
+     */
+    public synchronized void setRotateSize(long bytes){
+        if (bytes < 0)
+            throw new IllegalArgumentException("Rotation size must not be negative");
+        this.rotateSize = bytes;
+    }
+
+    public synchronized long getRotateSize(){
+        return rotateSize;
+    }
+
+    /**
+     * Rotate the output to a new file whenever the packet timestamps enter a new time window.
+     * Windows are aligned to multiples of the interval, so an interval of an hour starts a new file
+     * on every full hour. Packet timestamps are used rather than the clock, so the result is the
+     * same whether packets are written live or from an existing capture.
+     * @param milliseconds the length of a window, or 0 to disable rotation by time
+     */
+    public synchronized void setRotateInterval(long milliseconds){
+        if (milliseconds < 0)
+            throw new IllegalArgumentException("Rotation interval must not be negative");
+        this.rotateInterval = milliseconds;
+    }
+
+    public synchronized long getRotateInterval(){
+        return rotateInterval;
+    }
+
+    /**
+     * Set the link type written in the global header, takes effect on the next file opened.
+     * Packet objects can only be written to Ethernet files.
+     * @param linkType the link type, 1 for Ethernet
+     */
+    public synchronized void setLinkType(int linkType){
+        this.linkType = linkType;
+    }
+
+    public synchronized int getLinkType(){
+        return linkType;
+    }
+
+    /**
+     * @return the number of files written so far, including the current one.
+     */
+    public synchronized int getFileCount(){
+        return out == null ? fileNumber : fileNumber + 1;
+    }
+
+    /**
+     * Creates a PCAP file and writes its global header.
+     * @param path The path to the file, which is also used to name any rotated files
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public synchronized int openFile(String path){
+        if (out != null)
+            closeFile();
+        this.path = path;
+        this.fileNumber = 0;
+        this.windowStart = Long.MIN_VALUE;
+        return openNext();
+    }
+
+    /**
+     * @param number the number of a rotated file
+     * @return the path of the file, with the number inserted before the extension.
+     */
+    String fileName(int number){
+        if (number == 0)
+            return path;
+        int separator = path.lastIndexOf(File.separatorChar);
+        int extension = path.lastIndexOf('.');
+        if (extension <= separator + 1)
+            return path + "." + number;
+        return path.substring(0, extension) + "." + number + path.substring(extension);
+    }
+
+    private int openNext(){
+        String name = fileName(fileNumber);
+        try {
+            out = new FileOutputStream(name);
+        } catch (IOException e) {
+            LOG.error("Could not create file " + name + " : " + e.getMessage());
+            out = null;
+            return -1;
+        }
+        channel = out.getChannel();
+        fileSize = 0;
+        writeGlobalHeader();
+        return 0;
+    }
+
+    private void writeGlobalHeader(){
+        final int versionMajor = 2;
+        final int versionMinor = 4;
+        byte[] header = new byte[Utils.globalHeaderLength];
+        putIntLE(header, 0, (int) Utils.pcapMagicNumber);
+        putShortLE(header, 4, versionMajor);
+        putShortLE(header, 6, versionMinor);
+        putIntLE(header, 8, 0); // thiszone
+        putIntLE(header, 12, 0); // sigfigs
+        putIntLE(header, 16, defaultSnapLen);
+        putIntLE(header, Utils.linkTypeOffset, linkType);
+        put(header, 0, Utils.globalHeaderLength);
+        fileSize += Utils.globalHeaderLength;
+    }
+
+    /**
+     * Rotates the output if the next record does not belong in the current file.
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    private int checkRotation(long recordSize, long timestamp){
+        boolean rotate = false;
+        if (rotateSize > 0 && fileSize > Utils.globalHeaderLength && fileSize + recordSize > rotateSize)
+            rotate = true;
+        if (rotateInterval > 0) {
+            long window = timestamp - ((timestamp % rotateInterval) + rotateInterval) % rotateInterval;
+            if (window != windowStart) {
+                if (windowStart != Long.MIN_VALUE)
+                    rotate = true;
+                windowStart = window;
+            }
+        }
+        if (!rotate)
+            return 0;
+        if (closeCurrent() < 0)
+            return -1;
+        fileNumber++;
+        return openNext();
+    }
+
+    /**
+     * Writes the record header of a packet.
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    private int writeRecordHeader(int length, long timestamp){
+        if (out == null) {
+            LOG.error("No file is open for writing.");
+            return -1;
+        }
+        if (length > defaultSnapLen) {
+            LOG.error("Packet of " + length + " bytes is larger than the snapshot length " + defaultSnapLen);
+            return -1;
+        }
+        long recordSize = PcapPacketHeader.pcapPacketHeaderSize + length;
+        if (checkRotation(recordSize, timestamp) < 0)
+            return -1;
+        long seconds = timestamp / 1000;
+        long millis = timestamp % 1000;
+        if (millis < 0) {
+            seconds--;
+            millis += 1000;
+        }
+        byte[] header = recordHeader;
+        putIntLE(header, PcapPacketHeader.secOffset, (int) seconds);
+        putIntLE(header, PcapPacketHeader.uSecOffset, (int) millis * 1000);
+        putIntLE(header, PcapPacketHeader.capLenOffset, length);
+        putIntLE(header, PcapPacketHeader.capLenOffset + 4, length);
+        put(header, 0, PcapPacketHeader.pcapPacketHeaderSize);
+        fileSize += recordSize;
+        return 0;
+    }
+
+    /**
+     * Writes a raw frame.
+     * @param frame a byte[] that stores the frame
+     * @param offset the offset into frame[] where the frame starts
+     * @param length the number of bytes captured, at most the snapshot length of 65535
+     * @param timestamp the time the packet was captured in milliseconds
+     * @return 0 if everything is ok, -1 if the frame is invalid or an error has occurred.
+     */
+    public synchronized int writePacket(byte[] frame, int offset, int length, long timestamp){
+        if (offset < 0 || length < 0 || offset + length > frame.length) {
+            LOG.error("Invalid frame of " + length + " bytes at offset " + offset);
+            return -1;
+        }
+        if (writeRecordHeader(length, timestamp) < 0)
+            return -1;
+        return put(frame, offset, length);
+    }
+
+    /**
+     * Writes the packet a PacketView is positioned over, e.g. to save the packets that match a filter.
+     * @param view a view filled by PcapParser.nextPacket()
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public synchronized int writePacket(PacketView view){
+        if (view.linkType() != linkType) {
+            LOG.error("Packet with link type " + view.linkType() + " can not be written to a file of link type " + linkType);
+            return -1;
+        }
+        return writePacket(view.array(), 0, view.caplen(), view.timestamp());
+    }
+
+    /**
+     * Writes every packet of a batch.
+     * @param batch a batch filled by PcapParser.readBatch()
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public synchronized int writeBatch(PacketBatch batch){
+        for (int i = 0; i < batch.size(); i++) {
+            if (writePacket(batch.data(), batch.frameOffsets()[i], batch.caplens()[i], batch.timestamps()[i]) < 0)
+                return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes a packet object, e.g. one created by PacketGenerator. Packet objects do not keep their
+     * raw frame, so an Ethernet frame is rebuilt from their fields: IPv4 with a TTL of 64 (or IPv6
+     * with a hop limit of 64 and no extension headers), TCP with
+     * a window of 65535, and checksums computed over the rebuilt headers. IPPackets that are neither
+     * TCP nor UDP are written with protocol 255 and no payload, as their protocol is not kept.
+     * @param packet the packet to write
+     * @return 0 if everything is ok, -1 if the packet is not an IPPacket, its payload does not fit in
+     * an IP datagram or an error has occurred.
+     */
+    public synchronized int writePacket(BasicPacket packet){
+        final int tcpHeaderLength = 20;
+        final int tcpWindow = 65535;
+
+        if (!(packet instanceof IPPacket)) {
+            LOG.error("Only IP packets can be written");
+            return -1;
+        }
+        if (linkType != Utils.linkTypeEthernet) {
+            LOG.error("Packet objects can only be written to Ethernet files");
+            return -1;
+        }
+        IPPacket ip = (IPPacket) packet;
+        ByteBuffer payload = null;
+        int protocol = ipProtoReserved;
+        int transportLength = 0;
+        if (packet instanceof TCPPacket) {
+            payload = ((TCPPacket) packet).getPayload();
+            protocol = Utils.ipProtoTCP;
+            transportLength = tcpHeaderLength;
+        } else if (packet instanceof UDPPacket) {
+            payload = ((UDPPacket) packet).getPayload();
+            protocol = Utils.ipProtoUDP;
+            transportLength = Utils.udpHeaderLength;
+        }
+        int payloadLength = payload == null ? 0 : payload.remaining();
+        if ((ip.isIPv6() ? 0 : Utils.ipMinHeaderLength) + transportLength + payloadLength > 0xFFFF) {
+            LOG.error("Payload of " + payloadLength + " bytes does not fit in an IP datagram");
+            return -1;
+        }
+
+        byte[] frame = scratch;
+        int offset = writeEthernetHeader(frame, ip);
+        int network = offset;
+        if (ip.isIPv6()) {
+            putInt(frame, offset, 0x60000000); // version 6, no traffic class or flow label
+            putShort(frame, offset + 4, transportLength + payloadLength);
+            frame[offset + Utils.ipv6NextHeaderOffset] = (byte) protocol;
+            frame[offset + 7] = 64;
+            putLong(frame, offset + Utils.ipv6SrcOffset, ip.getSrcIpv6High());
+            putLong(frame, offset + Utils.ipv6SrcOffset + 8, ip.getSrcIpv6Low());
+            putLong(frame, offset + Utils.ipv6DstOffset, ip.getDstIpv6High());
+            putLong(frame, offset + Utils.ipv6DstOffset + 8, ip.getDstIpv6Low());
+            offset += Utils.ipv6HeaderLength;
+        } else {
+            int ipLength = Utils.ipMinHeaderLength + transportLength + payloadLength;
+            frame[offset] = 0x45; // version 4, 20 byte header
+            frame[offset + 1] = 0;
+            putShort(frame, offset + 2, ipLength);
+            putShort(frame, offset + 4, 0); // identification
+            putShort(frame, offset + 6, 0x4000); // don't fragment
+            frame[offset + 8] = 64;
+            frame[offset + Utils.ipProtoOffset] = (byte) protocol;
+            putShort(frame, offset + 10, 0);
+            putInt(frame, offset + 12, ip.getSrcIpv4());
+            putInt(frame, offset + 16, ip.getDstIpv4());
+            putShort(frame, offset + 10, ~checksum(frame, offset, Utils.ipMinHeaderLength, 0) & 0xFFFF);
+            offset += Utils.ipMinHeaderLength;
+        }
+
+        int transport = offset;
+        if (packet instanceof TCPPacket) {
+            TCPPacket tcp = (TCPPacket) packet;
+            putShort(frame, offset, tcp.getSrc_port());
+            putShort(frame, offset + 2, tcp.getDst_port());
+            putInt(frame, offset + 4, (int) tcp.getSeqNum());
+            putInt(frame, offset + 8, (int) tcp.getAckNum());
+            frame[offset + 12] = (byte) ((tcpHeaderLength / 4) << 4);
+            frame[offset + 13] = tcp.getFlagBits();
+            putShort(frame, offset + 14, tcpWindow);
+            putShort(frame, offset + 16, 0);
+            putShort(frame, offset + 18, 0); // urgent pointer
+        } else if (packet instanceof UDPPacket) {
+            UDPPacket udp = (UDPPacket) packet;
+            putShort(frame, offset, udp.getSrc_port());
+            putShort(frame, offset + 2, udp.getDst_port());
+            putShort(frame, offset + 4, transportLength + payloadLength);
+            putShort(frame, offset + 6, 0);
+        }
+        offset += transportLength;
+        if (transportLength > 0) {
+            int sum = ip.isIPv6() ? checksum(frame, network + Utils.ipv6SrcOffset, 32, 0) :
+                    checksum(frame, network + 12, 8, 0); // pseudo header addresses
+            sum += protocol + transportLength + payloadLength;
+            sum = checksum(frame, transport, transportLength, sum);
+            if (payload != null)
+                sum = checksum(payload, sum);
+            int value = ~sum & 0xFFFF;
+            if (protocol == Utils.ipProtoUDP && value == 0)
+                value = 0xFFFF;
+            putShort(frame, transport + (protocol == Utils.ipProtoTCP ? 16 : 6), value);
+        }
+
+        if (writeRecordHeader(offset + payloadLength, ip.getTimestamp()) < 0)
+            return -1;
+        if (put(frame, 0, offset) < 0)
+            return -1;
+        return payload == null ? 0 : put(payload);
+    }
+
+    /**
+     * Writes the Ethernet header of a packet into the start of a frame, including its VLAN tag.
+     * @return the offset where the network header starts
+     */
+    private static int writeEthernetHeader(byte[] frame, IPPacket packet){
+        putMac(frame, 0, packet.getDstMac());
+        putMac(frame, 6, packet.getSrcMac());
+        int offset = Utils.etherTypeOffset;
+        if (packet.getVlanId() >= 0) {
+            putShort(frame, offset, Utils.etherTypeVlan);
+            putShort(frame, offset + 2, packet.getVlanId() & 0xFFF);
+            offset += Utils.vlanHeaderLength;
+        }
+        putShort(frame, offset, packet.isIPv6() ? Utils.etherTypeIPv6 : Utils.etherTypeIPv4);
+        return offset + 2;
+    }
+
+    /**
+     * Adds bytes to the ones's complement sum used by the IP, TCP and UDP checksums.
+     * @return the folded sum
+     */
+    static int checksum(byte[] data, int offset, int length, int sum){
+        long total = sum;
+        int end = offset + length - 1;
+        for (int i = offset; i < end; i += 2)
+            total += ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+        if ((length & 1) != 0)
+            total += (data[offset + length - 1] & 0xFF) << 8;
+        return fold(total);
+    }
+
+    private static int checksum(ByteBuffer data, int sum){
+        long total = sum;
+        int position = data.position();
+        int end = data.limit() - 1;
+        for (int i = position; i < end; i += 2)
+            total += ((data.get(i) & 0xFF) << 8) | (data.get(i + 1) & 0xFF);
+        if (((data.limit() - position) & 1) != 0)
+            total += (data.get(data.limit() - 1) & 0xFF) << 8;
+        return fold(total);
+    }
+
+    private static int fold(long total){
+        while ((total >>> 16) != 0)
+            total = (total & 0xFFFF) + (total >>> 16);
+        return (int) total;
+    }
+
+    /**
+     * Copies bytes into the buffers, writing them to the file whenever they are all full.
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    private int put(byte[] data, int offset, int length){
+        while (length > 0) {
+            ByteBuffer buffer = buffers[current];
+            if (!buffer.hasRemaining() && next() < 0)
+                return -1;
+            buffer = buffers[current];
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, count);
+            offset += count;
+            length -= count;
+        }
+        return 0;
+    }
+
+    private int put(ByteBuffer data){
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = buffers[current];
+            if (!buffer.hasRemaining() && next() < 0)
+                return -1;
+            buffer = buffers[current];
+            if (data.remaining() <= buffer.remaining()) {
+                buffer.put(data);
+            } else {
+                ByteBuffer part = data.duplicate();
+                part.limit(part.position() + buffer.remaining());
+                buffer.put(part);
+                data.position(part.position());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Moves to the next buffer, or writes all of them if the last one is full.
+     */
+    private int next(){
+        if (current + 1 < buffers.length) {
+            current++;
+            return 0;
+        }
+        return writeBuffers();
+    }
+
+    /**
+     * Writes the buffers that hold data with a single gathering write and empties them.
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    private int writeBuffers(){
+        int count = current + 1;
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            buffers[i].flip();
+            remaining += buffers[i].remaining();
+        }
+        try {
+            while (remaining > 0)
+                remaining -= channel.write(buffers, 0, count);
+        } catch (IOException e) {
+            LOG.error("An error occurred while writing to the file : " + e.getMessage());
+            return -1;
+        } finally {
+            for (int i = 0; i < count; i++)
+                buffers[i].clear();
+            current = 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes any buffered records to the file.
+     * @return 0 if everything is ok, -1 if an error has occurred.
+     */
+    public synchronized int flush(){
+        if (out == null)
+            return 0;
+        return writeBuffers();
+    }
+
+    private int closeCurrent(){
+        int result = writeBuffers();
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOG.error("An error occurred while closing the file : " + e.getMessage());
+            result = -1;
+        }
+        out = null;
+        channel = null;
+        return result;
+    }
+
+    /**
+     * Writes any buffered records and closes the file.
+     */
+    public synchronized void closeFile(){
+        if (out == null)
+            return;
+        if (closeCurrent() < 0)
+            LOG.warn("Unable to close file.");
+        fileNumber++;
+    }
+
+    private static void putIntLE(byte[] data, int offset, int value){
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void putShortLE(byte[] data, int offset, int value){
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] data, int offset, int value){
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static void putLong(byte[] data, int offset, long value){
+        putInt(data, offset, (int) (value >>> 32));
+        putInt(data, offset + 4, (int) value);
+    }
+
+    private static void putShort(byte[] data, int offset, int value){
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private static void putMac(byte[] data, int offset, long mac){
+        for (int i = 0; i < 6; i++)
+            data[offset + i] = (byte) (mac >>> (40 - 8 * i));
+    }
+}
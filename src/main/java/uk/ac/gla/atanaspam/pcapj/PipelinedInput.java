@@ -0,0 +1,237 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A CaptureInput that reads an InputStream on a separate thread.
+ * The reader thread fills fixed size chunks and hands them over through a bounded queue, so for
+ * a compressed capture decompression and parsing run on two cores at the same time. The chunks
+ * are recycled once the parser has moved past them, so memory use stays constant.
+ * A chunk is handed over early when the stream has no more data available, so that packets
+ * arriving through a pipe or a socket are parsed as soon as they arrive.
+ * The input can only move forward, apart from seeking back within the current chunk.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class PipelinedInput extends CaptureInput {
+
+    static final int defaultChunkSize = 1 << 20;
+    static final int defaultQueueLength = 4;
+    private static final int gzipBufferSize = 1 << 16;
+
+    static final String gzip = "gzip";
+    static final String zstd = "zstd";
+    static final String lz4 = "lz4";
+    private static final int gzipMagicNumber = 0x1F8B;
+    private static final int zstdMagicNumber = 0xFD2FB528; // little endian on disk
+    private static final int lz4MagicNumber = 0x184D2204; // little endian on disk
+
+    private final InputStream in;
+    private final ArrayBlockingQueue<Chunk> full;
+    private final ArrayBlockingQueue<Chunk> free;
+    private final Thread reader;
+    private volatile IOException failure;
+    private volatile boolean closed = false;
+
+    private Chunk current;
+    private long chunkStart;
+    private int chunkPosition;
+    private boolean last = false;
+
+    PipelinedInput(InputStream in) {
+        this(in, defaultChunkSize, defaultQueueLength);
+    }
+
+    PipelinedInput(InputStream in, int chunkSize, int queueLength) {
+        this.in = in;
+        this.full = new ArrayBlockingQueue<Chunk>(queueLength);
+        this.free = new ArrayBlockingQueue<Chunk>(queueLength + 1);
+        for (int i = 0; i < queueLength + 1; i++)
+            free.add(new Chunk(chunkSize));
+        this.current = new Chunk(0);
+        this.chunkStart = 0;
+        this.chunkPosition = 0;
+        this.reader = new Thread(new Runnable() {
+            public void run() {
+                readAll();
+            }
+        }, "pcapj-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Opens a compressed capture, see detectCompression() for the formats that are recognised.
+     * @param file the compressed file
+     * @return the input
+     * @throws IOException if the file cannot be read or its compression is not supported
+     */
+    static PipelinedInput open(File file) throws IOException {
+        String compression = detectCompression(file);
+        if (!gzip.equals(compression))
+            throw new IOException((compression == null ? "Uncompressed" : compression) + " captures cannot be decompressed");
+        InputStream in = new FileInputStream(file);
+        try {
+            return new PipelinedInput(new GZIPInputStream(in, gzipBufferSize));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the first bytes of a file for the magic number of a compression format.
+     * @param file the file to check
+     * @return gzip, zstd or lz4, or null if the file is not compressed with any of them.
+     * @throws IOException if the file cannot be read
+     */
+    static String detectCompression(File file) throws IOException {
+        byte[] magic = new byte[4];
+        InputStream in = new FileInputStream(file);
+        try {
+            int total = 0;
+            while (total < magic.length) {
+                int count = in.read(magic, total, magic.length - total);
+                if (count < 0)
+                    return null;
+                total += count;
+            }
+        } finally {
+            in.close();
+        }
+        if (Utils.convertShort(magic, 0) == gzipMagicNumber)
+            return gzip;
+        if ((int) Utils.convertInt(magic, 0) == zstdMagicNumber)
+            return zstd;
+        if ((int) Utils.convertInt(magic, 0) == lz4MagicNumber)
+            return lz4;
+        return null;
+    }
+
+    /**
+     * The body of the reader thread, which fills chunks until the end of the stream (or an error).
+     */
+    private void readAll() {
+        try {
+            while (!closed) {
+                Chunk chunk = free.take();
+                chunk.length = 0;
+                chunk.end = false;
+                try {
+                    do {
+                        int count = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length);
+                        if (count < 0)
+                            chunk.end = true;
+                        else
+                            chunk.length += count;
+                    } while (!chunk.end && chunk.length < chunk.data.length && (chunk.length == 0 || in.available() > 0));
+                } catch (IOException e) {
+                    failure = e;
+                    chunk.end = true;
+                }
+                full.put(chunk);
+                if (chunk.end)
+                    return;
+            }
+        } catch (InterruptedException e) {
+            // closed by the parser
+        }
+    }
+
+    /**
+     * Moves to the next chunk produced by the reader thread and recycles the current one.
+     * @return false if there is nothing left to read
+     * @throws IOException if the reader thread failed, once the data read before the failure has been used
+     */
+    private boolean next() throws IOException {
+        if (last) {
+            if (failure != null)
+                throw new IOException("Could not read the capture : " + failure.getMessage(), failure);
+            return false;
+        }
+        Chunk chunk;
+        try {
+            chunk = full.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data");
+        }
+        chunkStart += current.length;
+        if (current.data.length > 0)
+            free.offer(current);
+        current = chunk;
+        chunkPosition = 0;
+        if (chunk.end)
+            last = true;
+        return chunk.length > 0 || next();
+    }
+
+    @Override
+    int read(byte[] data, int offset, int length) throws IOException {
+        int total = 0;
+        while (total != length) {
+            if (chunkPosition == current.length && !next())
+                break;
+            int count = Math.min(length - total, current.length - chunkPosition);
+            System.arraycopy(current.data, chunkPosition, data, offset + total, count);
+            chunkPosition += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    long position() {
+        return chunkStart + chunkPosition;
+    }
+
+    @Override
+    void position(long newPosition) throws IOException {
+        if (newPosition < chunkStart)
+            throw new IOException("Cannot seek back to offset " + newPosition + " in a stream");
+        while (newPosition > chunkStart + current.length) {
+            if (!next()) {
+                chunkPosition = current.length;
+                return;
+            }
+        }
+        chunkPosition = (int) (newPosition - chunkStart);
+    }
+
+    @Override
+    long size() throws IOException {
+        throw new IOException("The size of a stream is not known in advance");
+    }
+
+    @Override
+    boolean isSeekable() {
+        return false;
+    }
+
+    @Override
+    void close() throws IOException {
+        closed = true;
+        reader.interrupt();
+        in.close();
+    }
+
+    /**
+     * A buffer filled by the reader thread.
+     */
+    private static final class Chunk {
+        final byte[] data;
+        int length;
+        boolean end;
+
+        Chunk(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
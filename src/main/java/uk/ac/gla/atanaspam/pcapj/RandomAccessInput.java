@@ -0,0 +1,57 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A CaptureInput that seeks and reads a RandomAccessFile for every request.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class RandomAccessInput extends CaptureInput {
+
+    private final RandomAccessFile raf;
+    private long fileOffset;
+
+    RandomAccessInput(File file) throws FileNotFoundException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.fileOffset = 0;
+    }
+
+    @Override
+    int read(byte[] data, int offset, int length) throws IOException {
+        int total = 0;
+        while (total != length) {
+            raf.seek(fileOffset);
+            int read = raf.read(data, offset + total, length - total);
+            if (read == -1)
+                break;
+            fileOffset = fileOffset + read;
+            total = total + read;
+        }
+        return total;
+    }
+
+    @Override
+    long position() {
+        return fileOffset;
+    }
+
+    @Override
+    void position(long newPosition) {
+        this.fileOffset = newPosition;
+    }
+
+    @Override
+    long size() throws IOException {
+        return raf.length();
+    }
+
+    @Override
+    void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,90 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This class walks the record headers of a PCAP file without reading the packets themselves.
+ * It is used to find record boundaries quickly, e.g. in order to split a file between threads.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+class RecordScanner {
+
+    private final CaptureInput input;
+    private final byte[] header = new byte[PcapPacketHeader.pcapPacketHeaderSize];
+    private long offset;
+    private long timestamp;
+    private long length;
+
+    /**
+     * @param input an input positioned at the first record header (after the global header)
+     */
+    RecordScanner(CaptureInput input) {
+        this.input = input;
+    }
+
+    /**
+     * Reads the next record header and skips the packet that follows it.
+     * @return true if a complete record header was read, false at the end of the file
+     * or if the header is invalid.
+     * @throws IOException if the input cannot be read
+     */
+    boolean next() throws IOException {
+        offset = input.position();
+        if (input.read(header, 0, header.length) != header.length)
+            return false;
+        timestamp = PcapPacketHeader.parseTimestamp(header);
+        length = PcapPacketHeader.parseCapLen(header);
+        if (length < 0)
+            return false;
+        input.position(offset + header.length + length);
+        return true;
+    }
+
+    /**
+     * @return the offset of the last record header read.
+     */
+    long offset() {
+        return offset;
+    }
+
+    /**
+     * @return the timestamp of the last record read.
+     */
+    long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the offset right after the last record read.
+     */
+    long end() {
+        return offset + header.length + length;
+    }
+
+    /**
+     * Scans the rest of the input and records a boundary every chunkSize bytes.
+     * @param chunkSize the approximate number of bytes between two boundaries
+     * @return the offsets where each chunk starts, beginning with the current position,
+     * followed by the size of the input.
+     * @throws IOException if the input cannot be read
+     */
+    long[] split(long chunkSize) throws IOException {
+        ArrayList<Long> splits = new ArrayList<Long>();
+        long chunkStart = input.position();
+        splits.add(chunkStart);
+        while (next()) {
+            if (offset - chunkStart >= chunkSize) {
+                chunkStart = offset;
+                splits.add(chunkStart);
+            }
+        }
+        splits.add(Math.max(input.size(), chunkStart));
+        long[] result = new long[splits.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = splits.get(i);
+        return result;
+    }
+}
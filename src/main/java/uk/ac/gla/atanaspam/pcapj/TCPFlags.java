@@ -4,22 +4,41 @@ import java.io.Serializable;
 
 /**
  * Represents the TCP flags in a packet and replaces the previous array representation.
+ * Instances are immutable, valueOf() returns one of 256 shared instances so that decoding
+ * the flags of a packet does not allocate.
  * @author atanaspam
- * @version 0.1
+ * @version 0.2
  * @created 19/01/2016
  */
 public class TCPFlags implements Serializable{
 
     private static final long serialVersionUID = 0;
 
-    boolean cwr;
-    boolean ece;
-    boolean urg;
-    boolean ack;
-    boolean psh;
-    boolean rst;
-    boolean syn;
-    boolean fyn;
+    private static final TCPFlags[] canonical = new TCPFlags[256];
+    static {
+        for (int i = 0; i < canonical.length; i++)
+            canonical[i] = new TCPFlags(Utils.isSet((byte) i, 7), Utils.isSet((byte) i, 6), Utils.isSet((byte) i, 5),
+                    Utils.isSet((byte) i, 4), Utils.isSet((byte) i, 3), Utils.isSet((byte) i, 2),
+                    Utils.isSet((byte) i, 1), Utils.isSet((byte) i, 0));
+    }
+
+    final boolean cwr;
+    final boolean ece;
+    final boolean urg;
+    final boolean ack;
+    final boolean psh;
+    final boolean rst;
+    final boolean syn;
+    final boolean fyn;
+
+    /**
+     * Obtains the shared instance for a raw flags byte as found in the TCP header.
+     * @param flags the flags byte, FIN being the lowest bit and CWR the highest.
+     * @return the TCPFlags instance.
+     */
+    public static TCPFlags valueOf(byte flags){
+        return canonical[flags & 0xFF];
+    }
 
     public TCPFlags(boolean cwr, boolean ece, boolean urg, boolean ack, boolean psh, boolean rst, boolean syn, boolean fyn) {
         this.cwr = cwr;
@@ -53,6 +72,14 @@ public class TCPFlags implements Serializable{
                 cwr, ece,urg, ack, psh, rst, syn, fyn);
     }
 
+    /**
+     * @return the flags as they are stored in the TCP header, FIN being the lowest bit and CWR the highest.
+     */
+    public byte toByte(){
+        return (byte) ((cwr ? 0x80 : 0) | (ece ? 0x40 : 0) | (urg ? 0x20 : 0) | (ack ? 0x10 : 0) |
+                (psh ? 0x08 : 0) | (rst ? 0x04 : 0) | (syn ? 0x02 : 0) | (fyn ? 0x01 : 0));
+    }
+
     public boolean[] toArray(){
         return new boolean[]{cwr, ece, urg, ack, psh, rst, syn, fyn};
     }
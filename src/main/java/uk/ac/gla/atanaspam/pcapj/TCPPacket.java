@@ -1,6 +1,7 @@
 package uk.ac.gla.atanaspam.pcapj;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -14,9 +15,12 @@ public class TCPPacket extends IPPacket{
     protected int dst_port;
     protected long seqNum;
     protected long ackNum;
-    protected TCPFlags flags;
+    protected byte flags;
 
     protected PacketContents data;
+    protected byte[] frame;
+    protected int payloadOffset;
+    protected int payloadLength;
 
     public int getSrc_port() {
         return src_port;
@@ -35,13 +39,51 @@ public class TCPPacket extends IPPacket{
     }
 
     public TCPFlags getFlags() {
+        return TCPFlags.valueOf(flags);
+    }
+
+    /**
+     * @return the raw flags byte, FIN being the lowest bit and CWR the highest.
+     */
+    public byte getFlagBits() {
         return flags;
     }
 
+    /**
+     * Obtains the payload. For packets decoded from a frame the payload is only copied out of the
+     * frame the first time this method is called.
+     * @return the payload
+     */
     public PacketContents getData() {
+        if (data == null && frame != null) {
+            byte[] payload = new byte[payloadLength];
+            System.arraycopy(frame, payloadOffset, payload, 0, payloadLength);
+            data = new PacketContents(payload);
+        }
         return data;
     }
 
+    /**
+     * @return the number of payload bytes captured, not counting any padding after the IP datagram.
+     */
+    public int getPayloadLength() {
+        if (frame == null)
+            return data == null ? 0 : data.getData().length;
+        return payloadLength;
+    }
+
+    /**
+     * Obtains the payload without copying it.
+     * @return a read-only ByteBuffer over the payload, or null if there is none.
+     */
+    public ByteBuffer getPayload() {
+        if (frame != null)
+            return ByteBuffer.wrap(frame, payloadOffset, payloadLength).slice().asReadOnlyBuffer();
+        if (data == null)
+            return null;
+        return ByteBuffer.wrap(data.getData()).asReadOnlyBuffer();
+    }
+
     public void setSrc_port(int src_port) {
         this.src_port = src_port;
     }
@@ -51,11 +93,12 @@ public class TCPPacket extends IPPacket{
     }
 
     public void setFlags(TCPFlags flags) {
-        this.flags = flags;
+        this.flags = flags == null ? 0 : flags.toByte();
     }
 
     public void setData(PacketContents data) {
         this.data = data;
+        this.frame = null;
     }
 
     /**
@@ -67,10 +110,7 @@ public class TCPPacket extends IPPacket{
     public TCPPacket(IPPacket packet){
 	    super(packet.timestamp);
 	
-	    this.src_ip = packet.src_ip;
-	    this.dst_ip = packet.dst_ip;
-        this.sourceMacAddress = packet.sourceMacAddress;
-        this.destMacAddress = packet.destMacAddress;
+        copyAddresses(packet);
     }
 
 
@@ -90,38 +130,26 @@ public class TCPPacket extends IPPacket{
 
         int ipHeaderLenght = Utils.getIPHeaderLength(packet);
 
-        int srcPortOffset = Utils.calculateTCPoffset(ipHeaderLenght, inTCPHeaderSrcPortOffset);
+        int srcPortOffset = Utils.calculateTCPoffset(packet, ipHeaderLenght, inTCPHeaderSrcPortOffset);
         this.src_port = Utils.convertShort(packet, srcPortOffset);
 
-        int dstPortOffset = Utils.calculateTCPoffset(ipHeaderLenght, inTCPHeaderDstPortOffset);
+        int dstPortOffset = Utils.calculateTCPoffset(packet, ipHeaderLenght, inTCPHeaderDstPortOffset);
         this.dst_port = Utils.convertShort(packet, dstPortOffset);
 
-        int seqNumOffset = Utils.calculateTCPoffset(ipHeaderLenght, inTCPHeaderSeqNumOffset);
+        int seqNumOffset = Utils.calculateTCPoffset(packet, ipHeaderLenght, inTCPHeaderSeqNumOffset);
         this.seqNum = Utils.convertLong(packet, seqNumOffset);
 
-        int ackNumOffset = Utils.calculateTCPoffset(ipHeaderLenght, inTCPHeaderAckNumOffset);
+        int ackNumOffset = Utils.calculateTCPoffset(packet, ipHeaderLenght, inTCPHeaderAckNumOffset);
         this.ackNum = Utils.convertLong(packet, ackNumOffset);
 
-        byte rawFlags = packet[Utils.calculateTCPoffset(ipHeaderLenght, flagsOffset)];
+        this.flags = packet[Utils.calculateTCPoffset(packet, ipHeaderLenght, flagsOffset)];
 
-        this.flags = new TCPFlags(Utils.isSet(rawFlags, 0), Utils.isSet(rawFlags, 1), Utils.isSet(rawFlags, 2),
-                Utils.isSet(rawFlags, 3), Utils.isSet(rawFlags, 4), Utils.isSet(rawFlags, 5), Utils.isSet(rawFlags, 6),
-                Utils.isSet(rawFlags, 7));
 
-
-
-        int payloadDataStart =  Utils.etherHeaderLength +
-                Utils.getIPHeaderLength(packet) + Utils.getTCPHeaderLength(packet);
-        byte[] data = new byte[0];
-        if((packet.length - payloadDataStart) > 0){
-            data = new byte[packet.length - payloadDataStart];
-            System.arraycopy(packet, payloadDataStart, data, 0, data.length);
-        }
-        try {
-            this.data = new PacketContents(data);
-        }catch (NullPointerException e){
-            this.data = null;
-        }
+        int network = Utils.getNetworkOffset(packet);
+        int payloadDataStart = network + ipHeaderLenght + Utils.getTCPHeaderLength(packet);
+        this.frame = packet;
+        this.payloadOffset = Math.min(payloadDataStart, packet.length);
+        this.payloadLength = Math.max(0, Utils.getIPEnd(packet, network, packet.length) - this.payloadOffset);
     }
 
     /**
@@ -133,7 +161,7 @@ public class TCPPacket extends IPPacket{
         super(timestamp,srcMAC, destMAC,srcIP, dstIP);
         this.src_port = srcPort;
         this.dst_port = destPort;
-        this.flags = flags;
+        setFlags(flags);
         this.data = data;
     }
 
@@ -147,9 +175,9 @@ public class TCPPacket extends IPPacket{
                "-----TCP PACKET-----%nTimeStamp: %d%nSRC MAC: %s%nDST MAC: %s%nSRC IP: %s%nDEST IP: %s%nSRC PORT: %d%n" +
                        "DEST PORT: %d%nFLAGS: %s%nCONTENTS: %s%n",
 
-                this.timestamp/1000, this.sourceMacAddress, this.destMacAddress, this.src_ip.getHostAddress(),
-               this.dst_ip.getHostAddress(), this.src_port, this.dst_port/*, this.seqNum, this.ackNum,
-               this.data.getData().length*/, flags, data.toString());
+                this.timestamp/1000, getSourceMacAddress(), getDestMacAddress(), getSrc_ip().getHostAddress(),
+               getDst_ip().getHostAddress(), this.src_port, this.dst_port/*, this.seqNum, this.ackNum,
+               this.data.getData().length*/, getFlags(), getData().toString());
     }
 
 
@@ -0,0 +1,84 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+/**
+ * This class represents a TCP connection tracked by a TcpReassembler.
+ * The client is the endpoint that sent the first SYN, or the sender of the first packet seen if
+ * the connection was already established when the capture started.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public final class TcpConnection {
+
+    private final int clientIpv4;
+    private final int serverIpv4;
+    private final int clientPort;
+    private final int serverPort;
+    private final long startTimestamp;
+    private Object attachment;
+
+    final TcpReassembler.Direction fromClient = new TcpReassembler.Direction();
+    final TcpReassembler.Direction fromServer = new TcpReassembler.Direction();
+    long lastTimestamp;
+
+    TcpConnection(int clientIpv4, int clientPort, int serverIpv4, int serverPort, long startTimestamp){
+        this.clientIpv4 = clientIpv4;
+        this.clientPort = clientPort;
+        this.serverIpv4 = serverIpv4;
+        this.serverPort = serverPort;
+        this.startTimestamp = startTimestamp;
+        this.lastTimestamp = startTimestamp;
+    }
+
+    /**
+     * @return the client address as an int in network order.
+     */
+    public int getClientIpv4() {
+        return clientIpv4;
+    }
+
+    /**
+     * @return the server address as an int in network order.
+     */
+    public int getServerIpv4() {
+        return serverIpv4;
+    }
+
+    public int getClientPort() {
+        return clientPort;
+    }
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return the object attached with setAttachment(), or null.
+     */
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Attaches an object to the connection, e.g. the state of a protocol decoder.
+     * @param attachment the object to attach
+     */
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%d -> %s:%d",
+                Utils.toInetAddress(clientIpv4).getHostAddress(), clientPort,
+                Utils.toInetAddress(serverIpv4).getHostAddress(), serverPort);
+    }
+}
@@ -0,0 +1,481 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * This class rebuilds the byte streams of TCP connections from their segments.
+ * Segments are ordered by sequence number, retransmitted and overlapping bytes are delivered only
+ * once, and contiguous data is passed to a TcpStreamHandler as soon as it is available, separately
+ * for each direction of a connection. In-order segments are delivered without being copied, only
+ * segments that arrive ahead of a hole are buffered.
+ * Memory is bounded in three ways: the number of segments and bytes buffered per direction, the
+ * bytes buffered in total and the number of connections tracked. When a limit is reached the
+ * oldest hole is reported as a gap and the data after it is delivered, and when there are too many
+ * connections the least recently active one is closed.
+ * Only IPv4 connections are tracked. The reassembler is not thread-safe and the handler must not
+ * call back into it.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class TcpReassembler {
+
+    static final int defaultMaxConnections = 1 << 20;
+    static final long defaultMaxMemory = 256L << 20;
+    static final int defaultMaxSegments = 1024;
+    static final int defaultMaxBufferedBytes = 1 << 20;
+
+    private static final int flagFin = 0x01;
+    private static final int flagSyn = 0x02;
+    private static final int flagRst = 0x04;
+    private static final int flagAck = 0x10;
+
+    private final TcpStreamHandler handler;
+    private final LinkedHashMap<Key, TcpConnection> connections =
+            new LinkedHashMap<Key, TcpConnection>(1024, 0.75f, true); // least recently used first
+    private final Key probe = new Key();
+    private long bufferedBytes = 0;
+
+    private int maxConnections = defaultMaxConnections;
+    private long maxMemory = defaultMaxMemory;
+    private int maxSegments = defaultMaxSegments;
+    private int maxBufferedBytes = defaultMaxBufferedBytes;
+    private long idleTimeout = 0;
+    private long nextSweep = Long.MIN_VALUE;
+
+    /**
+     * @param handler the callback that receives the streams
+     */
+    public TcpReassembler(TcpStreamHandler handler){
+        if (handler == null)
+            throw new NullPointerException();
+        this.handler = handler;
+    }
+
+    /**
+     * Set the maximum number of connections tracked at the same time.
+     * @param maxConnections the new setting
+     */
+    public void setMaxConnections(int maxConnections){
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("Maximum connections must be positive");
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnections(){
+        return maxConnections;
+    }
+
+    /**
+     * Set the maximum number of bytes buffered across all connections.
+     * @param bytes the new setting
+     */
+    public void setMaxMemory(long bytes){
+        if (bytes < 0)
+            throw new IllegalArgumentException("Maximum memory must not be negative");
+        this.maxMemory = bytes;
+    }
+
+    public long getMaxMemory(){
+        return maxMemory;
+    }
+
+    /**
+     * Set the maximum number of out of order segments buffered for one direction of a connection.
+     * @param segments the new setting
+     */
+    public void setMaxSegments(int segments){
+        if (segments < 0)
+            throw new IllegalArgumentException("Maximum segments must not be negative");
+        this.maxSegments = segments;
+    }
+
+    public int getMaxSegments(){
+        return maxSegments;
+    }
+
+    /**
+     * Set the maximum number of out of order bytes buffered for one direction of a connection.
+     * @param bytes the new setting
+     */
+    public void setMaxBufferedBytes(int bytes){
+        if (bytes < 0)
+            throw new IllegalArgumentException("Maximum buffered bytes must not be negative");
+        this.maxBufferedBytes = bytes;
+    }
+
+    public int getMaxBufferedBytes(){
+        return maxBufferedBytes;
+    }
+
+    /**
+     * Close connections that have not seen a packet for the given time, measured in packet time.
+     * @param milliseconds the idle timeout, or 0 to keep idle connections until they are evicted
+     */
+    public void setIdleTimeout(long milliseconds){
+        if (milliseconds < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        this.idleTimeout = milliseconds;
+        this.nextSweep = Long.MIN_VALUE;
+    }
+
+    public long getIdleTimeout(){
+        return idleTimeout;
+    }
+
+    /**
+     * @return the number of connections tracked.
+     */
+    public int getConnectionCount(){
+        return connections.size();
+    }
+
+    /**
+     * @return the number of out of order bytes buffered across all connections.
+     */
+    public long getBufferedBytes(){
+        return bufferedBytes;
+    }
+
+    /**
+     * Adds a segment to its connection.
+     * @param packet the segment, ignored if it is an IPv6 packet
+     */
+    public void add(TCPPacket packet){
+        if (packet.isIPv6())
+            return;
+        ByteBuffer payload = packet.getPayload();
+        add(packet.getSrcIpv4(), packet.getSrc_port(), packet.getDstIpv4(), packet.getDst_port(), packet.getSeqNum(),
+                packet.getFlagBits(), payload == null ? ByteBuffer.allocate(0) : payload, packet.getTimestamp());
+    }
+
+    /**
+     * Adds the segment a view is positioned over to its connection.
+     * @param view a view filled by PcapParser.nextPacket(), ignored unless it holds an IPv4 TCP packet
+     */
+    public void add(PacketView view){
+        if (!view.isTCPPacket() || view.isIPv6Packet())
+            return;
+        add(view.srcIpv4(), view.srcPort(), view.dstIpv4(), view.dstPort(), view.seqNum(), view.tcpFlags(),
+                ByteBuffer.wrap(view.array(), view.payloadOffset(), view.payloadLength()), view.timestamp());
+    }
+
+    /**
+     * Adds a segment to its connection.
+     * @param srcIpv4 the source address as an int in network order
+     * @param srcPort the source port
+     * @param dstIpv4 the destination address as an int in network order
+     * @param dstPort the destination port
+     * @param seqNum the sequence number
+     * @param flags the TCP flags, FIN being the lowest bit
+     * @param payload the payload between its position and limit, which is not modified
+     * @param timestamp the time the segment was captured
+     */
+    public void add(int srcIpv4, int srcPort, int dstIpv4, int dstPort, long seqNum, int flags,
+                    ByteBuffer payload, long timestamp){
+        if (timestamp >= nextSweep)
+            sweep(timestamp);
+        long source = endpoint(srcIpv4, srcPort);
+        long destination = endpoint(dstIpv4, dstPort);
+        probe.set(source, destination);
+        TcpConnection connection = connections.get(probe);
+        if (connection == null) {
+            if ((flags & flagRst) != 0)
+                return;
+            if ((flags & (flagSyn | flagAck)) == (flagSyn | flagAck))
+                connection = new TcpConnection(dstIpv4, dstPort, srcIpv4, srcPort, timestamp);
+            else
+                connection = new TcpConnection(srcIpv4, srcPort, dstIpv4, dstPort, timestamp);
+            connections.put(new Key(source, destination), connection);
+            if (connections.size() > maxConnections) {
+                Iterator<TcpConnection> eldest = connections.values().iterator();
+                TcpConnection evicted = eldest.next();
+                eldest.remove();
+                close(evicted);
+            }
+        }
+        connection.lastTimestamp = Math.max(connection.lastTimestamp, timestamp);
+        if ((flags & flagRst) != 0) {
+            remove(connection);
+            return;
+        }
+        boolean fromClient = connection.getClientIpv4() == srcIpv4 && connection.getClientPort() == srcPort;
+        Direction direction = fromClient ? connection.fromClient : connection.fromServer;
+        int seq = (int) seqNum;
+        if ((flags & flagSyn) != 0)
+            seq++; // the SYN takes up one sequence number before the data
+        if (!direction.initialized) {
+            direction.initialized = true;
+            direction.nextSeq = seq;
+        }
+        int length = payload.remaining();
+        if (length > 0)
+            segment(connection, fromClient, direction, seq, payload);
+        if ((flags & flagFin) != 0 && !direction.finSeen) {
+            direction.finSeen = true;
+            direction.finSeq = seq + length;
+        }
+        checkFin(direction);
+        if (connection.fromClient.closed && connection.fromServer.closed)
+            remove(connection);
+        if (bufferedBytes > maxMemory)
+            reclaim();
+    }
+
+    /**
+     * Marks a direction as closed once all the data before its FIN has been delivered.
+     */
+    private static void checkFin(Direction direction){
+        if (direction.finSeen && !direction.closed && direction.nextSeq == direction.finSeq) {
+            direction.nextSeq++;
+            direction.closed = true;
+        }
+    }
+
+    private static long endpoint(int address, int port){
+        return ((address & 0xFFFFFFFFL) << 16) | (port & 0xFFFF);
+    }
+
+    /**
+     * Delivers a segment if it is the next one expected, or buffers it.
+     */
+    private void segment(TcpConnection connection, boolean fromClient, Direction direction, int seq, ByteBuffer payload){
+        int offset = seq - direction.nextSeq;
+        int length = payload.remaining();
+        if (offset + length <= 0)
+            return; // retransmission of data already delivered
+        if (offset <= 0) {
+            deliver(connection, fromClient, direction, payload, -offset);
+            drain(connection, fromClient, direction);
+            return;
+        }
+        if (length > maxBufferedBytes || maxSegments == 0) {
+            // the segment can never be buffered, so skip to it
+            skipTo(connection, fromClient, direction, seq);
+            segment(connection, fromClient, direction, seq, payload);
+            return;
+        }
+        while (!direction.segments.isEmpty() &&
+                (direction.segments.size() >= maxSegments || direction.bufferedBytes + length > maxBufferedBytes)) {
+            skip(connection, fromClient, direction);
+            if (seq - direction.nextSeq <= 0) {
+                segment(connection, fromClient, direction, seq, payload);
+                return;
+            }
+        }
+        offset = seq - direction.nextSeq;
+        ArrayList<Segment> segments = direction.segments;
+        int index = segments.size();
+        while (index > 0 && segments.get(index - 1).seq - direction.nextSeq > offset)
+            index--;
+        if (index > 0) {
+            Segment previous = segments.get(index - 1);
+            if (previous.seq == seq && previous.data.length >= length)
+                return; // retransmission of a buffered segment
+        }
+        byte[] data = new byte[length];
+        payload.duplicate().get(data);
+        segments.add(index, new Segment(seq, data));
+        direction.bufferedBytes += length;
+        bufferedBytes += length;
+    }
+
+    /**
+     * Passes data to the handler, skipping the bytes that have already been delivered.
+     */
+    private void deliver(TcpConnection connection, boolean fromClient, Direction direction, ByteBuffer data, int skip){
+        ByteBuffer remaining = data.duplicate();
+        remaining.position(remaining.position() + skip);
+        direction.nextSeq += remaining.remaining();
+        handler.data(connection, fromClient, remaining);
+    }
+
+    /**
+     * Delivers the buffered segments that have become contiguous.
+     */
+    private void drain(TcpConnection connection, boolean fromClient, Direction direction){
+        ArrayList<Segment> segments = direction.segments;
+        while (!segments.isEmpty()) {
+            Segment segment = segments.get(0);
+            int offset = segment.seq - direction.nextSeq;
+            if (offset > 0)
+                break;
+            segments.remove(0);
+            direction.bufferedBytes -= segment.data.length;
+            bufferedBytes -= segment.data.length;
+            if (offset + segment.data.length > 0)
+                deliver(connection, fromClient, direction, ByteBuffer.wrap(segment.data), -offset);
+        }
+    }
+
+    /**
+     * Reports the hole before the first buffered segment as a gap and delivers what follows it.
+     */
+    private void skip(TcpConnection connection, boolean fromClient, Direction direction){
+        Segment first = direction.segments.get(0);
+        handler.gap(connection, fromClient, (first.seq - direction.nextSeq) & 0xFFFFFFFFL);
+        direction.nextSeq = first.seq;
+        drain(connection, fromClient, direction);
+    }
+
+    /**
+     * Delivers the buffered data before a sequence number, reporting the holes as gaps,
+     * so that the data at the sequence number is the next one expected.
+     */
+    private void skipTo(TcpConnection connection, boolean fromClient, Direction direction, int seq){
+        while (!direction.segments.isEmpty() && direction.segments.get(0).seq - seq < 0)
+            skip(connection, fromClient, direction);
+        int gap = seq - direction.nextSeq;
+        if (gap > 0) {
+            handler.gap(connection, fromClient, gap);
+            direction.nextSeq = seq;
+            drain(connection, fromClient, direction);
+        }
+    }
+
+    /**
+     * Skips the holes of the least recently active connections until the buffered bytes are under the limit.
+     */
+    private void reclaim(){
+        ArrayList<TcpConnection> finished = new ArrayList<TcpConnection>();
+        for (TcpConnection connection : connections.values()) {
+            if (bufferedBytes <= maxMemory)
+                break;
+            flush(connection, true, connection.fromClient);
+            flush(connection, false, connection.fromServer);
+            checkFin(connection.fromClient);
+            checkFin(connection.fromServer);
+            if (connection.fromClient.closed && connection.fromServer.closed)
+                finished.add(connection);
+        }
+        for (TcpConnection connection : finished)
+            remove(connection);
+    }
+
+    private void flush(TcpConnection connection, boolean fromClient, Direction direction){
+        while (!direction.segments.isEmpty())
+            skip(connection, fromClient, direction);
+    }
+
+    private void remove(TcpConnection connection){
+        probe.set(endpoint(connection.getClientIpv4(), connection.getClientPort()),
+                endpoint(connection.getServerIpv4(), connection.getServerPort()));
+        connections.remove(probe);
+        close(connection);
+    }
+
+    /**
+     * Delivers any buffered data of a connection that is no longer tracked and reports its end.
+     */
+    private void close(TcpConnection connection){
+        flush(connection, true, connection.fromClient);
+        flush(connection, false, connection.fromServer);
+        handler.close(connection);
+    }
+
+    /**
+     * Closes the connections that have timed out at a point in time. This happens automatically as
+     * segments are added, but can be invoked when no packets arrive for a while.
+     * @param now the current time in the same unit as the packet timestamps
+     * @return the number of connections closed
+     */
+    public int expire(long now){
+        if (idleTimeout == 0)
+            return 0;
+        ArrayList<TcpConnection> expired = new ArrayList<TcpConnection>();
+        for (TcpConnection connection : connections.values()) {
+            if (now - connection.lastTimestamp >= idleTimeout)
+                expired.add(connection);
+        }
+        for (TcpConnection connection : expired)
+            remove(connection);
+        return expired.size();
+    }
+
+    /**
+     * Looks for idle connections at most four times per timeout.
+     */
+    private void sweep(long now){
+        if (idleTimeout == 0) {
+            nextSweep = Long.MAX_VALUE;
+            return;
+        }
+        if (nextSweep != Long.MIN_VALUE)
+            expire(now);
+        nextSweep = now + Math.max(1, idleTimeout / 4);
+    }
+
+    /**
+     * Closes every connection, delivering any data that is still buffered.
+     */
+    public void flush(){
+        ArrayList<TcpConnection> all = new ArrayList<TcpConnection>(connections.values());
+        connections.clear();
+        for (TcpConnection connection : all)
+            close(connection);
+    }
+
+    /**
+     * The state of one direction of a connection.
+     */
+    static final class Direction {
+        boolean initialized = false;
+        int nextSeq;
+        boolean finSeen = false;
+        int finSeq;
+        boolean closed = false;
+        final ArrayList<Segment> segments = new ArrayList<Segment>(0);
+        int bufferedBytes = 0;
+    }
+
+    /**
+     * A segment received ahead of a hole.
+     */
+    private static final class Segment {
+        final int seq;
+        final byte[] data;
+
+        Segment(int seq, byte[] data){
+            this.seq = seq;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The two endpoints of a connection in a fixed order, so that both directions map to the same key.
+     */
+    private static final class Key {
+        private long low;
+        private long high;
+
+        Key(){
+        }
+
+        Key(long first, long second){
+            set(first, second);
+        }
+
+        void set(long first, long second){
+            this.low = Math.min(first, second);
+            this.high = Math.max(first, second);
+        }
+
+        @Override
+        public boolean equals(Object other){
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return low == key.low && high == key.high;
+        }
+
+        @Override
+        public int hashCode(){
+            long h = low * 0x9E3779B97F4A7C15L + high;
+            h ^= h >>> 32;
+            return (int) h;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A callback that receives the byte streams rebuilt by a TcpReassembler.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public interface TcpStreamHandler {
+
+    /**
+     * Called with the next contiguous bytes of one direction of a connection.
+     * @param connection the connection the data belongs to
+     * @param fromClient true if the data was sent by the client, false if by the server
+     * @param data the bytes, only valid until the method returns
+     */
+    void data(TcpConnection connection, boolean fromClient, ByteBuffer data);
+
+    /**
+     * Called when bytes are skipped because they were never captured or the memory limits were reached.
+     * @param connection the connection the gap belongs to
+     * @param fromClient true if the missing data was sent by the client, false if by the server
+     * @param length the number of bytes missing
+     */
+    void gap(TcpConnection connection, boolean fromClient, long length);
+
+    /**
+     * Called once when a connection is closed, reset, timed out or evicted. No data follows.
+     * @param connection the connection that ended
+     */
+    void close(TcpConnection connection);
+}
@@ -1,6 +1,7 @@
 package uk.ac.gla.atanaspam.pcapj;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * This class represents a UDP packet and stores all the data that we are interested in for a UDP packet
@@ -15,6 +16,9 @@ public class UDPPacket extends IPPacket{
     protected int src_port;
     protected int dst_port;
     protected PacketContents data;
+    protected byte[] frame;
+    protected int payloadOffset;
+    protected int payloadLength;
 
     public int getSrc_port() {
         return src_port;
@@ -24,10 +28,41 @@ public class UDPPacket extends IPPacket{
         return dst_port;
     }
 
+    /**
+     * Obtains the payload. For packets decoded from a frame the payload is only copied out of the
+     * frame the first time this method is called.
+     * @return the payload
+     */
     public PacketContents getData() {
+        if (data == null && frame != null) {
+            byte[] payload = new byte[payloadLength];
+            System.arraycopy(frame, payloadOffset, payload, 0, payloadLength);
+            data = new PacketContents(payload);
+        }
         return data;
     }
 
+    /**
+     * @return the number of payload bytes captured, not counting any padding after the UDP datagram.
+     */
+    public int getPayloadLength() {
+        if (frame == null)
+            return data == null ? 0 : data.getData().length;
+        return payloadLength;
+    }
+
+    /**
+     * Obtains the payload without copying it.
+     * @return a read-only ByteBuffer over the payload, or null if there is none.
+     */
+    public ByteBuffer getPayload() {
+        if (frame != null)
+            return ByteBuffer.wrap(frame, payloadOffset, payloadLength).slice().asReadOnlyBuffer();
+        if (data == null)
+            return null;
+        return ByteBuffer.wrap(data.getData()).asReadOnlyBuffer();
+    }
+
     /**
      * @deprecated
      * This constructor takes an IPPacket object(superclass) and constructs a UDP
@@ -37,10 +72,7 @@ public class UDPPacket extends IPPacket{
     public UDPPacket(IPPacket packet){
 	    super(packet.timestamp);
 	
-	    this.src_ip = packet.src_ip;
-	    this.dst_ip = packet.dst_ip;
-        this.sourceMacAddress = packet.sourceMacAddress;
-        this.destMacAddress = packet.destMacAddress;
+        copyAddresses(packet);
     }
 
     /**
@@ -51,26 +83,21 @@ public class UDPPacket extends IPPacket{
     public UDPPacket(byte[] packet, long timestamp){
         super(packet,timestamp);
 
-        int srcPortOffset = Utils.etherHeaderLength +
-                Utils.getIPHeaderLength(packet) + inUDPHeaderSrcPortOffset;
+        int network = Utils.getNetworkOffset(packet);
+        int udpHeaderStart = network + Utils.getIPHeaderLength(packet);
+
+        int srcPortOffset = udpHeaderStart + inUDPHeaderSrcPortOffset;
         this.src_port = Utils.convertShort(packet, srcPortOffset);
 
-        int dstPortOffset = Utils.etherHeaderLength +
-                Utils.getIPHeaderLength(packet) + inUDPHeaderDstPortOffset;
+        int dstPortOffset = udpHeaderStart + inUDPHeaderDstPortOffset;
         this.dst_port = Utils.convertShort(packet, dstPortOffset);
 
-        int payloadDataStart =  Utils.etherHeaderLength +
-                Utils.getIPHeaderLength(packet) + Utils.udpHeaderLength;
-        byte[] data = new byte[0];
-        if((packet.length - payloadDataStart) > 0){
-            data = new byte[packet.length - payloadDataStart];
-            System.arraycopy(packet, payloadDataStart, data, 0, data.length);
-        }
-        try {
-            this.data = new PacketContents(data);
-        }catch (NullPointerException e){
-            this.data = null;
-        }
+        int payloadDataStart =  udpHeaderStart + Utils.udpHeaderLength;
+        this.frame = packet;
+        this.payloadOffset = Math.min(payloadDataStart, packet.length);
+        int payloadDataEnd = payloadDataStart > packet.length ? packet.length :
+                Utils.getUDPEnd(packet, udpHeaderStart, Utils.getIPEnd(packet, network, packet.length));
+        this.payloadLength = Math.max(0, payloadDataEnd - this.payloadOffset);
     }
 
     /**
@@ -92,7 +119,7 @@ public class UDPPacket extends IPPacket{
                         "DEST PORT: %d%nPAYLOAD LEN: %d%n", */
                 "-----UDP PACKET-----%nTimeStamp: %d%nSRC MAC: %s%nDST MAC: %s%nSRC IP: %s%nDEST IP: %s%nSRC PORT: %d%n" +
                         "DEST PORT: %d%n",
-                this.timestamp/1000, this.sourceMacAddress, this.destMacAddress, this.src_ip.getHostAddress(),
-                this.dst_ip.getHostAddress(), this.src_port, this.dst_port/*, this.data.getData().length*/);
+                this.timestamp/1000, getSourceMacAddress(), getDestMacAddress(), getSrc_ip().getHostAddress(),
+                getDst_ip().getHostAddress(), this.src_port, this.dst_port/*, this.data.getData().length*/);
     }
 }
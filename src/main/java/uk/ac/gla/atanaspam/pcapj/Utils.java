@@ -3,6 +3,11 @@ package uk.ac.gla.atanaspam.pcapj;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
 /**
  * This class stores various constants and auxiliary methods used to parse packets
  * @author atanaspam
@@ -13,21 +18,106 @@ public class Utils {
     private static final Logger LOG = LoggerFactory.getLogger(Utils.class);
 
     public static final int globalHeaderLength = 24;
-    public static int vlanHeaderLength = 4;
-    public static int etherHeaderLength = 14;
+    public static final int vlanHeaderLength = 4;
+    public static final int etherHeaderLength = 14; // without any VLAN tags
     public static final int udpHeaderLength = 8;
+    public static final int ipMinHeaderLength = 20;
+    public static final int ipv6HeaderLength = 40;
 
-    public static int verIHLOffset = etherHeaderLength; // the offset is the same as the ether header end
-    public static int etherTypeOffset = 12;
+    public static final int verIHLOffset = etherHeaderLength; // the offset is the same as the ether header end
+    public static final int etherTypeOffset = 12;
     public static final int ipProtoOffset = 9; //Offset from etherHeader end
+    public static final int ipFragmentOffset = 6; //Offset from etherHeader end, flags and fragment offset
+    public static final int ipMoreFragments = 0x2000;
+    public static final int ipFragmentOffsetMask = 0x1FFF; // in units of 8 bytes
+    public static final int ipv6NextHeaderOffset = 6; //Offset from etherHeader end
+    public static final int ipv6SrcOffset = 8; //Offset from etherHeader end
+    public static final int ipv6DstOffset = 24; //Offset from etherHeader end
 
-    public static boolean vlanEnabled = false;
     public static final int ipProtoTCP = 6;
     public static final int ipProtoUDP = 17;
     public static final int etherTypeIPv4 = 0x800;
     public static final int etherTypeIPv6 = 0x86DD;
+    public static final int ipv6HopByHop = 0;
+    public static final int ipv6Routing = 43;
+    public static final int ipv6Fragment = 44;
+    public static final int ipv6Auth = 51;
+    public static final int ipv6DestOptions = 60;
+    public static final int etherTypeVlan = 0x8100; // 802.1Q
+    public static final int etherTypeQinQ = 0x88A8; // 802.1ad
+    public static final int etherTypeQinQLegacy = 0x9100;
     public static final long pcapMagicNumber = 0xA1B2C3D4;
+    public static final int linkTypeOffset = 20; // in the global header
+    public static final int linkTypeEthernet = 1;
+
+    /**
+     * Checks if an EtherType introduces a VLAN tag (802.1Q or QinQ).
+     * @param etherType the EtherType (or TPID) read from the frame.
+     * @return true if another 4 byte tag follows.
+     */
+    public static boolean isVlanTag(int etherType){
+        return etherType == etherTypeVlan || etherType == etherTypeQinQ || etherType == etherTypeQinQLegacy;
+    }
+
+    /**
+     * Obtains the offset where the network (IP) header starts.
+     * Any number of 802.1Q/QinQ tags are detected from the EtherType of each frame,
+     * so tagged and untagged frames can be mixed in the same capture.
+     * @param packet a byte[] storing raw packet information.
+     * @param length the number of bytes captured.
+     * @return the offset right after the Ethernet header and its VLAN tags.
+     */
+    public static int getNetworkOffset(byte[] packet, int length){
+        return getNetworkOffset(packet, 0, length);
+    }
+
+    /**
+     * Obtains the offset where the network (IP) header starts for a frame stored inside a larger buffer.
+     * @param packet a byte[] storing raw packet information.
+     * @param start the offset into packet[] where the frame starts.
+     * @param end the offset into packet[] where the frame ends.
+     * @return the offset into packet[] right after the Ethernet header and its VLAN tags.
+     */
+    public static int getNetworkOffset(byte[] packet, int start, int end){
+        int offset = start + etherTypeOffset;
+        while (offset + vlanHeaderLength + 2 <= end && isVlanTag(convertShort(packet, offset)))
+            offset = offset + vlanHeaderLength;
+        return offset + 2;
+    }
+
+    /**
+     * Obtains the offset where the network (IP) header starts.
+     * @param packet a byte[] storing raw packet information.
+     * @return the offset right after the Ethernet header and its VLAN tags.
+     */
+    public static int getNetworkOffset(byte[] packet){
+        return getNetworkOffset(packet, packet.length);
+    }
 
+    /**
+     * Obtains the EtherType of the frame, skipping any VLAN tags.
+     * @param packet a byte[] storing raw packet information.
+     * @param length the number of bytes captured.
+     * @return the EtherType, or -1 if the frame is too short.
+     */
+    public static int getEtherType(byte[] packet, int length){
+        int offset = getNetworkOffset(packet, length) - 2;
+        if (offset + 2 > length)
+            return -1;
+        return convertShort(packet, offset);
+    }
+
+    /**
+     * Obtains the VLAN ID of the outermost tag.
+     * @param packet a byte[] storing raw packet information.
+     * @param length the number of bytes captured.
+     * @return the VLAN ID, or -1 if the frame is not tagged.
+     */
+    public static int getVlanId(byte[] packet, int length){
+        if (etherTypeOffset + vlanHeaderLength + 2 > length || !isVlanTag(convertShort(packet, etherTypeOffset)))
+            return -1;
+        return convertShort(packet, etherTypeOffset + 2) & 0xFFF;
+    }
 
 
     /**
@@ -36,17 +126,118 @@ public class Utils {
      * @return a String representing the hex Ethertype code.
      */
     public static String getProtocolType(byte[] packet){
-        return Integer.toHexString(packet[ipProtoOffset + etherHeaderLength]);
+        int offset = ipProtoOffset + getNetworkOffset(packet);
+        if (offset >= packet.length)
+            return Integer.toHexString(getEtherType(packet, packet.length));
+        return Integer.toHexString(packet[offset]);
     }
 
 
     /**
-     * Obtains the length of the IP header.
+     * Obtains the length of the IP header. For IPv6 this includes the extension headers that
+     * precede the transport header.
      * @param packet a byte[] storing raw packet information.
      * @return the length.
      */
     public static int getIPHeaderLength(byte[] packet){
-        return (packet[verIHLOffset] & 0xF) * 4;
+        int network = getNetworkOffset(packet);
+        if (getEtherType(packet, packet.length) == etherTypeIPv6) {
+            int transport = getIPv6TransportOffset(packet, network, packet.length);
+            return (transport < 0 ? packet.length : transport) - network;
+        }
+        return (packet[network] & 0xF) * 4;
+    }
+
+    /**
+     * Walks the IPv6 extension header chain (hop-by-hop, routing, fragment, destination options and
+     * authentication headers) to the first header that is not an extension header.
+     * The walk stops at a fragment header whose offset is not 0, as the rest of the chain is in an
+     * earlier fragment.
+     * @param packet a byte[] storing raw packet information.
+     * @param network the offset of the IPv6 header.
+     * @param end the offset where the captured bytes end.
+     * @return the offset of the header after the chain, or -1 if the chain is truncated.
+     */
+    public static int getIPv6TransportOffset(byte[] packet, int network, int end){
+        return walkIPv6(packet, network, end, false);
+    }
+
+    /**
+     * Obtains the protocol of the header after the IPv6 extension header chain.
+     * @param packet a byte[] storing raw packet information.
+     * @param network the offset of the IPv6 header.
+     * @param end the offset where the captured bytes end.
+     * @return the protocol number, ipv6Fragment for fragments other than the first,
+     * or -1 if the chain is truncated.
+     */
+    public static int getIPv6Protocol(byte[] packet, int network, int end){
+        return walkIPv6(packet, network, end, true);
+    }
+
+    private static int walkIPv6(byte[] packet, int network, int end, boolean protocol){
+        int next = packet[network + ipv6NextHeaderOffset] & 0xFF;
+        int offset = network + ipv6HeaderLength;
+        while (true) {
+            int length;
+            if (next == ipv6HopByHop || next == ipv6Routing || next == ipv6DestOptions || next == ipv6Auth) {
+                if (offset + 8 > end)
+                    return -1;
+                if (next == ipv6Auth)
+                    length = ((packet[offset + 1] & 0xFF) + 2) * 4;
+                else
+                    length = ((packet[offset + 1] & 0xFF) + 1) * 8;
+            } else if (next == ipv6Fragment) {
+                if (offset + 8 > end)
+                    return -1;
+                if ((convertShort(packet, offset + 2) & 0xFFF8) != 0)
+                    return protocol ? ipv6Fragment : offset;
+                length = 8;
+            } else {
+                if (offset > end)
+                    return -1;
+                return protocol ? next : offset;
+            }
+            next = packet[offset] & 0xFF;
+            offset += length;
+        }
+    }
+
+    /**
+     * Obtains the offset where the IP datagram ends according to its header, so that the padding
+     * of short Ethernet frames and any link layer trailer are not taken for payload.
+     * A length of 0, as written by segmentation offload or used by IPv6 jumbograms, covers all
+     * the captured bytes.
+     * @param packet a byte[] storing raw packet information.
+     * @param network the offset of the IP header.
+     * @param end the offset where the captured bytes end.
+     * @return the offset where the datagram ends, at most end.
+     */
+    public static int getIPEnd(byte[] packet, int network, int end){
+        int length;
+        if (((packet[network] >> 4) & 0xF) == 6) {
+            length = convertShort(packet, network + 4); // payload length
+            if (length != 0)
+                length += ipv6HeaderLength;
+        } else {
+            length = convertShort(packet, network + 2); // total length
+        }
+        if (length == 0)
+            return end;
+        return Math.min(end, network + length);
+    }
+
+    /**
+     * Obtains the offset where a UDP datagram ends according to its length field.
+     * @param packet a byte[] storing raw packet information.
+     * @param transport the offset of the UDP header.
+     * @param end the offset where the IP datagram ends.
+     * @return the offset where the UDP datagram ends, at most end.
+     */
+    public static int getUDPEnd(byte[] packet, int transport, int end){
+        int length = convertShort(packet, transport + 4);
+        if (length < udpHeaderLength)
+            return end;
+        return Math.min(end, transport + length);
     }
 
     /**
@@ -57,7 +248,7 @@ public class Utils {
     public static int getTCPHeaderLength(byte[] packet){
         final int inTCPHeaderDataOffset = 12;
 
-        int dataOffset = etherHeaderLength +
+        int dataOffset = getNetworkOffset(packet) +
                 getIPHeaderLength(packet) + inTCPHeaderDataOffset;
         return ((packet[dataOffset] >> 4) & 0xF) * 4;
     }
@@ -80,9 +271,8 @@ public class Utils {
      * @return a decimal Integer that is equal to the byte[] integer
      */
     public static long convertInt(byte[] data, int offset){
-        byte[] target = new byte[4];
-        System.arraycopy(data, offset, target, 0, target.length);
-        return convertInt(target);
+        return ((data[offset + 3] & 0xFF) << 24) | ((data[offset + 2] & 0xFF) << 16) |
+                ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF);
     }
 
     /**
@@ -101,9 +291,7 @@ public class Utils {
      * @return a decimal Integer that is equal to the byte[] integer.
      */
     public static int convertShort(byte[] data, int offset){
-        byte[] target = new byte[2];
-        System.arraycopy(data, offset, target, 0, target.length);
-        return convertShort(target);
+        return ((data[offset + 1] & 0xFF) | (data[offset] & 0xFF) << 8);
     }
 
     /**
@@ -114,7 +302,7 @@ public class Utils {
     public static String getMacAddress(byte[] source){
         StringBuilder str = null;
         try {
-            String rawString = javax.xml.bind.DatatypeConverter.printHexBinary(source);
+            String rawString = printHexBinary(source);
             str = new StringBuilder(rawString);
             int n = 0;
             for (int i=0; i<str.length(); i++){
@@ -133,15 +321,161 @@ public class Utils {
         return null;
     }
 
+    private static final char[] hexDigits = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Converts a byte[] to a String of upper case hexadecimal digits, two per byte.
+     * @param data the bytes to convert.
+     * @return the hexadecimal representation of the bytes.
+     */
+    public static String printHexBinary(byte[] data){
+        char[] str = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            str[i * 2] = hexDigits[(data[i] >>> 4) & 0xF];
+            str[i * 2 + 1] = hexDigits[data[i] & 0xF];
+        }
+        return new String(str);
+    }
+
+    /**
+     * Formats a MAC address stored in the lower 48 bits of a long the same way as getMacAddress().
+     * @param mac the MAC address.
+     * @return a ':' separated String representation of the MAC address.
+     */
+    public static String formatMacAddress(long mac){
+        char[] str = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int octet = (int) (mac >>> (40 - 8 * i)) & 0xFF;
+            str[i * 3] = hexDigits[octet >>> 4];
+            str[i * 3 + 1] = hexDigits[octet & 0xF];
+            if (i < 5)
+                str[i * 3 + 2] = ':';
+        }
+        return new String(str);
+    }
+
     /**
-     * Checks if the packet supplied is a known IP packet (IPv4).
+     * Parses a ':' separated MAC address String.
+     * @param mac a String such as "00:1A:2B:3C:4D:5E".
+     * @return the MAC address stored in the lower 48 bits of a long, or 0 if it cannot be parsed.
+     */
+    public static long parseMacAddress(String mac){
+        if (mac == null)
+            return 0;
+        long value = 0;
+        try {
+            for (String octet : mac.split(":"))
+                value = (value << 8) | Integer.parseInt(octet, 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return value & 0xFFFFFFFFFFFFL;
+    }
+
+    /**
+     * Reads a MAC address from a raw frame.
+     * @param packet a byte[] storing raw packet information.
+     * @param offset the offset where the 6 byte address starts.
+     * @return the MAC address stored in the lower 48 bits of a long.
+     */
+    public static long readMacAddress(byte[] packet, int offset){
+        long mac = 0;
+        for (int i = offset; i < offset + 6; i++)
+            mac = (mac << 8) | (packet[i] & 0xFF);
+        return mac;
+    }
+
+    /**
+     * Creates an InetAddress from an IPv4 address stored in an int.
+     * @param address the address in network order.
+     * @return the InetAddress.
+     */
+    public static InetAddress toInetAddress(int address){
+        byte[] raw = new byte[]{(byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address};
+        try {
+            return InetAddress.getByAddress(raw);
+        } catch (UnknownHostException e) {
+            LOG.error("An error occurred while creating an IP address.");
+            return null;
+        }
+    }
+
+    /**
+     * Creates an InetAddress from an IPv6 address stored in two longs.
+     * @param high the first 8 bytes of the address in network order.
+     * @param low the last 8 bytes of the address in network order.
+     * @return the InetAddress.
+     */
+    public static InetAddress toInetAddress(long high, long low){
+        byte[] raw = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            raw[i] = (byte) (high >>> (56 - 8 * i));
+            raw[i + 8] = (byte) (low >>> (56 - 8 * i));
+        }
+        try {
+            return Inet6Address.getByAddress(null, raw, -1);
+        } catch (UnknownHostException e) {
+            LOG.error("An error occurred while creating an IP address.");
+            return null;
+        }
+    }
+
+    /**
+     * Reads an 8 byte integer from a byte[], e.g. half of an IPv6 address.
+     * @param data the byte[] that stores the integer
+     * @param offset the offset into the data[]
+     * @return the integer in network order
+     */
+    public static long readLong(byte[] data, int offset){
+        return (convertLong(data, offset) << 32) | convertLong(data, offset + 4);
+    }
+
+    /**
+     * Converts an IPv4 InetAddress to an int.
+     * @param address the address, may be null.
+     * @return the address in network order, 0 if it is null or not IPv4.
+     */
+    public static int toIpv4(InetAddress address){
+        if (!(address instanceof Inet4Address))
+            return 0;
+        return (int) convertLong(address.getAddress(), 0);
+    }
+
+    /**
+     * Checks if the packet supplied is a known IP packet (IPv4 or IPv6).
      * @param packet a byte[] storing a raw packet.
-     * @return true if the packet is IPv4, false otherwise.
+     * @return true if the packet is IPv4 or IPv6, false otherwise.
      */
     public static boolean isIPPacket(byte[] packet){
-        int etherType = convertShort(packet, etherTypeOffset);
-        //LOG.error(etherType+" offset: "+etherTypeOffset);
-        return etherType == etherTypeIPv4;
+        int etherType = getEtherType(packet, packet.length);
+        if (etherType == etherTypeIPv6)
+            return getNetworkOffset(packet) + ipv6HeaderLength <= packet.length;
+        return etherType == etherTypeIPv4 && getNetworkOffset(packet) + ipMinHeaderLength <= packet.length;
+    }
+
+    /**
+     * Checks if the packet supplied is an IPv6 packet.
+     * @param packet a byte[] storing a raw packet.
+     * @return true if the packet is IPv6, false otherwise.
+     */
+    public static boolean isIPv6Packet(byte[] packet){
+        return getEtherType(packet, packet.length) == etherTypeIPv6 &&
+                getNetworkOffset(packet) + ipv6HeaderLength <= packet.length;
+    }
+
+    /**
+     * Obtains the protocol of the transport header. For IPv4 fragments other than the first there is
+     * none, and for IPv6 the extension headers are skipped.
+     * @param packet a byte[] storing a raw packet.
+     * @return the protocol number, or -1 if the packet is not IP or has no transport header.
+     */
+    private static int getTransportProtocol(byte[] packet){
+        if (!isIPPacket(packet))
+            return -1;
+        int network = getNetworkOffset(packet);
+        if (getEtherType(packet, packet.length) == etherTypeIPv6)
+            return getIPv6Protocol(packet, network, packet.length);
+        return getFragmentOffset(packet, network) == 0 ? packet[ipProtoOffset + network] & 0xFF : -1;
     }
 
     /**
@@ -150,9 +484,7 @@ public class Utils {
      * @return true if the packet is UDP, false otherwise.
      */
     public static boolean isUDPPacket(byte[] packet){
-        if(!isIPPacket(packet))
-            return false;
-        return packet[ipProtoOffset + etherHeaderLength] == ipProtoUDP;
+        return getTransportProtocol(packet) == ipProtoUDP;
     }
 
     /**
@@ -161,23 +493,58 @@ public class Utils {
      * @return true if the packet is TCP, false otherwise.
      */
     public static boolean isTCPPacket(byte[] packet){
-        if(!isIPPacket(packet))
-            return false;
-        return packet[ipProtoOffset + etherHeaderLength] == ipProtoTCP;
+        return getTransportProtocol(packet) == ipProtoTCP;
     }
 
     /**
-     * Calculates a custom offset within the TCP segment of a packet.
-     * Used with byte[] raw packet representation
+     * Checks if an IPv4 header belongs to a fragmented datagram, i.e. if the More Fragments
+     * flag is set or the fragment offset is not 0.
+     * @param packet a byte[] storing a raw packet.
+     * @param network the offset of the IPv4 header.
+     * @return true if the packet is a fragment, false otherwise.
+     */
+    public static boolean isFragment(byte[] packet, int network){
+        return (convertShort(packet, network + ipFragmentOffset) & (ipMoreFragments | ipFragmentOffsetMask)) != 0;
+    }
+
+    /**
+     * Obtains the position of a fragment within its datagram. Only the first fragment
+     * (or an unfragmented packet) carries the transport header.
+     * @param packet a byte[] storing a raw packet.
+     * @param network the offset of the IPv4 header.
+     * @return the offset of the fragment data in bytes.
+     */
+    public static int getFragmentOffset(byte[] packet, int network){
+        return (convertShort(packet, network + ipFragmentOffset) & ipFragmentOffsetMask) * 8;
+    }
+
+    /**
+     * @deprecated
+     * Calculates a custom offset within the TCP segment of an untagged packet.
+     * Use calculateTCPoffset(byte[], int, int) which takes VLAN tags into account.
      * @param IPHeaderLength the Length of the IP part of the header.
      * @param customOffset the custom offset that needs to be added.
      * @return the custom offset.
      */
+    @Deprecated
     public static int calculateTCPoffset(int IPHeaderLength, int customOffset){
         return etherHeaderLength +
                 IPHeaderLength + customOffset;
     }
 
+    /**
+     * Calculates a custom offset within the TCP segment of a packet.
+     * Used with byte[] raw packet representation
+     * @param packet a byte[] storing raw packet information.
+     * @param IPHeaderLength the Length of the IP part of the header.
+     * @param customOffset the custom offset that needs to be added.
+     * @return the custom offset.
+     */
+    public static int calculateTCPoffset(byte[] packet, int IPHeaderLength, int customOffset){
+        return getNetworkOffset(packet) +
+                IPHeaderLength + customOffset;
+    }
+
     /**
      * This method uses a leading 1 byte[]
      * This method converts a 4 byte int to a decimal int
@@ -201,9 +568,8 @@ public class Utils {
      * @return a decimal Integer that is equal to the byte[] integer
      */
     public static long convertLong(byte[] data, int offset){
-        byte[] target = new byte[4];
-        System.arraycopy(data, offset, target, 0, target.length);
-        return convertLong(target);
+        return ((long) (data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) |
+                ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
     }
 
     /**
@@ -0,0 +1,247 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that every CaptureInput returns the bytes of the file at any position, and that the parser
+ * reads the same packets whichever input it uses.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class CaptureInputTest extends TestCase {
+
+    private static final byte[] data = Captures.bytes(0, 100000);
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Captures.temporaryFile(".bin");
+        Captures.writeBytes(file, data);
+    }
+
+    /**
+     * Reads the whole input in pieces of random length, moving to a random position now and then.
+     * @param seekBack false if the input can only be moved forward
+     */
+    private static void assertReads(CaptureInput input, boolean seekBack) throws IOException {
+        Random random = new Random(7);
+        byte[] buffer = new byte[5001];
+        long position = 0;
+        assertEquals(0, input.position());
+        while (position < data.length) {
+            int length = random.nextInt(buffer.length - 1);
+            int expected = (int) Math.min(length, data.length - position);
+            assertEquals(expected, input.read(buffer, 1, length));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, (int) position, (int) position + expected),
+                    Arrays.copyOfRange(buffer, 1, 1 + expected)));
+            position += expected;
+            assertEquals(position, input.position());
+            if (random.nextInt(4) == 0) {
+                if (seekBack)
+                    position = random.nextInt(data.length);
+                else
+                    position = Math.min(data.length, position + random.nextInt(3000));
+                input.position(position);
+                assertEquals(position, input.position());
+            }
+        }
+        assertEquals(0, input.read(buffer, 0, 10));
+        assertEquals(data.length, input.position());
+        input.close();
+    }
+
+    private static byte[][] frames(int count){
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++)
+            frames[i] = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1000 + i, 53,
+                    Captures.bytes(i, 10 + i * 7));
+        return frames;
+    }
+
+    private static void assertSamePackets(List<BasicPacket> expected, List<BasicPacket> actual){
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+    }
+
+    public void testChannelInput() throws Exception {
+        ChannelInput input = new ChannelInput(file);
+        assertEquals(data.length, input.size());
+        assertReads(input, true);
+        // reads that are larger than the buffer, smaller than it, and cross its end
+        for (int bufferSize : new int[] {1, 7, 4096}) {
+            input = new ChannelInput(file, bufferSize);
+            assertEquals(data.length, input.size());
+            assertReads(input, true);
+        }
+    }
+
+    /**
+     * Data appended after the end of the file was reached is returned by the next read.
+     */
+    public void testChannelInputSeesAppendedData() throws Exception {
+        File growing = Captures.temporaryFile(".bin");
+        Captures.writeBytes(growing, Arrays.copyOf(data, 100));
+        ChannelInput input = new ChannelInput(growing, 64);
+        byte[] buffer = new byte[200];
+        assertEquals(100, input.read(buffer, 0, 200));
+        assertEquals(0, input.read(buffer, 0, 200));
+        Captures.writeBytes(growing, Arrays.copyOf(data, 250));
+        assertEquals(150, input.read(buffer, 0, 200));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 100, 250), Arrays.copyOf(buffer, 150)));
+        assertEquals(250, input.position());
+        input.close();
+    }
+
+    public void testRandomAccessInput() throws Exception {
+        RandomAccessInput input = new RandomAccessInput(file);
+        assertEquals(data.length, input.size());
+        assertReads(input, true);
+    }
+
+    public void testMappedInput() throws Exception {
+        MappedInput input = new MappedInput(file);
+        assertEquals(data.length, input.size());
+        assertReads(input, true);
+    }
+
+    public void testEmptyMappedInput() throws Exception {
+        File empty = Captures.temporaryFile(".bin");
+        Captures.writeBytes(empty, new byte[0]);
+        MappedInput input = new MappedInput(empty);
+        assertEquals(0, input.size());
+        assertEquals(0, input.read(new byte[4], 0, 4));
+        input.close();
+    }
+
+    public void testMemoryMappedParser() throws Exception {
+        File capture = Captures.write(frames(50));
+        PcapIndex.sidecar(capture).deleteOnExit();
+        List<BasicPacket> expected = Captures.readAll(capture);
+        assertEquals(50, expected.size());
+
+        PcapParser pcapParser = new PcapParser();
+        pcapParser.setMemoryMapped(true);
+        assertTrue(pcapParser.getMemoryMapped());
+        assertEquals(0, pcapParser.openFile(capture.getPath()));
+        assertSamePackets(expected, Captures.readAll(pcapParser));
+        assertEquals(0, pcapParser.seekToPacket(20));
+        assertEquals(1020, ((UDPPacket) pcapParser.getPacket()).getSrc_port());
+        pcapParser.closeFile();
+    }
+
+    public void testPipelinedInput() throws Exception {
+        assertReads(new PipelinedInput(new ByteArrayInputStream(data)), false);
+        assertReads(new PipelinedInput(new ByteArrayInputStream(data), 1000, 2), false);
+        assertReads(new PipelinedInput(new ByteArrayInputStream(data), 1, 1), false);
+    }
+
+    public void testPipelinedInputOnlyMovesForward() throws Exception {
+        PipelinedInput input = new PipelinedInput(new ByteArrayInputStream(data), 1000, 2);
+        assertFalse(input.isSeekable());
+        try {
+            input.size();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        byte[] buffer = new byte[10];
+        input.position(2500);
+        assertEquals(10, input.read(buffer, 0, 10));
+        input.position(2001); // still in the current chunk
+        assertEquals(10, input.read(buffer, 0, 10));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 2001, 2011), buffer));
+        try {
+            input.position(1999);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        input.position(data.length + 100);
+        assertEquals(data.length, input.position());
+        input.close();
+    }
+
+    /**
+     * The data read before the stream failed is returned first, then the failure is reported.
+     */
+    public void testPipelinedInputFailure() throws Exception {
+        InputStream failing = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count == 300)
+                    throw new IOException("broken");
+                return data[count++] & 0xFF;
+            }
+        };
+        PipelinedInput input = new PipelinedInput(failing, 64, 2);
+        byte[] buffer = new byte[1000];
+        assertEquals(300, input.read(buffer, 0, 300));
+        try {
+            input.read(buffer, 0, 1);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        input.close();
+    }
+
+    private static File fileStartingWith(int... bytes) throws IOException {
+        byte[] content = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++)
+            content[i] = (byte) bytes[i];
+        File file = Captures.temporaryFile(".bin");
+        Captures.writeBytes(file, content);
+        return file;
+    }
+
+    public void testDetectCompression() throws Exception {
+        assertEquals(PipelinedInput.gzip, PipelinedInput.detectCompression(fileStartingWith(0x1F, 0x8B, 0x08, 0x00)));
+        assertEquals(PipelinedInput.zstd, PipelinedInput.detectCompression(fileStartingWith(0x28, 0xB5, 0x2F, 0xFD)));
+        assertEquals(PipelinedInput.lz4, PipelinedInput.detectCompression(fileStartingWith(0x04, 0x22, 0x4D, 0x18)));
+        assertNull(PipelinedInput.detectCompression(Captures.write(frames(1))));
+        assertNull(PipelinedInput.detectCompression(fileStartingWith(0x1F, 0x8B)));
+
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(-1, pcapParser.openFile(fileStartingWith(0x28, 0xB5, 0x2F, 0xFD, 0, 0, 0, 0).getPath()));
+        try {
+            PipelinedInput.open(Captures.write(frames(1)));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testGzipCapture() throws Exception {
+        File capture = Captures.write(frames(200));
+        File compressed = Captures.temporaryFile(".pcap.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+        try {
+            out.write(Files.readAllBytes(capture.toPath()));
+        } finally {
+            out.close();
+        }
+        List<BasicPacket> expected = Captures.readAll(capture);
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(compressed.getPath()));
+        assertSamePackets(expected, Captures.readAll(pcapParser));
+        assertEquals(-1, pcapParser.openIndex());
+        pcapParser.closeFile();
+    }
+}
@@ -0,0 +1,274 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class builds the small synthetic frames and captures the tests run on.
+ * Frames are Ethernet II with an IPv4 header unless stated otherwise, and captures are written
+ * by hand in the little-endian PCAP format one second apart, starting at startTimestamp.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+final class Captures {
+
+    static final long startTimestamp = 1500000000000L;
+    static final int linkTypeEthernet = 1;
+    static final int linkTypeRaw = 101;
+    static final int protoTCP = 6;
+    static final int protoUDP = 17;
+    private static final int ethernetHeaderLength = 14;
+    private static final int ipv4HeaderLength = 20;
+    private static final int ipv6HeaderLength = 40;
+    private static final int recordHeaderLength = 16;
+
+    private Captures(){
+    }
+
+    /**
+     * @return the address a.b.c.d as an int.
+     */
+    static int ip(int a, int b, int c, int d){
+        return a << 24 | b << 16 | c << 8 | d;
+    }
+
+    /**
+     * Builds an Ethernet frame with an unfragmented IPv4 TCP segment.
+     * @param flags the TCP flag bits, e.g. 0x02 for SYN
+     */
+    static byte[] tcp(int srcIp, int dstIp, int srcPort, int dstPort, long seq, int flags, byte[] payload){
+        return ethernet(ipv4(srcIp, dstIp, protoTCP, 0, 0, false, tcpSegment(srcPort, dstPort, seq, flags, payload)));
+    }
+
+    /**
+     * @return a TCP header without options followed by the payload.
+     */
+    static byte[] tcpSegment(int srcPort, int dstPort, long seq, int flags, byte[] payload){
+        ByteBuffer segment = ByteBuffer.allocate(20 + payload.length);
+        segment.putShort((short) srcPort).putShort((short) dstPort);
+        segment.putInt((int) seq).putInt(0);
+        segment.put((byte) 0x50).put((byte) flags);
+        segment.putShort((short) 65535).putInt(0);
+        segment.put(payload);
+        return segment.array();
+    }
+
+    /**
+     * Builds an Ethernet frame with an unfragmented IPv4 UDP datagram.
+     */
+    static byte[] udp(int srcIp, int dstIp, int srcPort, int dstPort, byte[] payload){
+        return ethernet(ipv4(srcIp, dstIp, protoUDP, 0, 0, false, udpDatagram(srcPort, dstPort, payload)));
+    }
+
+    /**
+     * @return a UDP header followed by the payload.
+     */
+    static byte[] udpDatagram(int srcPort, int dstPort, byte[] payload){
+        ByteBuffer datagram = ByteBuffer.allocate(8 + payload.length);
+        datagram.putShort((short) srcPort).putShort((short) dstPort);
+        datagram.putShort((short) (8 + payload.length)).putShort((short) 0);
+        datagram.put(payload);
+        return datagram.array();
+    }
+
+    /**
+     * Builds an Ethernet frame with an IPv4 fragment.
+     * @param id the identification of the datagram
+     * @param offset the offset of the fragment in bytes, a multiple of 8
+     * @param more true if more fragments follow
+     * @param data the part of the datagram payload the fragment carries
+     */
+    static byte[] fragment(int srcIp, int dstIp, int protocol, int id, int offset, boolean more, byte[] data){
+        return ethernet(ipv4(srcIp, dstIp, protocol, id, offset, more, data));
+    }
+
+    /**
+     * @return an IPv4 header with a valid checksum followed by the payload.
+     */
+    static byte[] ipv4(int srcIp, int dstIp, int protocol, int id, int offset, boolean more, byte[] payload){
+        ByteBuffer packet = ByteBuffer.allocate(ipv4HeaderLength + payload.length);
+        packet.put((byte) 0x45).put((byte) 0);
+        packet.putShort((short) (ipv4HeaderLength + payload.length));
+        packet.putShort((short) id);
+        packet.putShort((short) ((more ? 0x2000 : 0) | offset / 8));
+        packet.put((byte) 64).put((byte) protocol);
+        packet.putShort((short) 0);
+        packet.putInt(srcIp).putInt(dstIp);
+        packet.putShort(10, (short) ~checksum(packet.array(), 0, ipv4HeaderLength));
+        packet.put(payload);
+        return packet.array();
+    }
+
+    /**
+     * Builds an Ethernet frame with an IPv6 packet. Addresses are given as their first and last 8 bytes.
+     * @param nextHeader the protocol of the first header in payload
+     * @param payload any extension headers followed by the transport header and its payload
+     */
+    static byte[] ipv6(long srcHigh, long srcLow, long dstHigh, long dstLow, int nextHeader, byte[] payload){
+        ByteBuffer packet = ByteBuffer.allocate(ipv6HeaderLength + payload.length);
+        packet.putInt(0x60000000);
+        packet.putShort((short) payload.length).put((byte) nextHeader).put((byte) 64);
+        packet.putLong(srcHigh).putLong(srcLow).putLong(dstHigh).putLong(dstLow);
+        packet.put(payload);
+        return ethernet(0x86DD, packet.array());
+    }
+
+    /**
+     * @return an IPv6 extension header of length bytes, a multiple of 8, followed by the rest of the packet.
+     */
+    static byte[] extension(int nextHeader, int length, byte[] rest){
+        return extension(nextHeader, length, length / 8 - 1, rest);
+    }
+
+    /**
+     * @return an IPv6 authentication header of length bytes, a multiple of 4, followed by the rest of the packet.
+     */
+    static byte[] authentication(int nextHeader, int length, byte[] rest){
+        return extension(nextHeader, length, length / 4 - 2, rest);
+    }
+
+    private static byte[] extension(int nextHeader, int length, int lengthField, byte[] rest){
+        ByteBuffer header = ByteBuffer.allocate(length + rest.length);
+        header.put((byte) nextHeader).put((byte) lengthField);
+        header.position(length);
+        header.put(rest);
+        return header.array();
+    }
+
+    /**
+     * Builds an IPv6 fragment header followed by the fragment data.
+     * @param offset the offset of the fragment in bytes, a multiple of 8
+     * @param more true if more fragments follow
+     */
+    static byte[] ipv6Fragment(int nextHeader, int id, int offset, boolean more, byte[] data){
+        ByteBuffer fragment = ByteBuffer.allocate(8 + data.length);
+        fragment.put((byte) nextHeader).put((byte) 0);
+        fragment.putShort((short) (offset | (more ? 1 : 0)));
+        fragment.putInt(id);
+        fragment.put(data);
+        return fragment.array();
+    }
+
+    /**
+     * @return the packet behind an Ethernet header with the IPv4 EtherType.
+     */
+    static byte[] ethernet(byte[] ipv4){
+        return ethernet(0x0800, ipv4);
+    }
+
+    static byte[] ethernet(int etherType, byte[] payload){
+        ByteBuffer frame = ByteBuffer.allocate(ethernetHeaderLength + payload.length);
+        frame.put(new byte[]{0, 0x11, 0x22, 0x33, 0x44, 0x55, 0, 0x66, 0x77, (byte) 0x88, (byte) 0x99, (byte) 0xAA});
+        frame.putShort((short) etherType);
+        frame.put(payload);
+        return frame.array();
+    }
+
+    /**
+     * @return the frame with an 802.1Q tag inserted after the MAC addresses.
+     */
+    static byte[] vlan(byte[] frame, int vlanId){
+        ByteBuffer tagged = ByteBuffer.allocate(frame.length + 4);
+        tagged.put(frame, 0, 12);
+        tagged.putShort((short) 0x8100).putShort((short) vlanId);
+        tagged.put(frame, 12, frame.length - 12);
+        return tagged.array();
+    }
+
+    /**
+     * @return length bytes counting up from first.
+     */
+    static byte[] bytes(int first, int length){
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (first + i);
+        return data;
+    }
+
+    private static int checksum(byte[] data, int offset, int length){
+        int sum = 0;
+        for (int i = offset; i < offset + length; i += 2)
+            sum += (data[i] & 0xFF) << 8 | (data[i + 1] & 0xFF);
+        while ((sum >> 16) != 0)
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        return sum;
+    }
+
+    /**
+     * @return an empty temporary file that is deleted when the JVM exits.
+     */
+    static File temporaryFile(String suffix) throws IOException {
+        File file = File.createTempFile("pcapj-test", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Replaces the contents of a file.
+     */
+    static void writeBytes(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the frames to an Ethernet PCAP file.
+     */
+    static File write(byte[]... frames) throws IOException {
+        return write(linkTypeEthernet, frames);
+    }
+
+    /**
+     * Writes the frames to a PCAP file with the given link type.
+     */
+    static File write(int linkType, byte[]... frames) throws IOException {
+        int length = Utils.globalHeaderLength;
+        for (byte[] frame : frames)
+            length += recordHeaderLength + frame.length;
+        ByteBuffer capture = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        capture.putInt((int) Utils.pcapMagicNumber).putShort((short) 2).putShort((short) 4);
+        capture.putInt(0).putInt(0).putInt(65535).putInt(linkType);
+        for (int i = 0; i < frames.length; i++) {
+            long timestamp = startTimestamp + i * 1000L;
+            capture.putInt((int) (timestamp / 1000)).putInt((int) (timestamp % 1000 * 1000));
+            capture.putInt(frames[i].length).putInt(frames[i].length);
+            capture.put(frames[i]);
+        }
+        File file = temporaryFile(".pcap");
+        writeBytes(file, capture.array());
+        return file;
+    }
+
+    /**
+     * Reads every packet of a file with getPacket().
+     */
+    static List<BasicPacket> readAll(PcapParser pcapParser){
+        List<BasicPacket> packets = new ArrayList<BasicPacket>();
+        BasicPacket packet = pcapParser.getPacket();
+        while (packet != BasicPacket.EOF) {
+            packets.add(packet);
+            packet = pcapParser.getPacket();
+        }
+        return packets;
+    }
+
+    static List<BasicPacket> readAll(File file){
+        PcapParser pcapParser = new PcapParser();
+        if (pcapParser.openFile(file.getPath()) < 0)
+            throw new IllegalStateException("Could not open " + file);
+        List<BasicPacket> packets = readAll(pcapParser);
+        pcapParser.closeFile();
+        return packets;
+    }
+}
@@ -0,0 +1,222 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the counters and timeouts of FlowTable, and that removing flows keeps every other flow
+ * reachable.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class FlowTableTest extends TestCase {
+
+    private static final int a = Captures.ip(10, 0, 0, 1);
+    private static final int b = Captures.ip(10, 0, 0, 2);
+    private static final int syn = 0x02;
+    private static final int ack = 0x10;
+    private static final int fin = 0x01;
+
+    private FlowTable table;
+    private List<FlowRecord> exported;
+
+    @Override
+    protected void setUp(){
+        table = new FlowTable(1);
+        exported = new ArrayList<FlowRecord>();
+        table.setExporter(new FlowExporter() {
+            @Override
+            public void export(FlowRecord flow) {
+                exported.add(flow);
+            }
+        });
+    }
+
+    public void testCounters(){
+        table.add(a, b, 1000, 80, Utils.ipProtoTCP, 60, 100, syn);
+        table.add(b, a, 80, 1000, Utils.ipProtoTCP, 60, 101, syn | ack);
+        table.add(a, b, 1000, 80, Utils.ipProtoTCP, 1500, 103, ack);
+        table.add(a, b, 1000, 80, Utils.ipProtoTCP, 54, 102, fin); // out of order
+        table.add(a, b, 1000, 80, Utils.ipProtoUDP, 80, 104, 0);
+        assertEquals(3, table.size());
+        table.flush();
+        assertEquals(0, table.size());
+        assertEquals(3, exported.size());
+        FlowRecord flow = null;
+        for (FlowRecord record : exported) {
+            assertEquals(FlowRecord.endFlush, record.getEndReason());
+            if (record.getSrcIpv4() == a && record.getProtocol() == Utils.ipProtoTCP)
+                flow = record;
+        }
+        assertNotNull(flow);
+        assertEquals(b, flow.getDstIpv4());
+        assertEquals(1000, flow.getSrcPort());
+        assertEquals(80, flow.getDstPort());
+        assertEquals(3, flow.getPackets());
+        assertEquals(60 + 1500 + 54, flow.getBytes());
+        assertEquals(100, flow.getFirstTimestamp());
+        assertEquals(103, flow.getLastTimestamp());
+        assertEquals(TCPFlags.valueOf((byte) (syn | ack | fin)), flow.getTcpFlags());
+    }
+
+    public void testIdleTimeout(){
+        table.setIdleTimeout(1000);
+        table.add(a, b, 1, 2, Utils.ipProtoUDP, 100, 0, 0);
+        table.add(a, b, 3, 4, Utils.ipProtoUDP, 100, 500, 0);
+        assertEquals(0, table.expire(999));
+        assertEquals(1, table.expire(1000));
+        assertEquals(1, exported.size());
+        assertEquals(1, exported.get(0).getSrcPort());
+        assertEquals(FlowRecord.endIdleTimeout, exported.get(0).getEndReason());
+        assertEquals(1, table.size());
+        assertEquals(1, table.expire(1500));
+        assertEquals(0, table.size());
+    }
+
+    public void testActiveTimeout(){
+        table.setActiveTimeout(1000);
+        for (int t = 0; t <= 1500; t += 100)
+            table.add(a, b, 1, 2, Utils.ipProtoUDP, 10, t, 0);
+        assertEquals(1, exported.size());
+        FlowRecord flow = exported.get(0);
+        assertEquals(FlowRecord.endActiveTimeout, flow.getEndReason());
+        assertEquals(0, flow.getFirstTimestamp());
+        assertTrue(flow.getLastTimestamp() < 1000 + 1000 / 4);
+        table.flush();
+        assertEquals(16, exported.get(0).getPackets() + exported.get(1).getPackets());
+    }
+
+    /**
+     * Flows are exported while packets are added, at most a quarter of the timeout late.
+     */
+    public void testExpiryWhileAdding(){
+        table.setIdleTimeout(400);
+        table.add(a, b, 1, 2, Utils.ipProtoUDP, 10, 0, 0);
+        for (int t = 0; t <= 1000; t += 10)
+            table.add(a, b, 3, 4, Utils.ipProtoUDP, 10, t, 0);
+        assertEquals(1, exported.size());
+        assertEquals(1, exported.get(0).getSrcPort());
+        assertEquals(1, table.size());
+    }
+
+    public void testNoTimeouts(){
+        table.add(a, b, 1, 2, Utils.ipProtoUDP, 10, 0, 0);
+        table.add(a, b, 1, 2, Utils.ipProtoUDP, 10, Long.MAX_VALUE / 2, 0);
+        assertEquals(0, table.expire(Long.MAX_VALUE));
+        assertEquals(0, exported.size());
+        assertEquals(1, table.size());
+    }
+
+    public void testGrowsPastTheInitialCapacity(){
+        for (int i = 0; i < 5000; i++)
+            table.add(a, b + i, i, 80, Utils.ipProtoTCP, 10, i, 0);
+        for (int i = 0; i < 5000; i++)
+            table.add(a, b + i, i, 80, Utils.ipProtoTCP, 10, 5000 + i, 0);
+        assertEquals(5000, table.size());
+        table.flush();
+        assertEquals(5000, exported.size());
+        for (FlowRecord flow : exported)
+            assertEquals(2, flow.getPackets());
+    }
+
+    /**
+     * Removes flows from a small, crowded table in random order. If a removal left a flow behind a
+     * gap in its probe sequence, its next packet would create a second entry for it, which the
+     * table size and the flushed records give away.
+     */
+    public void testRemovalKeepsFlowsReachable(){
+        final int keys = 64;
+        Random random = new Random(42);
+        Map<Long, Long> live = new HashMap<Long, Long>(); // packets added and not exported yet
+        table = new FlowTable(keys);
+        table.setIdleTimeout(50);
+        table.setExporter(new FlowExporter() {
+            @Override
+            public void export(FlowRecord flow) {
+                exported.add(flow);
+            }
+        });
+        for (int t = 0; t < 20000; t++) {
+            int i = random.nextInt(keys);
+            table.add(a, b + i, 1000 + i, 80, Utils.ipProtoUDP, 10, t, 0);
+            Long count = live.get((long) i);
+            live.put((long) i, count == null ? 1 : count + 1);
+            for (FlowRecord flow : exported) {
+                long index = flow.getSrcPort() - 1000;
+                long left = live.get(index) - flow.getPackets();
+                if (left == 0)
+                    live.remove(index);
+                else
+                    live.put(index, left);
+            }
+            exported.clear();
+            assertEquals(live.size(), table.size());
+        }
+        table.flush();
+        Set<Integer> flushed = new HashSet<Integer>();
+        for (FlowRecord flow : exported) {
+            assertTrue(flushed.add(flow.getSrcPort()));
+            assertEquals((long) live.get((long) flow.getSrcPort() - 1000), flow.getPackets());
+        }
+        assertEquals(live.size(), flushed.size());
+    }
+
+    public void testPacketsViewsAndBatchesAgree() throws Exception {
+        byte[][] frames = new byte[40][];
+        for (int i = 0; i < frames.length; i++) {
+            if (i % 2 == 0)
+                frames[i] = Captures.tcp(a, b, 1000 + i % 6, 80, i, i == 0 ? syn : ack, Captures.bytes(0, i));
+            else
+                frames[i] = Captures.udp(b, a, 53, 2000 + i % 4, Captures.bytes(0, i));
+        }
+        File file = Captures.write(frames);
+
+        for (BasicPacket packet : Captures.readAll(file))
+            table.add(packet);
+        table.flush();
+        List<String> fromPackets = flows();
+
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+        while (pcapParser.nextPacket(view))
+            table.add(view);
+        pcapParser.closeFile();
+        table.flush();
+        List<String> fromViews = flows();
+
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketBatch batch = new PacketBatch(7, 1 << 16);
+        while (pcapParser.readBatch(batch) > 0)
+            table.add(batch);
+        pcapParser.closeFile();
+        table.flush();
+        List<String> fromBatches = flows();
+
+        assertEquals(3 + 2, fromPackets.size());
+        assertEquals(fromPackets, fromViews);
+        assertEquals(fromPackets, fromBatches);
+    }
+
+    /**
+     * @return the records exported so far in a stable order, and forgets them.
+     */
+    private List<String> flows(){
+        List<String> flows = new ArrayList<String>();
+        for (FlowRecord flow : exported)
+            flows.add(flow.toString() + " flags " + flow.getTcpFlags());
+        Collections.sort(flows);
+        exported.clear();
+        return flows;
+    }
+}
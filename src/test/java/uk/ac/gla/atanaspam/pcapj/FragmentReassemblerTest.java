@@ -0,0 +1,153 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that FragmentReassembler rebuilds IPv4 datagrams and bounds what it holds.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class FragmentReassemblerTest extends TestCase {
+
+    private static final int network = 14;
+    private static final int src = Captures.ip(10, 0, 0, 1);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+    private static final byte[] payload = Captures.udpDatagram(5000, 53, Captures.bytes(0, 1192));
+
+    private FragmentReassembler reassembler;
+
+    @Override
+    protected void setUp(){
+        reassembler = new FragmentReassembler();
+    }
+
+    /**
+     * @return a fragment of the datagram with the given id that carries payload[from, to).
+     */
+    private static byte[] fragment(int id, int from, int to, boolean more){
+        return Captures.fragment(src, dst, Captures.protoUDP, id, from, more, Arrays.copyOfRange(payload, from, to));
+    }
+
+    private byte[] add(byte[] frame, long timestamp){
+        return reassembler.add(frame, 0, frame.length, network, timestamp);
+    }
+
+    private static void assertDatagram(byte[] frame){
+        assertNotNull(frame);
+        assertEquals(network + 20 + payload.length, frame.length);
+        assertEquals(20 + payload.length, Utils.convertShort(frame, network + 2));
+        assertFalse(Utils.isFragment(frame, network));
+        assertEquals(0xFFFF, PcapWriter.checksum(frame, network, 20, 0));
+        assertTrue(Arrays.equals(payload, Arrays.copyOfRange(frame, network + 20, frame.length)));
+    }
+
+    public void testInOrder(){
+        assertNull(add(fragment(1, 0, 400, true), 0));
+        assertNull(add(fragment(1, 400, 800, true), 1));
+        assertDatagram(add(fragment(1, 800, payload.length, false), 2));
+        assertEquals(0, reassembler.size());
+    }
+
+    public void testOutOfOrder(){
+        assertNull(add(fragment(1, 800, payload.length, false), 0));
+        assertNull(add(fragment(1, 400, 800, true), 1));
+        assertDatagram(add(fragment(1, 0, 400, true), 2));
+    }
+
+    public void testDuplicateFragment(){
+        assertNull(add(fragment(1, 0, 400, true), 0));
+        assertNull(add(fragment(1, 0, 400, true), 1));
+        assertNull(add(fragment(1, 400, 800, true), 2));
+        assertDatagram(add(fragment(1, 800, payload.length, false), 3));
+    }
+
+    public void testOverlappingFragments(){
+        assertNull(add(fragment(1, 0, 480, true), 0));
+        assertNull(add(fragment(1, 400, 800, true), 1));
+        assertDatagram(add(fragment(1, 800, payload.length, false), 2));
+    }
+
+    /**
+     * A fragment that reaches beyond the end given by the last fragment must not keep the
+     * datagram from completing.
+     */
+    public void testOverlongFragment(){
+        byte[] overlong = Captures.fragment(src, dst, Captures.protoUDP, 1, 800, true, new byte[payload.length]);
+        assertNull(add(fragment(1, 0, 800, true), 0));
+        assertNull(add(overlong, 1));
+        byte[] frame = add(fragment(1, 800, payload.length, false), 2);
+        assertNotNull(frame);
+        assertEquals(network + 20 + payload.length, frame.length);
+    }
+
+    /**
+     * Units received beyond the end must not make up for a hole.
+     */
+    public void testHoleIsNotHiddenByOverlongFragment(){
+        byte[] beyond = Captures.fragment(src, dst, Captures.protoUDP, 1, payload.length + 8, true, new byte[800]);
+        assertNull(add(beyond, 0));
+        assertNull(add(fragment(1, 0, 400, true), 1));
+        assertNull(add(fragment(1, 800, payload.length, false), 2));
+        assertEquals(1, reassembler.size());
+        assertDatagram(add(fragment(1, 400, 800, true), 3));
+    }
+
+    public void testDatagramsAreKeptApart(){
+        assertNull(add(fragment(1, 0, 800, true), 0));
+        assertNull(add(fragment(2, 0, 800, true), 1));
+        assertEquals(2, reassembler.size());
+        assertDatagram(add(fragment(2, 800, payload.length, false), 2));
+        assertDatagram(add(fragment(1, 800, payload.length, false), 3));
+    }
+
+    public void testTimeout(){
+        reassembler.setTimeout(1000);
+        assertNull(add(fragment(1, 0, 800, true), 0));
+        assertNull(add(fragment(2, 0, 800, true), 1000));
+        assertEquals(1, reassembler.size());
+        assertEquals(1, reassembler.getDropped());
+        assertNull(add(fragment(1, 800, payload.length, false), 1001));
+        assertDatagram(add(fragment(2, 800, payload.length, false), 1002));
+    }
+
+    public void testMemoryLimit(){
+        reassembler.setMaxMemory(0);
+        assertNull(add(fragment(1, 0, 800, true), 0));
+        assertEquals(0, reassembler.size());
+        assertEquals(1, reassembler.getDropped());
+    }
+
+    public void testTruncatedFragmentIsReturnedUnchanged(){
+        byte[] frame = fragment(1, 0, 800, true);
+        assertSame(frame, reassembler.add(frame, 0, frame.length - 100, network, 0));
+        assertEquals(0, reassembler.size());
+    }
+
+    public void testParserReassembles() throws Exception {
+        File file = Captures.write(
+                fragment(1, 800, payload.length, false),
+                Captures.udp(src, dst, 1, 53, Captures.bytes(0, 16)),
+                fragment(1, 0, 800, true));
+        List<BasicPacket> packets = Captures.readAll(file);
+        assertEquals(2, packets.size());
+        assertEquals(1, ((UDPPacket) packets.get(0)).getSrc_port());
+        UDPPacket datagram = (UDPPacket) packets.get(1);
+        assertEquals(5000, datagram.getSrc_port());
+        assertEquals(1192, datagram.getPayloadLength());
+        assertEquals(Captures.startTimestamp + 2000, datagram.getTimestamp());
+    }
+
+    public void testParserWithoutReassembly() throws Exception {
+        File file = Captures.write(fragment(1, 0, 800, true), fragment(1, 800, payload.length, false));
+        PcapParser pcapParser = new PcapParser();
+        pcapParser.setReassembleFragments(false);
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        assertEquals(2, Captures.readAll(pcapParser).size());
+        pcapParser.closeFile();
+    }
+}
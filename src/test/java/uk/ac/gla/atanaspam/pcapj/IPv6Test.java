@@ -0,0 +1,276 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that IPv6 packets are decoded through their extension header chain by the packet objects,
+ * PacketView, PacketBatch, PacketFilter and PcapWriter.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class IPv6Test extends TestCase {
+
+    private static final long prefix = 0x20010DB800000000L; // 2001:db8::/64
+    private static final int protoICMPv6 = 58;
+    private static final int network = 14;
+    private static final byte[] payload = Captures.bytes(0, 30);
+
+    private static byte[] packet(int nextHeader, byte[] rest){
+        return Captures.ipv6(prefix, 1, prefix, 2, nextHeader, rest);
+    }
+
+    private static final byte[] tcp = packet(Captures.protoTCP, Captures.tcpSegment(40000, 443, 7, 0x02, payload));
+    /** UDP behind hop-by-hop, routing and destination options headers. */
+    private static final byte[] udp = packet(Utils.ipv6HopByHop,
+            Captures.extension(Utils.ipv6Routing, 8,
+                    Captures.extension(Utils.ipv6DestOptions, 24,
+                            Captures.extension(Captures.protoUDP, 16, Captures.udpDatagram(5353, 53, payload)))));
+    private static final byte[] authenticated = packet(Utils.ipv6Auth,
+            Captures.authentication(Captures.protoTCP, 24, Captures.tcpSegment(1, 2, 0, 0x10, payload)));
+    private static final byte[] firstFragment = packet(Utils.ipv6Fragment,
+            Captures.ipv6Fragment(Captures.protoUDP, 9, 0, true, Captures.udpDatagram(5353, 53, payload)));
+    private static final byte[] laterFragment = packet(Utils.ipv6Fragment,
+            Captures.ipv6Fragment(Captures.protoUDP, 9, 48, false, Captures.udpDatagram(5353, 53, payload)));
+    private static final byte[] icmp = packet(Utils.ipv6DestOptions, Captures.extension(protoICMPv6, 8, new byte[8]));
+    /** A hop-by-hop header that claims to be longer than the packet. */
+    private static final byte[] truncated = packet(Utils.ipv6HopByHop,
+            Captures.extension(Captures.protoUDP, 8, Captures.udpDatagram(1, 2, payload)));
+
+    static {
+        truncated[network + 40 + 1] = (byte) 200;
+    }
+
+    public void testTransportOffset(){
+        int start = network + Utils.ipv6HeaderLength;
+        assertEquals(start, Utils.getIPv6TransportOffset(tcp, network, tcp.length));
+        assertEquals(Captures.protoTCP, Utils.getIPv6Protocol(tcp, network, tcp.length));
+        assertEquals(start + 8 + 24 + 16, Utils.getIPv6TransportOffset(udp, network, udp.length));
+        assertEquals(Captures.protoUDP, Utils.getIPv6Protocol(udp, network, udp.length));
+        assertEquals(start + 24, Utils.getIPv6TransportOffset(authenticated, network, authenticated.length));
+        assertEquals(start + 8, Utils.getIPv6TransportOffset(firstFragment, network, firstFragment.length));
+        assertEquals(Captures.protoUDP, Utils.getIPv6Protocol(firstFragment, network, firstFragment.length));
+        assertEquals(Utils.ipv6Fragment, Utils.getIPv6Protocol(laterFragment, network, laterFragment.length));
+        assertEquals(protoICMPv6, Utils.getIPv6Protocol(icmp, network, icmp.length));
+        assertEquals(-1, Utils.getIPv6Protocol(truncated, network, truncated.length));
+        // the extension headers themselves are cut off
+        assertEquals(-1, Utils.getIPv6Protocol(udp, network, start + 12));
+    }
+
+    public void testPacketObjects() throws Exception {
+        File file = Captures.write(tcp, udp, authenticated, firstFragment, laterFragment, icmp, truncated);
+        List<BasicPacket> packets = Captures.readAll(file);
+        assertEquals(7, packets.size());
+
+        TCPPacket segment = (TCPPacket) packets.get(0);
+        assertTrue(segment.isIPv6());
+        assertEquals(prefix, segment.getSrcIpv6High());
+        assertEquals(1, segment.getSrcIpv6Low());
+        assertEquals(prefix, segment.getDstIpv6High());
+        assertEquals(2, segment.getDstIpv6Low());
+        assertEquals(0, segment.getSrcIpv4());
+        assertEquals(InetAddress.getByName("2001:db8::1"), segment.getSrc_ip());
+        assertEquals(InetAddress.getByName("2001:db8::2"), segment.getDst_ip());
+        assertEquals(40000, segment.getSrc_port());
+        assertEquals(443, segment.getDst_port());
+        assertEquals(ByteBuffer.wrap(payload), segment.getPayload());
+
+        UDPPacket datagram = (UDPPacket) packets.get(1);
+        assertTrue(datagram.isIPv6());
+        assertEquals(5353, datagram.getSrc_port());
+        assertEquals(53, datagram.getDst_port());
+        assertEquals(ByteBuffer.wrap(payload), datagram.getPayload());
+
+        assertEquals(1, ((TCPPacket) packets.get(2)).getSrc_port());
+        assertEquals(ByteBuffer.wrap(payload), ((TCPPacket) packets.get(2)).getPayload());
+        assertEquals(5353, ((UDPPacket) packets.get(3)).getSrc_port());
+        for (int i = 4; i < 7; i++) {
+            assertEquals(IPPacket.class, packets.get(i).getClass());
+            assertTrue(((IPPacket) packets.get(i)).isIPv6());
+        }
+    }
+
+    public void testPacketView() throws Exception {
+        File file = Captures.write(udp, laterFragment, truncated);
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+
+        assertTrue(pcapParser.nextPacket(view));
+        assertTrue(view.isIPv6Packet());
+        assertTrue(view.isUDPPacket());
+        assertEquals(Captures.protoUDP, view.protocol());
+        assertEquals(Utils.ipv6HeaderLength + 48, view.ipHeaderLength());
+        assertEquals(prefix, view.srcIpv6High());
+        assertEquals(1, view.srcIpv6Low());
+        assertEquals(2, view.dstIpv6Low());
+        assertEquals(5353, view.srcPort());
+        assertEquals(53, view.dstPort());
+        assertEquals(payload.length, view.payloadLength());
+        assertEquals(ByteBuffer.wrap(payload), ByteBuffer.wrap(view.array(), view.payloadOffset(), view.payloadLength()));
+
+        assertTrue(pcapParser.nextPacket(view));
+        assertTrue(view.isIPv6Packet());
+        assertFalse(view.isUDPPacket());
+        assertEquals(Utils.ipv6Fragment, view.protocol());
+
+        assertTrue(pcapParser.nextPacket(view));
+        assertTrue(view.isIPPacket());
+        assertFalse(view.isUDPPacket());
+        assertEquals(-1, view.protocol());
+        assertEquals(view.caplen(), view.transportOffset());
+        assertFalse(pcapParser.nextPacket(view));
+        pcapParser.closeFile();
+    }
+
+    public void testPacketBatch() throws Exception {
+        File file = Captures.write(tcp, Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1, 2, payload),
+                udp);
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketBatch batch = new PacketBatch();
+        assertEquals(3, pcapParser.readBatch(batch));
+        pcapParser.closeFile();
+        assertEquals(6, batch.ipVersions()[0]);
+        assertEquals(4, batch.ipVersions()[1]);
+        assertEquals(6, batch.ipVersions()[2]);
+        assertEquals(prefix, batch.srcIpv6High()[0]);
+        assertEquals(1, batch.srcIpv6Low()[0]);
+        assertEquals(prefix, batch.dstIpv6High()[2]);
+        assertEquals(2, batch.dstIpv6Low()[2]);
+        assertEquals(Captures.protoTCP, batch.protocols()[0]);
+        assertEquals(40000, batch.srcPorts()[0]);
+        assertEquals(0x02, batch.tcpFlags()[0]);
+        assertEquals(Captures.protoUDP, batch.protocols()[2]);
+        assertEquals(5353, batch.srcPorts()[2]);
+        assertEquals(53, batch.dstPorts()[2]);
+        int end = batch.frameOffsets()[2] + batch.caplens()[2];
+        assertEquals(payload.length, end - batch.payloadOffsets()[2]);
+    }
+
+    public void testFilter(){
+        PacketFilter ip6 = PacketFilter.compile("ip6");
+        assertTrue(ip6.matches(tcp));
+        assertTrue(ip6.matches(truncated));
+        assertFalse(PacketFilter.compile("ip").matches(tcp));
+        assertFalse(PacketFilter.compile("host 0.0.0.0").matches(tcp));
+        assertTrue(PacketFilter.compile("tcp and port 443").matches(tcp));
+        assertTrue(PacketFilter.compile("tcpflags syn").matches(tcp));
+        assertTrue(PacketFilter.compile("udp and src port 5353").matches(udp));
+        assertTrue(PacketFilter.compile("tcp port 2").matches(authenticated));
+        assertTrue(PacketFilter.compile("udp port 53").matches(firstFragment));
+        assertFalse(PacketFilter.compile("udp").matches(laterFragment));
+        assertFalse(PacketFilter.compile("port 53").matches(laterFragment));
+        assertTrue(PacketFilter.compile("proto 44").matches(laterFragment));
+        assertTrue(PacketFilter.compile("icmp6").matches(icmp));
+        assertFalse(PacketFilter.compile("icmp").matches(icmp));
+        assertFalse(PacketFilter.compile("udp or port 1").matches(truncated));
+        assertTrue(PacketFilter.compile("vlan 5 and ip6 and tcp").matches(Captures.vlan(tcp, 5)));
+    }
+
+    /**
+     * IPv6 packet objects are rebuilt without extension headers, with a valid transport checksum.
+     */
+    public void testWriter() throws Exception {
+        List<BasicPacket> packets = Captures.readAll(Captures.write(tcp, udp));
+        File file = Captures.temporaryFile(".pcap");
+        PcapWriter writer = new PcapWriter();
+        assertEquals(0, writer.openFile(file.getPath()));
+        for (BasicPacket packet : packets)
+            assertEquals(0, writer.writePacket(packet));
+        writer.closeFile();
+        List<BasicPacket> written = Captures.readAll(file);
+        assertEquals(packets.get(0).toString(), written.get(0).toString());
+        assertEquals(packets.get(1).toString(), written.get(1).toString());
+
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+        while (pcapParser.nextPacket(view)) {
+            assertEquals(Utils.ipv6HeaderLength, view.ipHeaderLength());
+            int transport = view.transportOffset();
+            int length = view.caplen() - transport;
+            int sum = PcapWriter.checksum(view.array(), network + Utils.ipv6SrcOffset, 32, 0) + view.protocol() + length;
+            assertEquals(0xFFFF, PcapWriter.checksum(view.array(), transport, length, sum));
+        }
+        pcapParser.closeFile();
+    }
+
+    /**
+     * Bytes after the IPv6 payload length, e.g. a link layer trailer, are not payload.
+     */
+    public void testTrailerIsNotPayload() throws Exception {
+        byte[] trailer = Arrays.copyOf(tcp, tcp.length + 6);
+        File file = Captures.write(trailer);
+        TCPPacket packet = (TCPPacket) Captures.readAll(file).get(0);
+        assertEquals(ByteBuffer.wrap(payload), packet.getPayload());
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(payload.length, view.payloadLength());
+        pcapParser.closeFile();
+    }
+
+    /**
+     * Main and PacketGenerator keep IPv6 packets unless told otherwise.
+     */
+    public void testDefaultsKeepIPv6() throws Exception {
+        File file = Captures.write(Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1, 2, payload),
+                Captures.ethernet(0x0806, new byte[28]), tcp);
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            Main.main(new String[] {file.getPath()});
+        } finally {
+            System.setOut(stdout);
+        }
+        String printed = output.toString("UTF-8");
+        assertTrue(printed.contains("-----UDP PACKET-----"));
+        assertTrue(printed.contains("SRC IP: 2001:db8:0:0:0:0:0:1"));
+
+        PacketGenerator generator = new PacketGenerator(file.getPath(), false, false);
+        generator.setAnomalousTrafficPercentage(1);
+        int ipv6 = 0;
+        for (int i = 0; i < 10; i++) {
+            if (((IPPacket) generator.getPacket()).isIPv6())
+                ipv6++;
+        }
+        assertEquals(5, ipv6);
+    }
+
+    public void testFlowsAndStreamsSkipIPv6() throws Exception {
+        List<BasicPacket> packets = Captures.readAll(Captures.write(tcp, udp));
+        FlowTable table = new FlowTable();
+        TcpReassembler reassembler = new TcpReassembler(new TcpStreamHandler() {
+            @Override
+            public void data(TcpConnection connection, boolean fromClient, ByteBuffer data) {
+                fail();
+            }
+
+            @Override
+            public void gap(TcpConnection connection, boolean fromClient, long length) {
+                fail();
+            }
+
+            @Override
+            public void close(TcpConnection connection) {
+                fail();
+            }
+        });
+        for (BasicPacket packet : packets)
+            table.add(packet);
+        reassembler.add((TCPPacket) packets.get(0));
+        assertEquals(0, table.size());
+        assertEquals(0, reassembler.getConnectionCount());
+    }
+}
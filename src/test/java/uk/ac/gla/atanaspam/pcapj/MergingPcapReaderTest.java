@@ -0,0 +1,203 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that MergingPcapReader returns the packets of all its sources in timestamp order.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class MergingPcapReaderTest extends TestCase {
+
+    /**
+     * Writes a capture whose packets carry the source number as their source port and their
+     * position in the source as their destination port.
+     */
+    private static File capture(int source, long... timestamps) throws Exception {
+        File file = Captures.temporaryFile(".pcap");
+        PcapWriter writer = new PcapWriter();
+        assertEquals(0, writer.openFile(file.getPath()));
+        for (int i = 0; i < timestamps.length; i++) {
+            byte[] frame = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), source, i, new byte[8]);
+            assertEquals(0, writer.writePacket(frame, 0, frame.length, timestamps[i]));
+        }
+        writer.closeFile();
+        return file;
+    }
+
+    private static List<UDPPacket> readAll(MergingPcapReader reader){
+        List<UDPPacket> packets = new ArrayList<UDPPacket>();
+        BasicPacket packet;
+        while ((packet = reader.getPacket()) != BasicPacket.EOF)
+            packets.add((UDPPacket) packet);
+        assertSame(BasicPacket.EOF, reader.getPacket());
+        reader.close();
+        return packets;
+    }
+
+    /**
+     * Packets with the same timestamp come out in the order their sources were added.
+     */
+    public void testOrder() throws Exception {
+        MergingPcapReader reader = new MergingPcapReader();
+        assertEquals(0, reader.addFile(capture(0, 10, 20, 30, 30).getPath()));
+        assertEquals(0, reader.addFile(capture(1, 5, 30, 40).getPath()));
+        assertEquals(0, reader.addFile(capture(2).getPath()));
+        assertEquals(0, reader.addFile(capture(3, 30).getPath()));
+        assertEquals(4, reader.getSourceCount());
+        List<UDPPacket> packets = readAll(reader);
+        int[][] expected = {{1, 0}, {0, 0}, {0, 1}, {0, 2}, {0, 3}, {1, 1}, {3, 0}, {1, 2}};
+        assertEquals(expected.length, packets.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i][0], packets.get(i).getSrc_port());
+            assertEquals(expected[i][1], packets.get(i).getDst_port());
+        }
+    }
+
+    /**
+     * Many sources with random timestamps, read ahead one packet at a time.
+     */
+    public void testManySources() throws Exception {
+        Random random = new Random(3);
+        MergingPcapReader reader = new MergingPcapReader();
+        reader.setBufferSize(1);
+        int total = 0;
+        for (int source = 0; source < 20; source++) {
+            long[] timestamps = new long[random.nextInt(200)];
+            long timestamp = random.nextInt(1000);
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamp += random.nextInt(50);
+                timestamps[i] = timestamp;
+            }
+            total += timestamps.length;
+            assertEquals(0, reader.addFile(capture(source, timestamps).getPath()));
+        }
+        List<UDPPacket> packets = readAll(reader);
+        assertEquals(total, packets.size());
+        int[] next = new int[20];
+        for (int i = 0; i < packets.size(); i++) {
+            UDPPacket packet = packets.get(i);
+            if (i > 0) {
+                UDPPacket previous = packets.get(i - 1);
+                assertTrue(previous.getTimestamp() < packet.getTimestamp() ||
+                        (previous.getTimestamp() == packet.getTimestamp() &&
+                                previous.getSrc_port() <= packet.getSrc_port()));
+            }
+            // the packets of every source keep their order
+            assertEquals(next[packet.getSrc_port()]++, packet.getDst_port());
+        }
+    }
+
+    public void testCompressedSourceAndParser() throws Exception {
+        File plain = capture(0, 100, 300);
+        File compressed = Captures.temporaryFile(".pcap.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+        try {
+            out.write(Files.readAllBytes(capture(1, 200, 400).toPath()));
+        } finally {
+            out.close();
+        }
+        PcapParser parser = new PcapParser();
+        assertEquals(0, parser.openFile(capture(2, 250).getPath()));
+
+        MergingPcapReader reader = new MergingPcapReader();
+        assertEquals(0, reader.addFile(plain.getPath()));
+        assertEquals(0, reader.addFile(compressed.getPath()));
+        assertEquals(0, reader.addParser(parser));
+        List<UDPPacket> packets = readAll(reader);
+        int[] sources = {0, 1, 2, 0, 1};
+        assertEquals(sources.length, packets.size());
+        for (int i = 0; i < sources.length; i++)
+            assertEquals(sources[i], packets.get(i).getSrc_port());
+    }
+
+    public void testInvalidSources() throws Exception {
+        File bad = Captures.temporaryFile(".pcap");
+        Captures.writeBytes(bad, new byte[Utils.globalHeaderLength]);
+        MergingPcapReader reader = new MergingPcapReader();
+        assertEquals(-1, reader.addFile(bad.getPath()));
+        assertEquals(-1, reader.addFile(new File(bad.getParentFile(), "missing.pcap").getPath()));
+        assertEquals(0, reader.getSourceCount());
+        assertSame(BasicPacket.EOF, reader.getPacket());
+
+        // sources can not be added once reading has started
+        assertEquals(-1, reader.addFile(capture(0, 1).getPath()));
+        reader.close();
+        try {
+            reader.setBufferSize(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Closing the reader before the sources have been read ends the merged stream.
+     */
+    public void testCloseEarly() throws Exception {
+        long[] timestamps = new long[1000];
+        for (int i = 0; i < timestamps.length; i++)
+            timestamps[i] = i;
+        MergingPcapReader reader = new MergingPcapReader();
+        reader.setBufferSize(4);
+        assertEquals(0, reader.addFile(capture(0, timestamps).getPath()));
+        assertEquals(0, reader.addFile(capture(1, timestamps).getPath()));
+        assertEquals(0L, reader.getPacket().getTimestamp());
+        reader.close();
+        assertSame(BasicPacket.EOF, reader.getPacket());
+    }
+
+    /**
+     * A source is only closed once its reading thread has left getPacket().
+     */
+    public void testCloseWaitsForTheReadingThread() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final AtomicBoolean inside = new AtomicBoolean();
+        final AtomicBoolean closedWhileReading = new AtomicBoolean();
+        PcapParser parser = new PcapParser(){
+            private int calls = 0;
+
+            @Override
+            public BasicPacket getPacket(){
+                if (calls++ < 2) // the reader looks one packet ahead
+                    return super.getPacket();
+                inside.set(true);
+                reading.countDown();
+                try {
+                    while (true)
+                        Thread.sleep(10); // a read that is still waiting for data
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inside.set(false);
+                return BasicPacket.EOF;
+            }
+
+            @Override
+            public void closeFile(){
+                if (inside.get())
+                    closedWhileReading.set(true);
+                super.closeFile();
+            }
+        };
+        assertEquals(0, parser.openFile(capture(0, 1, 2).getPath()));
+        MergingPcapReader reader = new MergingPcapReader();
+        assertEquals(0, reader.addParser(parser));
+        assertEquals(1L, reader.getPacket().getTimestamp());
+        reading.await();
+        reader.close();
+        assertFalse(closedWhileReading.get());
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Checks that PcapParser.readBatch() fills a PacketBatch with the same values getPacket() decodes.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PacketBatchTest extends TestCase {
+
+    private static final int packetCount = 30;
+
+    private File capture;
+    private List<BasicPacket> packets;
+
+    /**
+     * TCP and UDP packets with growing payloads, every third one carrying a VLAN tag.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++) {
+            int src = Captures.ip(10, 0, 0, i);
+            int dst = Captures.ip(192, 168, 1, i);
+            if (i % 2 == 0)
+                frames[i] = Captures.tcp(src, dst, 2000 + i, 80, i * 1000L, 0x18, Captures.bytes(i, i * 10));
+            else
+                frames[i] = Captures.udp(src, dst, 3000 + i, 53, Captures.bytes(i, i * 10));
+            if (i % 3 == 0)
+                frames[i] = Captures.vlan(frames[i], 100 + i);
+        }
+        capture = Captures.write(frames);
+        packets = Captures.readAll(capture);
+        assertEquals(packetCount, packets.size());
+    }
+
+    private PcapParser open(){
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(capture.getPath()));
+        return pcapParser;
+    }
+
+    private static ByteBuffer payload(BasicPacket packet){
+        return packet instanceof TCPPacket ? ((TCPPacket) packet).getPayload() : ((UDPPacket) packet).getPayload();
+    }
+
+    private static void assertEntry(BasicPacket packet, PacketBatch batch, int i){
+        IPPacket ip = (IPPacket) packet;
+        assertEquals(ip.getTimestamp(), batch.timestamps()[i]);
+        assertEquals(ip.getSrcIpv4(), batch.srcIpv4()[i]);
+        assertEquals(ip.getDstIpv4(), batch.dstIpv4()[i]);
+        assertEquals(4, batch.ipVersions()[i]);
+        if (packet instanceof TCPPacket) {
+            TCPPacket tcp = (TCPPacket) packet;
+            assertEquals(Captures.protoTCP, batch.protocols()[i]);
+            assertEquals(tcp.getSrc_port(), batch.srcPorts()[i]);
+            assertEquals(tcp.getDst_port(), batch.dstPorts()[i]);
+            assertEquals(tcp.getFlagBits(), batch.tcpFlags()[i]);
+        } else {
+            UDPPacket udp = (UDPPacket) packet;
+            assertEquals(Captures.protoUDP, batch.protocols()[i]);
+            assertEquals(udp.getSrc_port(), batch.srcPorts()[i]);
+            assertEquals(udp.getDst_port(), batch.dstPorts()[i]);
+        }
+        ByteBuffer expected = payload(packet);
+        int end = batch.frameOffsets()[i] + batch.caplens()[i];
+        ByteBuffer actual = ByteBuffer.wrap(batch.data(), batch.payloadOffsets()[i], end - batch.payloadOffsets()[i]);
+        assertEquals(expected, actual);
+    }
+
+    public void testBatchesMatchPackets(){
+        PcapParser pcapParser = open();
+        PacketBatch batch = new PacketBatch(7, 1 << 16);
+        int read = 0;
+        int size;
+        while ((size = pcapParser.readBatch(batch)) > 0) {
+            assertTrue(size <= 7);
+            for (int i = 0; i < size; i++)
+                assertEntry(packets.get(read + i), batch, i);
+            read += size;
+        }
+        assertEquals(packetCount, read);
+        pcapParser.closeFile();
+    }
+
+    /**
+     * Packets that do not fit in the data space are left for the next batch, and a packet larger
+     * than the whole data space still gets a batch of its own.
+     */
+    public void testSmallDataCapacity(){
+        PcapParser pcapParser = open();
+        PacketBatch batch = new PacketBatch(100, 200);
+        int read = 0;
+        int size;
+        while ((size = pcapParser.readBatch(batch)) > 0) {
+            int used = 0;
+            for (int i = 0; i < size; i++) {
+                assertEntry(packets.get(read + i), batch, i);
+                used += batch.caplens()[i];
+            }
+            assertTrue(size == 1 || used <= 200);
+            read += size;
+        }
+        assertEquals(packetCount, read);
+        pcapParser.closeFile();
+    }
+
+    public void testFilteredBatch(){
+        PcapParser pcapParser = open();
+        assertEquals(0, pcapParser.setFilter("udp"));
+        PacketBatch batch = new PacketBatch();
+        assertEquals(packetCount / 2, pcapParser.readBatch(batch));
+        for (int i = 0; i < batch.size(); i++)
+            assertEntry(packets.get(2 * i + 1), batch, i);
+        assertEquals(0, pcapParser.readBatch(batch));
+        pcapParser.closeFile();
+    }
+}
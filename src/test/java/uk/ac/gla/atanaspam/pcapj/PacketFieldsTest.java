@@ -0,0 +1,113 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * Checks that the packet objects keep their header fields as primitives and that the object
+ * accessors and setters stay consistent with them.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PacketFieldsTest extends TestCase {
+
+    private static final int src = Captures.ip(192, 168, 1, 200);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+
+    public void testDecodedFields() throws Exception {
+        List<BasicPacket> packets = Captures.readAll(Captures.write(
+                Captures.tcp(src, dst, 65535, 80, 0xFFFFFFFEL, 0x12, Captures.bytes(0, 4)),
+                Captures.udp(dst, src, 53, 40000, Captures.bytes(0, 4))));
+        TCPPacket tcp = (TCPPacket) packets.get(0);
+        assertEquals(src, tcp.getSrcIpv4());
+        assertEquals(dst, tcp.getDstIpv4());
+        assertFalse(tcp.isIPv6());
+        assertEquals(0L, tcp.getSrcIpv6High());
+        assertEquals(0x001122334455L, tcp.getDstMac());
+        assertEquals(0x0066778899AAL, tcp.getSrcMac());
+        assertEquals(-1, tcp.getVlanId());
+        assertEquals(65535, tcp.getSrc_port());
+        assertEquals(80, tcp.getDst_port());
+        assertEquals(0xFFFFFFFEL, tcp.getSeqNum());
+        assertEquals(0x12, tcp.getFlagBits());
+        assertSame(TCPFlags.valueOf((byte) 0x12), tcp.getFlags());
+
+        // the objects are only created when they are asked for, and then kept
+        InetAddress address = tcp.getSrc_ip();
+        assertEquals(InetAddress.getByName("192.168.1.200"), address);
+        assertSame(address, tcp.getSrc_ip());
+        assertEquals(InetAddress.getByName("10.0.0.2"), tcp.getDst_ip());
+        assertEquals("00:11:22:33:44:55", tcp.getDestMacAddress());
+        assertEquals("00:66:77:88:99:AA", tcp.getSourceMacAddress());
+        assertSame(tcp.getSourceMacAddress(), tcp.getSourceMacAddress());
+
+        UDPPacket udp = (UDPPacket) packets.get(1);
+        assertEquals(dst, udp.getSrcIpv4());
+        assertEquals(src, udp.getDstIpv4());
+        assertEquals(53, udp.getSrc_port());
+        assertEquals(40000, udp.getDst_port());
+    }
+
+    public void testSettersUpdatePrimitives() throws Exception {
+        IPPacket packet = new IPPacket(0);
+        packet.setSrc_ip(InetAddress.getByName("1.2.3.4"));
+        packet.setDst_ip(InetAddress.getByName("255.255.255.255"));
+        packet.setSourceMacAddress("AA:BB:CC:DD:EE:FF");
+        packet.setDestMacAddress("not a mac address");
+        assertEquals(Captures.ip(1, 2, 3, 4), packet.getSrcIpv4());
+        assertEquals(-1, packet.getDstIpv4());
+        assertEquals(0xAABBCCDDEEFFL, packet.getSrcMac());
+        assertEquals(0, packet.getDstMac());
+
+        packet.setSrc_ip(InetAddress.getByName("2001:db8::1"));
+        assertTrue(packet.isIPv6());
+        assertEquals(0, packet.getSrcIpv4());
+        assertEquals(0x20010DB800000000L, packet.getSrcIpv6High());
+        assertEquals(1, packet.getSrcIpv6Low());
+    }
+
+    /**
+     * The constructors used by programs that build packets themselves fill the same fields.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBuiltPackets() throws Exception {
+        InetAddress a = InetAddress.getByName("10.1.2.3");
+        InetAddress b = InetAddress.getByName("10.3.2.1");
+        TCPFlags flags = new TCPFlags(false, false, false, true, true, false, false, true);
+        TCPPacket tcp = new TCPPacket(5000, "00:00:00:00:00:01", "00:00:00:00:00:02", a, b, 1, 2, flags,
+                new PacketContents(new byte[3]));
+        assertEquals(Captures.ip(10, 1, 2, 3), tcp.getSrcIpv4());
+        assertEquals(Captures.ip(10, 3, 2, 1), tcp.getDstIpv4());
+        assertEquals(1, tcp.getSrcMac());
+        assertEquals(2, tcp.getDstMac());
+        assertEquals(0x19, tcp.getFlagBits());
+        assertEquals(5000, tcp.getTimestamp());
+
+        TCPPacket copy = new TCPPacket(tcp);
+        assertEquals(tcp.getSrcIpv4(), copy.getSrcIpv4());
+        assertEquals(tcp.getDstMac(), copy.getDstMac());
+        assertSame(tcp.getSrc_ip(), copy.getSrc_ip());
+
+        tcp.setFlags(null);
+        assertEquals(0, tcp.getFlagBits());
+    }
+
+    public void testFlags(){
+        for (int i = 0; i < 256; i++) {
+            TCPFlags flags = TCPFlags.valueOf((byte) i);
+            assertSame(flags, TCPFlags.valueOf((byte) i));
+            assertEquals((byte) i, flags.toByte());
+        }
+        boolean[] bits = {true, false, false, false, false, false, true, false};
+        assertEquals((byte) 0x82, new TCPFlags(bits).toByte());
+        try {
+            new TCPFlags(new boolean[7]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Checks the primitives and operators of the PacketFilter expression compiler.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PacketFilterTest extends TestCase {
+
+    private static final int a = Captures.ip(10, 0, 0, 1);
+    private static final int b = Captures.ip(192, 168, 1, 20);
+    private static final int syn = 0x02;
+    private static final int ack = 0x10;
+
+    private static final byte[] tcpSyn = Captures.tcp(a, b, 40000, 80, 1, syn, new byte[0]);
+    private static final byte[] tcpAck = Captures.tcp(b, a, 80, 40000, 2, ack, Captures.bytes(0, 20));
+    private static final byte[] udpDns = Captures.udp(a, b, 5353, 53, Captures.bytes(0, 12));
+    private static final byte[] icmp = Captures.ethernet(Captures.ipv4(a, b, 1, 0, 0, false, Captures.bytes(0, 8)));
+    private static final byte[] arp = Captures.ethernet(0x0806, new byte[28]);
+
+    private static boolean matches(String expression, byte[] frame){
+        return PacketFilter.compile(expression).matches(frame);
+    }
+
+    private static void assertInvalid(String expression){
+        try {
+            PacketFilter.compile(expression);
+            fail("Compiled '" + expression + "'");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testProtocols(){
+        assertTrue(matches("ip", tcpSyn));
+        assertTrue(matches("ip", icmp));
+        assertFalse(matches("ip", arp));
+        assertFalse(matches("ip6", tcpSyn));
+        assertTrue(matches("tcp", tcpSyn));
+        assertFalse(matches("tcp", udpDns));
+        assertTrue(matches("udp", udpDns));
+        assertTrue(matches("icmp", icmp));
+        assertFalse(matches("icmp", udpDns));
+        assertTrue(matches("proto 17", udpDns));
+        assertTrue(matches("proto tcp", tcpAck));
+        assertFalse(matches("proto 47", tcpAck));
+    }
+
+    public void testHostAndNet(){
+        assertTrue(matches("host 10.0.0.1", tcpSyn));
+        assertTrue(matches("host 10.0.0.1", tcpAck));
+        assertTrue(matches("src host 10.0.0.1", tcpSyn));
+        assertFalse(matches("src host 10.0.0.1", tcpAck));
+        assertTrue(matches("dst host 10.0.0.1", tcpAck));
+        assertFalse(matches("host 10.0.0.2", tcpSyn));
+        assertTrue(matches("net 192.168.0.0/16", tcpSyn));
+        assertTrue(matches("src net 192.168.1.0/24", tcpAck));
+        assertFalse(matches("src net 192.168.1.0/24", tcpSyn));
+        assertFalse(matches("net 192.168.2.0/24", tcpSyn));
+        assertTrue(matches("net 0.0.0.0/0", udpDns));
+        assertFalse(matches("host 10.0.0.1", arp));
+    }
+
+    public void testPorts(){
+        assertTrue(matches("port 80", tcpSyn));
+        assertTrue(matches("port 80", tcpAck));
+        assertTrue(matches("dst port 80", tcpSyn));
+        assertFalse(matches("dst port 80", tcpAck));
+        assertTrue(matches("src port 80", tcpAck));
+        assertTrue(matches("port 53", udpDns));
+        assertFalse(matches("port 53", icmp));
+        assertTrue(matches("portrange 50-60", udpDns));
+        assertTrue(matches("src portrange 5000-6000", udpDns));
+        assertFalse(matches("dst portrange 5000-6000", udpDns));
+    }
+
+    public void testPortsOfLaterFragmentsDoNotMatch(){
+        byte[] later = Captures.fragment(a, b, Captures.protoUDP, 7, 8, false, Captures.udpDatagram(53, 53, new byte[0]));
+        assertTrue(matches("udp", later));
+        assertFalse(matches("port 53", later));
+    }
+
+    public void testVlan(){
+        byte[] tagged = Captures.vlan(udpDns, 100);
+        assertTrue(matches("vlan", tagged));
+        assertTrue(matches("vlan 100", tagged));
+        assertFalse(matches("vlan 101", tagged));
+        assertFalse(matches("vlan", udpDns));
+        assertTrue(matches("vlan 100 and udp port 53 and host 10.0.0.1", tagged));
+    }
+
+    public void testTcpFlags(){
+        assertTrue(matches("tcpflags syn", tcpSyn));
+        assertFalse(matches("tcpflags syn", tcpAck));
+        assertTrue(matches("tcpflags syn|ack", tcpAck));
+        assertFalse(matches("tcpflags fin|rst", tcpSyn));
+        assertFalse(matches("tcpflags syn", udpDns));
+    }
+
+    public void testOperators(){
+        assertTrue(matches("tcp and port 80", tcpSyn));
+        assertTrue(matches("tcp && port 80", tcpSyn));
+        assertTrue(matches("tcp port 80", tcpSyn));
+        assertFalse(matches("tcp port 53", tcpSyn));
+        assertTrue(matches("tcp or udp", udpDns));
+        assertTrue(matches("icmp || udp", icmp));
+        assertTrue(matches("not tcp", udpDns));
+        assertFalse(matches("!tcp", tcpSyn));
+        assertTrue(matches("!(tcp or udp)", icmp));
+        assertFalse(matches("!(tcp or udp)", udpDns));
+        // and binds tighter than or
+        assertTrue(matches("udp or tcp and port 443", udpDns));
+        assertFalse(matches("(udp or tcp) and port 443", udpDns));
+        assertTrue(matches("TCP AND SRC HOST 10.0.0.1", tcpSyn));
+    }
+
+    public void testOffsetAndLength(){
+        byte[] buffer = new byte[tcpSyn.length + 10];
+        System.arraycopy(tcpSyn, 0, buffer, 10, tcpSyn.length);
+        PacketFilter filter = PacketFilter.compile("tcp port 80");
+        assertTrue(filter.matches(buffer, 10, tcpSyn.length));
+        // a frame cut off in the TCP header must not be read past its end
+        assertFalse(filter.matches(buffer, 10, 14 + 20 + 2));
+    }
+
+    public void testInvalidExpressions(){
+        assertInvalid(null);
+        assertInvalid("");
+        assertInvalid("host");
+        assertInvalid("host 10.0.0");
+        assertInvalid("host 10.0.0.256");
+        assertInvalid("net 10.0.0.0/33");
+        assertInvalid("port 65536");
+        assertInvalid("portrange 80");
+        assertInvalid("src tcp");
+        assertInvalid("tcpflags syn|bogus");
+        assertInvalid("(tcp or udp");
+        assertInvalid("tcp)");
+        assertInvalid("tcp and");
+        assertInvalid("bogus");
+    }
+
+    public void testParserFilter() throws Exception {
+        File file = Captures.write(tcpSyn, udpDns, icmp, tcpAck, arp);
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        assertEquals(-1, pcapParser.setFilter("port"));
+        assertEquals(0, pcapParser.setFilter("tcp or icmp"));
+        List<BasicPacket> packets = Captures.readAll(pcapParser);
+        assertEquals(3, packets.size());
+        assertTrue(packets.get(0) instanceof TCPPacket);
+        assertEquals(Captures.startTimestamp + 2000, ((IPPacket) packets.get(1)).getTimestamp());
+        assertTrue(packets.get(2) instanceof TCPPacket);
+        pcapParser.closeFile();
+    }
+}
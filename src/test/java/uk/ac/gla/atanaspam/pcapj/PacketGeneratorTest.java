@@ -0,0 +1,196 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the pattern of packets PacketGenerator returns, on one thread and on many.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PacketGeneratorTest extends TestCase {
+
+    private static final int packetCount = 10;
+
+    private PacketGenerator generator;
+
+    /**
+     * Loads packets with source ports 0 to 9, and a frame that is not IP and is left out.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        byte[][] frames = new byte[packetCount + 1][];
+        for (int i = 0; i < packetCount; i++)
+            frames[i] = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), i, 53, new byte[4]);
+        frames[packetCount] = Captures.ethernet(0x0806, new byte[28]);
+        File file = Captures.write(frames);
+        generator = new PacketGenerator(file.getPath(), false, false);
+    }
+
+    @SafeVarargs
+    private static <T> ArrayList<T> list(T... values){
+        return new ArrayList<T>(Arrays.asList(values));
+    }
+
+    private static boolean isAnomalous(BasicPacket packet){
+        return packet instanceof TCPPacket;
+    }
+
+    /**
+     * Sets anomalous packets whose destination port is always 1000 more than their source port.
+     */
+    private void setPorts(int anomalyPercent, Integer... srcPorts) throws Exception {
+        ArrayList<Integer> dstPorts = new ArrayList<Integer>();
+        for (int port : srcPorts)
+            dstPorts.add(port + 1000);
+        generator.set(list(InetAddress.getByName("10.9.9.9")), list(InetAddress.getByName("10.8.8.8")),
+                list(srcPorts), dstPorts, list(TCPFlags.valueOf((byte) 0x02)),
+                list(new PacketContents(new byte[2])), 3, anomalyPercent);
+    }
+
+    public void testDefaultPattern() throws Exception {
+        int previous = -1;
+        for (int i = 1; i <= 50; i++) {
+            BasicPacket packet = generator.getPacket();
+            if (i % 10 == 0) {
+                assertTrue(isAnomalous(packet));
+                TCPPacket tcp = (TCPPacket) packet;
+                assertEquals(InetAddress.getByName("192.168.1.1"), tcp.getSrc_ip());
+                assertEquals(InetAddress.getByName("192.168.0.1"), tcp.getDst_ip());
+                assertEquals(80, tcp.getSrc_port());
+                assertEquals(0x12, tcp.getFlagBits());
+            } else {
+                int port = ((UDPPacket) packet).getSrc_port();
+                if (previous >= 0)
+                    assertEquals((previous + 1) % packetCount, port);
+                previous = port;
+            }
+        }
+        assertEquals(5, generator.getAnomalousPacketsEmitted());
+    }
+
+    public void testSettings() throws Exception {
+        setPorts(50, 1, 2, 3);
+        List<Integer> ports = new ArrayList<Integer>();
+        for (int i = 0; i < 12; i++) {
+            BasicPacket packet = generator.getPacket();
+            if (i % 2 == 1) {
+                TCPPacket tcp = (TCPPacket) packet;
+                ports.add(tcp.getSrc_port());
+                assertEquals(tcp.getSrc_port() + 1000, tcp.getDst_port());
+                assertEquals(0x02, tcp.getFlagBits());
+                assertEquals(Captures.ip(10, 9, 9, 9), tcp.getSrcIpv4());
+            } else {
+                assertFalse(isAnomalous(packet));
+            }
+        }
+        assertEquals(list(1, 2, 3, 1, 2, 3), ports);
+
+        // percentage 1 turns the anomalies off
+        generator.setAnomalousTrafficPercentage(1);
+        for (int i = 0; i < 300; i++)
+            assertFalse(isAnomalous(generator.getPacket()));
+
+        // clear() starts from the first values again
+        generator.setAnomalousTrafficPercentage(100);
+        generator.clear();
+        TCPPacket tcp = (TCPPacket) generator.getPacket();
+        assertEquals(80, tcp.getSrc_port());
+        assertEquals(1, tcp.getData().getData().length);
+    }
+
+    public void testConfigure() throws Exception {
+        generator.setAnomalousTrafficPercentage(100);
+        generator.configure(new ArrayList<InetAddress>(), new ArrayList<InetAddress>(), list(8080),
+                new ArrayList<Integer>(), new ArrayList<boolean[]>(), 3, new ArrayList<PacketContents>());
+        TCPPacket tcp = (TCPPacket) generator.getPacket();
+        assertEquals(80, tcp.getSrc_port());
+        assertEquals(0x02, tcp.getFlagBits()); // a SYN flood
+        tcp = (TCPPacket) generator.getPacket();
+        assertEquals(8080, tcp.getSrc_port());
+
+        generator.configure(new ArrayList<InetAddress>(), new ArrayList<InetAddress>(), new ArrayList<Integer>(),
+                new ArrayList<Integer>(), new ArrayList<boolean[]>(), 0, new ArrayList<PacketContents>());
+        for (int i = 0; i < 300; i++)
+            assertFalse(isAnomalous(generator.getPacket()));
+    }
+
+    public void testInvalidSettings() throws Exception {
+        try {
+            generator.setAnomalousTrafficPercentage(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            setPorts(101, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            setPorts(50);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Every thread gets the whole pattern of its own, while the settings are changed under it.
+     */
+    public void testManyThreads() throws Exception {
+        setPorts(10, 1, 2, 3);
+        final int threadCount = 8;
+        final int perThread = 20000;
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final int[] anomalies = new int[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int previous = -1;
+                        for (int i = 1; i <= perThread; i++) {
+                            BasicPacket packet = generator.getPacket();
+                            if (isAnomalous(packet)) {
+                                TCPPacket tcp = (TCPPacket) packet;
+                                assertEquals(tcp.getSrc_port() + 1000, tcp.getDst_port());
+                                anomalies[thread]++;
+                            } else {
+                                int port = ((UDPPacket) packet).getSrc_port();
+                                if (previous >= 0)
+                                    assertEquals((previous + 1) % packetCount, port);
+                                previous = port;
+                            }
+                        }
+                        // a change of the settings starts the count towards the next anomaly again
+                        assertTrue(anomalies[thread] > 0 && anomalies[thread] <= perThread / 10);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int i = 0; i < 200; i++)
+            setPorts(10, i % 2 == 0 ? new Integer[] {5, 6} : new Integer[] {1, 2, 3});
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(new ArrayList<Throwable>(), failures);
+        long total = 0;
+        for (int count : anomalies)
+            total += count;
+        assertEquals(total, generator.getAnomalousPacketsEmitted());
+    }
+}
@@ -0,0 +1,130 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the payload of TCPPacket and UDPPacket is only copied out of the frame when
+ * getData() is called, and that getPayload() exposes it without copying.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PacketPayloadTest extends TestCase {
+
+    private static final int src = Captures.ip(10, 0, 0, 1);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+    private static final byte[] payload = Captures.bytes(0x40, 48);
+
+    private static List<BasicPacket> read(byte[]... frames) throws Exception {
+        return Captures.readAll(Captures.write(frames));
+    }
+
+    public void testTcpPayload() throws Exception {
+        TCPPacket packet = (TCPPacket) read(Captures.tcp(src, dst, 1, 2, 0, 0x18, payload)).get(0);
+        assertEquals(payload.length, packet.getPayloadLength());
+        ByteBuffer view = packet.getPayload();
+        assertTrue(view.isReadOnly());
+        assertEquals(0, view.position());
+        assertEquals(ByteBuffer.wrap(payload), view);
+        try {
+            view.put(0, (byte) 0);
+            fail();
+        } catch (ReadOnlyBufferException e) {
+            // expected
+        }
+
+        PacketContents data = packet.getData();
+        assertTrue(Arrays.equals(payload, data.getData()));
+        assertSame(data, packet.getData());
+        assertEquals(new String(payload, "UTF-8"), data.toString());
+    }
+
+    public void testUdpPayload() throws Exception {
+        UDPPacket packet = (UDPPacket) read(Captures.udp(src, dst, 1, 2, payload)).get(0);
+        assertEquals(payload.length, packet.getPayloadLength());
+        assertEquals(ByteBuffer.wrap(payload), packet.getPayload());
+        PacketContents data = packet.getData();
+        assertTrue(Arrays.equals(payload, data.getData()));
+        assertSame(data, packet.getData());
+    }
+
+    public void testEmptyAndTruncatedPayloads() throws Exception {
+        byte[] udp = Captures.udp(src, dst, 1, 2, new byte[0]);
+        List<BasicPacket> packets = read(
+                Captures.tcp(src, dst, 1, 2, 0, 0x02, new byte[0]),
+                udp,
+                // the UDP header itself is cut off after the ports, so the packet is reported as truncated
+                Arrays.copyOf(udp, udp.length - 4));
+        TCPPacket tcp = (TCPPacket) packets.get(0);
+        assertEquals(0, tcp.getPayloadLength());
+        assertEquals(0, tcp.getPayload().remaining());
+        assertEquals(0, tcp.getData().getData().length);
+        assertEquals(0, ((UDPPacket) packets.get(1)).getPayloadLength());
+        assertEquals(BasicPacket.class, packets.get(2).getClass());
+    }
+
+    /**
+     * Ethernet pads frames to 60 bytes and may add a trailer, neither of which is payload.
+     */
+    public void testPaddingIsNotPayload() throws Exception {
+        byte[] ack = Captures.tcp(src, dst, 1, 2, 100, 0x10, new byte[0]);
+        byte[] udp = Captures.udp(src, dst, 1, 2, Captures.bytes(1, 2));
+        byte[] trailer = Captures.tcp(src, dst, 1, 2, 100, 0x18, payload);
+        List<BasicPacket> packets = read(Arrays.copyOf(ack, 60), Arrays.copyOf(udp, 60),
+                Arrays.copyOf(trailer, trailer.length + 4));
+        TCPPacket tcp = (TCPPacket) packets.get(0);
+        assertEquals(0, tcp.getPayloadLength());
+        assertEquals(0, tcp.getPayload().remaining());
+        assertEquals(0, tcp.getData().getData().length);
+        UDPPacket datagram = (UDPPacket) packets.get(1);
+        assertEquals(2, datagram.getPayloadLength());
+        assertTrue(Arrays.equals(Captures.bytes(1, 2), datagram.getData().getData()));
+        tcp = (TCPPacket) packets.get(2);
+        assertEquals(ByteBuffer.wrap(payload), tcp.getPayload());
+
+        // the UDP length is used even if the IP datagram is longer
+        byte[] longer = Captures.ethernet(Captures.ipv4(src, dst, Captures.protoUDP, 0, 0, false,
+                Arrays.copyOf(Captures.udpDatagram(1, 2, Captures.bytes(1, 2)), 20)));
+        assertEquals(2, ((UDPPacket) read(longer).get(0)).getPayloadLength());
+    }
+
+    /**
+     * A total length of 0 is written by segmentation offload, and all the bytes captured are payload.
+     */
+    public void testZeroTotalLength() throws Exception {
+        byte[] frame = Captures.tcp(src, dst, 1, 2, 0, 0x18, payload);
+        frame[14 + 2] = 0;
+        frame[14 + 3] = 0;
+        assertEquals(payload.length, ((TCPPacket) read(frame).get(0)).getPayloadLength());
+    }
+
+    /**
+     * setData() replaces the payload taken from the frame.
+     */
+    public void testSetData() throws Exception {
+        TCPPacket tcp = (TCPPacket) read(Captures.tcp(src, dst, 1, 2, 0, 0x18, payload)).get(0);
+        byte[] replacement = {1, 2, 3};
+        tcp.setData(new PacketContents(replacement));
+        assertEquals(3, tcp.getPayloadLength());
+        assertEquals(ByteBuffer.wrap(replacement), tcp.getPayload());
+        assertSame(replacement, tcp.getData().getData());
+    }
+
+    /**
+     * Packets built without a frame and without data have no payload.
+     */
+    public void testBuiltPackets() throws Exception {
+        TCPPacket tcp = new TCPPacket(0, null, null, null, null, 1, 2, null, null);
+        assertEquals(0, tcp.getPayloadLength());
+        assertNull(tcp.getPayload());
+        assertNull(tcp.getData());
+        UDPPacket udp = new UDPPacket(0, null, null, null, null, 1, 2, new PacketContents(payload));
+        assertEquals(payload.length, udp.getPayloadLength());
+        assertEquals(ByteBuffer.wrap(payload), udp.getPayload());
+    }
+}
@@ -0,0 +1,165 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that PcapParser.stream() returns the packets in capture order, whether it is read
+ * sequentially or split into parts for a parallel stream.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PacketStreamTest extends TestCase {
+
+    /**
+     * Enough records of about 1KB for the file to be split into a few parts.
+     */
+    private static final int packetCount = 5000;
+
+    private static File capture;
+    private static List<Integer> ports;
+
+    @Override
+    protected void setUp() throws Exception {
+        if (capture != null)
+            return;
+        byte[][] frames = new byte[packetCount][];
+        ports = new ArrayList<Integer>();
+        for (int i = 0; i < packetCount; i++) {
+            frames[i] = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), i % 60000, 53,
+                    Captures.bytes(i, 900 + i % 200));
+            ports.add(i % 60000);
+        }
+        capture = Captures.write(frames);
+        assertTrue(capture.length() > 4 * PacketSpliterator.defaultSplitSize);
+    }
+
+    private static PcapParser open(File file){
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        return pcapParser;
+    }
+
+    private static List<Integer> srcPorts(List<BasicPacket> packets){
+        List<Integer> result = new ArrayList<Integer>();
+        for (BasicPacket packet : packets)
+            result.add(((UDPPacket) packet).getSrc_port());
+        return result;
+    }
+
+    public void testSequentialStream(){
+        PcapParser pcapParser = open(capture);
+        assertEquals(ports, srcPorts(pcapParser.stream().collect(Collectors.<BasicPacket>toList())));
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        pcapParser.closeFile();
+    }
+
+    /**
+     * The parts are decoded by parsers of their own, so the parser the stream was created from
+     * still starts at the first packet afterwards.
+     */
+    public void testParallelStream(){
+        PcapParser pcapParser = open(capture);
+        List<BasicPacket> packets = pcapParser.stream().parallel().collect(Collectors.<BasicPacket>toList());
+        assertEquals(ports, srcPorts(packets));
+        assertEquals(0, ((UDPPacket) pcapParser.getPacket()).getSrc_port());
+        pcapParser.closeFile();
+    }
+
+    public void testStreamAfterFirstPackets(){
+        PcapParser pcapParser = open(capture);
+        for (int i = 0; i < 10; i++)
+            pcapParser.getPacket();
+        List<BasicPacket> packets = pcapParser.stream().parallel().collect(Collectors.<BasicPacket>toList());
+        assertEquals(ports.subList(10, packetCount), srcPorts(packets));
+        pcapParser.closeFile();
+    }
+
+    public void testParallelStreamWithFilter(){
+        PcapParser pcapParser = open(capture);
+        assertEquals(0, pcapParser.setFilter("src port 100 or src port 4999"));
+        List<BasicPacket> packets = pcapParser.stream().parallel().collect(Collectors.<BasicPacket>toList());
+        List<Integer> expected = new ArrayList<Integer>();
+        expected.add(100);
+        expected.add(4999);
+        assertEquals(expected, srcPorts(packets));
+        pcapParser.closeFile();
+    }
+
+    /**
+     * A compressed capture can not be split on record boundaries, so it is split into arrays of
+     * packets read in order.
+     */
+    public void testParallelStreamOfCompressedCapture() throws Exception {
+        File compressed = Captures.temporaryFile(".pcap.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+        try {
+            out.write(Files.readAllBytes(capture.toPath()));
+        } finally {
+            out.close();
+        }
+        PcapParser pcapParser = open(compressed);
+        List<BasicPacket> packets = pcapParser.stream().parallel().collect(Collectors.<BasicPacket>toList());
+        assertEquals(ports, srcPorts(packets));
+        pcapParser.closeFile();
+    }
+
+    public void testSplits(){
+        PcapParser pcapParser = open(capture);
+        Spliterator<BasicPacket> suffix = new PacketSpliterator(pcapParser);
+        assertEquals(capture.length() - Utils.globalHeaderLength, suffix.estimateSize());
+        Spliterator<BasicPacket> prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        assertEquals(capture.length() - Utils.globalHeaderLength, prefix.estimateSize() + suffix.estimateSize());
+        assertTrue(prefix.hasCharacteristics(Spliterator.ORDERED));
+
+        final List<BasicPacket> packets = new ArrayList<BasicPacket>();
+        Consumer<BasicPacket> collector = new Consumer<BasicPacket>() {
+            @Override
+            public void accept(BasicPacket packet) {
+                packets.add(packet);
+            }
+        };
+        prefix.forEachRemaining(collector);
+        int prefixSize = packets.size();
+        assertTrue(prefixSize > 0 && prefixSize < packetCount);
+        suffix.forEachRemaining(collector);
+        assertEquals(ports, srcPorts(packets));
+        assertEquals(0, prefix.estimateSize());
+        assertNull(prefix.trySplit());
+        pcapParser.closeFile();
+    }
+
+    /**
+     * Once the first packet has been read the rest is split into arrays of packets.
+     */
+    public void testSplitAfterReading(){
+        PcapParser pcapParser = open(capture);
+        Spliterator<BasicPacket> suffix = new PacketSpliterator(pcapParser);
+        final List<BasicPacket> packets = new ArrayList<BasicPacket>();
+        Consumer<BasicPacket> collector = new Consumer<BasicPacket>() {
+            @Override
+            public void accept(BasicPacket packet) {
+                packets.add(packet);
+            }
+        };
+        assertTrue(suffix.tryAdvance(collector));
+        Spliterator<BasicPacket> prefix = suffix.trySplit();
+        assertEquals(PacketSpliterator.batchIncrement, prefix.estimateSize());
+        prefix.forEachRemaining(collector);
+        suffix.forEachRemaining(collector);
+        assertEquals(ports, srcPorts(packets));
+        pcapParser.closeFile();
+    }
+}
@@ -0,0 +1,205 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that PcapParser.nextPacket() positions a PacketView over each frame and that the view
+ * decodes the same values getPacket() does, while reusing its buffer.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PacketViewTest extends TestCase {
+
+    private static final int packetCount = 30;
+    private static final int src = Captures.ip(10, 0, 0, 1);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+
+    private static PcapParser open(File file){
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        return pcapParser;
+    }
+
+    private static void assertView(BasicPacket packet, PacketView view){
+        IPPacket ip = (IPPacket) packet;
+        assertEquals(ip.getTimestamp(), view.timestamp());
+        assertEquals(Utils.linkTypeEthernet, view.linkType());
+        assertEquals(Utils.etherTypeIPv4, view.etherType());
+        assertEquals(ip.getVlanId(), view.vlanId());
+        assertEquals(ip.getSrcMac(), view.srcMac());
+        assertEquals(ip.getDstMac(), view.dstMac());
+        assertTrue(view.isIPPacket());
+        assertFalse(view.isIPv6Packet());
+        assertFalse(view.isFragment());
+        assertEquals(20, view.ipHeaderLength());
+        assertEquals(ip.getSrcIpv4(), view.srcIpv4());
+        assertEquals(ip.getDstIpv4(), view.dstIpv4());
+        ByteBuffer payload;
+        if (packet instanceof TCPPacket) {
+            TCPPacket tcp = (TCPPacket) packet;
+            assertTrue(view.isTCPPacket());
+            assertFalse(view.isUDPPacket());
+            assertEquals(Captures.protoTCP, view.protocol());
+            assertEquals(tcp.getSrc_port(), view.srcPort());
+            assertEquals(tcp.getDst_port(), view.dstPort());
+            assertEquals(tcp.getSeqNum(), view.seqNum());
+            assertEquals(tcp.getAckNum(), view.ackNum());
+            assertEquals(tcp.getFlagBits() & 0xFF, view.tcpFlags());
+            payload = tcp.getPayload();
+        } else {
+            UDPPacket udp = (UDPPacket) packet;
+            assertTrue(view.isUDPPacket());
+            assertFalse(view.isTCPPacket());
+            assertEquals(Captures.protoUDP, view.protocol());
+            assertEquals(udp.getSrc_port(), view.srcPort());
+            assertEquals(udp.getDst_port(), view.dstPort());
+            payload = udp.getPayload();
+        }
+        assertEquals(view.caplen(), view.payloadOffset() + view.payloadLength());
+        assertEquals(payload, ByteBuffer.wrap(view.array(), view.payloadOffset(), view.payloadLength()));
+    }
+
+    /**
+     * TCP and UDP packets with growing payloads, every third one carrying a VLAN tag.
+     */
+    public void testViewsMatchPackets() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++) {
+            if (i % 2 == 0)
+                frames[i] = Captures.tcp(src, dst + i, 2000 + i, 80, 0xFFFFFF00L + i * 1000L, 0x18 | i % 4,
+                        Captures.bytes(i, i * 10));
+            else
+                frames[i] = Captures.udp(dst + i, src, 3000 + i, 53, Captures.bytes(i, i * 10));
+            if (i % 3 == 0)
+                frames[i] = Captures.vlan(frames[i], 100 + i);
+        }
+        File file = Captures.write(frames);
+        List<BasicPacket> packets = Captures.readAll(file);
+        assertEquals(packetCount, packets.size());
+
+        PcapParser pcapParser = open(file);
+        PacketView view = new PacketView();
+        for (int i = 0; i < packetCount; i++) {
+            assertTrue(pcapParser.nextPacket(view));
+            assertEquals(frames[i].length, view.caplen());
+            assertEquals(i % 3 == 0 ? 18 : 14, view.networkOffset());
+            assertView(packets.get(i), view);
+        }
+        assertFalse(pcapParser.nextPacket(view));
+        pcapParser.closeFile();
+    }
+
+    /**
+     * The buffer is kept for frames that fit in it and only replaced by a larger one when needed.
+     */
+    public void testBufferIsReused() throws Exception {
+        File file = Captures.write(
+                Captures.udp(src, dst, 1, 53, Captures.bytes(0, 10)),
+                Captures.udp(src, dst, 2, 53, Captures.bytes(0, 1000)),
+                Captures.udp(src, dst, 3, 53, Captures.bytes(0, 9000)),
+                Captures.udp(src, dst, 4, 53, Captures.bytes(0, 10)));
+        PcapParser pcapParser = open(file);
+        PacketView view = new PacketView();
+        assertTrue(pcapParser.nextPacket(view));
+        byte[] buffer = view.array();
+        assertTrue(pcapParser.nextPacket(view));
+        assertSame(buffer, view.array());
+        assertEquals(2, view.srcPort());
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(3, view.srcPort());
+        assertEquals(9000, view.payloadLength());
+        assertTrue(view.array().length >= view.caplen());
+        buffer = view.array();
+        assertTrue(pcapParser.nextPacket(view));
+        assertSame(buffer, view.array());
+        assertEquals(4, view.srcPort());
+        assertEquals(10, view.payloadLength());
+        pcapParser.closeFile();
+    }
+
+    /**
+     * The padding of frames shorter than 60 bytes is not part of the payload.
+     */
+    public void testPaddedFrames() throws Exception {
+        File file = Captures.write(
+                Arrays.copyOf(Captures.tcp(src, dst, 1, 80, 100, 0x10, new byte[0]), 60),
+                Arrays.copyOf(Captures.udp(src, dst, 2, 53, Captures.bytes(0, 4)), 60));
+        List<BasicPacket> packets = Captures.readAll(file);
+        PcapParser pcapParser = open(file);
+        PacketView view = new PacketView();
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(0, view.payloadLength());
+        assertEquals(ByteBuffer.allocate(0), ((TCPPacket) packets.get(0)).getPayload());
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(4, view.payloadLength());
+        assertEquals(((UDPPacket) packets.get(1)).getPayload(),
+                ByteBuffer.wrap(view.array(), view.payloadOffset(), view.payloadLength()));
+        pcapParser.closeFile();
+    }
+
+    public void testOtherFrames() throws Exception {
+        byte[] truncated = Captures.udp(src, dst, 1, 2, new byte[0]);
+        File file = Captures.write(
+                Captures.ethernet(0x0806, new byte[28]), // ARP
+                Captures.fragment(src, dst, Captures.protoUDP, 3, 64, false, Captures.bytes(0, 16)),
+                Arrays.copyOf(truncated, 14 + 20 + 4));
+        PcapParser pcapParser = new PcapParser();
+        pcapParser.setReassembleFragments(false);
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(0x0806, view.etherType());
+        assertFalse(view.isIPPacket());
+        assertFalse(view.isTCPPacket());
+        assertFalse(view.isUDPPacket());
+
+        assertTrue(pcapParser.nextPacket(view));
+        assertTrue(view.isIPPacket());
+        assertTrue(view.isFragment());
+        assertEquals(64, view.fragmentOffset());
+        assertFalse(view.isUDPPacket());
+
+        assertTrue(pcapParser.nextPacket(view));
+        assertTrue(view.isIPPacket());
+        assertEquals(Captures.protoUDP, view.protocol());
+        assertFalse(view.isUDPPacket());
+        assertFalse(pcapParser.nextPacket(view));
+        pcapParser.closeFile();
+
+        file = Captures.write(Captures.linkTypeRaw, Captures.ipv4(src, dst, Captures.protoUDP, 0, 0, false,
+                Captures.udpDatagram(1, 2, new byte[4])));
+        pcapParser = open(file);
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(Captures.linkTypeRaw, view.linkType());
+        assertEquals(-1, view.etherType());
+        assertEquals(-1, view.vlanId());
+        assertFalse(view.isIPPacket());
+        pcapParser.closeFile();
+    }
+
+    /**
+     * Views and packet objects can be mixed while reading the same file.
+     */
+    public void testMixedWithGetPacket() throws Exception {
+        byte[][] frames = new byte[6][];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = Captures.udp(src, dst, 1000 + i, 53, Captures.bytes(i, 20));
+        PcapParser pcapParser = open(Captures.write(frames));
+        PacketView view = new PacketView();
+        for (int i = 0; i < frames.length; i += 2) {
+            assertEquals(1000 + i, ((UDPPacket) pcapParser.getPacket()).getSrc_port());
+            assertTrue(pcapParser.nextPacket(view));
+            assertEquals(1000 + i + 1, view.srcPort());
+        }
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        assertFalse(pcapParser.nextPacket(view));
+        pcapParser.closeFile();
+    }
+}
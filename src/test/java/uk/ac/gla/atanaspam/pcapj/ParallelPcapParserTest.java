@@ -0,0 +1,75 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that ParallelPcapParser returns the same packets as a sequential PcapParser.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class ParallelPcapParserTest extends TestCase {
+
+    private static final int packetCount = 40;
+
+    private static List<BasicPacket> parse(ParallelPcapParser parallel){
+        final List<BasicPacket> packets = new ArrayList<BasicPacket>();
+        parallel.setOrdered(true);
+        parallel.setParallelism(4);
+        parallel.setChunkSize(256); // a few records per worker
+        long count = parallel.parse(new PacketHandler() {
+            @Override
+            public void handle(BasicPacket packet) {
+                packets.add(packet);
+            }
+        });
+        assertEquals(packets.size(), count);
+        return packets;
+    }
+
+    public void testEthernetMatchesSequential() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++)
+            frames[i] = Captures.tcp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1024 + i, 80, i, 0x10,
+                    Captures.bytes(i, i));
+        File file = Captures.write(frames);
+        List<BasicPacket> sequential = Captures.readAll(file);
+        List<BasicPacket> parallel = parse(new ParallelPcapParser(file.getPath()));
+        assertEquals(packetCount, parallel.size());
+        for (int i = 0; i < packetCount; i++)
+            assertEquals(sequential.get(i).toString(), parallel.get(i).toString());
+    }
+
+    /**
+     * The source addresses start with 8.0, which would read as the IPv4 EtherType if the packets
+     * were mistaken for Ethernet frames.
+     */
+    public void testRawIpIsNotDecodedAsEthernet() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++)
+            frames[i] = Captures.ipv4(Captures.ip(8, 0, 0, i), Captures.ip(10, 0, 0, 2), Captures.protoUDP, 0, 0,
+                    false, Captures.udpDatagram(53, 53, Captures.bytes(i, 40)));
+        File file = Captures.write(Captures.linkTypeRaw, frames);
+        List<BasicPacket> sequential = Captures.readAll(file);
+        List<BasicPacket> parallel = parse(new ParallelPcapParser(file.getPath()));
+        assertEquals(packetCount, sequential.size());
+        assertEquals(packetCount, parallel.size());
+        for (BasicPacket packet : parallel)
+            assertEquals(BasicPacket.class, packet.getClass());
+    }
+
+    public void testFilterOnlyMatchesEthernet() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++)
+            frames[i] = Captures.ipv4(Captures.ip(8, 0, 0, i), Captures.ip(10, 0, 0, 2), Captures.protoUDP, 0, 0,
+                    false, Captures.udpDatagram(53, 53, Captures.bytes(i, 40)));
+        File file = Captures.write(Captures.linkTypeRaw, frames);
+        ParallelPcapParser parallel = new ParallelPcapParser(file.getPath());
+        parallel.setFilter(PacketFilter.compile("ip"));
+        assertEquals(0, parse(parallel).size());
+    }
+}
@@ -0,0 +1,117 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Checks the measurements and the output of the --bench mode of Main.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class ParseProfilerTest extends TestCase {
+
+    private static final int packetCount = 40;
+
+    private File capture;
+    private PrintStream stdout;
+    private ByteArrayOutputStream output;
+
+    @Override
+    protected void setUp() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++) {
+            if (i % 4 == 0)
+                frames[i] = Captures.tcp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1000, 80, i, 0x10,
+                        Captures.bytes(i, 100));
+            else
+                frames[i] = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1000, 53,
+                        Captures.bytes(i, 100));
+        }
+        capture = Captures.write(frames);
+        stdout = System.out;
+        output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+    }
+
+    @Override
+    protected void tearDown(){
+        System.setOut(stdout);
+    }
+
+    private String printed() throws Exception {
+        return output.toString("UTF-8");
+    }
+
+    private static int lines(String text, String prefix){
+        int count = 0;
+        for (String line : text.split("\n")) {
+            if (line.startsWith(prefix))
+                count++;
+        }
+        return count;
+    }
+
+    public void testRun(){
+        ParseProfiler.Result result = new ParseProfiler(capture.getPath(), null).run();
+        assertEquals(packetCount, result.packets);
+        assertEquals(capture.length() - Utils.globalHeaderLength, result.bytes);
+        assertTrue(result.nanos > 0);
+        assertTrue(result.readNanos + result.decodeNanos <= result.nanos);
+        assertTrue(result.allocated != 0);
+        assertTrue(result.toString().startsWith(packetCount + " packets in "));
+
+        // the records skipped by the filter are read all the same
+        result = new ParseProfiler(capture.getPath(), PacketFilter.compile("tcp")).run();
+        assertEquals(packetCount / 4, result.packets);
+        assertEquals(capture.length() - Utils.globalHeaderLength, result.bytes);
+        assertNull(new ParseProfiler(capture.getPath() + ".missing", null).run());
+    }
+
+    public void testResultsAddUp(){
+        ParseProfiler.Result total = new ParseProfiler.Result();
+        total.allocated = 0;
+        ParseProfiler.Result result = new ParseProfiler.Result();
+        result.packets = 3;
+        result.bytes = 300;
+        result.nanos = 1000;
+        result.allocated = 90;
+        total.add(result);
+        total.add(result);
+        assertEquals(6, total.packets);
+        assertEquals(600, total.bytes);
+        assertEquals(2000, total.nanos);
+        assertEquals(180, total.allocated);
+        result.allocated = -1;
+        total.add(result);
+        assertEquals(-1, total.allocated);
+        assertTrue(total.toString().contains("n/a allocated/packet"));
+    }
+
+    public void testMain() throws Exception {
+        assertEquals(0, ParseProfiler.main(new String[] {"--bench", "--warmup", "2", "--runs", "3",
+                capture.getPath(), "udp"}, 1));
+        String text = printed();
+        assertEquals(2, lines(text, "warmup "));
+        assertEquals(3, lines(text, "run "));
+        assertEquals(1, lines(text, "all runs: " + 3 * (packetCount - packetCount / 4) + " packets"));
+    }
+
+    public void testInvalidArguments() throws Exception {
+        String usage = "Usage: --bench";
+        assertEquals(-1, ParseProfiler.main(new String[] {"--bench"}, 1));
+        assertEquals(-1, ParseProfiler.main(new String[] {"--bench", "-"}, 1));
+        assertEquals(-1, ParseProfiler.main(new String[] {"--bench", "--runs", "0", capture.getPath()}, 1));
+        assertEquals(-1, ParseProfiler.main(new String[] {"--bench", "--warmup", "x", capture.getPath()}, 1));
+        assertEquals(-1, ParseProfiler.main(new String[] {"--bench", capture.getPath(), "--runs"}, 1));
+        assertEquals(5, lines(printed(), usage));
+        assertEquals(-1, ParseProfiler.main(new String[] {"--bench", capture.getPath(), "port"}, 1));
+        assertEquals(1, lines(printed(), "Invalid filter"));
+        assertFalse(printed().contains("Failed to parse"));
+        assertEquals(-1, ParseProfiler.main(new String[] {"--bench", capture.getPath() + ".missing"}, 1));
+        assertTrue(printed().contains("Failed to parse"));
+    }
+}
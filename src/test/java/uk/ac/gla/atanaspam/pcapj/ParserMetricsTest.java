@@ -0,0 +1,225 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Checks what PcapParser counts in a ParserMetrics, and how the metrics are read.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class ParserMetricsTest extends TestCase {
+
+    private static final int src = Captures.ip(10, 0, 0, 1);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+    private static final int protoICMP = 1;
+    private static final int protoGRE = 47;
+
+    private static final byte[] tcp = Captures.tcp(src, dst, 1, 2, 0, 0x02, new byte[0]);
+    private static final byte[] udp = Captures.udp(src, dst, 1, 2, Captures.bytes(0, 100));
+    private static final byte[] icmp = Captures.ethernet(Captures.ipv4(src, dst, protoICMP, 0, 0, false, new byte[8]));
+    private static final byte[] gre = Captures.ethernet(Captures.ipv4(src, dst, protoGRE, 0, 0, false, new byte[4]));
+    private static final byte[] laterFragment = Captures.fragment(src, dst, Captures.protoUDP, 5, 8, false,
+            Captures.bytes(0, 16));
+    private static final byte[] arp = Captures.ethernet(0x0806, new byte[28]);
+    private static final byte[] large = Captures.udp(src, dst, 1, 2, Captures.bytes(0, 5000));
+
+    private static PcapParser open(File file, ParserMetrics metrics){
+        PcapParser pcapParser = new PcapParser();
+        pcapParser.setMetrics(metrics);
+        assertSame(metrics, pcapParser.getMetrics());
+        pcapParser.setReassembleFragments(false);
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        return pcapParser;
+    }
+
+    public void testCounters() throws Exception {
+        ParserMetrics metrics = new ParserMetrics();
+        PcapParser pcapParser = open(Captures.write(tcp, udp, udp, icmp, gre, laterFragment, arp, large), metrics);
+        assertEquals(8, Captures.readAll(pcapParser).size());
+        pcapParser.closeFile();
+        ParserMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(8, snapshot.getPackets());
+        assertEquals(1, snapshot.getTcpPackets());
+        assertEquals(3, snapshot.getUdpPackets());
+        assertEquals(1, snapshot.getIcmpPackets());
+        assertEquals(2, snapshot.getOtherIpPackets());
+        assertEquals(1, snapshot.getNonIpPackets());
+        assertEquals(tcp.length + 2 * udp.length + icmp.length + gre.length + laterFragment.length + arp.length +
+                large.length, snapshot.getBytes());
+        assertEquals(0, snapshot.getMalformedRecords());
+        assertEquals(0, snapshot.getTruncatedPackets());
+
+        long[] histogram = snapshot.getCaplenHistogram();
+        assertEquals(ParserMetrics.histogramBuckets, histogram.length);
+        assertEquals(5, histogram[0]); // up to 64 bytes
+        assertEquals(2, histogram[2]); // the UDP packets of 142 bytes
+        assertEquals(1, histogram[ParserMetrics.histogramBucket(large.length)]);
+        assertTrue(snapshot.toString().startsWith("packets=8 (tcp=1 udp=3 icmp=1 other ip=2 non-ip=1)"));
+        assertTrue(snapshot.toString().contains("caplen [<=64:5 <=256:2 <=8192:1]"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getPackets());
+        assertEquals(0, metrics.getBytes());
+        assertTrue(Arrays.equals(new long[ParserMetrics.histogramBuckets], metrics.getCaplenHistogram()));
+        assertEquals(8, snapshot.getPackets());
+    }
+
+    /**
+     * Only the packets that pass the filter are counted, and views and batches count the same way.
+     */
+    public void testFilteredViewsAndBatches() throws Exception {
+        File file = Captures.write(tcp, udp, icmp, udp, arp);
+        ParserMetrics metrics = new ParserMetrics();
+        PcapParser pcapParser = open(file, metrics);
+        assertEquals(0, pcapParser.setFilter("udp"));
+        PacketView view = new PacketView();
+        while (pcapParser.nextPacket(view))
+            assertTrue(view.isUDPPacket());
+        pcapParser.closeFile();
+        assertEquals(2, metrics.getPackets());
+        assertEquals(2, metrics.getUdpPackets());
+
+        pcapParser = open(file, metrics);
+        assertEquals(5, pcapParser.readBatch(new PacketBatch()));
+        pcapParser.closeFile();
+        assertEquals(7, metrics.getPackets());
+        assertEquals(1, metrics.getNonIpPackets());
+    }
+
+    public void testErrors() throws Exception {
+        byte[] truncated = Arrays.copyOf(udp, 14 + 20 + 4);
+        byte[] capture = Files.readAllBytes(Captures.write(truncated, udp, large).toPath());
+        File file = Captures.temporaryFile(".pcap");
+        Captures.writeBytes(file, Arrays.copyOf(capture, capture.length - 5));
+        ParserMetrics metrics = new ParserMetrics();
+        PcapParser pcapParser = open(file, metrics);
+        assertEquals(BasicPacket.class, pcapParser.getPacket().getClass());
+        assertTrue(pcapParser.getPacket() instanceof UDPPacket);
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        pcapParser.closeFile();
+        assertEquals(2, metrics.getPackets());
+        assertEquals(1, metrics.getTruncatedPackets());
+        assertEquals(1, metrics.getMalformedRecords());
+        assertEquals(large.length, metrics.getSkippedBytes());
+    }
+
+    /**
+     * A pcapng file that turns out to be invalid is counted once, however often it is read from.
+     */
+    public void testMalformedPcapNg() throws Exception {
+        ByteBuffer pcapng = ByteBuffer.allocate(28 + 32).order(ByteOrder.LITTLE_ENDIAN);
+        pcapng.putInt(PcapNgReader.sectionHeaderBlock).putInt(28).putInt(0x1A2B3C4D);
+        pcapng.putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+        // an interface with a timestamp resolution of 10^-67 seconds
+        pcapng.putInt(PcapNgReader.interfaceDescriptionBlock).putInt(32).putShort((short) 1).putShort((short) 0);
+        pcapng.putInt(65535).putShort((short) 9).putShort((short) 1).put((byte) 67).put(new byte[3]);
+        pcapng.putInt(0).putInt(32);
+        File file = Captures.temporaryFile(".pcapng");
+        Captures.writeBytes(file, pcapng.array());
+        ParserMetrics metrics = new ParserMetrics();
+        PcapParser pcapParser = open(file, metrics);
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        pcapParser.closeFile();
+        assertEquals(1, metrics.getMalformedRecords());
+    }
+
+    /**
+     * The parser waits for data at the end of a file in follow mode.
+     */
+    public void testReadStalls() throws Exception {
+        File file = Captures.temporaryFile(".pcap");
+        Captures.writeBytes(file, Arrays.copyOf(Files.readAllBytes(Captures.write(udp).toPath()),
+                Utils.globalHeaderLength));
+        ParserMetrics metrics = new ParserMetrics();
+        final PcapParser pcapParser = new PcapParser();
+        pcapParser.setMetrics(metrics);
+        pcapParser.setFollow(true);
+        pcapParser.setFollowInterval(5);
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pcapParser.getPacket();
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        pcapParser.setFollow(false);
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        pcapParser.closeFile();
+        assertTrue(metrics.getReadStalls() > 0);
+        assertEquals(0, metrics.getPackets());
+    }
+
+    /**
+     * The parts of a parallel stream count into the metrics of the parser it was created from.
+     */
+    public void testSharedByParallelParts() throws Exception {
+        byte[][] frames = new byte[4000][];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = i % 2 == 0 ? large : tcp;
+        ParserMetrics metrics = new ParserMetrics();
+        PcapParser pcapParser = open(Captures.write(frames), metrics);
+        assertEquals(frames.length, pcapParser.stream().parallel().collect(Collectors.<BasicPacket>toList()).size());
+        pcapParser.closeFile();
+        assertEquals(frames.length, metrics.getPackets());
+        assertEquals(frames.length / 2, metrics.getTcpPackets());
+        assertEquals(frames.length / 2 * (long) (large.length + tcp.length), metrics.getBytes());
+    }
+
+    public void testHistogramBuckets(){
+        assertEquals(0, ParserMetrics.histogramBucket(0));
+        assertEquals(0, ParserMetrics.histogramBucket(64));
+        assertEquals(1, ParserMetrics.histogramBucket(65));
+        assertEquals(1, ParserMetrics.histogramBucket(128));
+        assertEquals(2, ParserMetrics.histogramBucket(129));
+        assertEquals(ParserMetrics.histogramBuckets - 1, ParserMetrics.histogramBucket(Integer.MAX_VALUE));
+        for (int i = 0; i < ParserMetrics.histogramBuckets - 1; i++) {
+            assertEquals(i, ParserMetrics.histogramBucket(ParserMetrics.histogramBound(i)));
+            assertEquals(i + 1, ParserMetrics.histogramBucket(ParserMetrics.histogramBound(i) + 1));
+        }
+        assertEquals(Integer.MAX_VALUE, ParserMetrics.histogramBound(ParserMetrics.histogramBuckets - 1));
+        try {
+            ParserMetrics.histogramBound(ParserMetrics.histogramBuckets);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testJmx() throws Exception {
+        ParserMetrics metrics = new ParserMetrics();
+        PcapParser pcapParser = open(Captures.write(tcp, udp), metrics);
+        Captures.readAll(pcapParser);
+        pcapParser.closeFile();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ParserMetrics.objectNamePrefix + ObjectName.quote("test, parser"));
+        assertEquals(0, metrics.register("test, parser"));
+        assertTrue(server.isRegistered(name));
+        assertEquals(2L, server.getAttribute(name, "Packets"));
+        assertEquals(1L, server.getAttribute(name, "TcpPackets"));
+        // registering again replaces the previous registration
+        assertEquals(0, metrics.register("test, parser"));
+        // the name is already used by other metrics
+        assertEquals(-1, new ParserMetrics().register("test, parser"));
+        server.invoke(name, "reset", null, null);
+        assertEquals(0, metrics.getPackets());
+        metrics.unregister();
+        assertFalse(server.isRegistered(name));
+        metrics.unregister();
+    }
+}
@@ -0,0 +1,153 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the sidecar index and the seek methods of PcapParser that use it.
+ * The captures are indexed every few packets, so that seeking crosses several samples.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PcapIndexTest extends TestCase {
+
+    private static final int packetCount = 50;
+    private static final int interval = 4;
+    private static final int countOffset = 28; // in the sidecar
+    private static final int intervalOffset = 24;
+
+    private File capture;
+    private List<BasicPacket> packets;
+
+    @Override
+    protected void setUp() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++)
+            frames[i] = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1000 + i, 53,
+                    Captures.bytes(i, i % 7 * 10));
+        capture = Captures.write(frames);
+        PcapIndex.sidecar(capture).deleteOnExit();
+        packets = Captures.readAll(capture);
+        PcapIndex.build(capture, interval).save(capture);
+    }
+
+    private PcapParser open(){
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(capture.getPath()));
+        return pcapParser;
+    }
+
+    private static int srcPort(BasicPacket packet){
+        return ((UDPPacket) packet).getSrc_port();
+    }
+
+    private static long timestamp(BasicPacket packet){
+        return ((UDPPacket) packet).getTimestamp();
+    }
+
+    public void testBuildSamplesEveryInterval() throws Exception {
+        PcapIndex index = PcapIndex.load(capture);
+        assertNotNull(index);
+        assertEquals((packetCount + interval - 1) / interval, index.size());
+        assertEquals(Utils.globalHeaderLength, index.offset(0));
+        for (int i = 0; i < index.size(); i++)
+            assertEquals((long) i * interval, index.ordinal(i));
+        assertEquals(2, index.findPacket(2 * interval + 1));
+        assertEquals(index.size() - 1, index.findPacket(Long.MAX_VALUE));
+    }
+
+    public void testSeekToEveryPacket(){
+        PcapParser pcapParser = open();
+        for (int i = packetCount - 1; i >= 0; i--) {
+            assertEquals(0, pcapParser.seekToPacket(i));
+            assertEquals(srcPort(packets.get(i)), srcPort(pcapParser.getPacket()));
+        }
+        assertEquals(-1, pcapParser.seekToPacket(packetCount));
+        assertEquals(-1, pcapParser.seekToPacket(-1));
+        pcapParser.closeFile();
+    }
+
+    public void testSeekToTimestamp(){
+        PcapParser pcapParser = open();
+        for (int i = 0; i < packetCount; i++) {
+            long timestamp = timestamp(packets.get(i));
+            assertEquals(0, pcapParser.seekToTimestamp(timestamp));
+            assertEquals(timestamp, timestamp(pcapParser.getPacket()));
+            assertEquals(0, pcapParser.seekToTimestamp(timestamp - 1));
+            assertEquals(timestamp, timestamp(pcapParser.getPacket()));
+        }
+        assertEquals(0, pcapParser.seekToTimestamp(Long.MIN_VALUE));
+        assertEquals(srcPort(packets.get(0)), srcPort(pcapParser.getPacket()));
+        assertEquals(-1, pcapParser.seekToTimestamp(timestamp(packets.get(packetCount - 1)) + 1));
+        pcapParser.closeFile();
+    }
+
+    public void testFailedSeekKeepsThePosition(){
+        PcapParser pcapParser = open();
+        assertEquals(0, pcapParser.seekToPacket(10));
+        assertEquals(-1, pcapParser.seekToPacket(packetCount));
+        assertEquals(srcPort(packets.get(10)), srcPort(pcapParser.getPacket()));
+        assertEquals(-1, pcapParser.seekToTimestamp(timestamp(packets.get(packetCount - 1)) + 1));
+        assertEquals(srcPort(packets.get(11)), srcPort(pcapParser.getPacket()));
+        pcapParser.closeFile();
+    }
+
+    public void testStaleSidecarIsIgnored() throws Exception {
+        assertTrue(capture.setLastModified(capture.lastModified() - 10000));
+        assertNull(PcapIndex.load(capture));
+    }
+
+    private void corrupt(int offset, int value) throws Exception {
+        File sidecar = PcapIndex.sidecar(capture);
+        byte[] data = Files.readAllBytes(sidecar.toPath());
+        ByteBuffer.wrap(data).putInt(offset, value);
+        Captures.writeBytes(sidecar, data);
+    }
+
+    private void assertRebuilt(){
+        PcapParser pcapParser = open();
+        assertEquals(0, pcapParser.openIndex());
+        assertEquals(0, pcapParser.seekToPacket(packetCount - 1));
+        assertEquals(srcPort(packets.get(packetCount - 1)), srcPort(pcapParser.getPacket()));
+        pcapParser.closeFile();
+    }
+
+    public void testNegativeCountIsRebuilt() throws Exception {
+        corrupt(countOffset, -5);
+        assertNull(PcapIndex.load(capture));
+        assertRebuilt();
+        assertNotNull(PcapIndex.load(capture));
+    }
+
+    public void testHugeCountIsRebuilt() throws Exception {
+        corrupt(countOffset, Integer.MAX_VALUE);
+        assertNull(PcapIndex.load(capture));
+        assertRebuilt();
+    }
+
+    public void testZeroIntervalIsRebuilt() throws Exception {
+        corrupt(intervalOffset, 0);
+        assertNull(PcapIndex.load(capture));
+        assertRebuilt();
+    }
+
+    public void testTruncatedSidecarIsRebuilt() throws Exception {
+        File sidecar = PcapIndex.sidecar(capture);
+        byte[] data = Files.readAllBytes(sidecar.toPath());
+        Captures.writeBytes(sidecar, Arrays.copyOf(data, data.length - 10));
+        assertNull(PcapIndex.load(capture));
+        assertRebuilt();
+    }
+
+    public void testBadOffsetIsRebuilt() throws Exception {
+        corrupt(32 + 4, Integer.MAX_VALUE); // low half of the first offset
+        assertNull(PcapIndex.load(capture));
+        assertRebuilt();
+    }
+}
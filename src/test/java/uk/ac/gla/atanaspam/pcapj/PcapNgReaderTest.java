@@ -0,0 +1,286 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that pcapng files are read through PcapParser, in both byte orders and with several
+ * interfaces, timestamp resolutions and block types.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PcapNgReaderTest extends TestCase {
+
+    private static final int src = Captures.ip(10, 0, 0, 1);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+    private static final long startMicros = Captures.startTimestamp * 1000;
+
+    /**
+     * Builds a pcapng file block by block.
+     */
+    private static final class PcapNg {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteOrder order;
+
+        PcapNg(ByteOrder order){
+            this.order = order;
+            sectionHeader();
+        }
+
+        private ByteBuffer allocate(int length){
+            return ByteBuffer.allocate(length).order(order);
+        }
+
+        private static int padded(int length){
+            return (length + 3) & ~3;
+        }
+
+        PcapNg block(int type, byte[] body){
+            int length = 12 + padded(body.length);
+            ByteBuffer block = allocate(length);
+            block.putInt(type).putInt(length).put(body);
+            block.putInt(length - 4, length);
+            out.write(block.array(), 0, length);
+            return this;
+        }
+
+        PcapNg sectionHeader(){
+            ByteBuffer body = allocate(16);
+            body.putInt(0x1A2B3C4D).putShort((short) 1).putShort((short) 0).putLong(-1);
+            return block(PcapNgReader.sectionHeaderBlock, body.array());
+        }
+
+        /**
+         * @return an option with its value padded to 32 bits.
+         */
+        byte[] option(int code, byte[] value){
+            ByteBuffer option = allocate(4 + padded(value.length));
+            option.putShort((short) code).putShort((short) value.length).put(value);
+            return option.array();
+        }
+
+        PcapNg interfaceDescription(int linkType, byte[]... options){
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            ByteBuffer fields = allocate(8);
+            fields.putShort((short) linkType).putShort((short) 0).putInt(65535);
+            body.write(fields.array(), 0, 8);
+            for (byte[] option : options)
+                body.write(option, 0, option.length);
+            if (options.length > 0)
+                body.write(new byte[4], 0, 4);
+            return block(PcapNgReader.interfaceDescriptionBlock, body.toByteArray());
+        }
+
+        PcapNg enhancedPacket(int interfaceId, long time, byte[] frame){
+            ByteBuffer body = allocate(20 + frame.length);
+            body.putInt(interfaceId).putInt((int) (time >>> 32)).putInt((int) time);
+            body.putInt(frame.length).putInt(frame.length).put(frame);
+            return block(PcapNgReader.enhancedPacketBlock, body.array());
+        }
+
+        PcapNg simplePacket(byte[] frame){
+            ByteBuffer body = allocate(4 + frame.length);
+            body.putInt(frame.length).put(frame);
+            return block(PcapNgReader.simplePacketBlock, body.array());
+        }
+
+        byte[] toByteArray(){
+            return out.toByteArray();
+        }
+
+        File write() throws Exception {
+            File file = Captures.temporaryFile(".pcapng");
+            Captures.writeBytes(file, toByteArray());
+            return file;
+        }
+    }
+
+    private static byte[] frame(int i){
+        return Captures.udp(src, dst, 1000 + i, 53, Captures.bytes(i, 10 + i));
+    }
+
+    private static PcapNg packets(ByteOrder order, int count){
+        PcapNg pcapng = new PcapNg(order).interfaceDescription(Utils.linkTypeEthernet);
+        for (int i = 0; i < count; i++)
+            pcapng.enhancedPacket(0, startMicros + i * 1000000L, frame(i));
+        return pcapng;
+    }
+
+    private static void assertPackets(List<BasicPacket> packets, int count){
+        assertEquals(count, packets.size());
+        for (int i = 0; i < count; i++) {
+            UDPPacket packet = (UDPPacket) packets.get(i);
+            assertEquals(1000 + i, packet.getSrc_port());
+            assertEquals(10 + i, packet.getPayloadLength());
+            assertEquals(Captures.startTimestamp + i * 1000L, packet.getTimestamp());
+        }
+    }
+
+    public void testLittleEndian() throws Exception {
+        File file = packets(ByteOrder.LITTLE_ENDIAN, 5).write();
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        assertTrue(pcapParser.isPcapNg());
+        assertPackets(Captures.readAll(pcapParser), 5);
+        pcapParser.closeFile();
+    }
+
+    public void testBigEndian() throws Exception {
+        assertPackets(Captures.readAll(packets(ByteOrder.BIG_ENDIAN, 5).write()), 5);
+    }
+
+    public void testSameAsPcap() throws Exception {
+        byte[][] frames = new byte[5][];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = frame(i);
+        List<BasicPacket> pcap = Captures.readAll(Captures.write(frames));
+        List<BasicPacket> pcapng = Captures.readAll(packets(ByteOrder.LITTLE_ENDIAN, 5).write());
+        for (int i = 0; i < frames.length; i++)
+            assertEquals(pcap.get(i).toString(), pcapng.get(i).toString());
+    }
+
+    public void testTimestampResolution() throws Exception {
+        PcapNg pcapng = new PcapNg(ByteOrder.LITTLE_ENDIAN);
+        pcapng.interfaceDescription(Utils.linkTypeEthernet, pcapng.option(9, new byte[]{9}));
+        pcapng.interfaceDescription(Utils.linkTypeEthernet, pcapng.option(9, new byte[]{(byte) 0x8A}));
+        pcapng.interfaceDescription(Utils.linkTypeEthernet, pcapng.option(9, new byte[]{3}),
+                pcapng.option(14, ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(100).array()));
+        pcapng.enhancedPacket(0, Captures.startTimestamp * 1000000 + 1500000, frame(0));
+        pcapng.enhancedPacket(1, (1500000000L << 10) | 512, frame(1));
+        pcapng.enhancedPacket(2, 2500, frame(2));
+        List<BasicPacket> packets = Captures.readAll(pcapng.write());
+        assertEquals(3, packets.size());
+        assertEquals(Captures.startTimestamp + 1, packets.get(0).getTimestamp());
+        assertEquals(Captures.startTimestamp + 500, packets.get(1).getTimestamp());
+        assertEquals(100 * 1000 + 2500, packets.get(2).getTimestamp());
+    }
+
+    /**
+     * Every packet is decoded with the link type of its own interface, and filters only apply to
+     * Ethernet frames.
+     */
+    public void testInterfacesWithDifferentLinkTypes() throws Exception {
+        PcapNg pcapng = new PcapNg(ByteOrder.LITTLE_ENDIAN)
+                .interfaceDescription(Utils.linkTypeEthernet)
+                .interfaceDescription(Captures.linkTypeRaw);
+        byte[] raw = Captures.ipv4(Captures.ip(8, 0, 0, 1), dst, Captures.protoUDP, 0, 0, false,
+                Captures.udpDatagram(53, 53, Captures.bytes(0, 10)));
+        pcapng.enhancedPacket(0, startMicros, frame(0));
+        pcapng.enhancedPacket(1, startMicros, raw);
+        pcapng.enhancedPacket(0, startMicros, frame(1));
+        File file = pcapng.write();
+        List<BasicPacket> packets = Captures.readAll(file);
+        assertEquals(3, packets.size());
+        assertTrue(packets.get(0) instanceof UDPPacket);
+        assertEquals(BasicPacket.class, packets.get(1).getClass());
+        assertTrue(packets.get(2) instanceof UDPPacket);
+
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        assertEquals(0, pcapParser.setFilter("udp"));
+        assertEquals(2, Captures.readAll(pcapParser).size());
+        pcapParser.closeFile();
+    }
+
+    public void testOtherBlocksAreSkipped() throws Exception {
+        PcapNg pcapng = packets(ByteOrder.LITTLE_ENDIAN, 1);
+        pcapng.block(4, new byte[8]); // name resolution
+        pcapng.block(0x00000BAD, Captures.bytes(0, 13)); // custom, padded
+        pcapng.simplePacket(frame(1));
+        pcapng.enhancedPacket(0, startMicros + 2000000, frame(2));
+        List<BasicPacket> packets = Captures.readAll(pcapng.write());
+        assertEquals(3, packets.size());
+        assertEquals(1001, ((UDPPacket) packets.get(1)).getSrc_port());
+        assertEquals(0, packets.get(1).getTimestamp());
+        assertEquals(Captures.startTimestamp + 2000, packets.get(2).getTimestamp());
+    }
+
+    /**
+     * A new section starts without interfaces and may use the other byte order.
+     */
+    public void testSections() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(packets(ByteOrder.LITTLE_ENDIAN, 2).toByteArray());
+        PcapNg second = new PcapNg(ByteOrder.BIG_ENDIAN).interfaceDescription(Captures.linkTypeRaw);
+        second.enhancedPacket(0, startMicros, Captures.ipv4(src, dst, Captures.protoUDP, 0, 0, false,
+                Captures.udpDatagram(53, 53, new byte[4])));
+        out.write(second.toByteArray());
+        File file = Captures.temporaryFile(".pcapng");
+        Captures.writeBytes(file, out.toByteArray());
+        List<BasicPacket> packets = Captures.readAll(file);
+        assertEquals(3, packets.size());
+        assertEquals(BasicPacket.class, packets.get(2).getClass());
+        assertEquals(Captures.startTimestamp, packets.get(2).getTimestamp());
+    }
+
+    public void testUnknownInterfaceEndsTheFile() throws Exception {
+        PcapNg pcapng = packets(ByteOrder.LITTLE_ENDIAN, 2);
+        pcapng.enhancedPacket(1, startMicros, frame(2));
+        pcapng.enhancedPacket(0, startMicros, frame(3));
+        assertEquals(2, Captures.readAll(pcapng.write()).size());
+    }
+
+    public void testInvalidBlockLengthEndsTheFile() throws Exception {
+        byte[] data = packets(ByteOrder.LITTLE_ENDIAN, 3).toByteArray();
+        int third = data.length - (12 + 20 + ((frame(2).length + 3) & ~3));
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).putInt(third + 4, 10);
+        File file = Captures.temporaryFile(".pcapng");
+        Captures.writeBytes(file, data);
+        assertEquals(2, Captures.readAll(file).size());
+    }
+
+    public void testFollowStopsAtAnInvalidBlock() throws Exception {
+        byte[] data = packets(ByteOrder.LITTLE_ENDIAN, 3).toByteArray();
+        int third = data.length - (12 + 20 + ((frame(2).length + 3) & ~3));
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).putInt(third + 4, 10);
+        File file = Captures.temporaryFile(".pcapng");
+        Captures.writeBytes(file, data);
+        PcapParser pcapParser = new PcapParser();
+        pcapParser.setFollow(true);
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        assertEquals(2, Captures.readAll(pcapParser).size());
+        pcapParser.closeFile();
+    }
+
+    /**
+     * Resolutions too fine for a timestamp to be converted to milliseconds end the file.
+     */
+    public void testInvalidTimestampResolutionEndsTheFile() throws Exception {
+        byte[][] resolutions = {{18}, {(byte) 0xBE}, {19}, {22}, {67}, {127}, {(byte) 0xBF}, {(byte) 0xFF}};
+        for (int i = 0; i < resolutions.length; i++) {
+            PcapNg pcapng = packets(ByteOrder.LITTLE_ENDIAN, 2);
+            pcapng.interfaceDescription(Utils.linkTypeEthernet, pcapng.option(9, resolutions[i]));
+            pcapng.enhancedPacket(1, startMicros, frame(2));
+            pcapng.enhancedPacket(0, startMicros, frame(3));
+            PcapParser pcapParser = new PcapParser();
+            assertEquals(0, pcapParser.openFile(pcapng.write().getPath()));
+            assertEquals(i < 2 ? 4 : 2, Captures.readAll(pcapParser).size());
+            assertSame(BasicPacket.EOF, pcapParser.getPacket());
+            pcapParser.closeFile();
+        }
+    }
+
+    /**
+     * pcapng blocks can not be decoded without the interface descriptions before them, so
+     * ParallelPcapParser refuses pcapng files.
+     */
+    public void testParallelParserRefusesPcapNg() throws Exception {
+        File file = packets(ByteOrder.LITTLE_ENDIAN, 20).write();
+        final List<BasicPacket> packets = new ArrayList<BasicPacket>();
+        long count = new ParallelPcapParser(file.getPath()).parse(new PacketHandler() {
+            @Override
+            public void handle(BasicPacket packet) {
+                packets.add(packet);
+            }
+        });
+        assertEquals(-1, count);
+        assertEquals(0, packets.size());
+    }
+}
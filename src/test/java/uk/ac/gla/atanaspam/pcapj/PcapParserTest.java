@@ -0,0 +1,271 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks how PcapParser opens and reads captures.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PcapParserTest extends TestCase {
+
+    /**
+     * More than the reader thread of a PipelinedInput buffers, so it only stops if it is closed.
+     */
+    private static final int unrecognisedLength = 16 << 20;
+
+    private static int readerThreads(){
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("pcapj-reader") && thread.isAlive())
+                count++;
+        }
+        return count;
+    }
+
+    private static void assertReaderThreads(int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && readerThreads() > expected; i++)
+            Thread.sleep(50);
+        assertEquals(expected, readerThreads());
+    }
+
+    public void testFailedOpenClosesGzipInput() throws Exception {
+        File file = Captures.temporaryFile(".pcap.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            out.write(new byte[unrecognisedLength]);
+        } finally {
+            out.close();
+        }
+        int before = readerThreads();
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(-1, pcapParser.openFile(file.getPath()));
+        assertReaderThreads(before);
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        assertEquals(-1, pcapParser.openIndex());
+        pcapParser.closeFile();
+    }
+
+    public void testFailedOpenClosesStream() throws Exception {
+        int before = readerThreads();
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(-1, pcapParser.openStream(new ByteArrayInputStream(new byte[unrecognisedLength])));
+        assertReaderThreads(before);
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        pcapParser.closeFile();
+    }
+
+    public void testParserCanBeReopenedAfterFailure() throws Exception {
+        File bad = Captures.temporaryFile(".pcap");
+        Captures.writeBytes(bad, new byte[Utils.globalHeaderLength]);
+        File good = Captures.write(Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 53, 53,
+                Captures.bytes(0, 8)));
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(-1, pcapParser.openFile(bad.getPath()));
+        assertEquals(0, pcapParser.openFile(good.getPath()));
+        assertEquals(1, Captures.readAll(pcapParser).size());
+        pcapParser.closeFile();
+    }
+
+    /**
+     * A small packet, a UDP datagram of 1200 bytes in two fragments, and another small packet.
+     * The datagram does not fit in a batch that already holds the first packet.
+     */
+    private static File fragmentedCapture() throws Exception {
+        int src = Captures.ip(10, 0, 0, 1);
+        int dst = Captures.ip(10, 0, 0, 2);
+        byte[] datagram = Captures.udpDatagram(5000, 53, Captures.bytes(0, 1192));
+        return Captures.write(
+                Captures.udp(src, dst, 1, 53, Captures.bytes(0, 16)),
+                Captures.fragment(src, dst, Captures.protoUDP, 7, 0, true, Arrays.copyOf(datagram, 800)),
+                Captures.fragment(src, dst, Captures.protoUDP, 7, 800, false,
+                        Arrays.copyOfRange(datagram, 800, datagram.length)),
+                Captures.udp(src, dst, 2, 53, Captures.bytes(0, 16)));
+    }
+
+    private static PcapParser openAfterFullBatch(File file){
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketBatch batch = new PacketBatch(16, 1000);
+        assertEquals(1, pcapParser.readBatch(batch));
+        assertEquals(1, batch.srcPorts()[0]);
+        return pcapParser;
+    }
+
+    public void testHeldDatagramIsReturnedByReadBatch() throws Exception {
+        PcapParser pcapParser = openAfterFullBatch(fragmentedCapture());
+        PacketBatch batch = new PacketBatch(16, 4000);
+        assertEquals(2, pcapParser.readBatch(batch));
+        assertEquals(5000, batch.srcPorts()[0]);
+        assertEquals(2, batch.srcPorts()[1]);
+        pcapParser.closeFile();
+    }
+
+    public void testHeldDatagramIsReturnedByGetPacket() throws Exception {
+        PcapParser pcapParser = openAfterFullBatch(fragmentedCapture());
+        UDPPacket datagram = (UDPPacket) pcapParser.getPacket();
+        assertEquals(5000, datagram.getSrc_port());
+        assertEquals(1192, datagram.getPayloadLength());
+        assertEquals(Captures.startTimestamp + 2000, datagram.getTimestamp());
+        assertEquals(2, ((UDPPacket) pcapParser.getPacket()).getSrc_port());
+        assertSame(BasicPacket.EOF, pcapParser.getPacket());
+        pcapParser.closeFile();
+    }
+
+    public void testHeldDatagramIsReturnedByNextPacket() throws Exception {
+        PcapParser pcapParser = openAfterFullBatch(fragmentedCapture());
+        PacketView view = new PacketView();
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(5000, view.srcPort());
+        assertEquals(14 + 20 + 1200, view.caplen());
+        assertEquals(Captures.startTimestamp + 2000, view.timestamp());
+        assertTrue(pcapParser.nextPacket(view));
+        assertEquals(2, view.srcPort());
+        assertFalse(pcapParser.nextPacket(view));
+        pcapParser.closeFile();
+    }
+
+    private static byte[][] udpFrames(int count){
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++)
+            frames[i] = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1000 + i, 53,
+                    Captures.bytes(i, 20 + i));
+        return frames;
+    }
+
+    private static void assertPorts(List<BasicPacket> packets, int count){
+        assertEquals(count, packets.size());
+        for (int i = 0; i < count; i++)
+            assertEquals(1000 + i, ((UDPPacket) packets.get(i)).getSrc_port());
+    }
+
+    public void testStream() throws Exception {
+        byte[] capture = Files.readAllBytes(Captures.write(udpFrames(10)).toPath());
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openStream(new ByteArrayInputStream(capture)));
+        assertPorts(Captures.readAll(pcapParser), 10);
+        assertEquals(-1, pcapParser.openIndex());
+        assertEquals(-1, pcapParser.seekToPacket(0));
+        pcapParser.closeFile();
+
+        assertEquals(0, pcapParser.openChannel(Channels.newChannel(new ByteArrayInputStream(capture))));
+        assertPorts(Captures.readAll(pcapParser), 10);
+        pcapParser.closeFile();
+    }
+
+    /**
+     * The packets before a record that was cut off are returned, then the end of the capture.
+     */
+    public void testTruncatedStream() throws Exception {
+        byte[] capture = Files.readAllBytes(Captures.write(udpFrames(3)).toPath());
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openStream(new ByteArrayInputStream(Arrays.copyOf(capture, capture.length - 5))));
+        assertPorts(Captures.readAll(pcapParser), 2);
+        pcapParser.closeFile();
+    }
+
+    /**
+     * A stream that delivers the capture a few bytes at a time, as a pipe would.
+     */
+    public void testSlowStream() throws Exception {
+        final byte[] capture = Files.readAllBytes(Captures.write(udpFrames(20)).toPath());
+        final PipedOutputStream out = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(out);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < capture.length; i += 7) {
+                        out.write(capture, i, Math.min(7, capture.length - i));
+                        out.flush();
+                        if (i % 140 == 0)
+                            Thread.sleep(1);
+                    }
+                    out.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openStream(in));
+        assertPorts(Captures.readAll(pcapParser), 20);
+        pcapParser.closeFile();
+        writer.join();
+    }
+
+    /**
+     * Reads a file while it is written in pieces that split record headers and frames.
+     */
+    public void testFollow() throws Exception {
+        final byte[] capture = Files.readAllBytes(Captures.write(udpFrames(30)).toPath());
+        final File file = Captures.temporaryFile(".pcap");
+        final OutputStream out = new FileOutputStream(file);
+        out.write(capture, 0, Utils.globalHeaderLength);
+        out.flush();
+
+        final PcapParser pcapParser = new PcapParser();
+        pcapParser.setFollow(true);
+        pcapParser.setFollowInterval(5);
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        final List<BasicPacket> packets = new ArrayList<BasicPacket>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 30; i++)
+                    packets.add(pcapParser.getPacket());
+            }
+        });
+        reader.start();
+        for (int i = Utils.globalHeaderLength; i < capture.length; i += 11) {
+            out.write(capture, i, Math.min(11, capture.length - i));
+            out.flush();
+            Thread.sleep(1);
+        }
+        out.close();
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertPorts(packets, 30);
+
+        // waits at the end of the file until follow mode is turned off
+        final BasicPacket[] last = new BasicPacket[1];
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                last[0] = pcapParser.getPacket();
+            }
+        });
+        waiting.start();
+        Thread.sleep(50);
+        assertTrue(waiting.isAlive());
+        pcapParser.setFollow(false);
+        waiting.join(10000);
+        assertFalse(waiting.isAlive());
+        assertSame(BasicPacket.EOF, last[0]);
+        pcapParser.closeFile();
+    }
+
+    public void testInvalidFollowInterval(){
+        try {
+            new PcapParser().setFollowInterval(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
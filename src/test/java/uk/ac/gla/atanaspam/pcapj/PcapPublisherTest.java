@@ -0,0 +1,120 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks demand, completion and the default executor of PcapPublisher.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PcapPublisherTest extends TestCase {
+
+    private static final int packetCount = 20;
+
+    /**
+     * Records every signal and requests a fixed number of items when subscribed.
+     */
+    private static final class Recorder<T> implements Flow.Subscriber<T> {
+        final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final long initialRequest;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        Recorder(long initialRequest){
+            this.initialRequest = initialRequest;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription){
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        public void onNext(T item){
+            threads.add(Thread.currentThread().getName());
+            items.add(item);
+        }
+
+        public void onError(Throwable throwable){
+            error = throwable;
+            done.countDown();
+        }
+
+        public void onComplete(){
+            completed = true;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static PcapParser open() throws Exception {
+        byte[][] frames = new byte[packetCount][];
+        for (int i = 0; i < packetCount; i++)
+            frames[i] = Captures.udp(Captures.ip(10, 0, 0, 1), Captures.ip(10, 0, 0, 2), 1000 + i, 53,
+                    Captures.bytes(i, 32));
+        File file = Captures.write(frames);
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        return pcapParser;
+    }
+
+    public void testPublishesEveryPacketOnItsOwnThread() throws Exception {
+        Recorder<BasicPacket> recorder = new Recorder<BasicPacket>(Long.MAX_VALUE);
+        PcapPublisher.packets(open()).subscribe(recorder);
+        recorder.await();
+        assertTrue(recorder.completed);
+        assertEquals(packetCount, recorder.items.size());
+        for (int i = 0; i < packetCount; i++)
+            assertEquals(1000 + i, ((UDPPacket) recorder.items.get(i)).getSrc_port());
+        for (String thread : recorder.threads)
+            assertEquals("pcapj-publisher", thread);
+    }
+
+    public void testReadsOnlyWhatWasRequested() throws Exception {
+        PcapParser pcapParser = open();
+        Recorder<BasicPacket> recorder = new Recorder<BasicPacket>(3);
+        PcapPublisher.packets(pcapParser).subscribe(recorder);
+        for (int i = 0; i < 100 && recorder.items.size() < 3; i++)
+            Thread.sleep(10);
+        Thread.sleep(100);
+        assertEquals(3, recorder.items.size());
+        assertFalse(recorder.completed);
+        recorder.subscription.request(Long.MAX_VALUE);
+        recorder.await();
+        assertEquals(packetCount, recorder.items.size());
+    }
+
+    public void testNonPositiveRequestIsAnError() throws Exception {
+        Recorder<BasicPacket> recorder = new Recorder<BasicPacket>(0);
+        PcapPublisher.packets(open()).subscribe(recorder);
+        recorder.await();
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertEquals(0, recorder.items.size());
+    }
+
+    public void testBatches() throws Exception {
+        Recorder<PacketBatch> recorder = new Recorder<PacketBatch>(Long.MAX_VALUE);
+        PcapPublisher.batches(open(), 6, 4096).subscribe(recorder);
+        recorder.await();
+        assertTrue(recorder.completed);
+        int total = 0;
+        for (PacketBatch batch : recorder.items)
+            total += batch.size();
+        assertEquals(packetCount, total);
+        assertEquals((packetCount + 5) / 6, recorder.items.size());
+    }
+}
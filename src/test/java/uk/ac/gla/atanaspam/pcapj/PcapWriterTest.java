@@ -0,0 +1,276 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that PcapWriter output reads back unchanged, including across buffers and rotated files.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class PcapWriterTest extends TestCase {
+
+    private static final int src = Captures.ip(10, 0, 0, 1);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("pcapj-test").toFile();
+    }
+
+    @Override
+    protected void tearDown(){
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    private static byte[] frame(int i){
+        return Captures.udp(src, dst, 1000 + i, 53, Captures.bytes(i, 100));
+    }
+
+    private static List<Integer> srcPorts(File file){
+        List<Integer> ports = new ArrayList<Integer>();
+        for (BasicPacket packet : Captures.readAll(file))
+            ports.add(((UDPPacket) packet).getSrc_port());
+        return ports;
+    }
+
+    /**
+     * Records larger than a buffer, and records that span two buffers, are written in order.
+     */
+    public void testSmallBuffers() throws Exception {
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter(64, 2);
+        assertEquals(0, writer.openFile(file.getPath()));
+        for (int i = 0; i < 20; i++)
+            assertEquals(0, writer.writePacket(frame(i), 0, frame(i).length, Captures.startTimestamp + i));
+        writer.closeFile();
+        List<BasicPacket> packets = Captures.readAll(file);
+        assertEquals(20, packets.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(1000 + i, ((UDPPacket) packets.get(i)).getSrc_port());
+            assertEquals(Captures.startTimestamp + i, ((IPPacket) packets.get(i)).getTimestamp());
+        }
+        assertEquals(Utils.globalHeaderLength + 20 * (16 + frame(0).length), file.length());
+    }
+
+    public void testNegativeTimestamp() throws Exception {
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter();
+        assertEquals(0, writer.openFile(file.getPath()));
+        assertEquals(0, writer.writePacket(frame(0), 0, frame(0).length, -1500));
+        writer.closeFile();
+        assertEquals(-1500, ((IPPacket) Captures.readAll(file).get(0)).getTimestamp());
+    }
+
+    public void testRotateBySize() throws Exception {
+        int recordSize = 16 + frame(0).length;
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter();
+        writer.setRotateSize(Utils.globalHeaderLength + 3 * recordSize);
+        assertEquals(0, writer.openFile(file.getPath()));
+        for (int i = 0; i < 10; i++)
+            assertEquals(0, writer.writePacket(frame(i), 0, frame(i).length, Captures.startTimestamp + i));
+        assertEquals(4, writer.getFileCount());
+        writer.closeFile();
+        assertEquals(4, writer.getFileCount());
+
+        assertEquals(Utils.globalHeaderLength + 3 * recordSize, file.length());
+        List<Integer> ports = srcPorts(file);
+        ports.addAll(srcPorts(new File(directory, "out.1.pcap")));
+        ports.addAll(srcPorts(new File(directory, "out.2.pcap")));
+        assertEquals(9, ports.size());
+        assertEquals(1, srcPorts(new File(directory, "out.3.pcap")).size());
+        for (int i = 0; i < ports.size(); i++)
+            assertEquals(1000 + i, (int) ports.get(i));
+    }
+
+    public void testOversizedRecordGetsAFileOfItsOwn() throws Exception {
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter();
+        writer.setRotateSize(50);
+        assertEquals(0, writer.openFile(file.getPath()));
+        for (int i = 0; i < 3; i++)
+            assertEquals(0, writer.writePacket(frame(i), 0, frame(i).length, Captures.startTimestamp));
+        writer.closeFile();
+        assertEquals(3, writer.getFileCount());
+        assertEquals(1, srcPorts(new File(directory, "out.2.pcap")).size());
+    }
+
+    /**
+     * Windows are aligned to multiples of the interval, not to the first packet.
+     */
+    public void testRotateByInterval() throws Exception {
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter();
+        writer.setRotateInterval(60000);
+        assertEquals(0, writer.openFile(file.getPath()));
+        long minute = Captures.startTimestamp - Captures.startTimestamp % 60000;
+        long[] timestamps = {minute + 59000, minute + 60000, minute + 61000, minute + 180000, minute + 180001};
+        for (int i = 0; i < timestamps.length; i++)
+            assertEquals(0, writer.writePacket(frame(i), 0, frame(i).length, timestamps[i]));
+        writer.closeFile();
+        assertEquals(3, writer.getFileCount());
+        assertEquals(1, srcPorts(file).size());
+        assertEquals(2, srcPorts(new File(directory, "out.1.pcap")).size());
+        assertEquals(2, srcPorts(new File(directory, "out.2.pcap")).size());
+        assertFalse(new File(directory, "out.3.pcap").exists());
+    }
+
+    public void testFileNames(){
+        PcapWriter writer = new PcapWriter();
+        File file = new File(directory, "capture");
+        assertEquals(0, writer.openFile(file.getPath()));
+        assertEquals(file.getPath(), writer.fileName(0));
+        assertEquals(file.getPath() + ".2", writer.fileName(2));
+        writer.closeFile();
+        File dotted = new File(new File(directory, "a.b"), "capture");
+        assertTrue(dotted.getParentFile().mkdir());
+        assertEquals(0, writer.openFile(dotted.getPath()));
+        assertEquals(dotted.getPath() + ".1", writer.fileName(1));
+        writer.closeFile();
+        assertEquals(0, writer.openFile(new File(directory, "x.pcap.tmp").getPath()));
+        assertEquals(new File(directory, "x.pcap.1.tmp").getPath(), writer.fileName(1));
+        writer.closeFile();
+        dotted.delete();
+        dotted.getParentFile().delete();
+    }
+
+    public void testInvalidSettings(){
+        PcapWriter writer = new PcapWriter();
+        try {
+            writer.setRotateSize(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            writer.setRotateInterval(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new PcapWriter(8, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(-1, writer.writePacket(frame(0), 0, frame(0).length, 0));
+        assertEquals(-1, writer.openFile(new File(directory, "missing/out.pcap").getPath()));
+    }
+
+    /**
+     * Frames that libpcap would refuse to read, or that are not within the array given, are not written.
+     */
+    public void testInvalidFrames() throws Exception {
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter();
+        assertEquals(0, writer.openFile(file.getPath()));
+        byte[] frame = frame(0);
+        assertEquals(-1, writer.writePacket(frame, 0, -1, 0));
+        assertEquals(-1, writer.writePacket(frame, 1, frame.length, 0));
+        assertEquals(-1, writer.writePacket(frame, -1, 10, 0));
+        assertEquals(-1, writer.writePacket(new byte[PcapWriter.defaultSnapLen + 1], 0, PcapWriter.defaultSnapLen + 1, 0));
+        assertEquals(0, writer.writePacket(new byte[PcapWriter.defaultSnapLen], 0, PcapWriter.defaultSnapLen, 0));
+
+        TCPPacket tcp = new TCPPacket(0, null, null, Utils.toInetAddress(src), Utils.toInetAddress(dst), 1, 2, null,
+                new PacketContents(new byte[0xFFFF - 40 + 1]));
+        assertEquals(-1, writer.writePacket(tcp));
+        UDPPacket udp = new UDPPacket(0, null, null, Utils.toInetAddress(src), Utils.toInetAddress(dst), 1, 2,
+                new PacketContents(new byte[0xFFFF - 28 - 18]));
+        assertEquals(0, writer.writePacket(udp));
+        writer.closeFile();
+        assertEquals(2, Captures.readAll(file).size());
+    }
+
+    /**
+     * Packet objects are rebuilt into frames that decode to the same fields.
+     */
+    public void testWritePacketObjects() throws Exception {
+        File original = Captures.write(
+                Captures.tcp(src, dst, 40000, 80, 123456789L, 0x18, Captures.bytes(0, 33)),
+                Captures.vlan(Captures.udp(dst, src, 53, 5353, Captures.bytes(7, 21)), 42),
+                Captures.tcp(src, dst, 40000, 80, 0xFFFFFFF0L, 0x02, new byte[0]),
+                // padded to the Ethernet minimum, which is not written back as payload
+                Arrays.copyOf(Captures.tcp(src, dst, 40000, 80, 1, 0x10, new byte[0]), 60),
+                Arrays.copyOf(Captures.udp(dst, src, 53, 5353, Captures.bytes(0, 3)), 60));
+        List<BasicPacket> packets = Captures.readAll(original);
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter();
+        assertEquals(0, writer.openFile(file.getPath()));
+        for (BasicPacket packet : packets)
+            assertEquals(0, writer.writePacket(packet));
+        writer.closeFile();
+        List<BasicPacket> written = Captures.readAll(file);
+        assertEquals(packets.size(), written.size());
+        for (int i = 0; i < packets.size(); i++)
+            assertEquals(packets.get(i).toString(), written.get(i).toString());
+        assertEquals(54, ((IPPacket) written.get(3)).getLength());
+        assertEquals(45, ((IPPacket) written.get(4)).getLength());
+
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+        while (pcapParser.nextPacket(view)) {
+            byte[] frame = view.array();
+            int network = view.networkOffset();
+            int transport = view.transportOffset();
+            assertEquals(0xFFFF, PcapWriter.checksum(frame, network, view.ipHeaderLength(), 0));
+            int length = view.caplen() - transport;
+            int sum = PcapWriter.checksum(frame, network + 12, 8, 0) + view.protocol() + length;
+            assertEquals(0xFFFF, PcapWriter.checksum(frame, transport, length, sum));
+        }
+        pcapParser.closeFile();
+    }
+
+    public void testWriteViewsAndBatches() throws Exception {
+        byte[][] frames = new byte[12][];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = frame(i);
+        File original = Captures.write(frames);
+        File file = new File(directory, "out.pcap");
+        PcapWriter writer = new PcapWriter();
+        assertEquals(0, writer.openFile(file.getPath()));
+
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(original.getPath()));
+        PacketView view = new PacketView();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pcapParser.nextPacket(view));
+            assertEquals(0, writer.writePacket(view));
+        }
+        PacketBatch batch = new PacketBatch(8, 1 << 16);
+        assertEquals(8, pcapParser.readBatch(batch));
+        assertEquals(0, writer.writeBatch(batch));
+        pcapParser.closeFile();
+        writer.closeFile();
+        assertTrue(Arrays.equals(Files.readAllBytes(original.toPath()), Files.readAllBytes(file.toPath())));
+    }
+
+    public void testViewOfOtherLinkTypeIsRefused() throws Exception {
+        File original = Captures.write(Captures.linkTypeRaw, Captures.ipv4(src, dst, Captures.protoUDP, 0, 0, false,
+                Captures.udpDatagram(1, 2, new byte[4])));
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(original.getPath()));
+        PacketView view = new PacketView();
+        assertTrue(pcapParser.nextPacket(view));
+        PcapWriter writer = new PcapWriter();
+        assertEquals(0, writer.openFile(new File(directory, "out.pcap").getPath()));
+        assertEquals(-1, writer.writePacket(view));
+        writer.closeFile();
+        pcapParser.closeFile();
+    }
+}
@@ -0,0 +1,356 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that TcpReassembler delivers every byte of both directions once and in order, and how it
+ * reports the holes it gives up on.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class TcpReassemblerTest extends TestCase {
+
+    private static final int client = Captures.ip(10, 0, 0, 1);
+    private static final int server = Captures.ip(10, 0, 0, 2);
+    private static final int clientPort = 40000;
+    private static final int serverPort = 80;
+    private static final int fin = 0x01;
+    private static final int syn = 0x02;
+    private static final int rst = 0x04;
+    private static final int ack = 0x10;
+    private static final byte[] request = Captures.bytes(0, 1000);
+    private static final byte[] response = Captures.bytes(100, 700);
+
+    /**
+     * Records the streams and events of every connection.
+     */
+    private static final class Recorder implements TcpStreamHandler {
+        final ByteArrayOutputStream fromClient = new ByteArrayOutputStream();
+        final ByteArrayOutputStream fromServer = new ByteArrayOutputStream();
+        final List<String> gaps = new ArrayList<String>();
+        final List<TcpConnection> closed = new ArrayList<TcpConnection>();
+
+        @Override
+        public void data(TcpConnection connection, boolean fromClient, ByteBuffer data){
+            assertFalse(closed.contains(connection));
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            (fromClient ? this.fromClient : this.fromServer).write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void gap(TcpConnection connection, boolean fromClient, long length){
+            gaps.add((fromClient ? "client " : "server ") + length);
+        }
+
+        @Override
+        public void close(TcpConnection connection){
+            assertFalse(closed.contains(connection));
+            closed.add(connection);
+        }
+    }
+
+    private Recorder recorder;
+    private TcpReassembler reassembler;
+    private long time;
+
+    @Override
+    protected void setUp(){
+        recorder = new Recorder();
+        reassembler = new TcpReassembler(recorder);
+        time = 0;
+    }
+
+    private void fromClient(long seq, int flags, byte[] payload){
+        reassembler.add(client, clientPort, server, serverPort, seq & 0xFFFFFFFFL, flags, ByteBuffer.wrap(payload), time++);
+    }
+
+    private void fromServer(long seq, int flags, byte[] payload){
+        reassembler.add(server, serverPort, client, clientPort, seq & 0xFFFFFFFFL, flags, ByteBuffer.wrap(payload), time++);
+    }
+
+    /**
+     * Sends request[from, to) from the client, whose initial sequence number is isn.
+     */
+    private void request(long isn, int from, int to){
+        fromClient(isn + 1 + from, ack, Arrays.copyOfRange(request, from, to));
+    }
+
+    private void handshake(long clientIsn, long serverIsn){
+        fromClient(clientIsn, syn, new byte[0]);
+        fromServer(serverIsn, syn | ack, new byte[0]);
+        fromClient(clientIsn + 1, ack, new byte[0]);
+    }
+
+    private static byte[] concat(byte[]... parts){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    public void testInOrder(){
+        handshake(1000, 5000);
+        request(1000, 0, 400);
+        request(1000, 400, 1000);
+        fromServer(5001, ack, response);
+        fromClient(2001, fin | ack, new byte[0]);
+        assertEquals(1, reassembler.getConnectionCount());
+        fromServer(5701, fin | ack, new byte[0]);
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+        assertTrue(Arrays.equals(response, recorder.fromServer.toByteArray()));
+        assertEquals(0, recorder.gaps.size());
+        assertEquals(1, recorder.closed.size());
+        assertEquals(0, reassembler.getConnectionCount());
+        TcpConnection connection = recorder.closed.get(0);
+        assertEquals(client, connection.getClientIpv4());
+        assertEquals(clientPort, connection.getClientPort());
+        assertEquals(server, connection.getServerIpv4());
+        assertEquals(serverPort, connection.getServerPort());
+    }
+
+    public void testOutOfOrder(){
+        handshake(1000, 5000);
+        request(1000, 600, 1000);
+        request(1000, 200, 600);
+        assertEquals(0, recorder.fromClient.size());
+        assertEquals(800, reassembler.getBufferedBytes());
+        request(1000, 0, 200);
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    /**
+     * A FIN that arrives before the data it follows only closes the direction once the data is in.
+     */
+    public void testEarlyFin(){
+        handshake(1000, 5000);
+        fromClient(2001, fin | ack, new byte[0]);
+        fromServer(5001, fin | ack, new byte[0]);
+        request(1000, 500, 1000);
+        assertEquals(0, recorder.closed.size());
+        request(1000, 0, 500);
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+        assertEquals(1, recorder.closed.size());
+    }
+
+    public void testRetransmissionsAndOverlaps(){
+        handshake(1000, 5000);
+        request(1000, 0, 300);
+        request(1000, 0, 300);
+        request(1000, 100, 200);
+        request(1000, 500, 700);
+        request(1000, 500, 700);
+        request(1000, 600, 800);
+        request(1000, 250, 550);
+        request(1000, 700, 1000);
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+        assertEquals(0, reassembler.getBufferedBytes());
+        assertEquals(0, recorder.gaps.size());
+    }
+
+    public void testSequenceNumbersWrapAround(){
+        long isn = 0xFFFFFE00L;
+        handshake(isn, 0xFFFFFFFFL);
+        for (int from = 900; from >= 0; from -= 100)
+            request(isn, from, from + 100);
+        fromServer(0, ack, response);
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+        assertTrue(Arrays.equals(response, recorder.fromServer.toByteArray()));
+    }
+
+    /**
+     * Without a SYN the sender of the first segment is taken as the client, unless it is a SYN-ACK.
+     */
+    public void testCaptureStartsMidConnection(){
+        fromServer(5001, ack, response);
+        request(1000, 0, 1000);
+        reassembler.flush();
+        assertEquals(server, recorder.closed.get(0).getClientIpv4());
+        assertTrue(Arrays.equals(request, recorder.fromServer.toByteArray()));
+
+        setUp();
+        fromServer(5000, syn | ack, new byte[0]);
+        request(1000, 0, 1000);
+        reassembler.flush();
+        assertEquals(client, recorder.closed.get(0).getClientIpv4());
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+    }
+
+    public void testHoleIsReportedOnFlush(){
+        handshake(1000, 5000);
+        request(1000, 0, 100);
+        request(1000, 300, 1000);
+        assertEquals(100, recorder.fromClient.size());
+        reassembler.flush();
+        assertEquals(Arrays.asList("client 200"), recorder.gaps);
+        assertTrue(Arrays.equals(concat(Arrays.copyOfRange(request, 0, 100), Arrays.copyOfRange(request, 300, 1000)),
+                recorder.fromClient.toByteArray()));
+        assertEquals(1, recorder.closed.size());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    public void testSegmentLimit(){
+        reassembler.setMaxSegments(2);
+        handshake(1000, 5000);
+        request(1000, 0, 100);
+        request(1000, 200, 300);
+        request(1000, 300, 400);
+        assertEquals(100, recorder.fromClient.size());
+        request(1000, 400, 500);
+        assertEquals(Arrays.asList("client 100"), recorder.gaps);
+        assertTrue(Arrays.equals(concat(Arrays.copyOfRange(request, 0, 100), Arrays.copyOfRange(request, 200, 500)),
+                recorder.fromClient.toByteArray()));
+        request(1000, 100, 200); // too late
+        assertEquals(400, recorder.fromClient.size());
+    }
+
+    public void testBufferedBytesLimit(){
+        reassembler.setMaxBufferedBytes(150);
+        handshake(1000, 5000);
+        request(1000, 200, 300);
+        request(1000, 400, 500);
+        assertEquals(Arrays.asList("client 200"), recorder.gaps);
+        assertEquals(100, recorder.fromClient.size());
+        assertEquals(100, reassembler.getBufferedBytes());
+        request(1000, 500, 800); // larger than the limit, skips to it
+        assertEquals(Arrays.asList("client 200", "client 100"), recorder.gaps);
+        assertEquals(500, recorder.fromClient.size());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    public void testMemoryLimit(){
+        reassembler.setMaxMemory(150);
+        handshake(1000, 5000);
+        request(1000, 0, 100);
+        request(1000, 200, 300);
+        assertEquals(0, recorder.gaps.size());
+        request(1000, 300, 400);
+        assertEquals(Arrays.asList("client 100"), recorder.gaps);
+        assertEquals(300, recorder.fromClient.size());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    public void testReset(){
+        handshake(1000, 5000);
+        request(1000, 0, 100);
+        request(1000, 200, 300);
+        fromServer(5001, rst, new byte[0]);
+        assertEquals(0, reassembler.getConnectionCount());
+        assertEquals(1, recorder.closed.size());
+        assertEquals(Arrays.asList("client 100"), recorder.gaps);
+        // a reset for a connection that is not tracked does not create one
+        fromServer(5001, rst, new byte[0]);
+        assertEquals(0, reassembler.getConnectionCount());
+    }
+
+    public void testLeastRecentlyActiveConnectionIsEvicted(){
+        reassembler.setMaxConnections(2);
+        reassembler.add(client, 1, server, 80, 0, syn, ByteBuffer.allocate(0), 0);
+        reassembler.add(client, 2, server, 80, 0, syn, ByteBuffer.allocate(0), 1);
+        reassembler.add(server, 80, client, 1, 0, syn | ack, ByteBuffer.allocate(0), 2);
+        reassembler.add(client, 3, server, 80, 0, syn, ByteBuffer.allocate(0), 3);
+        assertEquals(2, reassembler.getConnectionCount());
+        assertEquals(1, recorder.closed.size());
+        assertEquals(2, recorder.closed.get(0).getClientPort());
+    }
+
+    public void testIdleTimeout(){
+        reassembler.setIdleTimeout(100);
+        reassembler.add(client, 1, server, 80, 0, syn, ByteBuffer.allocate(0), 0);
+        reassembler.add(client, 2, server, 80, 0, syn, ByteBuffer.allocate(0), 50);
+        assertEquals(0, reassembler.expire(99));
+        assertEquals(1, reassembler.expire(100));
+        assertEquals(1, recorder.closed.get(0).getClientPort());
+        for (long t = 60; t <= 300; t += 10)
+            reassembler.add(client, 3, server, 80, 1, ack, ByteBuffer.allocate(0), t);
+        assertEquals(1, reassembler.getConnectionCount());
+        assertEquals(2, recorder.closed.get(1).getClientPort());
+    }
+
+    public void testInvalidSettings(){
+        try {
+            reassembler.setMaxConnections(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            reassembler.setMaxMemory(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new TcpReassembler(null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A pure ACK padded to the 60 byte Ethernet minimum carries no data, so the segment that
+     * follows it with the same sequence number is delivered whole.
+     */
+    public void testPaddedAck() throws Exception {
+        byte[] data = "helloworld".getBytes("UTF-8");
+        File file = Captures.write(
+                Arrays.copyOf(Captures.tcp(client, server, clientPort, serverPort, 100, ack, new byte[0]), 60),
+                Captures.tcp(client, server, clientPort, serverPort, 100, ack, data));
+        for (BasicPacket packet : Captures.readAll(file))
+            reassembler.add((TCPPacket) packet);
+        assertTrue(Arrays.equals(data, recorder.fromClient.toByteArray()));
+
+        setUp();
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+        while (pcapParser.nextPacket(view))
+            reassembler.add(view);
+        pcapParser.closeFile();
+        assertTrue(Arrays.equals(data, recorder.fromClient.toByteArray()));
+    }
+
+    /**
+     * Packet objects and views of the same capture give the same streams.
+     */
+    public void testFromCapture() throws Exception {
+        long isn = 0xFFFFFF80L;
+        List<byte[]> frames = new ArrayList<byte[]>();
+        frames.add(Captures.tcp(client, server, clientPort, serverPort, isn, syn, new byte[0]));
+        frames.add(Captures.tcp(server, client, serverPort, clientPort, 7000, syn | ack, new byte[0]));
+        for (int from = 800; from >= 0; from -= 200)
+            frames.add(Captures.tcp(client, server, clientPort, serverPort, (isn + 1 + from) & 0xFFFFFFFFL, ack,
+                    Arrays.copyOfRange(request, from, from + 200)));
+        frames.add(Captures.tcp(server, client, serverPort, clientPort, 7001, ack | fin, response));
+        frames.add(Captures.tcp(client, server, clientPort, serverPort, (isn + 1001) & 0xFFFFFFFFL, ack | fin,
+                new byte[0]));
+        File file = Captures.write(frames.toArray(new byte[0][]));
+
+        for (BasicPacket packet : Captures.readAll(file))
+            reassembler.add((TCPPacket) packet);
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+        assertTrue(Arrays.equals(response, recorder.fromServer.toByteArray()));
+        assertEquals(1, recorder.closed.size());
+
+        setUp();
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+        while (pcapParser.nextPacket(view))
+            reassembler.add(view);
+        pcapParser.closeFile();
+        assertTrue(Arrays.equals(request, recorder.fromClient.toByteArray()));
+        assertTrue(Arrays.equals(response, recorder.fromServer.toByteArray()));
+        assertEquals(1, recorder.closed.size());
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.gla.atanaspam.pcapj;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that VLAN tags are detected in every frame on its own, so tagged and untagged frames can
+ * be mixed and parsers with different settings do not affect each other.
+ * @author atanaspam
+ * @version 0.7
+ * @created 18/10/2026
+ */
+public class VlanTest extends TestCase {
+
+    private static final int src = Captures.ip(10, 0, 0, 1);
+    private static final int dst = Captures.ip(10, 0, 0, 2);
+
+    private static byte[] frame(int port){
+        return Captures.udp(src, dst, port, 53, Captures.bytes(port, 24));
+    }
+
+    /**
+     * @return the frame with an 802.1ad service tag outside an 802.1Q customer tag.
+     */
+    private static byte[] qinq(byte[] frame, int outer, int inner){
+        byte[] tagged = Captures.vlan(Captures.vlan(frame, inner), outer);
+        tagged[12] = (byte) 0x88;
+        tagged[13] = (byte) 0xA8;
+        return tagged;
+    }
+
+    private static final byte[] untagged = frame(1);
+    private static final byte[] tagged = Captures.vlan(frame(2), 100);
+    private static final byte[] doubleTagged = qinq(frame(3), 200, 300);
+
+    public void testOffsets(){
+        assertEquals(14, Utils.getNetworkOffset(untagged, untagged.length));
+        assertEquals(-1, Utils.getVlanId(untagged, untagged.length));
+        assertEquals(18, Utils.getNetworkOffset(tagged, tagged.length));
+        assertEquals(100, Utils.getVlanId(tagged, tagged.length));
+        assertEquals(22, Utils.getNetworkOffset(doubleTagged, doubleTagged.length));
+        assertEquals(200, Utils.getVlanId(doubleTagged, doubleTagged.length));
+        assertEquals(Utils.etherTypeIPv4, Utils.getEtherType(untagged, untagged.length));
+        assertEquals(Utils.etherTypeIPv4, Utils.getEtherType(tagged, tagged.length));
+        assertEquals(Utils.etherTypeIPv4, Utils.getEtherType(doubleTagged, doubleTagged.length));
+
+        byte[] legacy = Captures.vlan(frame(4), 5);
+        legacy[12] = (byte) 0x91;
+        assertEquals(18, Utils.getNetworkOffset(legacy, legacy.length));
+        assertEquals(5, Utils.getVlanId(legacy, legacy.length));
+        // the priority bits are not part of the ID
+        byte[] priority = Captures.vlan(frame(5), 0xE000 | 42);
+        assertEquals(42, Utils.getVlanId(priority, priority.length));
+        // a frame that ends inside its tag is not taken for IP
+        assertEquals(Utils.etherTypeVlan, Utils.getEtherType(tagged, 16));
+        assertEquals(-1, Utils.getVlanId(tagged, 16));
+    }
+
+    public void testMixedCapture() throws Exception {
+        File file = Captures.write(untagged, tagged, doubleTagged, untagged);
+        List<BasicPacket> packets = Captures.readAll(file);
+        assertEquals(4, packets.size());
+        int[] ports = {1, 2, 3, 1};
+        int[] vlans = {-1, 100, 200, -1};
+        for (int i = 0; i < ports.length; i++) {
+            UDPPacket packet = (UDPPacket) packets.get(i);
+            assertEquals(ports[i], packet.getSrc_port());
+            assertEquals(vlans[i], packet.getVlanId());
+            assertEquals(src, packet.getSrcIpv4());
+            assertEquals(24, packet.getPayloadLength());
+        }
+
+        PcapParser pcapParser = new PcapParser();
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        PacketView view = new PacketView();
+        for (int i = 0; i < ports.length; i++) {
+            assertTrue(pcapParser.nextPacket(view));
+            assertTrue(view.isUDPPacket());
+            assertEquals(ports[i], view.srcPort());
+            assertEquals(vlans[i], view.vlanId());
+        }
+        pcapParser.closeFile();
+    }
+
+    /**
+     * The deprecated setting no longer changes how frames are decoded.
+     */
+    @SuppressWarnings("deprecation")
+    public void testVlanEnabledHasNoEffect() throws Exception {
+        File file = Captures.write(untagged, tagged, doubleTagged);
+        List<BasicPacket> expected = Captures.readAll(file);
+        PcapParser pcapParser = new PcapParser();
+        pcapParser.setVlanEnabled(true);
+        assertTrue(pcapParser.getVlanEnabled());
+        assertEquals(0, pcapParser.openFile(file.getPath()));
+        List<BasicPacket> packets = Captures.readAll(pcapParser);
+        pcapParser.closeFile();
+        assertEquals(expected.size(), packets.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).toString(), packets.get(i).toString());
+        assertEquals(14, Utils.etherHeaderLength);
+        assertEquals(12, Utils.etherTypeOffset);
+    }
+
+    /**
+     * Parsers on several threads read a tagged and an untagged capture at the same time.
+     */
+    @SuppressWarnings("deprecation")
+    public void testConcurrentParsers() throws Exception {
+        byte[][] plain = new byte[500][];
+        byte[][] vlan = new byte[500][];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = frame(1000 + i);
+            vlan[i] = Captures.vlan(frame(1000 + i), 7);
+        }
+        final File[] files = {Captures.write(plain), Captures.write(vlan)};
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int which = t % 2;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < 5; round++) {
+                            PcapParser pcapParser = new PcapParser();
+                            pcapParser.setVlanEnabled(which == 1);
+                            assertEquals(0, pcapParser.openFile(files[which].getPath()));
+                            List<BasicPacket> packets = Captures.readAll(pcapParser);
+                            pcapParser.closeFile();
+                            assertEquals(500, packets.size());
+                            for (int i = 0; i < packets.size(); i++) {
+                                UDPPacket packet = (UDPPacket) packets.get(i);
+                                assertEquals(1000 + i, packet.getSrc_port());
+                                assertEquals(which == 1 ? 7 : -1, packet.getVlanId());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(new ArrayList<Throwable>(), failures);
+    }
+}